@@ -0,0 +1,87 @@
+package jshell;
+
+/**
+ * A Command whose name, arity, options and usage are given when it is
+ * made, so that only {@link #execute(JShell, Arguments, OutputSink)} is
+ * left to write.
+ *
+ * <pre>
+ * registry.register(new AbstractCommand("hello", 0, 1, "", "hello [NAME]") {
+ *     public void execute(JShell shell, Arguments args, OutputSink out)
+ *             throws Exception {
+ *         out.append("hello " + (args.size() == 0 ? "world" : args.get(0)));
+ *     }
+ * });
+ * </pre>
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public abstract class AbstractCommand implements Command {
+    /*
+     * The name of the command.
+     */
+    private final String name_;
+    /*
+     * The smallest number of parameters.
+     */
+    private final int minArgs_;
+    /*
+     * The largest number of parameters, or -1.
+     */
+    private final int maxArgs_;
+    /*
+     * The option letters, each followed by ':' if it takes a value.
+     */
+    private final String options_;
+    /*
+     * The message printed for the wrong number of parameters.
+     */
+    private final String usage_;
+
+    /**
+     * Creates a command.
+     *
+     * @param name the name the command is run by.
+     * @param minArgs the smallest number of parameters.
+     * @param maxArgs the largest number of parameters, or -1 for no limit.
+     * @param options the option letters, each followed by ':' if it takes
+     * a value.
+     * @param usage the message printed for the wrong number of parameters.
+     */
+    public AbstractCommand(String name, int minArgs, int maxArgs,
+            String options, String usage) {
+        name_ = name;
+        minArgs_ = minArgs;
+        maxArgs_ = maxArgs;
+        options_ = options;
+        usage_ = usage;
+    }
+
+    @Override
+    public String getName() {
+        return name_;
+    }
+
+    @Override
+    public int getMinArgs() {
+        return minArgs_;
+    }
+
+    @Override
+    public int getMaxArgs() {
+        return maxArgs_;
+    }
+
+    @Override
+    public String getOptions() {
+        return options_;
+    }
+
+    @Override
+    public String getUsage() {
+        return usage_;
+    }
+}
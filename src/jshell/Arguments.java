@@ -0,0 +1,222 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The options and parameters of a command line, checked against what the
+ * Command declares. The values of options are those the Lexer bound to
+ * them, as in "grep fatal -m 2 /log". When options were given apart from
+ * their values, the values are taken from the front of the parameters, in
+ * the order the options were given, so that "grep -m -e 2 fatal /log"
+ * gives -m the value 2 and -e the value fatal.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public final class Arguments {
+    /*
+     * The option letters given, in order.
+     */
+    private final String options_;
+    /*
+     * The parameters left once the option values were taken.
+     */
+    private final List<String> params_;
+    /*
+     * The values given to each option that takes one.
+     */
+    private final Map<Character, List<String>> values_;
+    /*
+     * The index of each parameter that was quoted.
+     */
+    private final BitSet quoted_;
+
+    /*
+     * Creates the arguments of a checked command line.
+     */
+    private Arguments(String options, List<String> params,
+            Map<Character, List<String>> values, BitSet quoted) {
+        options_ = options;
+        params_ = Collections.unmodifiableList(params);
+        values_ = values;
+        quoted_ = quoted;
+    }
+
+    /**
+     * Checks options and params against command and returns them parsed.
+     * params is not changed.
+     *
+     * @param command the Command to run.
+     * @param options the option letters given, in order.
+     * @param params the parameters given, redirection removed.
+     * @return the Arguments of command.
+     * @throws IllegalArgumentException if an option is not taken by
+     * command, has no value or the number of parameters is wrong, with the
+     * message to print.
+     */
+    public static Arguments parse(Command command, String options,
+            List<String> params) {
+        return parse(command, options, params, new BitSet());
+    }
+
+    /**
+     * Checks options and params against command and returns them parsed,
+     * knowing which of params were quoted. params is not changed.
+     *
+     * @param command the Command to run.
+     * @param options the option letters given, in order.
+     * @param params the parameters given, redirection removed.
+     * @param quoted the index of each of params that was quoted.
+     * @return the Arguments of command.
+     * @throws IllegalArgumentException if an option is not taken by
+     * command, has no value or the number of parameters is wrong, with the
+     * message to print.
+     */
+    public static Arguments parse(Command command, String options,
+            List<String> params, BitSet quoted) {
+        return parse(command, options, null, params, quoted);
+    }
+
+    /**
+     * Checks options, the values bound to them and params against command
+     * and returns them parsed. Neither list is changed.
+     *
+     * @param command the Command to run.
+     * @param options the option letters given, in order.
+     * @param values the values bound to the options that take one, in
+     * order, or null to take them from the front of params.
+     * @param params the parameters given, redirection removed.
+     * @param quoted the index of each of params that was quoted.
+     * @return the Arguments of command.
+     * @throws IllegalArgumentException if an option is not taken by
+     * command, has no value or the number of parameters is wrong, with the
+     * message to print.
+     */
+    public static Arguments parse(Command command, String options,
+            List<String> values, List<String> params, BitSet quoted) {
+        String spec = command.getOptions();
+        int bound = 0;
+        List<String> rest = new ArrayList<String>(params);
+        Map<Character, List<String>> byOption =
+                new HashMap<Character, List<String>>();
+        for (char option : options.toCharArray()) {
+            int at = spec.indexOf(option);
+            if (option == ':' || at < 0) {
+                throw new IllegalArgumentException(command.getName()
+                        + ": invalid option -- '" + option + "'");
+            }
+            if (at + 1 < spec.length() && spec.charAt(at + 1) == ':') {
+                if (values == null ? rest.isEmpty()
+                        : bound == values.size()) {
+                    throw new IllegalArgumentException(command.getName()
+                            + ": option requires an argument -- '" + option
+                            + "'");
+                }
+                List<String> list = byOption.get(option);
+                if (list == null) {
+                    list = new ArrayList<String>(1);
+                    byOption.put(option, list);
+                }
+                list.add(values == null ? rest.remove(0)
+                        : values.get(bound++));
+            }
+        }
+        if (rest.size() < command.getMinArgs() || (command.getMaxArgs() >= 0
+                && rest.size() > command.getMaxArgs())) {
+            throw new IllegalArgumentException(command.getUsage());
+        }
+        // The values of options were taken from the front.
+        int taken = params.size() - rest.size();
+        return new Arguments(options, rest, byOption,
+                quoted.get(taken, Math.max(taken, quoted.length())));
+    }
+
+    /**
+     * Return the option letters given, in order.
+     *
+     * @return the options.
+     */
+    public String getOptions() {
+        return options_;
+    }
+
+    /**
+     * Checks whether option was given.
+     *
+     * @param option an option letter.
+     * @return true if it was given.
+     */
+    public boolean hasOption(char option) {
+        return options_.indexOf(option) >= 0;
+    }
+
+    /**
+     * Return the values given to option, in order.
+     *
+     * @param option an option letter that takes a value.
+     * @return the values, empty if option was not given.
+     */
+    public List<String> getValues(char option) {
+        List<String> values = values_.get(option);
+        return values == null ? Collections.<String>emptyList()
+                : Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Return the last value given to option.
+     *
+     * @param option an option letter that takes a value.
+     * @param otherwise the value if option was not given.
+     * @return the value of option.
+     */
+    public String getValue(char option, String otherwise) {
+        List<String> values = values_.get(option);
+        return values == null ? otherwise : values.get(values.size() - 1);
+    }
+
+    /**
+     * Return the parameters, without the values of options.
+     *
+     * @return an unmodifiable List of the parameters.
+     */
+    public List<String> getParams() {
+        return params_;
+    }
+
+    /**
+     * Return the parameter at index.
+     *
+     * @param index the index of the parameter.
+     * @return the parameter.
+     */
+    public String get(int index) {
+        return params_.get(index);
+    }
+
+    /**
+     * Checks whether the parameter at index was quoted, and so must be
+     * taken as it is.
+     *
+     * @param index the index of the parameter.
+     * @return true if it was quoted.
+     */
+    public boolean isQuoted(int index) {
+        return quoted_.get(index);
+    }
+
+    /**
+     * Return the number of parameters.
+     *
+     * @return the number of parameters.
+     */
+    public int size() {
+        return params_.size();
+    }
+}
@@ -0,0 +1,223 @@
+package jshell;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Runs the command lines of a script, one per line, without prompts, as
+ * JShell does when given a script with -f, or its input with "-f -". The
+ * lines are read through one buffered reader, and the console output of
+ * the commands is buffered and only written out when the buffer fills or
+ * the script ends, or dropped altogether in quiet mode.
+ *
+ * Each line is parsed by the Lexer. Blank lines and comments are skipped,
+ * and "exit" ends the script. A line that fails to parse or run stops the
+ * script if the batch stops on errors; otherwise the next line runs.
+ * Either way, the failed lines are counted in the summary. The session is
+ * in batch mode while the script runs, so rm without -f fails rather than
+ * take the next lines of the script as its answers.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class Batch {
+    /*
+     * The size of the buffer in front of the console.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /*
+     * The session running the script.
+     */
+    private final JShell shell_;
+    /*
+     * The lines of the script.
+     */
+    private final BufferedReader script_;
+    /*
+     * Whether the console output of the commands is dropped.
+     */
+    private boolean quiet_;
+    /*
+     * Whether the script stops at the first failed command.
+     */
+    private boolean stopOnError_;
+    /*
+     * The number of command lines run.
+     */
+    private long commands_;
+    /*
+     * The number of command lines that failed.
+     */
+    private long failures_;
+    /*
+     * The number of the last line read.
+     */
+    private long lineNumber_;
+    /*
+     * The time spent running the script.
+     */
+    private long elapsedNanos_;
+
+    /**
+     * Creates a batch running the lines of script in shell.
+     *
+     * @param shell the session to run the commands in.
+     * @param script the lines of the script.
+     */
+    public Batch(JShell shell, BufferedReader script) {
+        shell_ = shell;
+        script_ = script;
+    }
+
+    /**
+     * Sets whether the console output of the commands, errors included,
+     * is dropped. Redirected output is still written to its File.
+     *
+     * @param quiet true to drop the output.
+     */
+    public void setQuiet(boolean quiet) {
+        quiet_ = quiet;
+    }
+
+    /**
+     * Sets whether the script stops at the first command that fails.
+     *
+     * @param stopOnError true to stop, false to go on with the next line.
+     */
+    public void setStopOnError(boolean stopOnError) {
+        stopOnError_ = stopOnError;
+    }
+
+    /**
+     * Runs the script until its end, "exit", or a failed command if the
+     * batch stops on errors. The output of the session is replaced by the
+     * buffer for the duration of the script; System.out is left alone.
+     *
+     * @return false if the script was stopped by a failed command.
+     * @throws IOException if the script cannot be read.
+     */
+    public boolean run() throws IOException {
+        PrintStream console = shell_.getOutput();
+        // A Stream sink flushes after each command; only the end of the
+        // script, or a full buffer, reaches the console.
+        final OutputStream buffer = quiet_ ? new Discard()
+                : new BufferedOutputStream(console, BUFFER_SIZE);
+        PrintStream out = new PrintStream(new FilterOutputStream(buffer) {
+            @Override
+            public void write(byte[] b, int off, int len)
+                    throws IOException {
+                buffer.write(b, off, len);
+            }
+
+            @Override
+            public void flush() {
+            }
+        }, false);
+        shell_.setOutput(out);
+        long start = System.nanoTime();
+        boolean batch = shell_.isBatch();
+        shell_.setBatch(true);
+        try {
+            for (String line = script_.readLine(); line != null;
+                    line = script_.readLine()) {
+                lineNumber_++;
+                CommandLine commands;
+                try {
+                    commands = Lexer.parse(line, shell_.getCommandRegistry());
+                } catch (IllegalArgumentException e) {
+                    out.println(e.getMessage());
+                    commands = null;
+                }
+                if (commands != null && commands.isEmpty()) {
+                    continue;
+                }
+                if (commands != null && commands.isExit()) {
+                    break;
+                }
+                commands_++;
+                if (commands == null || !shell_.execute(commands)) {
+                    failures_++;
+                    if (stopOnError_) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            elapsedNanos_ = System.nanoTime() - start;
+            buffer.flush();
+            shell_.setOutput(console);
+            shell_.setBatch(batch);
+        }
+    }
+
+    /**
+     * Return the number of command lines run.
+     *
+     * @return the command count.
+     */
+    public long getCommandCount() {
+        return commands_;
+    }
+
+    /**
+     * Return the number of command lines that failed.
+     *
+     * @return the failure count.
+     */
+    public long getFailureCount() {
+        return failures_;
+    }
+
+    /**
+     * Return the number of the last line of the script read, which is the
+     * failed line if the script was stopped.
+     *
+     * @return the line number.
+     */
+    public long getLineNumber() {
+        return lineNumber_;
+    }
+
+    /**
+     * Return the time spent running the script.
+     *
+     * @return the elapsed time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos_;
+    }
+
+    /**
+     * Returns the summary of the run: the commands run, their rate, and
+     * the failures.
+     *
+     * @return the summary.
+     */
+    public String getSummary() {
+        double seconds = elapsedNanos_ / 1e9;
+        return String.format("%d commands in %.3f s (%.0f commands/s),"
+                + " %d failed", commands_, seconds,
+                seconds > 0 ? commands_ / seconds : 0.0, failures_);
+    }
+
+    /*
+     * An OutputStream dropping everything written to it.
+     */
+    private static final class Discard extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
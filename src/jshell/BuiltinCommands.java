@@ -0,0 +1,367 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The commands every JShell can run, each checking nothing more than what
+ * its declared arity and options do not already check, and calling the
+ * method of JShell that does the work.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public final class BuiltinCommands {
+
+    /*
+     * Not instantiated.
+     */
+    private BuiltinCommands() {
+    }
+
+    /**
+     * Returns a new registry holding the built-in commands.
+     *
+     * @return a new CommandRegistry.
+     */
+    public static CommandRegistry newRegistry() {
+        CommandRegistry registry = new CommandRegistry();
+        registerAll(registry);
+        return registry;
+    }
+
+    /**
+     * Registers the built-in commands on registry, replacing any command of
+     * the same name.
+     *
+     * @param registry the CommandRegistry.
+     */
+    public static void registerAll(CommandRegistry registry) {
+        // The shell stops before running exit.
+        registry.register(new AbstractCommand("exit", 0, -1, "", "") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) {
+            }
+        });
+        registry.register(new AbstractCommand("mkdir", 1, -1, "",
+                "mkdir: missing operand") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                shell.mkdir(params(args));
+            }
+        });
+        registry.register(new AbstractCommand("cd", 0, 1, "",
+                "cd: Too many arguments.") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                shell.cd(args.size() == 1 ? args.get(0) : "/");
+            }
+        });
+        registry.register(new AbstractCommand("ls", 0, -1, "R", "") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                shell.ls(params(args), out);
+            }
+        });
+        registry.register(new AbstractCommand("pwd", 0, -1, "", "") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                if (args.size() > 0) {
+                    shell.getOutput().println(
+                            "pwd: ignoring non-option arguments");
+                }
+                out.append(shell.pwd());
+            }
+        });
+        registry.register(new AbstractCommand("mv", 2, 2, "",
+                "mv: missing file operand\nSpecify OLDFILE and NEWFILE") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                shell.mv(args.get(0), args.get(1));
+            }
+        });
+        registry.register(new AbstractCommand("cp", 2, 2, "",
+                "cp: missing file operand\nSpecify OLDFILE and NEWFILE") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                shell.cp(args.get(0), args.get(1));
+            }
+        });
+        registry.register(new AbstractCommand("cat", 0, 1, "",
+                "cat: missing file operand\nInvalid filename") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                if (args.size() == 0) {
+                    Pipe in = input(shell, this);
+                    for (CharSequence piece = in.read(); piece != null;
+                            piece = in.read()) {
+                        out.append(piece);
+                    }
+                    return;
+                }
+                // The content is passed on as a view, so a large File is
+                // never copied onto the heap.
+                out.append(shell.catView(args.get(0)));
+            }
+        });
+        registry.register(new AbstractCommand("get", 1, 1, "",
+                "get: missing operand\nInvalid URL") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                out.append(shell.get(args.get(0)));
+            }
+        });
+        registry.register(new AbstractCommand("echo", 0, -1, "", "") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                if (args.size() == 0) {
+                    shell.getOutput().print("\n");
+                    return;
+                }
+                // A quoted string was parsed whole by the Lexer.
+                if (args.size() == 1 && args.isQuoted(0)) {
+                    out.append(args.get(0));
+                    return;
+                }
+                String content = shell.getContent(params(args));
+                if (content.length() < 2 || !content.startsWith("\"")
+                        || !content.endsWith("\"")) {
+                    throw new Exception("Echo requires a string with \" & \""
+                            + " surrounding the words");
+                }
+                out.append(content, 1, content.length() - 1);
+            }
+        });
+        registry.register(new AbstractCommand("rm", 1, -1, "f",
+                "rm: missing operand") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                shell.rm(params(args));
+            }
+        });
+        registry.register(new AbstractCommand("ln", 2, 2, "",
+                "ln: missing file operand\nSpecify PATH1 and PATH2") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                shell.ln(args.get(0), args.get(1));
+            }
+        });
+        registry.register(new AbstractCommand("man", 0, -1, "", "") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                out.append(shell.man(args.size() == 0 ? "" : args.get(0)));
+            }
+        });
+        registry.register(new AbstractCommand("find", 0, -1, "u", "") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                List<String> params = params(args);
+                String regex = params.isEmpty() ? "" : params.remove(0);
+                shell.find(regex, params, out);
+            }
+        });
+        registry.register(new AbstractCommand("grep", 1, -1, "Rlm:e:F",
+                "Usage: grep [OPTION]... PATTERN [FILE]...") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                // Without -m there is no limit.
+                int maxCount = args.hasOption('m')
+                        ? count(this, args.getValue('m', null)) : -1;
+                List<String> params = params(args);
+                if (args.hasOption('e')) {
+                    shell.grep(args.getValues('e'), params, maxCount, out);
+                } else if (params.size() < (shell.getInput() == null ? 2
+                        : 1)) {
+                    throw new IllegalArgumentException(getUsage());
+                } else {
+                    shell.grep(params.get(0),
+                            params.subList(1, params.size()), maxCount, out);
+                }
+            }
+        });
+        registry.register(new LinesCommand("head"));
+        registry.register(new LinesCommand("tail"));
+        registry.register(new AbstractCommand("wc", 0, 1, "l",
+                "Usage: wc [-l] FILE") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                out.append(args.size() == 0 ? shell.wc(input(shell, this))
+                        : shell.wc(args.get(0)));
+            }
+        });
+        registry.register(new AbstractCommand("lines", 2, 3, "",
+                "Usage: lines FIRST LAST FILE") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                int first = count(this, args.get(0));
+                int last = count(this, args.get(1));
+                if (first < 1 || first > last) {
+                    throw new IllegalArgumentException(getUsage());
+                }
+                if (args.size() == 2) {
+                    shell.lines(input(shell, this), first, last, out);
+                    return;
+                }
+                out.append(shell.lines(args.get(2), first, last));
+            }
+        });
+        registry.register(new AbstractCommand("jobs", 0, 0, "",
+                "Usage: jobs") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                // A job that has ended is reported once, then dropped.
+                for (JobTable.Job job : shell.getJobs().report()) {
+                    if (out.getCount() > 0) {
+                        out.append("\n");
+                    }
+                    out.append(String.format("[%d] %-8s %s", job.getId(),
+                            job.getState(), job.getCommand()));
+                }
+            }
+        });
+        registry.register(new AbstractCommand("wait", 0, -1, "",
+                "Usage: wait [JOB]...") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                List<JobTable.Job> jobs = new ArrayList<JobTable.Job>();
+                for (String param : args.getParams()) {
+                    jobs.add(job(shell, getName(), param));
+                }
+                if (jobs.isEmpty()) {
+                    jobs = shell.getJobs().getJobs();
+                }
+                // The output of each job is written once it is done.
+                for (JobTable.Job job : jobs) {
+                    String output = shell.getJobs().waitFor(job);
+                    if (!output.isEmpty()) {
+                        if (out.getCount() > 0) {
+                            out.append("\n");
+                        }
+                        out.append(output);
+                    }
+                }
+            }
+        });
+        registry.register(new AbstractCommand("kill", 1, -1, "",
+                "Usage: kill JOB...") {
+            @Override
+            public void execute(JShell shell, Arguments args,
+                    OutputSink out) throws Exception {
+                List<JobTable.Job> jobs = new ArrayList<JobTable.Job>();
+                for (String param : args.getParams()) {
+                    jobs.add(job(shell, getName(), param));
+                }
+                for (JobTable.Job job : jobs) {
+                    job.kill();
+                }
+            }
+        });
+    }
+
+    /*
+     * Returns the job a parameter of command, N or %N, stands for.
+     */
+    private static JobTable.Job job(JShell shell, String command,
+            String param) {
+        String number = param.startsWith("%") ? param.substring(1) : param;
+        JobTable.Job job = null;
+        try {
+            job = shell.getJobs().get(Integer.parseInt(number));
+        } catch (NumberFormatException e) {
+            // No job is numbered so.
+        }
+        if (job == null) {
+            throw new IllegalArgumentException(command + ": " + param
+                    + ": no such job");
+        }
+        return job;
+    }
+
+    /*
+     * Returns a copy of the parameters of args that the command may change.
+     */
+    private static List<String> params(Arguments args) {
+        return new ArrayList<String>(args.getParams());
+    }
+
+    /*
+     * Returns text as a count of lines or matches, which must not be
+     * negative, throwing the usage of command if it is not one.
+     */
+    private static int count(Command command, String text) {
+        int count;
+        try {
+            count = Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(command.getUsage());
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException(command.getUsage());
+        }
+        return count;
+    }
+
+    /*
+     * Returns the output of the previous command of the pipeline, which a
+     * command given no FILE reads instead.
+     */
+    private static Pipe input(JShell shell, Command command) {
+        Pipe in = shell.getInput();
+        if (in == null) {
+            throw new IllegalArgumentException(command.getUsage());
+        }
+        return in;
+    }
+
+    /*
+     * head and tail: the first or last LINES lines of a File, or of the
+     * input of a pipeline, 10 by default.
+     */
+    private static final class LinesCommand extends AbstractCommand {
+        LinesCommand(String name) {
+            super(name, 0, 2, "n", "Usage: " + name + " [-n] [LINES] FILE");
+        }
+
+        @Override
+        public void execute(JShell shell, Arguments args, OutputSink out)
+                throws Exception {
+            if (args.size() < 2 && shell.getInput() != null) {
+                int count = args.size() == 1 ? count(this, args.get(0)) : 10;
+                if (getName().equals("head")) {
+                    shell.head(shell.getInput(), count, out);
+                } else {
+                    shell.tail(shell.getInput(), count, out);
+                }
+                return;
+            }
+            if (args.size() == 0) {
+                throw new IllegalArgumentException(getUsage());
+            }
+            int count = args.size() == 2 ? count(this, args.get(0)) : 10;
+            String file = args.get(args.size() - 1);
+            out.append(getName().equals("head") ? shell.head(file, count)
+                    : shell.tail(file, count));
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package jshell;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The children of a Directory, indexed by their lower case names and kept in
+ * the order they were added.
+ *
+ * Names are compared after folding each character with
+ * Character.toLowerCase. Lookups can be made directly on a range of a path,
+ * folding as they go, so resolving a name allocates nothing.
+ *
+ * Small directories keep their children in two short parallel arrays that
+ * are searched linearly. Once a directory holds more than INLINE_CAPACITY
+ * children an open addressing table of array positions is added on top of
+ * the same arrays, so no entry object is ever allocated per child.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+@SuppressWarnings("serial")
+public class ChildIndex implements Serializable, Iterable<JShellItem> {
+    /**
+     * The largest number of children searched without a hash table.
+     */
+    public static final int INLINE_CAPACITY = 8;
+    /*
+     * The lower case names of the children, in the order they were added.
+     * Removed children leave a null hole while the hash table is in use.
+     */
+    private transient String[] keys_;
+    /*
+     * The children, at the same positions as their names in keys_.
+     */
+    private transient JShellItem[] items_;
+    /*
+     * Linear probing table holding (position in items_ + 1) for each child,
+     * or 0 for a free slot. Null while the index is small.
+     */
+    private transient int[] table_;
+    /*
+     * The number of children.
+     */
+    private transient int size_;
+    /*
+     * The number of positions of items_ in use, including holes.
+     */
+    private transient int end_;
+
+    /**
+     * Creates an empty ChildIndex.
+     */
+    public ChildIndex() {
+        keys_ = new String[2];
+        items_ = new JShellItem[2];
+    }
+
+    /**
+     * Return the number of children in the index.
+     *
+     * @return the number of children.
+     */
+    public int size() {
+        return size_;
+    }
+
+    /**
+     * Returns the child stored under key.
+     *
+     * @param key the lower case name of the child.
+     * @return the child, or null if there is no child named key.
+     */
+    public JShellItem get(String key) {
+        int index = indexOf(key);
+        return index < 0 ? null : items_[index];
+    }
+
+    /**
+     * Returns the child whose name matches, ignoring case, the characters of
+     * name between start and end.
+     *
+     * @param name a String holding the name, such as a path.
+     * @param start the index of the first character of the name.
+     * @param end the index after the last character of the name.
+     * @return the child, or null if there is no such child.
+     */
+    public JShellItem get(String name, int start, int end) {
+        int index = indexOf(name, start, end);
+        return index < 0 ? null : items_[index];
+    }
+
+    /**
+     * Checks whether a child is stored under key.
+     *
+     * @param key the lower case name of the child.
+     * @return True if there is a child named key.
+     */
+    public boolean containsKey(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Stores item under key. A child already stored under key is replaced
+     * and keeps its position in the iteration order.
+     *
+     * @param key the lower case name of item.
+     * @param item the child to store.
+     * @return the replaced child, or null if there was none.
+     */
+    public JShellItem put(String key, JShellItem item) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            JShellItem replaced = items_[index];
+            items_[index] = item;
+            return replaced;
+        }
+        if (end_ == items_.length) {
+            grow();
+        }
+        keys_[end_] = key;
+        items_[end_] = item;
+        if (table_ != null) {
+            insertSlot(end_);
+        }
+        end_++;
+        size_++;
+        return null;
+    }
+
+    /**
+     * Removes the child stored under key.
+     *
+     * @param key the lower case name of the child.
+     * @return the removed child, or null if there was none.
+     */
+    public JShellItem remove(String key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        JShellItem removed = items_[index];
+        if (table_ == null) {
+            // Small indexes have no holes, shift the later children down.
+            System.arraycopy(keys_, index + 1, keys_, index, end_ - index - 1);
+            System.arraycopy(items_, index + 1, items_, index,
+                    end_ - index - 1);
+            end_--;
+            keys_[end_] = null;
+            items_[end_] = null;
+        } else {
+            deleteSlot(index);
+            keys_[index] = null;
+            items_[index] = null;
+            while (end_ > 0 && items_[end_ - 1] == null) {
+                end_--;
+            }
+        }
+        size_--;
+        if (table_ != null && size_ <= INLINE_CAPACITY / 2) {
+            rebuild(INLINE_CAPACITY);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns an Iterator over the children in the order they were added.
+     *
+     * @return an Iterator over the children.
+     */
+    @Override
+    public Iterator<JShellItem> iterator() {
+        return new Iterator<JShellItem>() {
+            private int next_ = skipHoles(0);
+
+            @Override
+            public boolean hasNext() {
+                return next_ < end_;
+            }
+
+            @Override
+            public JShellItem next() {
+                if (next_ >= end_) {
+                    throw new NoSuchElementException();
+                }
+                JShellItem item = items_[next_];
+                next_ = skipHoles(next_ + 1);
+                return item;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /*
+     * Returns the position of the first child at or after index.
+     */
+    private int skipHoles(int index) {
+        while (index < end_ && items_[index] == null) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns name with every character folded to lower case. The same
+     * String is returned when it is already in lower case.
+     *
+     * @param name a name.
+     * @return the folded name.
+     */
+    public static String fold(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.toLowerCase(c) != c) {
+                char[] folded = name.toCharArray();
+                for (int j = i; j < folded.length; j++) {
+                    folded[j] = Character.toLowerCase(folded[j]);
+                }
+                return new String(folded);
+            }
+        }
+        return name;
+    }
+
+    /*
+     * Returns the position of the child named key, or -1.
+     */
+    private int indexOf(String key) {
+        return indexOf(key, 0, key.length());
+    }
+
+    /*
+     * Returns the position of the child whose folded name matches the folded
+     * characters of name between start and end, or -1.
+     */
+    private int indexOf(String name, int start, int end) {
+        if (table_ == null) {
+            for (int i = 0; i < end_; i++) {
+                if (matches(keys_[i], name, start, end)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = table_.length - 1;
+        for (int slot = hash(name, start, end) & mask;;
+                slot = (slot + 1) & mask) {
+            int entry = table_[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (matches(keys_[entry - 1], name, start, end)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /*
+     * Checks whether the folded key equals the folded characters of name
+     * between start and end.
+     */
+    private static boolean matches(String key, String name, int start,
+            int end) {
+        if (key == null || key.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != Character.toLowerCase(
+                    name.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Adds the child at position index to the hash table.
+     */
+    private void insertSlot(int index) {
+        int mask = table_.length - 1;
+        int slot = hash(keys_[index]) & mask;
+        while (table_[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table_[slot] = index + 1;
+    }
+
+    /*
+     * Removes the child at position index from the hash table, shifting
+     * back the entries of its probe sequence so that no tombstone is needed.
+     */
+    private void deleteSlot(int index) {
+        int mask = table_.length - 1;
+        int slot = hash(keys_[index]) & mask;
+        while (table_[slot] != index + 1) {
+            slot = (slot + 1) & mask;
+        }
+        table_[slot] = 0;
+        for (int next = (slot + 1) & mask; table_[next] != 0;
+                next = (next + 1) & mask) {
+            int ideal = hash(keys_[table_[next] - 1]) & mask;
+            if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+                table_[slot] = table_[next];
+                table_[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    /*
+     * Makes room for one more child, reclaiming holes when there are many.
+     */
+    private void grow() {
+        int capacity = items_.length;
+        if (size_ > capacity / 2) {
+            capacity *= 2;
+        }
+        rebuild(capacity);
+    }
+
+    /*
+     * Copies the children into arrays of the given capacity, dropping holes,
+     * and rebuilds the hash table if the index is no longer small.
+     */
+    private void rebuild(int capacity) {
+        String[] keys = new String[capacity];
+        JShellItem[] items = new JShellItem[capacity];
+        int count = 0;
+        for (int i = 0; i < end_; i++) {
+            if (items_[i] != null) {
+                keys[count] = keys_[i];
+                items[count] = items_[i];
+                count++;
+            }
+        }
+        keys_ = keys;
+        items_ = items;
+        end_ = count;
+        if (capacity > INLINE_CAPACITY) {
+            table_ = new int[capacity * 2];
+            for (int i = 0; i < count; i++) {
+                insertSlot(i);
+            }
+        } else {
+            table_ = null;
+        }
+    }
+
+    /*
+     * Spreads the bits of the key's hash code over the table.
+     */
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /*
+     * Computes the same value as hash for the folded characters of name
+     * between start and end.
+     */
+    private static int hash(String name, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + Character.toLowerCase(name.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /*
+     * Writes the number of children followed by each key and child.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size_);
+        for (int i = 0; i < end_; i++) {
+            if (items_[i] != null) {
+                out.writeObject(keys_[i]);
+                out.writeObject(items_[i]);
+            }
+        }
+    }
+
+    /*
+     * Reads the children written by writeObject.
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int size = in.readInt();
+        keys_ = new String[2];
+        items_ = new JShellItem[2];
+        for (int i = 0; i < size; i++) {
+            put((String) in.readObject(), (JShellItem) in.readObject());
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package jshell;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the content of Files that have not been read for a while. Set
+ * on a FileSystem with {@link FileSystem#setColdStore(ColdStore)}, it
+ * tracks every File written from then on. A sweep, run by a background
+ * thread started with {@link #start(long)} or called directly, deflates
+ * the content of tracked Files not read for the configured time and
+ * replaces it with a CompressedContent.
+ *
+ * Reading a compressed File decompresses it transparently. The store keeps
+ * the most recently decompressed bodies in a small LRU cache, so a File
+ * read again soon is not decompressed again; the File itself stays
+ * compressed until it is rewritten.
+ *
+ * Content shared through the DedupStore, kept in the ContentStore or
+ * shorter than the minimum length is left alone, and so is content holding
+ * a lone surrogate, which would not decompress to the same characters.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class ColdStore implements TreeListener {
+    /*
+     * The encoding of the compressed characters.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /*
+     * The time in milliseconds after which unread content is compressed.
+     */
+    private final long coldAfter_;
+    /*
+     * The shortest content worth compressing.
+     */
+    private final int minLength_;
+    /*
+     * The FileSystem the store is set on.
+     */
+    private volatile FileSystem fileSystem_;
+    /*
+     * The Files whose content may be compressed. Held weakly, so removed
+     * Files go away.
+     */
+    private final Set<File> tracked_ = Collections.newSetFromMap(
+            new WeakHashMap<File, Boolean>());
+    /*
+     * The most recently decompressed bodies, least recently read first.
+     */
+    private final LinkedHashMap<CompressedContent, String> cache_;
+    /*
+     * The thread running the sweeps, or null.
+     */
+    private Thread sweeper_;
+
+    /*
+     * The metrics, guarded by this.
+     */
+    private long compressions_;
+    private long heapSaved_;
+    private long cacheHits_;
+    private long decompressions_;
+    private long decompressionNanos_;
+    private long maxDecompressionNanos_;
+
+    /**
+     * Creates a store compressing content of at least minLength characters
+     * not read for coldAfterMillis, and caching cacheSize decompressed
+     * bodies.
+     *
+     * @param coldAfterMillis the time after which unread content is
+     * compressed.
+     * @param minLength the shortest content to compress.
+     * @param cacheSize the number of decompressed bodies kept.
+     */
+    @SuppressWarnings("serial")
+    public ColdStore(long coldAfterMillis, int minLength,
+            final int cacheSize) {
+        coldAfter_ = coldAfterMillis;
+        minLength_ = minLength;
+        cache_ = new LinkedHashMap<CompressedContent, String>(16, 0.75f,
+                true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<CompressedContent, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Starts a daemon thread sweeping every intervalMillis until close is
+     * called.
+     *
+     * @param intervalMillis the time between sweeps.
+     */
+    public synchronized void start(final long intervalMillis) {
+        if (sweeper_ != null) {
+            return;
+        }
+        sweeper_ = new Thread("ColdStore sweeper") {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        Thread.sleep(intervalMillis);
+                        sweep();
+                    }
+                } catch (InterruptedException e) {
+                    // Closed.
+                }
+            }
+        };
+        sweeper_.setDaemon(true);
+        sweeper_.start();
+    }
+
+    /**
+     * Stops the background sweeps.
+     */
+    public synchronized void close() {
+        if (sweeper_ != null) {
+            sweeper_.interrupt();
+            sweeper_ = null;
+        }
+    }
+
+    /**
+     * Compresses the content of the tracked Files not read for the
+     * configured time. Each File is only locked, with the write lock of the
+     * FileSystem, while its content is swapped.
+     *
+     * @return the number of Files compressed.
+     */
+    public int sweep() {
+        FileSystem fileSystem = fileSystem_;
+        if (fileSystem == null) {
+            return 0;
+        }
+        List<File> files;
+        synchronized (tracked_) {
+            files = new ArrayList<File>(tracked_);
+        }
+        long now = System.currentTimeMillis();
+        int compressed = 0;
+        for (File file : files) {
+            CharSequence content = file.getStoredContent();
+            if (!isCandidate(file, content)) {
+                untrack(file);
+            } else if (now - file.getReadTime() >= coldAfter_) {
+                CompressedContent cold = compress(content);
+                if (cold == null
+                        || cold.getCompressedSize() >= 2 * content.length()) {
+                    untrack(file);
+                    continue;
+                }
+                Lock lock = fileSystem.writeLock();
+                lock.lock();
+                try {
+                    // The File may have been written since it was read.
+                    if (file.getStoredContent() == content) {
+                        file.setStoredContent(cold);
+                        compressed++;
+                        synchronized (this) {
+                            compressions_++;
+                        }
+                        count(cold, 1);
+                        untrack(file);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        return compressed;
+    }
+
+    /**
+     * Return the number of Files compressed so far.
+     *
+     * @return the number of compressions.
+     */
+    public synchronized long getCompressionCount() {
+        return compressions_;
+    }
+
+    /**
+     * Return the bytes of heap saved by the compressed content still in
+     * use, counting two bytes per character.
+     *
+     * @return the heap saved.
+     */
+    public synchronized long getHeapSaved() {
+        return heapSaved_;
+    }
+
+    /**
+     * Return the number of reads served from the cache of decompressed
+     * bodies.
+     *
+     * @return the number of cache hits.
+     */
+    public synchronized long getCacheHitCount() {
+        return cacheHits_;
+    }
+
+    /**
+     * Return the number of reads that decompressed content.
+     *
+     * @return the number of decompressions.
+     */
+    public synchronized long getDecompressionCount() {
+        return decompressions_;
+    }
+
+    /**
+     * Return the average time taken to decompress content.
+     *
+     * @return the mean decompression latency in nanoseconds.
+     */
+    public synchronized long getMeanDecompressionNanos() {
+        return decompressions_ == 0 ? 0
+                : decompressionNanos_ / decompressions_;
+    }
+
+    /**
+     * Return the longest time taken to decompress content.
+     *
+     * @return the maximum decompression latency in nanoseconds.
+     */
+    public synchronized long getMaxDecompressionNanos() {
+        return maxDecompressionNanos_;
+    }
+
+    /**
+     * Binds the store to the FileSystem it is set on.
+     *
+     * @param fileSystem the FileSystem, or null.
+     */
+    void setFileSystem(FileSystem fileSystem) {
+        fileSystem_ = fileSystem;
+    }
+
+    /**
+     * Tracks file, whose content was just written.
+     *
+     * @param file a File of the FileSystem.
+     */
+    void track(File file) {
+        synchronized (tracked_) {
+            tracked_.add(file);
+        }
+    }
+
+    /**
+     * Stops counting the heap saved by content that is no longer used.
+     *
+     * @param content the replaced content of a File.
+     */
+    void release(CompressedContent content) {
+        count(content, -1);
+    }
+
+    /**
+     * Returns content decompressed, from the cache if it was read recently.
+     *
+     * @param content content compressed by this store.
+     * @return the content as a String.
+     */
+    String decompress(CompressedContent content) {
+        synchronized (this) {
+            String text = cache_.get(content);
+            if (text != null) {
+                cacheHits_++;
+                return text;
+            }
+        }
+        long start = System.nanoTime();
+        Inflater inflater = new Inflater();
+        byte[] data = content.getData();
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                content.length());
+        byte[] buffer = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+        String text = new String(out.toByteArray(), UTF_8);
+        long nanos = System.nanoTime() - start;
+        synchronized (this) {
+            cache_.put(content, text);
+            decompressions_++;
+            decompressionNanos_ += nanos;
+            maxDecompressionNanos_ = Math.max(maxDecompressionNanos_, nanos);
+        }
+        return text;
+    }
+
+    /**
+     * Tracks Files added to the tree, such as those made by cp.
+     *
+     * @param parent the Directory the item was added to.
+     * @param item the JShellItem that was added.
+     */
+    @Override
+    public void itemAdded(Directory parent, JShellItem item) {
+        if (item instanceof File && !(item instanceof FileAlias)
+                && !(item instanceof InodeTable.Node)) {
+            CharSequence content = ((File) item).getStoredContent();
+            if (content instanceof CompressedContent
+                    && ((CompressedContent) content).getStore() == this) {
+                count((CompressedContent) content, 1);
+            } else {
+                track((File) item);
+            }
+        }
+    }
+
+    /**
+     * Stops counting the heap saved by a removed File.
+     *
+     * @param parent the Directory the item was removed from.
+     * @param item the JShellItem that was removed.
+     */
+    @Override
+    public void itemRemoved(Directory parent, JShellItem item) {
+        if (item instanceof File && !(item instanceof FileAlias)
+                && !(item instanceof InodeTable.Node)) {
+            CharSequence content = ((File) item).getStoredContent();
+            if (content instanceof CompressedContent
+                    && ((CompressedContent) content).getStore() == this) {
+                count((CompressedContent) content, -1);
+            }
+            untrack((File) item);
+        }
+    }
+
+    /*
+     * Checks whether the content of file can be compressed.
+     */
+    private boolean isCandidate(File file, CharSequence content) {
+        return (content instanceof String || content instanceof FileContent)
+                && content.length() >= minLength_
+                && file.getDedupEntry() == null;
+    }
+
+    /*
+     * Adds sign times the heap saved by content to the metrics, and drops
+     * content from the cache once it is no longer used.
+     */
+    private synchronized void count(CompressedContent content, int sign) {
+        heapSaved_ += sign
+                * (2L * content.length() - content.getCompressedSize());
+        if (sign < 0) {
+            cache_.remove(content);
+        }
+    }
+
+    /*
+     * Stops tracking file.
+     */
+    private void untrack(File file) {
+        synchronized (tracked_) {
+            tracked_.remove(file);
+        }
+    }
+
+    /*
+     * Returns content deflated, or null if it holds a lone surrogate, which
+     * UTF-8 cannot encode.
+     */
+    private CompressedContent compress(CharSequence content) {
+        ByteBuffer bytes;
+        try {
+            bytes = UTF_8.newEncoder().encode(CharBuffer.wrap(content));
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+        Deflater deflater = new Deflater();
+        deflater.setInput(bytes.array(),
+                bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return new CompressedContent(this, out.toByteArray(),
+                content.length());
+    }
+}
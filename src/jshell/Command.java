@@ -0,0 +1,67 @@
+package jshell;
+
+/**
+ * A command JShell can run, registered by name in a CommandRegistry. A
+ * command declares how many parameters and which options it takes, so that
+ * the shell can reject a malformed command line before running it, and
+ * writes its output to the OutputSink it is given, which is the console or
+ * the File the command line redirects to.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public interface Command {
+
+    /**
+     * Return the name the command is run by.
+     *
+     * @return the name of the command.
+     */
+    String getName();
+
+    /**
+     * Return the smallest number of parameters the command takes, not
+     * counting the values of its options.
+     *
+     * @return the minimum number of parameters.
+     */
+    int getMinArgs();
+
+    /**
+     * Return the largest number of parameters the command takes, not
+     * counting the values of its options.
+     *
+     * @return the maximum number of parameters, or -1 for no limit.
+     */
+    int getMaxArgs();
+
+    /**
+     * Return the option letters the command takes. A letter followed by ':'
+     * takes a value, which is the first parameter not yet taken by an
+     * earlier option.
+     *
+     * @return the options, such as "Rlm:e:F".
+     */
+    String getOptions();
+
+    /**
+     * Return the message printed when the command is given the wrong
+     * number of parameters.
+     *
+     * @return the usage message.
+     */
+    String getUsage();
+
+    /**
+     * Runs the command.
+     *
+     * @param shell the session running the command.
+     * @param args the options and parameters of the command.
+     * @param out where to write the output.
+     * @throws Exception if the command fails; its message is printed.
+     */
+    void execute(JShell shell, Arguments args, OutputSink out)
+            throws Exception;
+}
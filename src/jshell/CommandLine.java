@@ -0,0 +1,287 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed command line: the commands joined by '|', each with its name,
+ * options, words and redirection, and whether the line ends with '&' to
+ * run as a background job. Command lines are made by the Lexer.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public final class CommandLine {
+    /*
+     * The commands, in the order of the pipeline.
+     */
+    private final List<Invocation> commands_;
+    /*
+     * Whether the line runs as a background job.
+     */
+    private final boolean background_;
+
+    /*
+     * Creates the line of commands.
+     */
+    CommandLine(List<Invocation> commands, boolean background) {
+        commands_ = Collections.unmodifiableList(commands);
+        background_ = background;
+    }
+
+    /**
+     * Return the commands of the line, in the order of the pipeline.
+     *
+     * @return an unmodifiable List of the commands.
+     */
+    public List<Invocation> getCommands() {
+        return commands_;
+    }
+
+    /**
+     * Checks whether the line holds no command.
+     *
+     * @return true for a blank line or a comment.
+     */
+    public boolean isEmpty() {
+        return commands_.isEmpty();
+    }
+
+    /**
+     * Checks whether the line ends with '&', to run as a background job.
+     *
+     * @return true for a background job.
+     */
+    public boolean isBackground() {
+        return background_;
+    }
+
+    /**
+     * Checks whether the line asks the shell to exit.
+     *
+     * @return true if the first command is exit.
+     */
+    public boolean isExit() {
+        return !commands_.isEmpty()
+                && commands_.get(0).getName().equals("exit");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Invocation command : commands_) {
+            if (text.length() > 0) {
+                text.append(" | ");
+            }
+            text.append(command);
+        }
+        return background_ ? text.append(" &").toString() : text.toString();
+    }
+
+    /**
+     * A word of a command, with its quotes and escapes removed.
+     */
+    public static final class Word {
+        private final String text_;
+        private final boolean quoted_;
+
+        /**
+         * Creates a word.
+         *
+         * @param text the text of the word.
+         * @param quoted true if any part of the word was quoted.
+         */
+        public Word(String text, boolean quoted) {
+            text_ = text;
+            quoted_ = quoted;
+        }
+
+        /**
+         * Return the text of the word.
+         *
+         * @return the text, without quotes.
+         */
+        public String getText() {
+            return text_;
+        }
+
+        /**
+         * Checks whether any part of the word was quoted.
+         *
+         * @return true for a quoted string.
+         */
+        public boolean isQuoted() {
+            return quoted_;
+        }
+
+        @Override
+        public String toString() {
+            return quoted_ ? "\"" + text_ + "\"" : text_;
+        }
+    }
+
+    /**
+     * One command of a line: its name, the letters of its options and the
+     * values bound to them, its other words and the redirection of its
+     * output, if any.
+     */
+    public static final class Invocation {
+        private final String name_;
+        private final String options_;
+        /*
+         * The options that took a value, in order.
+         */
+        private final String valued_;
+        /*
+         * The values of valued_, or null if values were not bound.
+         */
+        private final List<Word> values_;
+        private final List<Word> words_;
+        private final String redirection_;
+        private final String target_;
+
+        /*
+         * Creates a command.
+         */
+        Invocation(String name, String options, String valued,
+                List<Word> values, List<Word> words, String redirection,
+                String target) {
+            name_ = name;
+            options_ = options;
+            valued_ = valued;
+            values_ = values == null ? null
+                    : Collections.unmodifiableList(values);
+            words_ = Collections.unmodifiableList(words);
+            redirection_ = redirection;
+            target_ = target;
+        }
+
+        /**
+         * Return the name of the command.
+         *
+         * @return the name.
+         */
+        public String getName() {
+            return name_;
+        }
+
+        /**
+         * Return the option letters given, in order.
+         *
+         * @return the options.
+         */
+        public String getOptions() {
+            return options_;
+        }
+
+        /**
+         * Return the values bound to the options that take one, in the
+         * order of the options.
+         *
+         * @return a new List of the values, or null if the line was parsed
+         * without binding values, so that they are taken from the front of
+         * the parameters.
+         */
+        public List<String> getValues() {
+            if (values_ == null) {
+                return null;
+            }
+            List<String> values = new ArrayList<String>(values_.size());
+            for (Word value : values_) {
+                values.add(value.getText());
+            }
+            return values;
+        }
+
+        /**
+         * Return the words after the name, options, their values and
+         * redirection left out.
+         *
+         * @return an unmodifiable List of the words.
+         */
+        public List<Word> getWords() {
+            return words_;
+        }
+
+        /**
+         * Return the text of the words after the name.
+         *
+         * @return a new List of the parameters.
+         */
+        public List<String> getParams() {
+            List<String> params = new ArrayList<String>(words_.size());
+            for (Word word : words_) {
+                params.add(word.getText());
+            }
+            return params;
+        }
+
+        /**
+         * Return which of the parameters were quoted.
+         *
+         * @return a new BitSet holding the index of each quoted parameter.
+         */
+        public BitSet getQuoted() {
+            BitSet quoted = new BitSet(words_.size());
+            for (int i = 0; i < words_.size(); i++) {
+                quoted.set(i, words_.get(i).isQuoted());
+            }
+            return quoted;
+        }
+
+        /**
+         * Return the redirection of the output.
+         *
+         * @return > or >>, or null if the output is not redirected.
+         */
+        public String getRedirection() {
+            return redirection_;
+        }
+
+        /**
+         * Return the File the output is redirected to.
+         *
+         * @return the path of the File, or null.
+         */
+        public String getTarget() {
+            return target_;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(name_);
+            // The options without a value are given together, then each
+            // option with its value.
+            StringBuilder plain = new StringBuilder();
+            StringBuilder valued = new StringBuilder();
+            int next = 0;
+            for (char option : options_.toCharArray()) {
+                if (next < valued_.length() && option == valued_.charAt(next)) {
+                    valued.append(" -").append(option);
+                    if (values_ != null && next < values_.size()) {
+                        valued.append(' ').append(values_.get(next));
+                    }
+                    next++;
+                } else {
+                    plain.append(option);
+                }
+            }
+            if (plain.length() > 0) {
+                text.append(" -").append(plain);
+            }
+            text.append(valued);
+            for (Word word : words_) {
+                text.append(' ').append(word);
+            }
+            if (redirection_ != null) {
+                text.append(' ').append(redirection_).append(' ')
+                        .append(target_);
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The commands a JShell can run, by name, with the number of times each was
+ * run and how long it took. {@link BuiltinCommands#newRegistry()} returns a
+ * registry holding the commands of JShell; more commands can be registered
+ * on it, or a built-in command replaced, without changing JShell. A
+ * registry may be shared by sessions on several threads.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class CommandRegistry {
+    /*
+     * The commands by name, in the order they were first registered.
+     */
+    private final Map<String, Command> commands_ =
+            new LinkedHashMap<String, Command>();
+    /*
+     * The statistics of each name.
+     */
+    private final Map<String, Stats> stats_ =
+            new LinkedHashMap<String, Stats>();
+
+    /**
+     * Registers command under its name, replacing any command of the same
+     * name. The statistics of the name are kept.
+     *
+     * @param command the Command to register.
+     */
+    public synchronized void register(Command command) {
+        commands_.put(command.getName(), command);
+        if (!stats_.containsKey(command.getName())) {
+            stats_.put(command.getName(), new Stats());
+        }
+    }
+
+    /**
+     * Removes the command registered under name.
+     *
+     * @param name the name of a command.
+     * @return the Command removed, or null if there was none.
+     */
+    public synchronized Command unregister(String name) {
+        return commands_.remove(name);
+    }
+
+    /**
+     * Return the command registered under name.
+     *
+     * @param name the name of a command.
+     * @return the Command, or null if there is none.
+     */
+    public synchronized Command get(String name) {
+        return commands_.get(name);
+    }
+
+    /**
+     * Return the names of the registered commands.
+     *
+     * @return the names, in the order they were first registered.
+     */
+    public synchronized List<String> getNames() {
+        return new ArrayList<String>(commands_.keySet());
+    }
+
+    /**
+     * Return the statistics of the command registered under name.
+     *
+     * @param name the name of a command.
+     * @return the Stats of name, or null if no command was registered
+     * under it.
+     */
+    public synchronized Stats getStats(String name) {
+        return stats_.get(name);
+    }
+
+    /**
+     * Runs command, counting the call and the time it took under its name.
+     *
+     * @param command a registered Command.
+     * @param shell the session running the command.
+     * @param args the checked arguments of the command.
+     * @param out where to write the output.
+     * @throws Exception if the command fails.
+     */
+    public void execute(Command command, JShell shell, Arguments args,
+            OutputSink out) throws Exception {
+        Stats stats = getStats(command.getName());
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            command.execute(shell, args, out);
+            failed = false;
+        } finally {
+            if (stats != null) {
+                stats.record(System.nanoTime() - start, failed);
+            }
+        }
+    }
+
+    /**
+     * The number of times a command was run and the time it took.
+     */
+    public static final class Stats {
+        private long calls_;
+        private long failures_;
+        private long totalNanos_;
+        private long maxNanos_;
+
+        /*
+         * Counts a call that took nanos.
+         */
+        synchronized void record(long nanos, boolean failed) {
+            calls_++;
+            if (failed) {
+                failures_++;
+            }
+            totalNanos_ += nanos;
+            maxNanos_ = Math.max(maxNanos_, nanos);
+        }
+
+        /**
+         * Return the number of times the command was run.
+         *
+         * @return the call count.
+         */
+        public synchronized long getCallCount() {
+            return calls_;
+        }
+
+        /**
+         * Return the number of runs that threw an exception.
+         *
+         * @return the failure count.
+         */
+        public synchronized long getFailureCount() {
+            return failures_;
+        }
+
+        /**
+         * Return the time taken by all runs.
+         *
+         * @return the total time, in nanoseconds.
+         */
+        public synchronized long getTotalNanos() {
+            return totalNanos_;
+        }
+
+        /**
+         * Return the time taken by the longest run.
+         *
+         * @return the longest time, in nanoseconds.
+         */
+        public synchronized long getMaxNanos() {
+            return maxNanos_;
+        }
+
+        /**
+         * Return the mean time of a run.
+         *
+         * @return the mean time, in nanoseconds, 0 if never run.
+         */
+        public synchronized long getMeanNanos() {
+            return calls_ == 0 ? 0 : totalNanos_ / calls_;
+        }
+    }
+}
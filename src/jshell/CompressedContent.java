@@ -0,0 +1,102 @@
+package jshell;
+
+import java.io.Serializable;
+
+/**
+ * The content of a File compressed by a ColdStore. Reading it decompresses
+ * it through the store, which keeps the most recently decompressed bodies,
+ * so a File read again soon is not decompressed again. A CompressedContent
+ * never changes.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+@SuppressWarnings("serial")
+public final class CompressedContent implements CharSequence, Serializable {
+    /*
+     * The store that compressed the content.
+     */
+    private final transient ColdStore store_;
+    /*
+     * The deflated UTF-8 bytes of the content.
+     */
+    private final byte[] data_;
+    /*
+     * The number of characters.
+     */
+    private final int length_;
+
+    /**
+     * Creates the content held in data. Use ColdStore.compress.
+     *
+     * @param store the store that compressed the content.
+     * @param data the deflated UTF-8 bytes.
+     * @param length the number of characters.
+     */
+    CompressedContent(ColdStore store, byte[] data, int length) {
+        store_ = store;
+        data_ = data;
+        length_ = length;
+    }
+
+    /**
+     * Return the store that compressed the content.
+     *
+     * @return the ColdStore.
+     */
+    public ColdStore getStore() {
+        return store_;
+    }
+
+    /**
+     * Return the number of bytes the compressed content takes.
+     *
+     * @return the compressed size.
+     */
+    public int getCompressedSize() {
+        return data_.length;
+    }
+
+    /**
+     * Return the deflated bytes of the content.
+     *
+     * @return the compressed data, which must not be changed.
+     */
+    byte[] getData() {
+        return data_;
+    }
+
+    @Override
+    public int length() {
+        return length_;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /**
+     * Returns the decompressed content.
+     *
+     * @return the content as a String.
+     */
+    @Override
+    public String toString() {
+        return store_.decompress(this);
+    }
+
+    /*
+     * Writes the content as a String, which is read back as is.
+     */
+    private Object writeReplace() {
+        return toString();
+    }
+}
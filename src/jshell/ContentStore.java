@@ -0,0 +1,396 @@
+package jshell;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An append-only arena file holding the content of large Files outside of
+ * the heap. Set on a FileSystem with
+ * {@link FileSystem#setContentStore(ContentStore)}, it receives the content
+ * of every File whose length reaches the threshold, and the File keeps only
+ * a MappedContent: an offset and a length into the arena.
+ *
+ * Characters are stored as two bytes each, so any character can be read in
+ * place. The arena is mapped with MappedByteBuffers of a fixed segment size
+ * (1 GB by default), mapped when first used, so it can grow past the 2 GB
+ * a single mapping can hold. A record is never overwritten while it can
+ * be read: a File that changes gets a new record, and the old one stays
+ * readable by snapshots and content views for as long as one of them
+ * holds a MappedContent of it. A File appended to while its record is the
+ * last one in the arena grows in place.
+ *
+ * Each record is held weakly by the store, so once the garbage collector
+ * finds no MappedContent of it left, its bytes go to a free list. New
+ * records take the first free extent they fit in, and free extents at the
+ * end of the arena shrink it. The arena file itself never shrinks, and
+ * space is only reclaimed as fast as the garbage collector finds dead
+ * records; until then, a dead record still counts as used.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class ContentStore implements Closeable {
+    /**
+     * The size in bytes of each mapping of the arena, unless given.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    /*
+     * The arena file.
+     */
+    private final FileChannel channel_;
+    /*
+     * The length in characters from which content is stored in the arena.
+     */
+    private final int threshold_;
+    /*
+     * The size in bytes of each mapping.
+     */
+    private final long segmentSize_;
+    /*
+     * The mappings made so far, by segment number. Replaced by a longer
+     * array when the arena grows, so readers need no lock.
+     */
+    private volatile MappedByteBuffer[] segments_ = new MappedByteBuffer[0];
+    /*
+     * The number of bytes of the arena in use.
+     */
+    private long end_;
+    /*
+     * The free extents before end_, from their start to their end,
+     * never adjacent to each other.
+     */
+    private final TreeMap<Long, Long> free_ = new TreeMap<Long, Long>();
+    /*
+     * The number of bytes in free_.
+     */
+    private long freeBytes_;
+    /*
+     * The references to the records not yet reclaimed, which must stay
+     * reachable to be enqueued.
+     */
+    private final Set<RecordRef> records_ = new HashSet<RecordRef>();
+    /*
+     * Receives the references to records no MappedContent holds anymore.
+     */
+    private final ReferenceQueue<Record> dead_ = new ReferenceQueue<Record>();
+
+    /**
+     * Opens an empty arena at path, replacing any file there.
+     *
+     * @param path the arena file.
+     * @param threshold the length in characters from which content is
+     * stored in the arena.
+     * @throws IOException if the file cannot be opened.
+     */
+    public ContentStore(Path path, int threshold) throws IOException {
+        this(path, threshold, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens an empty arena at path, replacing any file there.
+     *
+     * @param path the arena file.
+     * @param threshold the length in characters from which content is
+     * stored in the arena.
+     * @param segmentSize the size in bytes of each mapping, an even number.
+     * @throws IOException if the file cannot be opened.
+     */
+    public ContentStore(Path path, int threshold, long segmentSize)
+            throws IOException {
+        if (segmentSize <= 0 || segmentSize % 2 != 0
+                || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Invalid segment size: " + segmentSize);
+        }
+        channel_ = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        threshold_ = threshold;
+        segmentSize_ = segmentSize;
+    }
+
+    /**
+     * Opens an empty arena in a temporary file deleted when the program
+     * exits.
+     *
+     * @param threshold the length in characters from which content is
+     * stored in the arena.
+     * @return the new ContentStore.
+     * @throws IOException if the file cannot be created.
+     */
+    public static ContentStore createTemporary(int threshold)
+            throws IOException {
+        Path path = Files.createTempFile("jshell", ".arena");
+        path.toFile().deleteOnExit();
+        return new ContentStore(path, threshold);
+    }
+
+    /**
+     * Return the length in characters from which content is stored in the
+     * arena.
+     *
+     * @return the threshold.
+     */
+    public int getThreshold() {
+        return threshold_;
+    }
+
+    /**
+     * Return the number of bytes of the arena in use, free extents before
+     * the last record included.
+     *
+     * @return the size of the arena.
+     */
+    public synchronized long getSize() {
+        return end_;
+    }
+
+    /**
+     * Return the number of bytes of the arena freed by dead records and
+     * not yet used again.
+     *
+     * @return the free bytes before the end of the arena.
+     */
+    public synchronized long getFreeBytes() {
+        reclaim();
+        return freeBytes_;
+    }
+
+    /**
+     * Writes text in a new record, in the first free extent it fits in or
+     * at the end of the arena.
+     *
+     * @param text the content to store.
+     * @return the stored content.
+     * @throws IOException if the arena cannot grow.
+     */
+    public synchronized MappedContent put(CharSequence text)
+            throws IOException {
+        long offset = allocate(2L * text.length());
+        write(offset, text);
+        return new MappedContent(this, newRecord(offset, text.length()),
+                offset, text.length());
+    }
+
+    /**
+     * Returns content followed by text. The record of content grows in
+     * place if content ends it and it is the last one of this arena;
+     * otherwise both are written in a new record.
+     *
+     * @param content the content of a File.
+     * @param text the text to add.
+     * @return the stored content.
+     * @throws IOException if the arena cannot grow.
+     */
+    public synchronized MappedContent append(CharSequence content,
+            CharSequence text) throws IOException {
+        if (content instanceof MappedContent
+                && ((MappedContent) content).getStore() == this) {
+            MappedContent stored = (MappedContent) content;
+            RecordRef ref = stored.getRecord().ref_;
+            if (ref.end_ == stored.getEnd() && ref.end_ == end_) {
+                write(end_, text);
+                end_ += 2L * text.length();
+                ref.end_ = end_;
+                return new MappedContent(this, stored.getRecord(),
+                        stored.getOffset(), stored.length() + text.length());
+            }
+        }
+        int length = content.length() + text.length();
+        long offset = allocate(2L * length);
+        write(offset, content);
+        write(offset + 2L * content.length(), text);
+        return new MappedContent(this, newRecord(offset, length), offset,
+                length);
+    }
+
+    /**
+     * Closes the arena file. Content stored in it can no longer be read.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        segments_ = new MappedByteBuffer[0];
+        records_.clear();
+        channel_.close();
+    }
+
+    /**
+     * Return the character stored at offset.
+     *
+     * @param offset a byte offset into the arena.
+     * @return the character.
+     */
+    char charAt(long offset) {
+        MappedByteBuffer[] segments = segments_;
+        int segment = (int) (offset / segmentSize_);
+        if (segment >= segments.length) {
+            throw new IllegalStateException("The content store is closed.");
+        }
+        return segments[segment].getChar((int) (offset % segmentSize_));
+    }
+
+    /*
+     * Writes the characters of text from offset, mapping new segments as
+     * needed. Called while holding the monitor.
+     */
+    private void write(long offset, CharSequence text) throws IOException {
+        MappedByteBuffer[] segments = segments_;
+        for (int i = 0; i < text.length(); i++, offset += 2) {
+            int segment = (int) (offset / segmentSize_);
+            if (segment >= segments.length) {
+                segments = map(segment);
+            }
+            segments[segment].putChar((int) (offset % segmentSize_),
+                    text.charAt(i));
+        }
+    }
+
+    /*
+     * Returns the offset of bytes bytes for a new record: the start of the
+     * first free extent that holds them, or the end of the arena. Called
+     * while holding the monitor.
+     */
+    private long allocate(long bytes) {
+        reclaim();
+        Iterator<Map.Entry<Long, Long>> extents = free_.entrySet().iterator();
+        while (extents.hasNext()) {
+            Map.Entry<Long, Long> extent = extents.next();
+            long start = extent.getKey();
+            long end = extent.getValue();
+            if (end - start >= bytes) {
+                extents.remove();
+                if (end - start > bytes) {
+                    free_.put(start + bytes, end);
+                }
+                freeBytes_ -= bytes;
+                return start;
+            }
+        }
+        long offset = end_;
+        end_ += bytes;
+        return offset;
+    }
+
+    /*
+     * Returns a new record of length characters at offset, tracked until
+     * no MappedContent holds it.
+     */
+    private Record newRecord(long offset, int length) {
+        Record record = new Record();
+        record.ref_ = new RecordRef(record, dead_, offset,
+                offset + 2L * length);
+        records_.add(record.ref_);
+        return record;
+    }
+
+    /*
+     * Frees the extents of the records found dead. Called while holding
+     * the monitor.
+     */
+    private void reclaim() {
+        for (Reference<? extends Record> dead = dead_.poll(); dead != null;
+                dead = dead_.poll()) {
+            RecordRef ref = (RecordRef) dead;
+            if (records_.remove(ref)) {
+                free(ref.offset_, ref.end_);
+            }
+        }
+    }
+
+    /*
+     * Adds the bytes from start to end to the free extents, merging it
+     * with its neighbours, or shrinks the arena if it ends it.
+     */
+    private void free(long start, long end) {
+        if (start == end) {
+            return;
+        }
+        freeBytes_ += end - start;
+        Map.Entry<Long, Long> before = free_.floorEntry(start);
+        if (before != null && before.getValue() == start) {
+            free_.remove(before.getKey());
+            start = before.getKey();
+        }
+        Long after = free_.get(end);
+        if (after != null) {
+            free_.remove(end);
+            end = after;
+        }
+        if (end == end_) {
+            freeBytes_ -= end - start;
+            end_ = start;
+        } else {
+            free_.put(start, end);
+        }
+    }
+
+    /*
+     * Maps the segments up to segment and returns the longer array.
+     */
+    private MappedByteBuffer[] map(int segment) throws IOException {
+        if (!channel_.isOpen()) {
+            throw new IOException("The content store is closed.");
+        }
+        MappedByteBuffer[] segments = segments_;
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, segment + 1);
+        for (int i = segments.length; i <= segment; i++) {
+            grown[i] = channel_.map(FileChannel.MapMode.READ_WRITE,
+                    i * segmentSize_, segmentSize_);
+        }
+        segments_ = grown;
+        return grown;
+    }
+
+    /**
+     * The identity of a record, held by every MappedContent of it, so the
+     * record is dead once the garbage collector clears it.
+     */
+    static final class Record {
+        /*
+         * The reference the store keeps to the record.
+         */
+        private RecordRef ref_;
+    }
+
+    /*
+     * The store's weak reference to a record, with the extent to free once
+     * the record is dead.
+     */
+    private static final class RecordRef extends WeakReference<Record> {
+        /*
+         * The byte offset of the record.
+         */
+        private final long offset_;
+        /*
+         * The byte offset just after the record, moved when it grows in
+         * place. Guarded by the monitor of the store.
+         */
+        private long end_;
+
+        RecordRef(Record record, ReferenceQueue<Record> queue, long offset,
+                long end) {
+            super(record, queue);
+            offset_ = offset;
+            end_ = end;
+        }
+    }
+}
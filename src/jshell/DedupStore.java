@@ -0,0 +1,322 @@
+package jshell;
+
+import java.util.HashMap;
+
+/**
+ * Keeps one copy of each distinct File body in a FileSystem. Set on a
+ * FileSystem with {@link FileSystem#setDedupStore(DedupStore)}, it hashes
+ * the content given to File.setContent and hands back the body already
+ * held for equal content, so Files written with the same text share one
+ * String. Each body counts the Files in the tree that use it and is
+ * dropped when the last of them is removed or rewritten.
+ *
+ * The store is also a TreeListener of the FileSystem: a File added to the
+ * tree, such as one made by cp, is counted, and a File removed from it is
+ * no longer counted. Content built by appending is not deduplicated.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class DedupStore implements TreeListener {
+    /*
+     * The shortest content worth sharing.
+     */
+    private final int minLength_;
+    /*
+     * The bodies, by hash, each chained to the bodies with the same hash.
+     */
+    private final HashMap<Long, Entry> entries_ = new HashMap<Long, Entry>();
+    /*
+     * The number of distinct bodies.
+     */
+    private int bodies_;
+    /*
+     * The number of Files using a body.
+     */
+    private long references_;
+    /*
+     * The number of characters of the bodies, counted once each.
+     */
+    private long storedChars_;
+    /*
+     * The number of characters of the bodies, counted once per File.
+     */
+    private long logicalChars_;
+
+    /**
+     * Creates a store sharing content of any length.
+     */
+    public DedupStore() {
+        this(0);
+    }
+
+    /**
+     * Creates a store sharing content of at least minLength characters.
+     *
+     * @param minLength the shortest content to share.
+     */
+    public DedupStore(int minLength) {
+        minLength_ = minLength;
+    }
+
+    /**
+     * Return the number of distinct bodies held.
+     *
+     * @return the number of bodies.
+     */
+    public synchronized int getBodyCount() {
+        return bodies_;
+    }
+
+    /**
+     * Return the number of Files using a body of the store.
+     *
+     * @return the number of references.
+     */
+    public synchronized long getReferenceCount() {
+        return references_;
+    }
+
+    /**
+     * Return the bytes the bodies would take if each File had its own,
+     * counting two bytes per character.
+     *
+     * @return the logical size of the bodies.
+     */
+    public synchronized long getLogicalBytes() {
+        return 2 * logicalChars_;
+    }
+
+    /**
+     * Return the bytes taken by the bodies, counting two bytes per
+     * character.
+     *
+     * @return the stored size of the bodies.
+     */
+    public synchronized long getStoredBytes() {
+        return 2 * storedChars_;
+    }
+
+    /**
+     * Return the bytes saved by sharing bodies.
+     *
+     * @return the logical size less the stored size.
+     */
+    public synchronized long getBytesSaved() {
+        return 2 * (logicalChars_ - storedChars_);
+    }
+
+    /**
+     * Return the logical size of the bodies divided by their stored size.
+     *
+     * @return the dedup ratio, 1 if nothing is stored.
+     */
+    public synchronized double getDedupRatio() {
+        return storedChars_ == 0 ? 1 : (double) logicalChars_ / storedChars_;
+    }
+
+    /**
+     * Returns the body held for content, counting one more File using it.
+     *
+     * @param content the new content of a File.
+     * @return the Entry of the body, or null if none is held yet or content
+     * is too short to share.
+     */
+    synchronized Entry find(CharSequence content) {
+        if (content.length() < minLength_) {
+            return null;
+        }
+        for (Entry entry = entries_.get(hash(content)); entry != null;
+                entry = entry.next_) {
+            if (same(entry.content_, content)) {
+                acquire(entry);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Holds content as a new body, used by one File. Call after find
+     * returned null.
+     *
+     * @param content the new content of a File, which must never change.
+     * @return the Entry of the body, or null if content is too short to
+     * share.
+     */
+    synchronized Entry add(CharSequence content) {
+        if (content.length() < minLength_) {
+            return null;
+        }
+        long hash = hash(content);
+        Entry entry = new Entry(this, content, hash, entries_.get(hash));
+        entries_.put(hash, entry);
+        bodies_++;
+        storedChars_ += content.length();
+        acquire(entry);
+        return entry;
+    }
+
+    /**
+     * Counts one File less using the body of entry, dropping the body once
+     * no File uses it.
+     *
+     * @param entry the Entry returned by find or add.
+     */
+    synchronized void release(Entry entry) {
+        entry.references_--;
+        references_--;
+        logicalChars_ -= entry.content_.length();
+        if (entry.references_ > 0) {
+            return;
+        }
+        Entry first = entries_.get(entry.hash_);
+        if (first == entry) {
+            if (entry.next_ == null) {
+                entries_.remove(entry.hash_);
+            } else {
+                entries_.put(entry.hash_, entry.next_);
+            }
+        } else {
+            while (first.next_ != entry) {
+                first = first.next_;
+            }
+            first.next_ = entry.next_;
+        }
+        bodies_--;
+        storedChars_ -= entry.content_.length();
+    }
+
+    /**
+     * Counts a File added to the tree, sharing its content if an equal body
+     * is held.
+     *
+     * @param parent the Directory the item was added to.
+     * @param item the JShellItem that was added.
+     */
+    @Override
+    public void itemAdded(Directory parent, JShellItem item) {
+        if (isCounted(item) && ((File) item).getDedupEntry() == null) {
+            File file = (File) item;
+            CharSequence content = file.getContentView();
+            Entry entry = find(content);
+            file.setDedupEntry(entry == null ? add(content) : entry);
+        }
+    }
+
+    /**
+     * Stops counting a File removed from the tree.
+     *
+     * @param parent the Directory the item was removed from.
+     * @param item the JShellItem that was removed.
+     */
+    @Override
+    public void itemRemoved(Directory parent, JShellItem item) {
+        if (isCounted(item) && ((File) item).getDedupEntry() != null) {
+            ((File) item).getDedupEntry().release();
+            ((File) item).setDedupEntry(null);
+        }
+    }
+
+    /*
+     * Counts one more File using entry.
+     */
+    private void acquire(Entry entry) {
+        entry.references_++;
+        references_++;
+        logicalChars_ += entry.content_.length();
+    }
+
+    /*
+     * Checks whether item is a File with content of its own, not compressed
+     * by a ColdStore.
+     */
+    private static boolean isCounted(JShellItem item) {
+        if (!(item instanceof File) || item instanceof FileAlias
+                || item instanceof InodeTable.Node) {
+            return false;
+        }
+        CharSequence content = ((File) item).getStoredContent();
+        return content != null && !(content instanceof CompressedContent);
+    }
+
+    /*
+     * Returns the 64-bit FNV-1a hash of the characters of content.
+     */
+    private static long hash(CharSequence content) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < content.length(); i++) {
+            hash = (hash ^ content.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /*
+     * Checks whether a and b hold the same characters.
+     */
+    private static boolean same(CharSequence a, CharSequence b) {
+        if (a == b) {
+            return true;
+        }
+        if (a.length() != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < a.length(); i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A body held by the store and the number of Files using it.
+     */
+    static final class Entry {
+        /*
+         * The store holding the body.
+         */
+        private final DedupStore store_;
+        /*
+         * The shared content.
+         */
+        private final CharSequence content_;
+        /*
+         * The hash of content_.
+         */
+        private final long hash_;
+        /*
+         * The next body with the same hash, or null.
+         */
+        private Entry next_;
+        /*
+         * The number of Files using the body.
+         */
+        private int references_;
+
+        Entry(DedupStore store, CharSequence content, long hash, Entry next) {
+            store_ = store;
+            content_ = content;
+            hash_ = hash;
+            next_ = next;
+        }
+
+        /**
+         * Return the shared content.
+         *
+         * @return the body.
+         */
+        CharSequence getContent() {
+            return content_;
+        }
+
+        /**
+         * Counts one File less using the body.
+         */
+        void release() {
+            store_.release(this);
+        }
+    }
+}
@@ -1,12 +1,33 @@
 package jshell;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 /**
  * A JShell Directory object that can contain File objects as well as other 
  * Directory objects.
  *
+ * A Directory made by {@link #copyOf(Directory, String, Directory)} starts
+ * out empty and only remembers what it is a copy of. Its contents are
+ * filled in from the source the first time they are used, so copying a
+ * tree costs nothing until each part of the copy is read or changed, and
+ * File content is always shared with the source. The source keeps the
+ * copies still waiting for it, and fills them in before it, or an item
+ * beneath it, changes; so only the copied subtree pays for the copy, and
+ * nothing is saved for the rest of the tree.
+ *
  * @author Michael Kozakov <c1kozako>
  * @author Mohamed Khodeir <c1khodei>
  * @author Joseph Ben-Zion Kahn <g1boggyp>
@@ -14,69 +35,153 @@ import java.io.Serializable;
  */
 public class Directory extends JShellItem implements Serializable{
     /**
-     * Contents of the directory. The names are keys and JShellItems are values.
+     * Contents of the directory, indexed by lower case name. Null until the
+     * first item is added, so empty directories and aliases carry no index.
+     */
+    private ChildIndex contents_;
+
+    /**
+     * The number of Directories in contents_, kept up to date by addItem
+     * and removeItem.
+     */
+    private int numDirectories_;
+
+    /**
+     * The number of Files in contents_, kept up to date by addItem and
+     * removeItem.
+     */
+    private int numFiles_;
+    
+    /**
+     * The listener notified of changes in this tree. Only set on the root.
+     */
+    private transient TreeListener listener_;
+
+    /**
+     * Moved on whenever an item of the tree rooted at this Directory is
+     * renamed or moved, which makes every path cached in the tree stale.
+     * Only used on the root, and created on first use.
+     */
+    private transient AtomicLong pathGeneration_;
+
+    /**
+     * What this Directory is a copy of, until its contents are filled in.
+     */
+    private transient volatile PendingCopy copy_;
+
+    /**
+     * The copies of this Directory not yet filled in, or null. Guarded by
+     * the monitor of this Directory.
+     */
+    private transient Set<Directory> copies_;
+
+    /**
+     * Initializes the name and parentDirectory of the directory.
+     *
+     * @param name name of the Directory.
+     * @param parentDirectory the parent Directory.
      */
-    private HashMap<String, JShellItem> contents_;
+    public Directory(String name, Directory parentDirectory) {
+        super(name, parentDirectory);
+    }
 
     /**
-     * Initializes the name, path and parentDirectory of the directory.
+     * Initializes the name and parentDirectory of the directory.
      *
      * @param name name of the Directory.
-     * @param path the path of the Directory where the Directory is located.
+     * @param path ignored, the path is derived from parentDirectory.
      * @param parentDirectory the parent Directory.
+     * @deprecated use {@link #Directory(String, Directory)}.
      */
+    @Deprecated
     public Directory(String name, String path, Directory parentDirectory) {
-        super(name, path, parentDirectory);
-        contents_ = new HashMap<String, JShellItem>();
+        this(name, parentDirectory);
+    }
+
+    /**
+     * Returns a copy of source, named name, to be added to parent. The copy
+     * is made lazily when source and parent belong to a heap tree held by a
+     * FileSystem, and item by item otherwise. Files are copied as Files
+     * holding the same content and aliases are copied as what they point to.
+     *
+     * @param source the Directory to copy.
+     * @param name the name of the copy.
+     * @param parent the Directory the copy will be added to.
+     * @return the new Directory, not yet added to parent.
+     */
+    public static Directory copyOf(Directory source, String name,
+            Directory parent) {
+        Directory copy = new Directory(name, parent);
+        TreeListener listener = parent.getTreeListener();
+        if (listener instanceof FileSystem
+                && !(((FileSystem) listener).getRootDirectory()
+                        instanceof InodeTable.Node)
+                && !(source instanceof InodeTable.Node)
+                && !(parent instanceof InodeTable.Node)) {
+            copy.waitFor(source, (FileSystem) listener);
+            return copy;
+        }
+        for (JShellItem item : source.getContents().values()) {
+            if (item instanceof Directory) {
+                copy.addItem(copyOf((Directory) item, item.getName(), copy));
+            } else {
+                copy.addItem(new File(item.getName(), copy,
+                        ((File) item).getContentView()));
+            }
+        }
+        return copy;
     }
 
     /**
-     * Returns an ArrayList of contents of the directory.
+     * Returns a read-only view of the contents of the directory, keyed by
+     * lower case name and in the order the items were added.
      * 
-     * @return an arrayList of contents of the directory.
+     * @return a Map view of the contents of the directory.
      */
-    public HashMap<String, JShellItem> getContents() {
-        return contents_;
+    public Map<String, JShellItem> getContents() {
+        return new ContentsView();
     }
     
     /**
      * Replaces the contents of the directory with the contents in cont.
      * 
-     * @param cont a hashMap with String names for keys, and JShellItem values.
+     * @param cont a Map with String names for keys, and JShellItem values.
      */
-    public void setContents(HashMap<String, JShellItem> cont) {
-        contents_ = cont;
+    public void setContents(Map<String, JShellItem> cont) {
+        contents();
+        beforeChange();
+        contents_ = null;
+        numDirectories_ = 0;
+        numFiles_ = 0;
+        for (Map.Entry<String, JShellItem> entry : cont.entrySet()) {
+            if (contents_ == null) {
+                contents_ = new ChildIndex();
+            }
+            count(contents_.put(entry.getKey(), entry.getValue()), -1);
+            count(entry.getValue(), 1);
+        }
     }
     
     /**
-     * Returns an ArrayList of Directories contained in the directory.
+     * Returns a read-only view of the Directories contained in the directory.
+     * The view is backed by the directory, so it is never rebuilt.
      * 
-     * @return a hashmap of subdirectories of the directory. The keys are the 
-     * names of the subdirectories.
+     * @return a Map view of the subdirectories of the directory. The keys are
+     * the names of the subdirectories.
      */
-    public HashMap<String, Directory> getSubDirectories() {
-        HashMap<String, Directory> subdirs = new HashMap<String, Directory>();
-        for (JShellItem i : contents_.values()) {
-            if (i instanceof Directory) {
-                subdirs.put(i.getName(), (Directory) i);
-            }
-        }
-        return subdirs;
+    public Map<String, Directory> getSubDirectories() {
+        return new TypedView<Directory>(Directory.class);
     }
 
     /**
-     * Returns an ArrayList of Files contained in the directory.
+     * Returns a read-only view of the Files contained in the directory. The
+     * view is backed by the directory, so it is never rebuilt.
      * 
-     * @return an ArrayList of files contained in the directory.
+     * @return a Map view of the files contained in the directory. The keys
+     * are the names of the files.
      */
-    public HashMap<String, File> getFiles() {
-        HashMap<String, File> files = new HashMap<String, File>();
-        for (JShellItem i : contents_.values()) {
-            if (i instanceof File) {
-                files.put(i.getName(), (File) i);
-            }
-        }
-        return files;
+    public Map<String, File> getFiles() {
+        return new TypedView<File>(File.class);
     }
 
     /**
@@ -85,7 +190,22 @@ public class Directory extends JShellItem implements Serializable{
      * @return the JShellItem in contents_ that matches the String name.
      */
     public JShellItem getItem(String name) {
-        return contents_.get(name.toLowerCase());
+        return getItem(name, 0, name.length());
+    }
+
+    /**
+     * Returns the JShellItem in contents_ whose name matches, ignoring case,
+     * the characters of name between start and end. Used to resolve the
+     * components of a path without splitting it.
+     * 
+     * @param name a String holding the name, such as a path.
+     * @param start the index of the first character of the name.
+     * @param end the index after the last character of the name.
+     * @return the matching JShellItem, or null if there is none.
+     */
+    public JShellItem getItem(String name, int start, int end) {
+        ChildIndex contents = contents();
+        return contents == null ? null : contents.get(name, start, end);
     }
 
     /**
@@ -94,7 +214,22 @@ public class Directory extends JShellItem implements Serializable{
      * @param item the JShellItem to be removed from the directory.
      */
     public void removeItem(JShellItem item) {
-        contents_.remove(item.getName().toLowerCase());
+        if (contents() == null
+                || !contents_.containsKey(item.getFoldedName())) {
+            return;
+        }
+        beforeChange();
+        JShellItem removed = contents_.remove(item.getFoldedName());
+        if (contents_.size() == 0) {
+            contents_ = null;
+        }
+        count(removed, -1);
+        if (removed != null) {
+            TreeListener listener = getTreeListener();
+            if (listener != null) {
+                listener.itemRemoved(this, removed);
+            }
+        }
     }
 
     /**
@@ -103,7 +238,61 @@ public class Directory extends JShellItem implements Serializable{
      * @param item the JShellItem to be added to the directory.
      */
     public void addItem(JShellItem item) {
-        contents_.put(item.getName().toLowerCase(), item);
+        contents();
+        beforeChange();
+        if (contents_ == null) {
+            contents_ = new ChildIndex();
+        }
+        JShellItem replaced = contents_.put(item.getFoldedName(), item);
+        count(replaced, -1);
+        count(item, 1);
+        TreeListener listener = getTreeListener();
+        if (listener != null) {
+            if (replaced != null && replaced != item) {
+                listener.itemRemoved(this, replaced);
+            }
+            listener.itemAdded(this, item);
+        }
+    }
+
+    /**
+     * Registers listener to be notified of every item added to or removed
+     * from the tree rooted at this Directory.
+     * 
+     * @param listener the TreeListener, or null to stop notifications.
+     */
+    public void setTreeListener(TreeListener listener) {
+        listener_ = listener;
+    }
+
+    /**
+     * Returns the TreeListener registered on the root of the tree containing
+     * this Directory.
+     * 
+     * @return the root's TreeListener, or null if there is none.
+     */
+    public TreeListener getTreeListener() {
+        Directory dir = this;
+        while (dir.listener_ == null) {
+            Directory parent = dir.getParentDirectory();
+            if (parent == null || parent == dir) {
+                return null;
+            }
+            dir = parent;
+        }
+        return dir.listener_;
+    }
+
+    /**
+     * Returns the path generation of the tree rooted at this Directory.
+     * 
+     * @return the counter, created on the first call.
+     */
+    synchronized AtomicLong getPathGeneration() {
+        if (pathGeneration_ == null) {
+            pathGeneration_ = new AtomicLong();
+        }
+        return pathGeneration_;
     }
 
     /**
@@ -114,7 +303,7 @@ public class Directory extends JShellItem implements Serializable{
      * JShellItem item.
      */
     public boolean contains(String item) {
-        return contents_.containsKey(item.toLowerCase());
+        return getItem(item) != null;
     }
 
     /**
@@ -125,9 +314,8 @@ public class Directory extends JShellItem implements Serializable{
      */
     @Override
     public String ls() {
-        HashMap<String, JShellItem> contents = getContents();
         String itemList = ":";
-        for (JShellItem item : contents.values()) {
+        for (JShellItem item : getContents().values()) {
             itemList += "\n" + item.getName();
         }
         return itemList;
@@ -140,15 +328,371 @@ public class Directory extends JShellItem implements Serializable{
      */
     @Override
     public int getSize() {
-    	return contents_.size();
+        ChildIndex contents = contents();
+        return contents == null ? 0 : contents.size();
     }
     
     /**
-     * Return the number of children of this Directory.
+     * Return the number of Directories directly inside this Directory.
      * 
-     * @return a String representation of an error message.
+     * @return the number of subdirectories.
      */
     public int getNumDirectories() {
-    	return getSubDirectories().size();
+        contents();
+        return numDirectories_;
+    }
+
+    /**
+     * Return the number of Files directly inside this Directory.
+     * 
+     * @return the number of files.
+     */
+    public int getNumFiles() {
+        contents();
+        return numFiles_;
+    }
+
+    /**
+     * Return the names and items of the directory, which is what snapshots
+     * preserve.
+     * 
+     * @return the current Children of the directory.
+     */
+    @Override
+    Object captureState() {
+        return Snapshot.Children.of(getContents());
+    }
+
+    /*
+     * Returns the index of the directory, filling it in first if the
+     * directory is a copy that has not been used yet.
+     */
+    private ChildIndex contents() {
+        if (copy_ != null) {
+            materialize();
+        }
+        return contents_;
+    }
+
+    /**
+     * Fills in every copy waiting for a Directory that item is, or is
+     * beneath, before item changes. The copies are filled in from the root
+     * down, so that the copies of the children made on the way are filled
+     * in too. Called with the write lock of the FileSystem held.
+     *
+     * @param item the JShellItem about to change.
+     */
+    static void fillCopiesOf(JShellItem item) {
+        ArrayList<Directory> ancestors = new ArrayList<Directory>();
+        Directory dir = item instanceof Directory ? (Directory) item
+                : item.getParentDirectory();
+        while (dir != null) {
+            ancestors.add(dir);
+            Directory parent = dir.getParentDirectory();
+            dir = parent == dir ? null : parent;
+        }
+        for (int i = ancestors.size() - 1; i >= 0; i--) {
+            ancestors.get(i).fillCopies();
+        }
+    }
+
+    /*
+     * Makes this Directory a copy of source waiting to be filled in.
+     */
+    private void waitFor(Directory source, FileSystem fileSystem) {
+        copy_ = new PendingCopy(source, fileSystem);
+        fileSystem.addPendingCopies(1);
+        Directory watched = watched(source);
+        synchronized (watched) {
+            if (watched.copies_ == null) {
+                watched.copies_ = Collections.newSetFromMap(
+                        new IdentityHashMap<Directory, Boolean>());
+            }
+            watched.copies_.add(this);
+        }
+    }
+
+    /*
+     * Returns the Directory whose changes a copy of source must be filled
+     * in before: the Directory a DirectoryAlias points to, or source.
+     */
+    private static Directory watched(Directory source) {
+        if (source instanceof DirectoryAlias) {
+            Directory pointer = ((DirectoryAlias) source).getPointer();
+            if (!source.isChildOf(pointer)) {
+                return pointer;
+            }
+        }
+        return source;
+    }
+
+    /*
+     * Fills in the copies waiting for this Directory.
+     */
+    private void fillCopies() {
+        Directory[] copies;
+        synchronized (this) {
+            if (copies_ == null) {
+                return;
+            }
+            copies = copies_.toArray(new Directory[copies_.size()]);
+        }
+        for (Directory copy : copies) {
+            copy.materialize();
+        }
+    }
+
+    /*
+     * Fills in the contents of a copy from its source, as copies of the
+     * children that are themselves filled in when first used. The read lock
+     * is taken before the monitor of the directory, in the same order as by
+     * sessions that read the tree.
+     */
+    private void materialize() {
+        PendingCopy copy = copy_;
+        if (copy == null) {
+            return;
+        }
+        Lock lock = copy.fileSystem_.readLock();
+        lock.lock();
+        try {
+            synchronized (this) {
+                if (copy_ == null) {
+                    return;
+                }
+                for (JShellItem item : copy.source_.getContents().values()) {
+                    JShellItem child;
+                    if (item instanceof Directory) {
+                        Directory dir = new Directory(item.getName(), this);
+                        dir.waitFor((Directory) item, copy.fileSystem_);
+                        child = dir;
+                    } else {
+                        child = new File(item.getName(), this,
+                                ((File) item).getContentView());
+                    }
+                    if (contents_ == null) {
+                        contents_ = new ChildIndex();
+                    }
+                    contents_.put(child.getFoldedName(), child);
+                    count(child, 1);
+                }
+                copy_ = null;
+                Directory watched = watched(copy.source_);
+                synchronized (watched) {
+                    watched.copies_.remove(this);
+                    if (watched.copies_.isEmpty()) {
+                        watched.copies_ = null;
+                    }
+                }
+                copy.fileSystem_.addPendingCopies(-1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Fills in a copy before it is written out, so that the stream holds
+     * the whole tree.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        contents();
+        out.defaultWriteObject();
+    }
+
+    /*
+     * Adds delta to the count kept for the type of item, if item is not null.
+     */
+    private void count(JShellItem item, int delta) {
+        if (item instanceof Directory) {
+            numDirectories_ += delta;
+        } else if (item instanceof File) {
+            numFiles_ += delta;
+        }
+    }
+
+    /*
+     * Returns the items of this directory's own index, in the order they
+     * were added.
+     */
+    private Iterable<JShellItem> items() {
+        ChildIndex contents = contents();
+        if (contents == null) {
+            return Collections.<JShellItem>emptyList();
+        }
+        return contents;
+    }
+
+    /**
+     * A read-only Map view of the items of one type in the enclosing
+     * Directory, keyed by their names. Its size comes from the counts kept
+     * by the Directory.
+     */
+    private class TypedView<T extends JShellItem> extends AbstractMap<String, T> {
+        /*
+         * The type of the items in the view.
+         */
+        private final Class<T> type_;
+
+        TypedView(Class<T> type) {
+            type_ = type;
+        }
+
+        @Override
+        public int size() {
+            return type_ == Directory.class ? getNumDirectories()
+                    : getNumFiles();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public T get(Object key) {
+            ChildIndex contents = contents();
+            if (!(key instanceof String) || contents == null) {
+                return null;
+            }
+            String name = (String) key;
+            JShellItem item = contents.get(name, 0, name.length());
+            if (type_.isInstance(item) && item.getName().equals(key)) {
+                return type_.cast(item);
+            }
+            return null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, T>> entrySet() {
+            return new AbstractSet<Map.Entry<String, T>>() {
+                @Override
+                public int size() {
+                    return TypedView.this.size();
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, T>> iterator() {
+                    final Iterator<JShellItem> items = items().iterator();
+                    return new Iterator<Map.Entry<String, T>>() {
+                        private T next_ = advance();
+
+                        private T advance() {
+                            while (items.hasNext()) {
+                                JShellItem item = items.next();
+                                if (type_.isInstance(item)) {
+                                    return type_.cast(item);
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next_ != null;
+                        }
+
+                        @Override
+                        public Map.Entry<String, T> next() {
+                            if (next_ == null) {
+                                throw new NoSuchElementException();
+                            }
+                            T item = next_;
+                            next_ = advance();
+                            return new SimpleImmutableEntry<String, T>(
+                                    item.getName(), item);
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * A read-only Map view of the ChildIndex of the enclosing Directory.
+     */
+    private class ContentsView extends AbstractMap<String, JShellItem> {
+
+        @Override
+        public int size() {
+            ChildIndex contents = contents();
+            return contents == null ? 0 : contents.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public JShellItem get(Object key) {
+            ChildIndex contents = contents();
+            if (!(key instanceof String) || contents == null) {
+                return null;
+            }
+            JShellItem item = contents.get((String) key);
+            if (item != null && item.getFoldedName().equals(key)) {
+                return item;
+            }
+            return null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, JShellItem>> entrySet() {
+            return new AbstractSet<Map.Entry<String, JShellItem>>() {
+                @Override
+                public int size() {
+                    return ContentsView.this.size();
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, JShellItem>> iterator() {
+                    final Iterator<JShellItem> items = items().iterator();
+                    return new Iterator<Map.Entry<String, JShellItem>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return items.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, JShellItem> next() {
+                            JShellItem item = items.next();
+                            return new SimpleImmutableEntry<String, JShellItem>(
+                                    item.getFoldedName(), item);
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * The source of a Directory whose contents have not been filled in yet,
+     * and the FileSystem holding it.
+     */
+    private static final class PendingCopy {
+        /*
+         * The Directory the copy is a copy of.
+         */
+        private final Directory source_;
+        /*
+         * The FileSystem holding the source.
+         */
+        private final FileSystem fileSystem_;
+
+        PendingCopy(Directory source, FileSystem fileSystem) {
+            source_ = source;
+            fileSystem_ = fileSystem;
+        }
     }
 }
@@ -1,6 +1,6 @@
 package jshell;
 
-import java.util.HashMap;
+import java.util.Map;
 
 /**
  * A JShell DirectoryAlias object that acts as a shortcut to a directory
@@ -19,35 +19,58 @@ public class DirectoryAlias extends Directory {
     /**
      * Initializes instance variables
      * @param name
-     * @param path
      * @param parentDirectory
      * @param link 
      */
+    public DirectoryAlias(String name, Directory parentDirectory,
+            Directory link) {
+        super(name, parentDirectory);
+        pointer_ = link;
+    }
+
+    /**
+     * Initializes instance variables
+     * @param name
+     * @param path ignored, the path is derived from parentDirectory.
+     * @param parentDirectory
+     * @param link 
+     * @deprecated use {@link #DirectoryAlias(String, Directory, Directory)}.
+     */
+    @Deprecated
     public DirectoryAlias(String name, String path,
                 Directory parentDirectory, Directory link) {
-		super(name, path, parentDirectory);
-		pointer_ = link;
-	}
+        this(name, parentDirectory, link);
+    }
+
+    /**
+     * Return the Directory this alias points to.
+     * 
+     * @return the linked Directory.
+     */
+    public Directory getPointer() {
+        return pointer_;
+    }
+
     /**
      * Returns an ArrayList of contents of the directory.
      * 
      * @return an arrayList of contents of the directory.
      */
     @Override
-    public HashMap<String, JShellItem> getContents() {
-    	if (this.isChildOf(pointer_))
+    public Map<String, JShellItem> getContents() {
+    	if (this.isChildOf(getPointer()))
     		return super.getContents();
-        return pointer_.getContents();
+        return getPointer().getContents();
     }
     
     /**
      * Replaces the contents of the directory with the contents in cont.
      * 
-     * @param cont a hashMap with String names for keys, and JShellItem values.
+     * @param cont a Map with String names for keys, and JShellItem values.
      */
     @Override
-    public void setContents(HashMap<String, JShellItem> cont) {
-        pointer_.setContents(cont);
+    public void setContents(Map<String, JShellItem> cont) {
+        getPointer().setContents(cont);
     }
     
     /**
@@ -57,8 +80,8 @@ public class DirectoryAlias extends Directory {
      * names of the subdirectories.
      */
     @Override
-    public HashMap<String, Directory> getSubDirectories() {
-        return pointer_.getSubDirectories();
+    public Map<String, Directory> getSubDirectories() {
+        return getPointer().getSubDirectories();
     }
 
     /**
@@ -67,8 +90,8 @@ public class DirectoryAlias extends Directory {
      * @return an ArrayList of files contained in the directory.
      */
     @Override
-    public HashMap<String, File> getFiles() {
-        return pointer_.getFiles();
+    public Map<String, File> getFiles() {
+        return getPointer().getFiles();
     }
 
     /**
@@ -78,7 +101,21 @@ public class DirectoryAlias extends Directory {
      */
     @Override
     public JShellItem getItem(String name) {
-        return pointer_.getItem(name);
+        return getPointer().getItem(name);
+    }
+
+    /**
+     * Returns the JShellItem in the referenced Directory whose name matches
+     * the characters of name between start and end.
+     * 
+     * @param name a String holding the name, such as a path.
+     * @param start the index of the first character of the name.
+     * @param end the index after the last character of the name.
+     * @return the matching JShellItem, or null if there is none.
+     */
+    @Override
+    public JShellItem getItem(String name, int start, int end) {
+        return getPointer().getItem(name, start, end);
     }
 
     /**
@@ -88,7 +125,7 @@ public class DirectoryAlias extends Directory {
      */
     @Override
     public void removeItem(JShellItem item) {
-        pointer_.removeItem(item);
+        getPointer().removeItem(item);
     }
 
     /**
@@ -98,7 +135,7 @@ public class DirectoryAlias extends Directory {
      */
     @Override
     public void addItem(JShellItem item) {
-        pointer_.addItem(item);
+        getPointer().addItem(item);
     }
 
     /**
@@ -110,7 +147,7 @@ public class DirectoryAlias extends Directory {
      */
     @Override
     public boolean contains(String item) {
-        return pointer_.contains(item);
+        return getPointer().contains(item);
     }
 
     /**
@@ -121,9 +158,9 @@ public class DirectoryAlias extends Directory {
      */
     @Override
     public String ls() {
-    	if (this.isChildOf(pointer_))
+    	if (this.isChildOf(getPointer()))
     		return "";
-        return pointer_.ls();
+        return getPointer().ls();
     }
     
     /**
@@ -133,9 +170,9 @@ public class DirectoryAlias extends Directory {
      */
     @Override
     public int getSize() {
-    	if (this.isChildOf(pointer_))
+    	if (this.isChildOf(getPointer()))
     		return super.getSize();
-    	return pointer_.getSize();
+    	return getPointer().getSize();
     }
     
     /**
@@ -145,9 +182,21 @@ public class DirectoryAlias extends Directory {
      */
     @Override
     public int getNumDirectories() {
-    	if (this.isChildOf(pointer_))
+    	if (this.isChildOf(getPointer()))
     		return super.getNumDirectories();
-    	return pointer_.getNumDirectories();
+    	return getPointer().getNumDirectories();
     }
 
+    /**
+     * Return the number of Files directly inside the linked Directory.
+     * 
+     * @return the number of files.
+     */
+    @Override
+    public int getNumFiles() {
+        if (this.isChildOf(getPointer())) {
+            return super.getNumFiles();
+        }
+        return getPointer().getNumFiles();
+    }
 }
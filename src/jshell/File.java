@@ -1,10 +1,16 @@
 package jshell;
 
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
  * A JShell File object that can store text (String) information.
  *
+ * The content is a String, a FileContent once the File has been appended
+ * to, or a MappedContent once it reaches the threshold of the ContentStore
+ * of its FileSystem. Content is never changed in place, so the sequence
+ * returned by getContentView can be read and shared without copying.
+ *
  * @author Michael Kozakov <c1kozako>
  * @author Mohamed Khodeir <c1khodei>
  * @author Joseph Ben-Zion Kahn <g1boggyp>
@@ -13,24 +19,87 @@ import java.io.Serializable;
 @SuppressWarnings("serial")
 public class File extends JShellItem implements Serializable{
     /*
-     * The contents of the file, of the type String.
+     * The contents of the file, an immutable CharSequence.
+     */
+    private CharSequence content_;
+
+    /*
+     * The body of the DedupStore this File shares, or null.
+     */
+    private transient DedupStore.Entry dedupEntry_;
+
+    /*
+     * The time in milliseconds the content was last read or written. Set by
+     * readers holding only the read lock, so volatile.
      */
-    private String content_;
+    private transient volatile long readTime_;
+
+    /*
+     * The offsets of the lines of the content, built when first needed.
+     */
+    private transient LineIndex lineIndex_;
 
     /**
-     * Initializes the name path and parentDirectory of the file
+     * Initializes the name and parentDirectory of the file
      * 
      * @param name the name of the File.
-     * @param path the working directory of File.
      * @param parentDirectory the parent Directory.
      */
+    public File(String name, Directory parentDirectory) {
+        this(name, parentDirectory, "");
+    }
+
+    /**
+     * Initializes the name, parentDirectory and content of the file
+     * 
+     * @param name the name of the File.
+     * @param parentDirectory the parent Directory.
+     * @param content the initial content of the File.
+     */
+    public File(String name, Directory parentDirectory, String content) {
+        super(name, parentDirectory);
+        content_ = content;
+    }
+
+    /**
+     * Initializes the name and parentDirectory of the file
+     * 
+     * @param name the name of the File.
+     * @param path ignored, the path is derived from parentDirectory.
+     * @param parentDirectory the parent Directory.
+     * @deprecated use {@link #File(String, Directory)}.
+     */
+    @Deprecated
     public File(String name, String path, Directory parentDirectory) {
-        super(name, path, parentDirectory);
-        content_ = "";
+        this(name, parentDirectory);
     }
+
+    /**
+     * Initializes the name, parentDirectory and content of the file
+     * 
+     * @param name the name of the File.
+     * @param path ignored, the path is derived from parentDirectory.
+     * @param parentDirectory the parent Directory.
+     * @param content the initial content of the File.
+     * @deprecated use {@link #File(String, Directory, String)}.
+     */
+    @Deprecated
     public File(String name, String path, Directory parentDirectory,
             String content) {
-        super(name, path, parentDirectory);
+        this(name, parentDirectory, content);
+    }
+
+    /**
+     * Initializes the name, parentDirectory and content of the file, sharing
+     * content, which must never change, such as the content view of another
+     * File.
+     * 
+     * @param name the name of the File.
+     * @param parentDirectory the parent Directory.
+     * @param content the initial content of the File.
+     */
+    File(String name, Directory parentDirectory, CharSequence content) {
+        super(name, parentDirectory);
         content_ = content;
     }
     /**
@@ -40,9 +109,111 @@ public class File extends JShellItem implements Serializable{
      * the File object.
      */
     public void setContent(String text) {
+        setContent((CharSequence) text);
+    }
+
+    /**
+     * Replace the File's content with text, which is stored in the
+     * ContentStore of the FileSystem if it is long enough. Content views of
+     * other Files are shared rather than copied.
+     * 
+     * @param text the characters to be the new content of the File object.
+     */
+    public void setContent(CharSequence text) {
+        beforeChange();
+        if (!(text instanceof String || text instanceof FileContent
+                || text instanceof MappedContent)) {
+            text = text.toString();
+        }
+        FileSystem fileSystem = getFileSystem();
+        DedupStore dedup = fileSystem == null ? null
+                : fileSystem.getDedupStore();
+        releaseDedupEntry();
+        written(fileSystem);
+        if (dedup != null) {
+            // Equal content already held is shared instead of stored again.
+            dedupEntry_ = dedup.find(text);
+            if (dedupEntry_ != null) {
+                content_ = dedupEntry_.getContent();
+                return;
+            }
+        }
+        ContentStore store = fileSystem == null ? null
+                : fileSystem.getContentStore();
+        if (store != null && text.length() >= store.getThreshold()
+                && !(text instanceof MappedContent
+                        && ((MappedContent) text).getStore() == store)) {
+            try {
+                text = store.put(text);
+            } catch (IOException e) {
+                // The content stays on the heap.
+            }
+        }
+        if (dedup != null) {
+            dedupEntry_ = dedup.add(text);
+        }
         content_ = text;
     }
 
+    /**
+     * Add text at the end of the File's content. Only the added text is
+     * copied, however long the File already is.
+     * 
+     * @param text the characters to be added to the content of the File
+     * object.
+     */
+    public void append(CharSequence text) {
+        beforeChange();
+        releaseDedupEntry();
+        FileSystem fileSystem = getFileSystem();
+        LineIndex index = lineIndex_;
+        CharSequence old = content_;
+        written(fileSystem);
+        try {
+            appendContent(fileSystem, text);
+        } finally {
+            // Only the appended characters are scanned for new lines.
+            if (index != null && index.getSource() == old) {
+                lineIndex_ = index.extend(content_, getContentView());
+            }
+        }
+    }
+
+    /*
+     * Replaces the content with the content followed by text.
+     */
+    private void appendContent(FileSystem fileSystem, CharSequence text) {
+        ContentStore store = fileSystem == null ? null
+                : fileSystem.getContentStore();
+        if (store != null && (content_ instanceof MappedContent
+                || content_.length() + text.length() >= store.getThreshold())) {
+            try {
+                content_ = store.append(content_, text);
+                return;
+            } catch (IOException e) {
+                // The content stays on the heap.
+            }
+        }
+        FileContent content = content_ instanceof FileContent
+                ? (FileContent) content_ : FileContent.of(getContent());
+        content_ = content.append(text.toString());
+    }
+
+    /**
+     * Return the content of the File without joining it into one String.
+     * The returned sequence never changes, even if the File does.
+     * 
+     * @return the content of the File.
+     */
+    public CharSequence getContentView() {
+        markRead();
+        CharSequence content = content_;
+        if (content instanceof CompressedContent) {
+            return content.toString();
+        }
+        return content;
+    }
+
     /**
      * Return the content of the File.
      * 
@@ -50,6 +221,122 @@ public class File extends JShellItem implements Serializable{
      */
     @Override
     public String getContent() {
+        CharSequence content = getContentView();
+        return content == null ? null : content.toString();
+    }
+
+    /**
+     * Return the content of the File, which is what snapshots preserve.
+     * 
+     * @return the content of the File.
+     */
+    @Override
+    Object captureState() {
+        return getStoredContent();
+    }
+
+    /**
+     * Return the offsets of the lines of the content, building them the
+     * first time they are needed after the content was replaced.
+     * 
+     * @return the LineIndex of the current content.
+     */
+    public LineIndex getLineIndex() {
+        markRead();
+        CharSequence stored = getStoredContent();
+        LineIndex index = lineIndex_;
+        if (index == null || index.getSource() != stored) {
+            CharSequence text = stored instanceof CompressedContent
+                    ? stored.toString() : stored;
+            index = new LineIndex(stored, text == null ? "" : text);
+            lineIndex_ = index;
+        }
+        return index;
+    }
+
+    /**
+     * Return the content as stored, which may be compressed.
+     * 
+     * @return the stored content.
+     */
+    CharSequence getStoredContent() {
         return content_;
-    }       
+    }
+
+    /**
+     * Replace the stored content with an equal one, such as its compressed
+     * form. Called with the write lock held.
+     * 
+     * @param content the new stored content.
+     */
+    void setStoredContent(CharSequence content) {
+        content_ = content;
+    }
+
+    /**
+     * Return the time the content was last read or written.
+     * 
+     * @return the time in milliseconds.
+     */
+    long getReadTime() {
+        return readTime_;
+    }
+
+    /**
+     * Records that the content was just read, such as through a Snapshot,
+     * so that the ColdStore leaves it alone for a while.
+     */
+    void markRead() {
+        readTime_ = System.currentTimeMillis();
+    }
+
+    /*
+     * Releases compressed content about to be replaced and tracks the File
+     * in the ColdStore of fileSystem.
+     */
+    private void written(FileSystem fileSystem) {
+        readTime_ = System.currentTimeMillis();
+        lineIndex_ = null;
+        if (content_ instanceof CompressedContent) {
+            ((CompressedContent) content_).getStore().release(
+                    (CompressedContent) content_);
+        }
+        ColdStore cold = fileSystem == null ? null
+                : fileSystem.getColdStore();
+        if (cold != null) {
+            cold.track(this);
+        }
+    }
+
+    /**
+     * Return the body of the DedupStore this File shares.
+     * 
+     * @return the Entry, or null if the content is not shared.
+     */
+    DedupStore.Entry getDedupEntry() {
+        return dedupEntry_;
+    }
+
+    /**
+     * Share the body of entry, or stop sharing a body.
+     * 
+     * @param entry an Entry of the DedupStore holding content equal to this
+     * File's, or null.
+     */
+    void setDedupEntry(DedupStore.Entry entry) {
+        dedupEntry_ = entry;
+        if (entry != null) {
+            content_ = entry.getContent();
+        }
+    }
+
+    /*
+     * Stops sharing a body of the DedupStore before the content changes.
+     */
+    private void releaseDedupEntry() {
+        if (dedupEntry_ != null) {
+            dedupEntry_.release();
+            dedupEntry_ = null;
+        }
+    }
 }
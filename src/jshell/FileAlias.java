@@ -19,19 +19,41 @@ public class FileAlias extends File implements Serializable {
     private File filePointer_;
     
     /**
-     * Initializes the name, path, parentDirectory and filePointer of the alias.
+     * Initializes the name, parentDirectory and filePointer of the alias.
      * 
      * @param name the name of the FileAlias.
-     * @param path the working directory of FileAlias.
      * @param parentDirectory the parent Directory.
      * @param pointer the File to be linked to.
      */
+    public FileAlias(String name, Directory parentDirectory, File pointer) {
+        super(name, parentDirectory);
+        filePointer_ = pointer;
+    }
+
+    /**
+     * Initializes the name, parentDirectory and filePointer of the alias.
+     * 
+     * @param name the name of the FileAlias.
+     * @param path ignored, the path is derived from parentDirectory.
+     * @param parentDirectory the parent Directory.
+     * @param pointer the File to be linked to.
+     * @deprecated use {@link #FileAlias(String, Directory, File)}.
+     */
+    @Deprecated
     public FileAlias(String name, String path, Directory parentDirectory, 
             File pointer) {
-        super(name, path, parentDirectory);
-        filePointer_ = pointer;
+        this(name, parentDirectory, pointer);
     }
     
+    /**
+     * Return the File this alias points to.
+     * 
+     * @return the linked File.
+     */
+    public File getPointer() {
+        return filePointer_;
+    }
+
     /**
      * Return the content of referenced File object.
      * 
@@ -39,7 +61,7 @@ public class FileAlias extends File implements Serializable {
      */
     @Override
     public String getContent() {
-        return filePointer_.getContent();
+        return getPointer().getContent();
     }
     
     /**
@@ -50,6 +72,48 @@ public class FileAlias extends File implements Serializable {
      */
     @Override
     public void setContent(String text) {
-        filePointer_.setContent(text);
+        getPointer().setContent(text);
+    }
+
+    /**
+     * Replace the referenced File's content with text.
+     * 
+     * @param text the characters to be the new content of the referenced
+     * File object.
+     */
+    @Override
+    public void setContent(CharSequence text) {
+        getPointer().setContent(text);
+    }
+
+    /**
+     * Add text at the end of the referenced File's content.
+     * 
+     * @param text the characters to be added to the content of the
+     * referenced File object.
+     */
+    @Override
+    public void append(CharSequence text) {
+        getPointer().append(text);
+    }
+
+    /**
+     * Return the offsets of the lines of the referenced File.
+     * 
+     * @return the LineIndex of the referenced File.
+     */
+    @Override
+    public LineIndex getLineIndex() {
+        return getPointer().getLineIndex();
+    }
+
+    /**
+     * Return the content of the referenced File without joining it.
+     * 
+     * @return the content of the referenced File.
+     */
+    @Override
+    public CharSequence getContentView() {
+        return getPointer().getContentView();
     }
 }
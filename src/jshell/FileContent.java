@@ -0,0 +1,205 @@
+package jshell;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The content of a File, kept as the list of chunks it was written in, so
+ * that appending to a File costs as much as the appended text instead of
+ * the whole content.
+ *
+ * A FileContent never changes once made: append returns a new FileContent
+ * that shares the chunks of this one. The chunks themselves are stored in
+ * an array that grows in place as long as only the newest FileContent is
+ * appended to, so a File appended to many times holds a single array. The
+ * content is joined into one String the first time it is asked for, and
+ * the String is kept with it.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+@SuppressWarnings("serial")
+public final class FileContent implements CharSequence, Serializable {
+    /**
+     * A FileContent holding no text.
+     */
+    public static final FileContent EMPTY = new FileContent(new Chunks(), 0,
+            0);
+
+    /*
+     * The chunks this content is made of, possibly followed by chunks
+     * appended to other contents sharing the array.
+     */
+    private final Chunks chunks_;
+    /*
+     * The number of chunks of chunks_ that belong to this content.
+     */
+    private final int count_;
+    /*
+     * The total length of those chunks.
+     */
+    private final int length_;
+    /*
+     * The chunks joined into one String, once asked for.
+     */
+    private transient volatile String flat_;
+
+    /*
+     * Creates the content made of the first count chunks of chunks.
+     */
+    private FileContent(Chunks chunks, int count, int length) {
+        chunks_ = chunks;
+        count_ = count;
+        length_ = length;
+    }
+
+    /**
+     * Returns a FileContent holding text.
+     *
+     * @param text the text.
+     * @return text as a FileContent.
+     */
+    public static FileContent of(String text) {
+        if (text.isEmpty()) {
+            return EMPTY;
+        }
+        FileContent content = new FileContent(new Chunks(), 0, 0)
+                .append(text);
+        content.flat_ = text;
+        return content;
+    }
+
+    /**
+     * Returns this content followed by text. This content is not changed.
+     *
+     * @param text the text to add at the end.
+     * @return the longer FileContent.
+     */
+    public FileContent append(String text) {
+        if (text.isEmpty()) {
+            return this;
+        }
+        Chunks chunks = chunks_.add(count_, text, length_);
+        return new FileContent(chunks, count_ + 1, length_ + text.length());
+    }
+
+    /**
+     * Return the number of chunks the content is made of.
+     *
+     * @return the number of appended chunks.
+     */
+    public int getChunkCount() {
+        return count_;
+    }
+
+    @Override
+    public int length() {
+        return length_;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length_) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        String flat = flat_;
+        if (flat != null) {
+            return flat.charAt(index);
+        }
+        return chunks_.charAt(count_, index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /**
+     * Returns the content as one String, joining the chunks the first time.
+     *
+     * @return the text of the content.
+     */
+    @Override
+    public String toString() {
+        String flat = flat_;
+        if (flat == null) {
+            flat = chunks_.join(count_, length_);
+            flat_ = flat;
+        }
+        return flat;
+    }
+
+    /*
+     * Writes the content as a single String, which is read back as is.
+     */
+    private Object writeReplace() {
+        return toString();
+    }
+
+    /**
+     * An array of chunks shared by the FileContents appended from one
+     * another, with the offset at which each chunk ends.
+     */
+    private static final class Chunks {
+        /*
+         * The chunks, of which the first size_ are used.
+         */
+        private String[] texts_ = new String[4];
+        /*
+         * The offset after the last character of each chunk.
+         */
+        private int[] ends_ = new int[4];
+        /*
+         * The number of chunks used by the longest content.
+         */
+        private int size_;
+
+        /*
+         * Returns the Chunks holding the first count chunks of this followed
+         * by text. The array is appended to in place only by the content
+         * that uses all of it; any other content copies its own chunks.
+         */
+        synchronized Chunks add(int count, String text, int length) {
+            Chunks chunks = this;
+            if (count != size_) {
+                chunks = new Chunks();
+                chunks.texts_ = Arrays.copyOf(texts_, count + 4);
+                chunks.ends_ = Arrays.copyOf(ends_, count + 4);
+                chunks.size_ = count;
+            } else if (count == texts_.length) {
+                texts_ = Arrays.copyOf(texts_, count * 2);
+                ends_ = Arrays.copyOf(ends_, count * 2);
+            }
+            chunks.texts_[count] = text;
+            chunks.ends_[count] = length + text.length();
+            chunks.size_ = count + 1;
+            return chunks;
+        }
+
+        /*
+         * Returns the character at index of the first count chunks.
+         */
+        synchronized char charAt(int count, int index) {
+            int chunk = Arrays.binarySearch(ends_, 0, count, index);
+            chunk = chunk < 0 ? -chunk - 1 : chunk + 1;
+            int start = chunk == 0 ? 0 : ends_[chunk - 1];
+            return texts_[chunk].charAt(index - start);
+        }
+
+        /*
+         * Returns the first count chunks joined.
+         */
+        synchronized String join(int count, int length) {
+            if (count == 1) {
+                return texts_[0];
+            }
+            StringBuilder joined = new StringBuilder(length);
+            for (int i = 0; i < count; i++) {
+                joined.append(texts_[i]);
+            }
+            return joined.toString();
+        }
+    }
+}
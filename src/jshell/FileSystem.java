@@ -0,0 +1,523 @@
+package jshell;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A JShell Directory tree shared by any number of JShell sessions, each with
+ * its own current directory, options and redirection.
+ *
+ * Sessions take the read lock to look at the tree and the write lock to
+ * change it, so lookups from many threads run in parallel while every
+ * change (including a whole mv or cp) is atomic. The FileSystem is the
+ * TreeListener of its root and forwards changes to the listeners added
+ * with addTreeListener, such as the PathCache of each session.
+ *
+ * Long recursive reads use a Snapshot instead of the read lock. The
+ * FileSystem keeps a clock that advances each time a snapshot is opened;
+ * every item remembers the clock value of its last change, and the first
+ * change after a snapshot was opened saves the previous state of the item
+ * for it.
+ *
+ * The FileSystem also keeps a NameIndex of the names in the tree, which
+ * find uses to reach only the items whose paths can match.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+@SuppressWarnings("serial")
+public class FileSystem implements Serializable, TreeListener {
+    /*
+     * The root directory of the tree.
+     */
+    private final Directory rootDirectory_;
+    /*
+     * Guards the tree: held for reading by lookups and for writing by
+     * changes.
+     */
+    private transient ReentrantReadWriteLock lock_;
+    /*
+     * The listeners notified of changes. Held weakly, so that the PathCache
+     * of a session that is no longer used goes away with it.
+     */
+    private transient Set<TreeListener> listeners_;
+    /*
+     * Advanced each time a snapshot is opened.
+     */
+    private transient AtomicLong clock_;
+    /*
+     * The number of open snapshots at each epoch.
+     */
+    private transient TreeMap<Long, Integer> snapshots_;
+    /*
+     * The items holding saved states.
+     */
+    private transient List<JShellItem> versioned_;
+    /*
+     * Set when a snapshot was closed but its saved states could not be
+     * dropped yet.
+     */
+    private transient volatile boolean pruneNeeded_;
+    /*
+     * Where the content of large Files is kept, or null to keep it all on
+     * the heap.
+     */
+    private transient volatile ContentStore contentStore_;
+    /*
+     * Shares equal File bodies, or null.
+     */
+    private transient volatile DedupStore dedupStore_;
+    /*
+     * Compresses cold File content, or null.
+     */
+    private transient volatile ColdStore coldStore_;
+    /*
+     * Indexes the names in the tree, or null.
+     */
+    private transient volatile NameIndex nameIndex_;
+    /*
+     * The number of items added to or removed from the tree, changed with
+     * the write lock held.
+     */
+    private transient volatile long changeCount_;
+    /*
+     * The number of copied Directories not yet filled in.
+     */
+    private transient AtomicInteger pendingCopies_;
+
+    /**
+     * Creates a FileSystem holding only an empty root directory.
+     */
+    public FileSystem() {
+        this(newRootDirectory());
+    }
+
+    /**
+     * Creates a FileSystem for an existing tree, such as the root Directory
+     * of an InodeTable.
+     *
+     * @param root the root Directory of the tree.
+     */
+    public FileSystem(Directory root) {
+        rootDirectory_ = root;
+        init();
+    }
+
+    /**
+     * Return the root directory of the tree.
+     *
+     * @return the root Directory.
+     */
+    public Directory getRootDirectory() {
+        return rootDirectory_;
+    }
+
+    /**
+     * Return the lock to hold while looking at the tree.
+     *
+     * @return the read lock.
+     */
+    public Lock readLock() {
+        return lock_.readLock();
+    }
+
+    /**
+     * Return the lock to hold while changing the tree. The read lock may be
+     * taken while holding it.
+     *
+     * @return the write lock.
+     */
+    public Lock writeLock() {
+        return lock_.writeLock();
+    }
+
+    /**
+     * Return the store receiving the content of large Files.
+     *
+     * @return the ContentStore, or null if content stays on the heap.
+     */
+    public ContentStore getContentStore() {
+        return contentStore_;
+    }
+
+    /**
+     * Store the content of Files at least as long as the threshold of store
+     * in store from now on. Content written before is not moved.
+     *
+     * @param store the ContentStore, or null to keep content on the heap.
+     */
+    public void setContentStore(ContentStore store) {
+        contentStore_ = store;
+    }
+
+    /**
+     * Return the store sharing equal File bodies.
+     *
+     * @return the DedupStore, or null if bodies are not shared.
+     */
+    public DedupStore getDedupStore() {
+        return dedupStore_;
+    }
+
+    /**
+     * Share equal File bodies through store from now on. Files written
+     * before are not counted.
+     *
+     * @param store the DedupStore, or null to stop sharing bodies.
+     */
+    public void setDedupStore(DedupStore store) {
+        if (dedupStore_ != null) {
+            removeTreeListener(dedupStore_);
+        }
+        dedupStore_ = store;
+        if (store != null) {
+            addTreeListener(store);
+        }
+    }
+
+    /**
+     * Return the store compressing cold File content.
+     *
+     * @return the ColdStore, or null if content is not compressed.
+     */
+    public ColdStore getColdStore() {
+        return coldStore_;
+    }
+
+    /**
+     * Compress the content of Files written from now on through store once
+     * it goes unread.
+     *
+     * @param store the ColdStore, or null to stop compressing content.
+     */
+    public void setColdStore(ColdStore store) {
+        if (coldStore_ != null) {
+            removeTreeListener(coldStore_);
+            coldStore_.setFileSystem(null);
+        }
+        coldStore_ = store;
+        if (store != null) {
+            store.setFileSystem(this);
+            addTreeListener(store);
+        }
+    }
+
+    /**
+     * Return the index of the names in the tree.
+     *
+     * @return the NameIndex, or null if names are not indexed.
+     */
+    public NameIndex getNameIndex() {
+        return nameIndex_;
+    }
+
+    /**
+     * Index the names in the tree with index from now on. The index is
+     * built from the tree the first time it is used.
+     *
+     * @param index a new NameIndex of the root of this FileSystem, or null
+     * to stop indexing names.
+     */
+    public void setNameIndex(NameIndex index) {
+        if (nameIndex_ != null) {
+            removeTreeListener(nameIndex_);
+        }
+        nameIndex_ = index;
+        if (index != null) {
+            addTreeListener(index);
+        }
+    }
+
+    /**
+     * Return the number of items added to or removed from the tree so far.
+     * The tree has the same shape as a Snapshot as long as this count is
+     * the one the Snapshot was opened at.
+     *
+     * @return the change count.
+     */
+    public long getChangeCount() {
+        return changeCount_;
+    }
+
+    /**
+     * Opens a point-in-time view of the tree. The Snapshot must be closed
+     * once it is no longer read.
+     *
+     * @return a new Snapshot.
+     */
+    public Snapshot openSnapshot() {
+        Lock lock = readLock();
+        lock.lock();
+        // No change is under way while the read lock is held.
+        long epoch = clock_.getAndIncrement();
+        synchronized (snapshots_) {
+            Integer count = snapshots_.get(epoch);
+            snapshots_.put(epoch, count == null ? 1 : count + 1);
+        }
+        if (rootDirectory_ instanceof InodeTable.Node) {
+            return new Snapshot(this, epoch, changeCount_, lock);
+        }
+        Snapshot snapshot = new Snapshot(this, epoch, changeCount_, null);
+        lock.unlock();
+        return snapshot;
+    }
+
+    /**
+     * Return the number of snapshots not yet closed.
+     *
+     * @return the number of open snapshots.
+     */
+    public int getOpenSnapshotCount() {
+        synchronized (snapshots_) {
+            int open = 0;
+            for (int count : snapshots_.values()) {
+                open += count;
+            }
+            return open;
+        }
+    }
+
+    /**
+     * Return the number of saved states kept for open snapshots.
+     *
+     * @return the number of saved versions.
+     */
+    public int getVersionCount() {
+        Lock lock = readLock();
+        lock.lock();
+        try {
+            int versions = 0;
+            for (JShellItem item : versioned_) {
+                for (Snapshot.Version version = item.getVersions();
+                        version != null; version = version.next_) {
+                    versions++;
+                }
+            }
+            return versions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether a copied Directory of the tree is still waiting to be
+     * filled in from its source.
+     *
+     * @return True if there is a pending copy.
+     */
+    boolean hasPendingCopies() {
+        return pendingCopies_.get() > 0;
+    }
+
+    /**
+     * Counts copied Directories made or filled in.
+     *
+     * @param delta the change in the number of pending copies.
+     */
+    void addPendingCopies(int delta) {
+        pendingCopies_.addAndGet(delta);
+    }
+
+    /**
+     * Saves the state of item if an open snapshot can still see it. Called
+     * by the item, with the write lock held, before it changes.
+     *
+     * @param item the JShellItem about to change.
+     */
+    void saveVersion(JShellItem item) {
+        if (pruneNeeded_) {
+            prune();
+        }
+        long now = clock_.get();
+        long stamp = item.getVersionStamp();
+        if (stamp == now) {
+            return;
+        }
+        boolean seen;
+        synchronized (snapshots_) {
+            seen = !snapshots_.isEmpty() && snapshots_.lastKey() >= stamp;
+        }
+        if (seen) {
+            if (item.getVersions() == null) {
+                versioned_.add(item);
+            }
+            item.setVersions(new Snapshot.Version(stamp, now,
+                    item.captureState(), item.getVersions()));
+        }
+        item.setVersionStamp(now);
+    }
+
+    /**
+     * Forgets snapshot and drops the saved states no other snapshot needs.
+     *
+     * @param snapshot a closed Snapshot of this FileSystem.
+     */
+    void release(Snapshot snapshot) {
+        synchronized (snapshots_) {
+            long epoch = snapshot.getEpoch();
+            int count = snapshots_.get(epoch);
+            if (count == 1) {
+                snapshots_.remove(epoch);
+            } else {
+                snapshots_.put(epoch, count - 1);
+            }
+        }
+        pruneNeeded_ = true;
+        // A thread that holds the read lock cannot take the write lock, the
+        // next change drops the states instead.
+        Lock lock = writeLock();
+        if (lock.tryLock()) {
+            try {
+                prune();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /*
+     * Drops the saved states that no open snapshot can see. Called with the
+     * write lock held.
+     */
+    private void prune() {
+        pruneNeeded_ = false;
+        TreeMap<Long, Integer> open;
+        synchronized (snapshots_) {
+            open = new TreeMap<Long, Integer>(snapshots_);
+        }
+        Iterator<JShellItem> items = versioned_.iterator();
+        while (items.hasNext()) {
+            JShellItem item = items.next();
+            item.setVersions(keepSeen(item.getVersions(), open));
+            if (item.getVersions() == null) {
+                items.remove();
+            }
+        }
+    }
+
+    /*
+     * Returns the chain of versions seen by one of the open epochs.
+     */
+    private static Snapshot.Version keepSeen(Snapshot.Version version,
+            TreeMap<Long, Integer> open) {
+        if (version == null) {
+            return null;
+        }
+        Snapshot.Version next = keepSeen(version.next_, open);
+        Map.Entry<Long, Integer> seenBy = open.ceilingEntry(version.from_);
+        if (seenBy == null || seenBy.getKey() >= version.to_) {
+            return next;
+        }
+        if (next == version.next_) {
+            return version;
+        }
+        return new Snapshot.Version(version.from_, version.to_,
+                version.state_, next);
+    }
+
+    /**
+     * Registers listener to be notified of every item added to or removed
+     * from the tree. The listener is held weakly.
+     *
+     * @param listener the TreeListener to add.
+     */
+    public void addTreeListener(TreeListener listener) {
+        listeners_.add(listener);
+    }
+
+    /**
+     * Stops notifying listener.
+     *
+     * @param listener the TreeListener to remove.
+     */
+    public void removeTreeListener(TreeListener listener) {
+        listeners_.remove(listener);
+    }
+
+    /**
+     * Forwards the addition of item to the listeners.
+     *
+     * @param parent the Directory the item was added to.
+     * @param item the JShellItem that was added.
+     */
+    @Override
+    public void itemAdded(Directory parent, JShellItem item) {
+        changeCount_++;
+        for (TreeListener listener : listeners()) {
+            listener.itemAdded(parent, item);
+        }
+    }
+
+    /**
+     * Forwards the removal of item to the listeners.
+     *
+     * @param parent the Directory the item was removed from.
+     * @param item the JShellItem that was removed.
+     */
+    @Override
+    public void itemRemoved(Directory parent, JShellItem item) {
+        changeCount_++;
+        for (TreeListener listener : listeners()) {
+            listener.itemRemoved(parent, item);
+        }
+    }
+
+    /*
+     * Returns a copy of the listeners, so none is called while holding the
+     * lock of listeners_.
+     */
+    private List<TreeListener> listeners() {
+        synchronized (listeners_) {
+            return new ArrayList<TreeListener>(listeners_);
+        }
+    }
+
+    /*
+     * Creates the lock and the listener set, registers as the listener of
+     * the root and starts indexing names.
+     */
+    private void init() {
+        lock_ = new ReentrantReadWriteLock();
+        listeners_ = Collections.synchronizedSet(Collections.newSetFromMap(
+                new WeakHashMap<TreeListener, Boolean>()));
+        rootDirectory_.setTreeListener(this);
+        clock_ = new AtomicLong();
+        snapshots_ = new TreeMap<Long, Integer>();
+        versioned_ = new ArrayList<JShellItem>();
+        pendingCopies_ = new AtomicInteger();
+        setNameIndex(new NameIndex(rootDirectory_));
+    }
+
+    /*
+     * Returns an empty root Directory that is its own parent.
+     */
+    private static Directory newRootDirectory() {
+        Directory root = new Directory("", null);
+        root.setParentDirectory(root);
+        return root;
+    }
+
+    /*
+     * Restores the transient lock and listener set.
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+    }
+}
@@ -0,0 +1,117 @@
+package jshell;
+
+import java.io.IOException;
+
+/**
+ * Finds the lines of a File that match a TextSearch, as grep prints them:
+ * the path of the File followed by each matching line. With the list option
+ * only the path is printed, and the search stops at the first match; with
+ * a maximum count the search stops after that many matching lines.
+ *
+ * The content is scanned once: each match found is mapped to its line
+ * through the LineIndex of the File, and the search goes on after that
+ * line. A match running past the end of its line sends the search back
+ * over that line alone.
+ *
+ * A GrepMatcher holds a TextSearch, so it must only be used by one thread
+ * at a time; each worker of a parallel grep uses its own copy.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class GrepMatcher {
+    /*
+     * The search for the patterns.
+     */
+    private final TextSearch search_;
+    /*
+     * Whether only the paths of matching Files are printed.
+     */
+    private final boolean listOnly_;
+    /*
+     * The number of lines printed per File at most, or -1.
+     */
+    private final int maxCount_;
+
+    /**
+     * Creates a matcher for the lines in which search finds a match.
+     *
+     * @param search the search for the patterns.
+     * @param listOnly true to print only the paths of matching Files.
+     * @param maxCount the number of lines printed per File at most, or -1
+     * for no limit.
+     */
+    public GrepMatcher(TextSearch search, boolean listOnly, int maxCount) {
+        search_ = search;
+        listOnly_ = listOnly;
+        maxCount_ = maxCount;
+    }
+
+    /**
+     * Returns a matcher searching for the same lines, for another thread.
+     *
+     * @return a copy of this matcher.
+     */
+    public GrepMatcher copy() {
+        return new GrepMatcher(search_.copy(), listOnly_, maxCount_);
+    }
+
+    /**
+     * Writes path and the matching lines of the File item, as it is in
+     * snapshot, to out if there are any, after a line break if out has
+     * grown past mark. The LineIndex is only read once the content is
+     * known to match.
+     *
+     * @param snapshot the Snapshot to read.
+     * @param item a File.
+     * @param path the path to print for item.
+     * @param out where to write the matches.
+     * @param mark the size of out before the first match of the command.
+     * @return true if item matched.
+     * @throws IOException if out fails.
+     */
+    public boolean grep(Snapshot snapshot, JShellItem item, String path,
+            OutputSink out, long mark) throws IOException {
+        if (maxCount_ == 0) {
+            return false;
+        }
+        CharSequence content = snapshot.getContentView(item);
+        int length = content.length();
+        int pos = search_.find(content, 0, length);
+        if (pos < 0) {
+            return false;
+        }
+        LineIndex lines = snapshot.getLineIndex(item);
+        int count = 0;
+        while (pos >= 0 && count != maxCount_) {
+            int line = lines.getLineOf(pos);
+            if (line < 0 || pos > lines.getLineEnd(line)) {
+                break;
+            }
+            int start = lines.getLineStart(line);
+            int end = lines.getLineEnd(line);
+            if (search_.end() <= end
+                    || search_.find(content, start, end) >= 0) {
+                // The path is written before the first matching line.
+                if (count == 0) {
+                    if (out.getCount() > mark) {
+                        out.append("\n");
+                    }
+                    if (listOnly_) {
+                        out.append(path);
+                        return true;
+                    }
+                    out.append(path + ":");
+                }
+                out.append("\n");
+                out.append(content, start, end);
+                count++;
+            }
+            pos = end + 1 > length ? -1
+                    : search_.find(content, end + 1, length);
+        }
+        return count > 0;
+    }
+}
@@ -0,0 +1,1548 @@
+package jshell;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An optional storage engine that keeps a JShell tree in parallel arrays
+ * indexed by int inode ids, instead of a graph of JShellItem objects.
+ *
+ * Every inode has a parent id, a name id (names are interned once in a name
+ * table), a kind and the ids of its first and last child and of its
+ * siblings. Children are found through a single open addressing table keyed
+ * by (parent id, lower case name id), so no per-directory map is allocated.
+ * For aliases the first and last child slots hold the id and generation of
+ * the linked inode.
+ *
+ * The usual JShellItem API is available through flyweights returned by
+ * {@link #getItem(int)} and {@link #getRootDirectory()}: small objects that
+ * hold an inode id and forward every call to the table. A JShell created
+ * with {@code new JShell(table.getRootDirectory())} runs on the table.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+@SuppressWarnings("serial")
+public class InodeTable implements Serializable {
+    /**
+     * The inode id of the root directory.
+     */
+    public static final int ROOT = 0;
+    /**
+     * The id used for a missing inode.
+     */
+    public static final int NONE = -1;
+    /**
+     * The kind of an unused inode.
+     */
+    public static final byte FREE = 0;
+    /**
+     * The kind of a Directory inode.
+     */
+    public static final byte DIRECTORY = 1;
+    /**
+     * The kind of a File inode.
+     */
+    public static final byte FILE = 2;
+    /**
+     * The kind of a DirectoryAlias inode.
+     */
+    public static final byte DIRECTORY_ALIAS = 3;
+    /**
+     * The kind of a FileAlias inode.
+     */
+    public static final byte FILE_ALIAS = 4;
+    /*
+     * Flag added to the kind of an inode removed from its parent but not yet
+     * freed, so that mv can add it back.
+     */
+    private static final byte DETACHED = 0x10;
+
+    /*
+     * The parent of each inode. The root is its own parent.
+     */
+    private transient int[] parent_;
+    /*
+     * The name id of each inode.
+     */
+    private transient int[] name_;
+    /*
+     * The kind of each inode, possibly with the DETACHED flag.
+     */
+    private transient byte[] kind_;
+    /*
+     * The first child of each directory, or the linked inode of an alias.
+     */
+    private transient int[] firstChild_;
+    /*
+     * The last child of each directory, or the generation of the linked
+     * inode of an alias.
+     */
+    private transient int[] lastChild_;
+    /*
+     * The next sibling of each inode, or the next free inode.
+     */
+    private transient int[] nextSibling_;
+    /*
+     * The previous sibling of each inode.
+     */
+    private transient int[] prevSibling_;
+    /*
+     * The number of children of each directory.
+     */
+    private transient int[] childCount_;
+    /*
+     * The number of children of each directory that are directories or
+     * aliases of one. The other children are files or aliases of one.
+     */
+    private transient int[] dirCount_;
+    /*
+     * Incremented each time an inode is freed, so flyweights and aliases
+     * can tell that their inode is gone.
+     */
+    private transient int[] generation_;
+    /*
+     * The content of each File inode, a String or a FileContent.
+     */
+    private transient CharSequence[] content_;
+    /*
+     * The number of inode ids ever handed out.
+     */
+    private transient int end_;
+    /*
+     * The number of inodes in use.
+     */
+    private transient int size_;
+    /*
+     * The first free inode, or NONE.
+     */
+    private transient int freeList_;
+    /*
+     * Detached inodes to be freed unless they are added back first.
+     */
+    private transient int[] detached_;
+    /*
+     * The number of ids in detached_.
+     */
+    private transient int numDetached_;
+    /*
+     * Linear probing table of (inode id + 1) keyed by parent and lower case
+     * name, or 0 for a free slot.
+     */
+    private transient int[] childTable_;
+    /*
+     * The number of inodes in childTable_.
+     */
+    private transient int childTableSize_;
+    /*
+     * The interned names, by name id.
+     */
+    private transient String[] names_;
+    /*
+     * The name id of the lower case form of each name.
+     */
+    private transient int[] foldedName_;
+    /*
+     * The number of interned names.
+     */
+    private transient int numNames_;
+    /*
+     * The id of each interned name.
+     */
+    private transient HashMap<String, Integer> nameIds_;
+    /*
+     * The listener notified of changes made through the flyweights.
+     */
+    private transient TreeListener listener_;
+
+    /**
+     * Creates a table holding only the root directory.
+     */
+    public InodeTable() {
+        this(16);
+    }
+
+    /**
+     * Creates a table holding only the root directory, with room for
+     * capacity inodes before its arrays grow.
+     *
+     * @param capacity the initial number of inodes.
+     */
+    public InodeTable(int capacity) {
+        init(Math.max(capacity, 2), 16);
+        allocate(DIRECTORY, ROOT, intern(""));
+    }
+
+    /**
+     * Returns a new table holding a copy of the tree rooted at root.
+     *
+     * @param root the root Directory of a JShell tree.
+     * @return an InodeTable with the same items.
+     */
+    public static InodeTable copyOf(Directory root) {
+        InodeTable table = new InodeTable();
+        for (JShellItem item : root.getContents().values()) {
+            table.importItem(ROOT, item);
+        }
+        return table;
+    }
+
+    /**
+     * Return the number of inodes in use, including the root.
+     *
+     * @return the number of inodes.
+     */
+    public int size() {
+        return size_;
+    }
+
+    /**
+     * Return the kind of the inode id, without the detached flag.
+     *
+     * @param id an inode id.
+     * @return FREE, DIRECTORY, FILE, DIRECTORY_ALIAS or FILE_ALIAS.
+     */
+    public byte getKind(int id) {
+        return (byte) (kind_[id] & ~DETACHED);
+    }
+
+    /**
+     * Checks whether the inode id is a directory or an alias of one.
+     *
+     * @param id an inode id.
+     * @return True if id can hold children.
+     */
+    public boolean isDirectory(int id) {
+        byte kind = getKind(id);
+        return kind == DIRECTORY || kind == DIRECTORY_ALIAS;
+    }
+
+    /**
+     * Return the name of the inode id.
+     *
+     * @param id an inode id.
+     * @return the name of the inode.
+     */
+    public String getName(int id) {
+        return names_[name_[id]];
+    }
+
+    /**
+     * Return the parent directory of the inode id.
+     *
+     * @param id an inode id.
+     * @return the id of the parent, ROOT for the root.
+     */
+    public int getParent(int id) {
+        return parent_[id];
+    }
+
+    /**
+     * Return the first child of the directory id, following aliases.
+     *
+     * @param id a directory inode id.
+     * @return the id of the first child, or NONE.
+     */
+    public int getFirstChild(int id) {
+        id = resolve(id);
+        return id == NONE || getKind(id) != DIRECTORY
+                ? NONE : firstChild_[id];
+    }
+
+    /**
+     * Return the next child of the parent of id.
+     *
+     * @param id an inode id.
+     * @return the id of the next sibling, or NONE.
+     */
+    public int getNextSibling(int id) {
+        return nextSibling_[id];
+    }
+
+    /**
+     * Return the number of children of the directory id, following aliases.
+     *
+     * @param id a directory inode id.
+     * @return the number of children.
+     */
+    public int getChildCount(int id) {
+        id = resolve(id);
+        return id == NONE || getKind(id) != DIRECTORY ? 0 : childCount_[id];
+    }
+
+    /**
+     * Return the number of children of the directory id that are
+     * directories or aliases of one, following aliases.
+     *
+     * @param id a directory inode id.
+     * @return the number of subdirectories.
+     */
+    public int getDirectoryCount(int id) {
+        id = resolve(id);
+        return id == NONE || getKind(id) != DIRECTORY ? 0 : dirCount_[id];
+    }
+
+    /**
+     * Return the number of children of the directory id that are files or
+     * aliases of one, following aliases.
+     *
+     * @param id a directory inode id.
+     * @return the number of files.
+     */
+    public int getFileCount(int id) {
+        return getChildCount(id) - getDirectoryCount(id);
+    }
+
+    /**
+     * Returns the inode an alias points to, or id itself if it is not an
+     * alias.
+     *
+     * @param id an inode id.
+     * @return the linked inode, or NONE if it no longer exists.
+     */
+    public int resolve(int id) {
+        byte kind = getKind(id);
+        if (kind != DIRECTORY_ALIAS && kind != FILE_ALIAS) {
+            return id;
+        }
+        int target = firstChild_[id];
+        if (target == NONE || generation_[target] != lastChild_[id]) {
+            return NONE;
+        }
+        return target;
+    }
+
+    /**
+     * Return the content of the file id, following aliases.
+     *
+     * @param id a file inode id.
+     * @return the content of the file.
+     */
+    public String getContent(int id) {
+        return getContentView(id).toString();
+    }
+
+    /**
+     * Return the content of the file id, following aliases, without joining
+     * appended chunks.
+     *
+     * @param id a file inode id.
+     * @return the content of the file.
+     */
+    public CharSequence getContentView(int id) {
+        id = resolve(id);
+        return id == NONE || content_[id] == null ? "" : content_[id];
+    }
+
+    /**
+     * Replace the content of the file id, following aliases.
+     *
+     * @param id a file inode id.
+     * @param content the new content.
+     */
+    public void setContent(int id, String content) {
+        id = resolve(id);
+        if (id != NONE && getKind(id) == FILE) {
+            content_[id] = content;
+        }
+    }
+
+    /**
+     * Add text at the end of the content of the file id, following aliases.
+     *
+     * @param id a file inode id.
+     * @param text the text to add.
+     */
+    public void appendContent(int id, String text) {
+        id = resolve(id);
+        if (id != NONE && getKind(id) == FILE) {
+            CharSequence content = content_[id];
+            FileContent chunks = content instanceof FileContent
+                    ? (FileContent) content
+                    : FileContent.of(content == null ? "" : content.toString());
+            content_[id] = chunks.append(text);
+        }
+    }
+
+    /**
+     * Returns the full path of the inode id. Directory paths end with a
+     * forward slash.
+     *
+     * @param id an inode id.
+     * @return the path of the inode.
+     */
+    public String getPath(int id) {
+        int depth = 0;
+        for (int i = id; i != ROOT && depth <= end_; i = parent_[i]) {
+            depth++;
+        }
+        int[] chain = new int[depth];
+        for (int i = id, d = depth - 1; d >= 0; i = parent_[i], d--) {
+            chain[d] = i;
+        }
+        StringBuilder path = new StringBuilder("/");
+        for (int i = 0; i < depth; i++) {
+            path.append(getName(chain[i]));
+            if (i < depth - 1 || isDirectory(chain[i])) {
+                path.append('/');
+            }
+        }
+        return path.toString();
+    }
+
+    /**
+     * Returns the child of directory dir named name, ignoring case and
+     * following aliases.
+     *
+     * @param dir a directory inode id.
+     * @param name the name of the child.
+     * @return the id of the child, or NONE.
+     */
+    public int lookup(int dir, String name) {
+        dir = resolve(dir);
+        if (dir == NONE || getKind(dir) != DIRECTORY) {
+            return NONE;
+        }
+        Integer folded = nameIds_.get(ChildIndex.fold(name));
+        return folded == null ? NONE : find(dir, folded);
+    }
+
+    /**
+     * Creates an empty directory named name in dir, replacing any item of
+     * the same name.
+     *
+     * @param dir a directory inode id.
+     * @param name the name of the new directory.
+     * @return the id of the new directory.
+     */
+    public int createDirectory(int dir, String name) {
+        return create(dir, name, DIRECTORY);
+    }
+
+    /**
+     * Creates a file named name in dir, replacing any item of the same name.
+     *
+     * @param dir a directory inode id.
+     * @param name the name of the new file.
+     * @param content the content of the new file.
+     * @return the id of the new file.
+     */
+    public int createFile(int dir, String name, String content) {
+        int id = create(dir, name, FILE);
+        content_[id] = content;
+        return id;
+    }
+
+    /**
+     * Creates an alias named name in dir pointing to target, replacing any
+     * item of the same name.
+     *
+     * @param dir a directory inode id.
+     * @param name the name of the new alias.
+     * @param target the inode the alias points to.
+     * @return the id of the new alias.
+     */
+    public int createAlias(int dir, String name, int target) {
+        int id = create(dir, name,
+                isDirectory(target) ? DIRECTORY_ALIAS : FILE_ALIAS);
+        firstChild_[id] = target;
+        lastChild_[id] = generation_[target];
+        return id;
+    }
+
+    /**
+     * Moves the inode id into dir under newName, in constant time. Any item
+     * of the same name in dir is removed.
+     *
+     * @param id the inode to move.
+     * @param dir the destination directory.
+     * @param newName the new name of the inode.
+     */
+    public void move(int id, int dir, String newName) {
+        dir = resolve(dir);
+        if ((kind_[id] & DETACHED) == 0) {
+            unlink(id);
+        }
+        name_[id] = intern(newName);
+        int existing = find(dir, foldedName_[name_[id]]);
+        if (existing != NONE) {
+            remove(existing);
+        }
+        link(dir, id);
+    }
+
+    /**
+     * Removes the inode id and everything beneath it and frees their ids.
+     *
+     * @param id the inode to remove.
+     */
+    public void remove(int id) {
+        if (id == ROOT || getKind(id) == FREE) {
+            return;
+        }
+        if ((kind_[id] & DETACHED) == 0) {
+            unlink(id);
+        }
+        free(id);
+    }
+
+    /**
+     * Returns a flyweight JShellItem for the inode id.
+     *
+     * @param id an inode id in use.
+     * @return a Directory, File, DirectoryAlias or FileAlias backed by the
+     * table.
+     */
+    public JShellItem getItem(int id) {
+        switch (getKind(id)) {
+            case DIRECTORY:
+                return new DirectoryNode(this, id);
+            case FILE:
+                return new FileNode(this, id);
+            case DIRECTORY_ALIAS:
+                return new DirectoryAliasNode(this, id);
+            case FILE_ALIAS:
+                return new FileAliasNode(this, id);
+            default:
+                throw new IllegalArgumentException(id + ": no such inode.");
+        }
+    }
+
+    /**
+     * Return a flyweight for the root directory.
+     *
+     * @return the root Directory of the table.
+     */
+    public Directory getRootDirectory() {
+        return (Directory) getItem(ROOT);
+    }
+
+    /*
+     * Allocates arrays for capacity inodes and nameCapacity names.
+     */
+    private void init(int capacity, int nameCapacity) {
+        parent_ = new int[capacity];
+        name_ = new int[capacity];
+        kind_ = new byte[capacity];
+        firstChild_ = new int[capacity];
+        lastChild_ = new int[capacity];
+        nextSibling_ = new int[capacity];
+        prevSibling_ = new int[capacity];
+        childCount_ = new int[capacity];
+        dirCount_ = new int[capacity];
+        generation_ = new int[capacity];
+        content_ = new CharSequence[capacity];
+        end_ = 0;
+        size_ = 0;
+        freeList_ = NONE;
+        detached_ = new int[4];
+        numDetached_ = 0;
+        childTable_ = new int[Integer.highestOneBit(capacity) * 4];
+        childTableSize_ = 0;
+        names_ = new String[nameCapacity];
+        foldedName_ = new int[nameCapacity];
+        numNames_ = 0;
+        nameIds_ = new HashMap<String, Integer>();
+    }
+
+    /*
+     * Returns the id of name, adding it and its lower case form to the name
+     * table if needed.
+     */
+    private int intern(String name) {
+        Integer id = nameIds_.get(name);
+        if (id != null) {
+            return id;
+        }
+        String folded = ChildIndex.fold(name);
+        int foldedId = folded.equals(name) ? numNames_ : intern(folded);
+        if (numNames_ == names_.length) {
+            names_ = Arrays.copyOf(names_, numNames_ * 2);
+            foldedName_ = Arrays.copyOf(foldedName_, numNames_ * 2);
+        }
+        names_[numNames_] = name;
+        foldedName_[numNames_] = foldedId;
+        nameIds_.put(name, numNames_);
+        return numNames_++;
+    }
+
+    /*
+     * Creates a new inode of the given kind named name in dir.
+     */
+    private int create(int dir, String name, byte kind) {
+        dir = resolve(dir);
+        if (dir == NONE || getKind(dir) != DIRECTORY) {
+            throw new IllegalArgumentException(
+                    "Cannot add " + name + " to a non-directory.");
+        }
+        int nameId = intern(name);
+        int existing = find(dir, foldedName_[nameId]);
+        if (existing != NONE) {
+            remove(existing);
+        }
+        int id = allocate(kind, dir, nameId);
+        link(dir, id);
+        return id;
+    }
+
+    /*
+     * Takes a free inode, after freeing the detached inodes that were not
+     * added back.
+     */
+    private int allocate(byte kind, int parent, int nameId) {
+        reclaimDetached();
+        int id;
+        if (freeList_ != NONE) {
+            id = freeList_;
+            freeList_ = nextSibling_[id];
+        } else {
+            if (end_ == parent_.length) {
+                grow(end_ * 2);
+            }
+            id = end_++;
+        }
+        kind_[id] = kind;
+        parent_[id] = parent;
+        name_[id] = nameId;
+        firstChild_[id] = NONE;
+        lastChild_[id] = NONE;
+        nextSibling_[id] = NONE;
+        prevSibling_[id] = NONE;
+        childCount_[id] = 0;
+        dirCount_[id] = 0;
+        content_[id] = null;
+        size_++;
+        return id;
+    }
+
+    /*
+     * Grows the inode arrays to capacity.
+     */
+    private void grow(int capacity) {
+        parent_ = Arrays.copyOf(parent_, capacity);
+        name_ = Arrays.copyOf(name_, capacity);
+        kind_ = Arrays.copyOf(kind_, capacity);
+        firstChild_ = Arrays.copyOf(firstChild_, capacity);
+        lastChild_ = Arrays.copyOf(lastChild_, capacity);
+        nextSibling_ = Arrays.copyOf(nextSibling_, capacity);
+        prevSibling_ = Arrays.copyOf(prevSibling_, capacity);
+        childCount_ = Arrays.copyOf(childCount_, capacity);
+        dirCount_ = Arrays.copyOf(dirCount_, capacity);
+        generation_ = Arrays.copyOf(generation_, capacity);
+        content_ = Arrays.copyOf(content_, capacity);
+    }
+
+    /*
+     * Appends id to the children of dir.
+     */
+    private void link(int dir, int id) {
+        int last = lastChild_[dir];
+        prevSibling_[id] = last;
+        nextSibling_[id] = NONE;
+        if (last == NONE) {
+            firstChild_[dir] = id;
+        } else {
+            nextSibling_[last] = id;
+        }
+        lastChild_[dir] = id;
+        childCount_[dir]++;
+        if (isDirectory(id)) {
+            dirCount_[dir]++;
+        }
+        parent_[id] = dir;
+        kind_[id] &= ~DETACHED;
+        tableInsert(id);
+    }
+
+    /*
+     * Removes id from the children of its parent and marks it detached. Its
+     * parent is kept so its path can still be printed.
+     */
+    private void unlink(int id) {
+        int dir = parent_[id];
+        tableDelete(id);
+        int prev = prevSibling_[id];
+        int next = nextSibling_[id];
+        if (prev == NONE) {
+            firstChild_[dir] = next;
+        } else {
+            nextSibling_[prev] = next;
+        }
+        if (next == NONE) {
+            lastChild_[dir] = prev;
+        } else {
+            prevSibling_[next] = prev;
+        }
+        childCount_[dir]--;
+        if (isDirectory(id)) {
+            dirCount_[dir]--;
+        }
+        kind_[id] |= DETACHED;
+    }
+
+    /*
+     * Unlinks id and remembers to free it at the next allocation, unless it
+     * is linked again before.
+     */
+    private void detach(int id) {
+        unlink(id);
+        if (numDetached_ == detached_.length) {
+            detached_ = Arrays.copyOf(detached_, numDetached_ * 2);
+        }
+        detached_[numDetached_++] = id;
+    }
+
+    /*
+     * Frees the inodes detached since the last allocation that were not
+     * linked again.
+     */
+    private void reclaimDetached() {
+        for (int i = 0; i < numDetached_; i++) {
+            int id = detached_[i];
+            if ((kind_[id] & DETACHED) != 0) {
+                free(id);
+            }
+        }
+        numDetached_ = 0;
+    }
+
+    /*
+     * Frees the unlinked inode id and all the inodes beneath it.
+     */
+    private void free(int id) {
+        ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            int next = stack.pop();
+            if (getKind(next) == DIRECTORY) {
+                for (int c = firstChild_[next]; c != NONE;
+                        c = nextSibling_[c]) {
+                    tableDelete(c);
+                    stack.push(c);
+                }
+            }
+            kind_[next] = FREE;
+            generation_[next]++;
+            content_[next] = null;
+            nextSibling_[next] = freeList_;
+            freeList_ = next;
+            size_--;
+        }
+    }
+
+    /*
+     * Copies item, and everything beneath it, into dir.
+     */
+    private int importItem(int dir, JShellItem item) {
+        if (item instanceof DirectoryAlias) {
+            return createAlias(dir, item.getName(),
+                    idOf(((DirectoryAlias) item).getPointer()));
+        } else if (item instanceof FileAlias) {
+            return createAlias(dir, item.getName(),
+                    idOf(((FileAlias) item).getPointer()));
+        } else if (item instanceof File) {
+            return createFile(dir, item.getName(), item.getContent());
+        }
+        int id = createDirectory(dir, item.getName());
+        for (JShellItem child : ((Directory) item).getContents().values()) {
+            importItem(id, child);
+        }
+        return id;
+    }
+
+    /*
+     * Returns the id of a flyweight of this table.
+     */
+    private int idOf(JShellItem item) {
+        if (item instanceof Node && ((Node) item).getTable() == this) {
+            return ((Node) item).getId();
+        }
+        throw new IllegalArgumentException(
+                item.getName() + ": cannot link outside of the table.");
+    }
+
+    /*
+     * Returns the child of dir whose lower case name id is folded.
+     */
+    private int find(int dir, int folded) {
+        int mask = childTable_.length - 1;
+        for (int slot = hash(dir, folded) & mask;;
+                slot = (slot + 1) & mask) {
+            int entry = childTable_[slot];
+            if (entry == 0) {
+                return NONE;
+            }
+            int id = entry - 1;
+            if (parent_[id] == dir && foldedName_[name_[id]] == folded) {
+                return id;
+            }
+        }
+    }
+
+    /*
+     * Adds id to the child table under its parent and name.
+     */
+    private void tableInsert(int id) {
+        if ((childTableSize_ + 1) * 2 > childTable_.length) {
+            int[] old = childTable_;
+            childTable_ = new int[old.length * 2];
+            for (int entry : old) {
+                if (entry != 0) {
+                    place(entry - 1);
+                }
+            }
+        }
+        place(id);
+        childTableSize_++;
+    }
+
+    /*
+     * Stores id in the first free slot of its probe sequence.
+     */
+    private void place(int id) {
+        int mask = childTable_.length - 1;
+        int slot = hash(parent_[id], foldedName_[name_[id]]) & mask;
+        while (childTable_[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        childTable_[slot] = id + 1;
+    }
+
+    /*
+     * Removes id from the child table, shifting back the rest of its probe
+     * sequence.
+     */
+    private void tableDelete(int id) {
+        int mask = childTable_.length - 1;
+        int slot = hash(parent_[id], foldedName_[name_[id]]) & mask;
+        while (childTable_[slot] != id + 1) {
+            slot = (slot + 1) & mask;
+        }
+        childTable_[slot] = 0;
+        for (int next = (slot + 1) & mask; childTable_[next] != 0;
+                next = (next + 1) & mask) {
+            int other = childTable_[next] - 1;
+            int ideal = hash(parent_[other], foldedName_[name_[other]]) & mask;
+            if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+                childTable_[slot] = childTable_[next];
+                childTable_[next] = 0;
+                slot = next;
+            }
+        }
+        childTableSize_--;
+    }
+
+    /*
+     * Mixes a parent id and a name id into a hash code.
+     */
+    private static int hash(int dir, int folded) {
+        int h = dir * 0x9E3779B9 + folded;
+        return h ^ (h >>> 16);
+    }
+
+    /*
+     * Writes the inode arrays up to the last id in use and the name table.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        reclaimDetached();
+        out.defaultWriteObject();
+        out.writeInt(end_);
+        out.writeInt(size_);
+        out.writeInt(freeList_);
+        out.writeObject(Arrays.copyOf(parent_, end_));
+        out.writeObject(Arrays.copyOf(name_, end_));
+        out.writeObject(Arrays.copyOf(kind_, end_));
+        out.writeObject(Arrays.copyOf(firstChild_, end_));
+        out.writeObject(Arrays.copyOf(lastChild_, end_));
+        out.writeObject(Arrays.copyOf(nextSibling_, end_));
+        out.writeObject(Arrays.copyOf(prevSibling_, end_));
+        out.writeObject(Arrays.copyOf(childCount_, end_));
+        out.writeObject(Arrays.copyOf(generation_, end_));
+        out.writeObject(Arrays.copyOf(content_, end_));
+        out.writeObject(Arrays.copyOf(names_, numNames_));
+        out.writeObject(Arrays.copyOf(foldedName_, numNames_));
+    }
+
+    /*
+     * Reads the arrays written by writeObject and rebuilds the name ids, the
+     * child table and the directory counts.
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int end = in.readInt();
+        int size = in.readInt();
+        int freeList = in.readInt();
+        init(Math.max(end, 2), 16);
+        end_ = end;
+        size_ = size;
+        freeList_ = freeList;
+        parent_ = (int[]) in.readObject();
+        name_ = (int[]) in.readObject();
+        kind_ = (byte[]) in.readObject();
+        firstChild_ = (int[]) in.readObject();
+        lastChild_ = (int[]) in.readObject();
+        nextSibling_ = (int[]) in.readObject();
+        prevSibling_ = (int[]) in.readObject();
+        childCount_ = (int[]) in.readObject();
+        generation_ = (int[]) in.readObject();
+        content_ = (CharSequence[]) in.readObject();
+        names_ = (String[]) in.readObject();
+        foldedName_ = (int[]) in.readObject();
+        numNames_ = names_.length;
+        for (int i = 0; i < numNames_; i++) {
+            nameIds_.put(names_[i], i);
+        }
+        if (names_.length == 0) {
+            names_ = new String[1];
+            foldedName_ = new int[1];
+        }
+        grow(Math.max(end_, 2));
+        for (int id = 1; id < end_; id++) {
+            if (kind_[id] != FREE) {
+                tableInsert(id);
+                if (isDirectory(id)) {
+                    dirCount_[parent_[id]]++;
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns a read-only map of the children of dir, keyed by lower case
+     * name.
+     */
+    private Map<String, JShellItem> childMap(int dir) {
+        LinkedHashMap<String, JShellItem> children =
+                new LinkedHashMap<String, JShellItem>();
+        for (int c = getFirstChild(dir); c != NONE; c = nextSibling_[c]) {
+            children.put(names_[foldedName_[name_[c]]], getItem(c));
+        }
+        return Collections.unmodifiableMap(children);
+    }
+
+    /*
+     * Returns a read-only map of the children of dir of one type, keyed by
+     * name.
+     */
+    private <T extends JShellItem> Map<String, T> childMap(int dir,
+            Class<T> type) {
+        LinkedHashMap<String, T> children = new LinkedHashMap<String, T>();
+        for (int c = getFirstChild(dir); c != NONE; c = nextSibling_[c]) {
+            JShellItem item = getItem(c);
+            if (type.isInstance(item)) {
+                children.put(item.getName(), type.cast(item));
+            }
+        }
+        return Collections.unmodifiableMap(children);
+    }
+
+    /*
+     * Adds item to the directory dir on behalf of a flyweight: an inode of
+     * this table is moved, any other item is copied in. The item it
+     * replaces is reported removed before any inode is allocated, since
+     * allocating frees the detached inodes and the listeners still look at
+     * the replaced item.
+     */
+    private void addItem(Directory flyweight, int dir, JShellItem item) {
+        dir = resolve(dir);
+        int existing = lookup(dir, item.getName());
+        boolean internal = item instanceof Node
+                && ((Node) item).getTable() == this;
+        if (internal && existing == ((Node) item).checkedId()) {
+            return;
+        }
+        if (existing != NONE) {
+            JShellItem replaced = getItem(existing);
+            detach(existing);
+            if (listener_ != null) {
+                listener_.itemRemoved(flyweight, replaced);
+            }
+        }
+        int id;
+        if (internal) {
+            id = ((Node) item).checkedId();
+            if ((kind_[id] & DETACHED) == 0) {
+                unlink(id);
+            }
+            link(dir, id);
+        } else {
+            id = importItem(dir, item);
+        }
+        if (listener_ != null) {
+            listener_.itemAdded(flyweight, getItem(id));
+        }
+    }
+
+    /*
+     * Removes the child of dir named like item on behalf of a flyweight.
+     */
+    private void removeItem(Directory flyweight, int dir, JShellItem item) {
+        int id = lookup(dir, item.getName());
+        if (id == NONE) {
+            return;
+        }
+        JShellItem removed = getItem(id);
+        detach(id);
+        if (listener_ != null) {
+            listener_.itemRemoved(flyweight, removed);
+        }
+    }
+
+    /*
+     * Renames the inode id, keeping the child table up to date.
+     */
+    private void rename(int id, String name) {
+        boolean linked = (kind_[id] & DETACHED) == 0 && id != ROOT;
+        if (linked) {
+            tableDelete(id);
+        }
+        name_[id] = intern(name);
+        if (linked) {
+            tableInsert(id);
+        }
+    }
+
+    /**
+     * A JShellItem that is a flyweight over an inode of an InodeTable.
+     */
+    public interface Node {
+
+        /**
+         * Return the table holding the inode.
+         *
+         * @return the InodeTable.
+         */
+        InodeTable getTable();
+
+        /**
+         * Return the id of the inode.
+         *
+         * @return the inode id.
+         */
+        int getId();
+
+        /**
+         * Returns the id of the inode after checking that it still exists.
+         *
+         * @return the inode id.
+         * @throws IllegalStateException if the inode was freed.
+         */
+        int checkedId();
+    }
+
+    /*
+     * The state shared by the four kinds of flyweights: the table, the inode
+     * id and the generation of the inode when the flyweight was made.
+     */
+    private static final class Ref implements Serializable {
+        private final InodeTable table_;
+        private final int id_;
+        private final int generation_;
+
+        Ref(InodeTable table, int id) {
+            table_ = table;
+            id_ = id;
+            generation_ = table.generation_[id];
+        }
+
+        int checkedId() {
+            if (table_.generation_[id_] != generation_
+                    || table_.getKind(id_) == FREE) {
+                throw new IllegalStateException("The item no longer exists.");
+            }
+            return id_;
+        }
+
+        String getName() {
+            return table_.getName(checkedId());
+        }
+
+        void setName(String name) {
+            table_.rename(checkedId(), name);
+        }
+
+        String getFoldedName() {
+            return table_.names_[table_.foldedName_[
+                    table_.name_[checkedId()]]];
+        }
+
+        Directory getParentDirectory() {
+            return (Directory) table_.getItem(table_.parent_[checkedId()]);
+        }
+
+        String getPath() {
+            return table_.getPath(checkedId());
+        }
+
+        boolean sameAs(Object other) {
+            if (!(other instanceof Node)) {
+                return false;
+            }
+            Ref ref = refOf((Node) other);
+            return ref.table_ == table_ && ref.id_ == id_
+                    && ref.generation_ == generation_;
+        }
+
+        int hash() {
+            return id_ * 31 + generation_;
+        }
+
+        private static Ref refOf(Node node) {
+            if (node instanceof DirectoryNode) {
+                return ((DirectoryNode) node).ref_;
+            } else if (node instanceof FileNode) {
+                return ((FileNode) node).ref_;
+            } else if (node instanceof DirectoryAliasNode) {
+                return ((DirectoryAliasNode) node).ref_;
+            }
+            return ((FileAliasNode) node).ref_;
+        }
+    }
+
+    /**
+     * A Directory flyweight over a DIRECTORY inode.
+     */
+    public static class DirectoryNode extends Directory implements Node {
+        /*
+         * The inode this flyweight stands for.
+         */
+        private final Ref ref_;
+
+        DirectoryNode(InodeTable table, int id) {
+            super(null, null);
+            ref_ = new Ref(table, id);
+        }
+
+        @Override
+        public InodeTable getTable() {
+            return ref_.table_;
+        }
+
+        @Override
+        public int getId() {
+            return ref_.id_;
+        }
+
+        @Override
+        public int checkedId() {
+            return ref_.checkedId();
+        }
+
+        @Override
+        public String getName() {
+            return ref_.getName();
+        }
+
+        @Override
+        public void setName(String name) {
+            ref_.setName(name);
+        }
+
+        @Override
+        public String getFoldedName() {
+            return ref_.getFoldedName();
+        }
+
+        @Override
+        public Directory getParentDirectory() {
+            return ref_.getParentDirectory();
+        }
+
+        /**
+         * The parent of an inode is set when it is added to a directory.
+         *
+         * @param parentDirectory ignored.
+         */
+        @Override
+        public void setParentDirectory(Directory parentDirectory) {
+        }
+
+        @Override
+        public String getPath() {
+            return ref_.getPath();
+        }
+
+        @Override
+        public Map<String, JShellItem> getContents() {
+            return ref_.table_.childMap(checkedId());
+        }
+
+        @Override
+        public void setContents(Map<String, JShellItem> cont) {
+            InodeTable table = ref_.table_;
+            int id = checkedId();
+            while (table.getFirstChild(id) != NONE) {
+                table.remove(table.getFirstChild(id));
+            }
+            for (JShellItem item : cont.values()) {
+                table.importItem(id, item);
+            }
+        }
+
+        @Override
+        public Map<String, Directory> getSubDirectories() {
+            return ref_.table_.childMap(checkedId(), Directory.class);
+        }
+
+        @Override
+        public Map<String, File> getFiles() {
+            return ref_.table_.childMap(checkedId(), File.class);
+        }
+
+        @Override
+        public JShellItem getItem(String name) {
+            int id = ref_.table_.lookup(checkedId(), name);
+            return id == NONE ? null : ref_.table_.getItem(id);
+        }
+
+        @Override
+        public JShellItem getItem(String name, int start, int end) {
+            return getItem(name.substring(start, end));
+        }
+
+        @Override
+        public void removeItem(JShellItem item) {
+            ref_.table_.removeItem(this, checkedId(), item);
+        }
+
+        @Override
+        public void addItem(JShellItem item) {
+            ref_.table_.addItem(this, checkedId(), item);
+        }
+
+        @Override
+        public boolean contains(String item) {
+            return ref_.table_.lookup(checkedId(), item) != NONE;
+        }
+
+        @Override
+        public int getSize() {
+            return ref_.table_.getChildCount(checkedId());
+        }
+
+        @Override
+        public int getNumDirectories() {
+            return ref_.table_.getDirectoryCount(checkedId());
+        }
+
+        @Override
+        public int getNumFiles() {
+            return ref_.table_.getFileCount(checkedId());
+        }
+
+        @Override
+        public void setTreeListener(TreeListener listener) {
+            ref_.table_.listener_ = listener;
+        }
+
+        @Override
+        public TreeListener getTreeListener() {
+            return ref_.table_.listener_;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return ref_.sameAs(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return ref_.hash();
+        }
+    }
+
+    /**
+     * A File flyweight over a FILE inode.
+     */
+    public static class FileNode extends File implements Node {
+        /*
+         * The inode this flyweight stands for.
+         */
+        private final Ref ref_;
+
+        FileNode(InodeTable table, int id) {
+            super(null, null);
+            ref_ = new Ref(table, id);
+        }
+
+        @Override
+        public InodeTable getTable() {
+            return ref_.table_;
+        }
+
+        @Override
+        public int getId() {
+            return ref_.id_;
+        }
+
+        @Override
+        public int checkedId() {
+            return ref_.checkedId();
+        }
+
+        @Override
+        public String getName() {
+            return ref_.getName();
+        }
+
+        @Override
+        public void setName(String name) {
+            ref_.setName(name);
+        }
+
+        @Override
+        public String getFoldedName() {
+            return ref_.getFoldedName();
+        }
+
+        @Override
+        public Directory getParentDirectory() {
+            return ref_.getParentDirectory();
+        }
+
+        /**
+         * The parent of an inode is set when it is added to a directory.
+         *
+         * @param parentDirectory ignored.
+         */
+        @Override
+        public void setParentDirectory(Directory parentDirectory) {
+        }
+
+        @Override
+        public String getPath() {
+            return ref_.getPath();
+        }
+
+        @Override
+        public String getContent() {
+            return ref_.table_.getContent(checkedId());
+        }
+
+        @Override
+        public void setContent(String text) {
+            ref_.table_.setContent(checkedId(), text);
+        }
+
+        @Override
+        public void setContent(CharSequence text) {
+            ref_.table_.setContent(checkedId(), text.toString());
+        }
+
+        @Override
+        public void append(CharSequence text) {
+            ref_.table_.appendContent(checkedId(), text.toString());
+        }
+
+        @Override
+        public CharSequence getContentView() {
+            return ref_.table_.getContentView(checkedId());
+        }
+
+        @Override
+        CharSequence getStoredContent() {
+            return getContentView();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return ref_.sameAs(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return ref_.hash();
+        }
+    }
+
+    /**
+     * A DirectoryAlias flyweight over a DIRECTORY_ALIAS inode.
+     */
+    public static class DirectoryAliasNode extends DirectoryAlias
+            implements Node {
+        /*
+         * The inode this flyweight stands for.
+         */
+        private final Ref ref_;
+
+        DirectoryAliasNode(InodeTable table, int id) {
+            super(null, null, null);
+            ref_ = new Ref(table, id);
+        }
+
+        /**
+         * Returns the Directory the alias points to, or an empty Directory
+         * if it was removed.
+         *
+         * @return the linked Directory.
+         */
+        @Override
+        public Directory getPointer() {
+            int target = ref_.table_.resolve(checkedId());
+            return target == NONE ? new Directory("", null)
+                    : (Directory) ref_.table_.getItem(target);
+        }
+
+        @Override
+        public InodeTable getTable() {
+            return ref_.table_;
+        }
+
+        @Override
+        public int getId() {
+            return ref_.id_;
+        }
+
+        @Override
+        public int checkedId() {
+            return ref_.checkedId();
+        }
+
+        @Override
+        public String getName() {
+            return ref_.getName();
+        }
+
+        @Override
+        public void setName(String name) {
+            ref_.setName(name);
+        }
+
+        @Override
+        public String getFoldedName() {
+            return ref_.getFoldedName();
+        }
+
+        @Override
+        public Directory getParentDirectory() {
+            return ref_.getParentDirectory();
+        }
+
+        /**
+         * The parent of an inode is set when it is added to a directory.
+         *
+         * @param parentDirectory ignored.
+         */
+        @Override
+        public void setParentDirectory(Directory parentDirectory) {
+        }
+
+        @Override
+        public String getPath() {
+            return ref_.getPath();
+        }
+
+        @Override
+        public TreeListener getTreeListener() {
+            return ref_.table_.listener_;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return ref_.sameAs(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return ref_.hash();
+        }
+    }
+
+    /**
+     * A FileAlias flyweight over a FILE_ALIAS inode.
+     */
+    public static class FileAliasNode extends FileAlias implements Node {
+        /*
+         * The inode this flyweight stands for.
+         */
+        private final Ref ref_;
+
+        FileAliasNode(InodeTable table, int id) {
+            super(null, null, null);
+            ref_ = new Ref(table, id);
+        }
+
+        /**
+         * Returns the File the alias points to, or an empty File if it was
+         * removed.
+         *
+         * @return the linked File.
+         */
+        @Override
+        public File getPointer() {
+            int target = ref_.table_.resolve(checkedId());
+            return target == NONE ? new File("", null)
+                    : (File) ref_.table_.getItem(target);
+        }
+
+        @Override
+        public InodeTable getTable() {
+            return ref_.table_;
+        }
+
+        @Override
+        public int getId() {
+            return ref_.id_;
+        }
+
+        @Override
+        public int checkedId() {
+            return ref_.checkedId();
+        }
+
+        @Override
+        public String getName() {
+            return ref_.getName();
+        }
+
+        @Override
+        public void setName(String name) {
+            ref_.setName(name);
+        }
+
+        @Override
+        public String getFoldedName() {
+            return ref_.getFoldedName();
+        }
+
+        @Override
+        public Directory getParentDirectory() {
+            return ref_.getParentDirectory();
+        }
+
+        /**
+         * The parent of an inode is set when it is added to a directory.
+         *
+         * @param parentDirectory ignored.
+         */
+        @Override
+        public void setParentDirectory(Directory parentDirectory) {
+        }
+
+        @Override
+        public String getPath() {
+            return ref_.getPath();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return ref_.sameAs(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return ref_.hash();
+        }
+    }
+}
@@ -3,11 +3,14 @@ package jshell;
 import java.io.*;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * A JShell file system.
+ * A JShell session: a current directory, options and redirection working on
+ * a FileSystem that other sessions may share from other threads.
  *
  * @author Michael Kozakov <c1kozako>
  * @author Mohamed Khodeir <c1khodei>
@@ -16,14 +19,29 @@ import java.util.regex.Pattern;
  */
 @SuppressWarnings("serial")
 public class JShell implements Serializable {
+    /*
+     * The reader of the console, shared by every session so that no input
+     * is lost in the buffer of another reader, made when first needed.
+     */
+    private static BufferedReader console_;
+
     /*
      * The current working directory.
      */
     private Directory currentDirectory_;
     /*
-     * The map of commands available in JShell.
+     * The commands this session runs, made when first needed after the
+     * session is loaded.
+     */
+    private transient CommandRegistry commands_;
+    /*
+     * The background jobs of this session, made when first needed.
      */
-    private HashMap<String, Integer> commands_;
+    private transient JobTable jobs_;
+    /*
+     * The tree this session works on.
+     */
+    private final FileSystem fileSystem_;
     /*
      * The root directory of JShell.
      */
@@ -36,238 +54,355 @@ public class JShell implements Serializable {
      * Stores the redirection information.
      */
     private List<String> currentRedirection_ = new ArrayList<String>();
+    /*
+     * Caches the JShellItems found by getItemAtPath.
+     */
+    private transient PathCache pathCache_;
+    /*
+     * The key reused by getItemAtPath to look paths up in pathCache_.
+     */
+    private transient PathCache.Key cacheKey_;
+    /*
+     * The snapshot read by find, grep and ls -R while they run, or null.
+     */
+    private transient Snapshot snapshot_;
+    /*
+     * The number of threads find and grep -R run on.
+     */
+    private int parallelism_ = 1;
+    /*
+     * The pool running parallel finds and greps, made when first needed.
+     */
+    private transient ForkJoinPool pool_;
+    /*
+     * The output of the previous command of a pipeline, or null.
+     */
+    private transient Pipe input_;
+    /*
+     * Whether the session runs a script, with no one to answer prompts.
+     */
+    private transient boolean batch_;
+    /*
+     * Where the console output of the session goes, or null for System.out.
+     */
+    private transient PrintStream output_;
     /**
-     * JShell constructor. Initialize instance variables and map each command to
-     * a number.
+     * JShell constructor. Initialize instance variables and register the
+     * built-in commands.
      */
     public JShell() {
-        currentDirectory_ = new Directory("", "/", null);
-        rootDirectory_ = currentDirectory_;
-        rootDirectory_.setParentDirectory(rootDirectory_);
-        commands_ = new HashMap<String, Integer>();
-        commands_.put("exit", 0);
-        commands_.put("mkdir", 1);
-        commands_.put("cd", 2);
-        commands_.put("ls", 3);
-        commands_.put("pwd", 4);
-        commands_.put("mv", 5);
-        commands_.put("cp", 6);
-        commands_.put("cat", 7);
-        commands_.put("get", 8);
-        commands_.put("echo", 9);
-        commands_.put("rm", 10);
-        commands_.put("ln", 11);
-        commands_.put("man", 12);
-        commands_.put("find", 13);
-        commands_.put("grep", 14);
+        this(new FileSystem());
+    }
+
+    /**
+     * JShell constructor for an existing tree, such as the root Directory of
+     * an InodeTable.
+     *
+     * @param root the root Directory of the tree.
+     */
+    public JShell(Directory root) {
+        this(new FileSystem(root));
+    }
+
+    /**
+     * JShell constructor for a new session on a shared FileSystem. The
+     * session starts in the root directory and runs the built-in commands.
+     *
+     * @param fileSystem the FileSystem to work on.
+     */
+    public JShell(FileSystem fileSystem) {
+        this(fileSystem, BuiltinCommands.newRegistry());
+    }
+
+    /**
+     * JShell constructor for a new session on a shared FileSystem running
+     * the commands of a registry, which other sessions may share.
+     *
+     * @param fileSystem the FileSystem to work on.
+     * @param commands the commands the session runs.
+     */
+    public JShell(FileSystem fileSystem, CommandRegistry commands) {
+        fileSystem_ = fileSystem;
+        rootDirectory_ = fileSystem.getRootDirectory();
+        currentDirectory_ = rootDirectory_;
+        currentOptions_ = "";
+        commands_ = commands;
     }
 
     /**
      * Prints the prompt in the path + # format.
      */
     public void printPrompt() {
-        System.out.print(currentDirectory_.getPath() + "# ");
+        getOutput().print(currentDirectory_.getPath() + "# ");
     }
 
     /**
-     * Reads user input from the console.
+     * Reads user input from the console. Options are left among the words,
+     * to be taken by executeLine for each command of the line.
      *
-     * @return An ArrayList of words typed by user.
+     * @return An ArrayList of words typed by user, or null at the end of
+     * the input.
      */
     public ArrayList<String> readInput() {
-        currentOptions_ = new String();
-        String arg;
-        ArrayList<String> input = new ArrayList<String>();
-        Scanner scanner = new Scanner(System.in);
-        String inputText = scanner.nextLine();
-        Scanner tokenizer = new Scanner(inputText);
-        while (tokenizer.hasNext()) {
-            arg = tokenizer.next();
-            if (!arg.startsWith("-")) {
-                input.add(arg);
-            } else {
-                currentOptions_ += arg.substring(1);
+        try {
+            String line = getConsole().readLine();
+            return line == null ? null : split(line);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the reader of the console, which every session reads from.
+     *
+     * @return the reader of System.in.
+     */
+    public static synchronized BufferedReader getConsole() {
+        if (console_ == null) {
+            console_ = new BufferedReader(new InputStreamReader(System.in));
+        }
+        return console_;
+    }
+
+    /**
+     * Splits a command line into its words, which are separated by
+     * whitespace.
+     *
+     * @param line the command line.
+     * @return the words of line.
+     */
+    public static ArrayList<String> split(String line) {
+        ArrayList<String> words = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= line.length(); i++) {
+            if (i == line.length() || Character.isWhitespace(line.charAt(i))) {
+                if (start >= 0) {
+                    words.add(line.substring(start, i));
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
             }
         }
-        return input;
+        return words;
+    }
+
+    /**
+     * Runs a command line: one command, or several joined by '|' that run
+     * at the same time, each reading the output of the one before. The
+     * line is parsed by the Lexer, so quoted strings are single words, and
+     * syntax errors are printed.
+     *
+     * @param line the text of the command line.
+     * @return true if every command ran without an error.
+     */
+    public boolean executeLine(String line) {
+        CommandLine commands;
+        try {
+            commands = Lexer.parse(line, getCommandRegistry());
+        } catch (IllegalArgumentException e) {
+            getOutput().println(e.getMessage());
+            return false;
+        }
+        return execute(commands);
+    }
+
+    /**
+     * Runs a command line already split into words. The words starting
+     * with '-' are the options of the command they are in, and each
+     * command may redirect its output with > or >>.
+     *
+     * @param words the words of the command line.
+     * @return true if every command ran without an error.
+     */
+    public boolean executeLine(List<String> words) {
+        CommandLine commands;
+        try {
+            commands = Lexer.parse(words, getCommandRegistry());
+        } catch (IllegalArgumentException e) {
+            getOutput().println(e.getMessage());
+            return false;
+        }
+        return execute(commands);
+    }
+
+    /**
+     * Runs the commands of a parsed command line, in this session if there
+     * is one command and in a Pipeline if there are more. A line ending
+     * with '&' is started as a background job, and its number printed.
+     *
+     * @param commands the parsed command line.
+     * @return true if every command ran without an error, or the job was
+     * started.
+     */
+    public boolean execute(CommandLine commands) {
+        List<CommandLine.Invocation> stages = commands.getCommands();
+        if (stages.isEmpty()) {
+            return true;
+        }
+        if (commands.isBackground()) {
+            getOutput().println("[" + getJobs().start(this, commands).getId()
+                    + "] " + commands);
+            return true;
+        }
+        if (stages.size() == 1) {
+            CommandLine.Invocation command = stages.get(0);
+            currentOptions_ = command.getOptions();
+            setRedirection(command);
+            return executeCommand(command.getName(), command.getValues(),
+                    command.getParams(), command.getQuoted());
+        }
+        try {
+            return new Pipeline(this, commands).run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /*
+     * Returns a new session on the same tree and commands, in the same
+     * directory, with options, to run one command of a pipeline.
+     */
+    JShell fork(String options) {
+        JShell session = new JShell(fileSystem_, getCommandRegistry());
+        session.currentDirectory_ = currentDirectory_;
+        session.currentOptions_ = options;
+        session.jobs_ = getJobs();
+        session.batch_ = batch_;
+        session.output_ = output_;
+        session.parallelism_ = parallelism_;
+        if (parallelism_ > 1) {
+            session.pool_ = getPool();
+        }
+        return session;
+    }
+
+    /*
+     * Sets the output of the previous command of a pipeline, which the
+     * command run by this session reads.
+     */
+    void setInput(Pipe input) {
+        input_ = input;
+    }
+
+    /**
+     * Sets whether the session runs a script. A script cannot answer the
+     * prompts of rm, so rm fails without -f instead of reading the next
+     * lines of the script, or the terminal, as answers.
+     *
+     * @param batch true while running a script.
+     */
+    public void setBatch(boolean batch) {
+        batch_ = batch;
+    }
+
+    /**
+     * Checks whether the session runs a script.
+     *
+     * @return true while running a script.
+     */
+    public boolean isBatch() {
+        return batch_;
+    }
+
+    /**
+     * Sets where the console output of the session goes: the output of
+     * commands that is not redirected, their errors and the prompts.
+     * Sessions running the commands of a pipeline or a job write to the
+     * output of the session they were started from.
+     *
+     * @param output the stream to write to, or null for System.out.
+     */
+    public void setOutput(PrintStream output) {
+        output_ = output;
+    }
+
+    /**
+     * Return the stream the console output of the session goes to.
+     *
+     * @return the stream given to setOutput, or System.out if there is none.
+     */
+    public PrintStream getOutput() {
+        return output_ == null ? System.out : output_;
+    }
+
+    /**
+     * Return the output of the previous command of the pipeline this
+     * session runs a command of. Commands given no File read it instead.
+     *
+     * @return the Pipe to read, or null outside a pipeline.
+     */
+    public Pipe getInput() {
+        return input_;
     }
 
     /**
      * Call the appropriate command function and notify user of incorrect
-     * command input.
+     * command input. The options and parameters are checked against what
+     * the command declares before it runs, and its output goes to the File
+     * of the redirection or the console.
      *
      * @param command is the operation to do.
      * @param params is a list of parameters for the command.
+     * @return true if the command ran without an error.
      */
-    public void executeCommand(String command, List<String> params) {
-        if (commands_.containsKey(command)) {
-            int commandNum = commands_.get(command);
-            try {
-                switch (commandNum) {
-                    // mkdir command.
-                    case 1:
-                        if (params.size() > 0) {
-                            mkdir(params);
-                        } else {
-                            System.out.println("mkdir: missing operand");
-                        }
-                        break;
-
-                    // cd command.
-                    case 2:
-                        if (params.size() == 1) {
-                            cd(params.get(0).toString());
-                        } else if (params.size() > 1) {
-                            System.out.println("cd: Too many arguments.");
-                        } else {
-                            cd("/");
-                        }
-                        break;
-
-                    // ls command.
-                    case 3:
-                        String lsContent = ("\"" + ls(params) + "\"");
-                        currentRedirection_.add(0, lsContent);
-                        System.out.print(echo(currentRedirection_));
-                        break;
-
-                    // pwd command.
-                    case 4:
-                        if (params.size() < 1) {
-                            String pwdContent = ("\"" + pwd() + "\"");
-                            currentRedirection_.add(0, pwdContent);
-                            System.out.print(echo(currentRedirection_));
-                        } else {
-                            System.out.println(
-                                    "pwd: ignoring non-option arguments");
-                            System.out.println(pwd());
-                        }
-                        break;
-
-                    // mv command.
-                    case 5:
-                        if (params.size() == 2) {
-                            mv(params.get(0).toString(), 
-                                    params.get(1).toString());
-                        } else {
-                            System.out.println("mv: missing file operand"
-                                    + "\nSpecify OLDFILE and NEWFILE");
-                        }
-                        break;
-
-                    // cp command.
-                    case 6:
-                        if (params.size() == 2) {
-                            cp(params.get(0).toString(), 
-                                    params.get(1).toString());
-                        } else {
-                            System.out.println("cp: missing file operand"
-                                    + "\nSpecify OLDFILE and NEWFILE");
-                        }
-                        break;
-
-                    // cat command.
-                    case 7:
-                        if (params.size() == 1) {
-                            String catContent = ("\""
-                                    + cat(params.get(0).toString()) + "\"");
-                            currentRedirection_.add(0, catContent);
-                            System.out.print(echo(currentRedirection_));
-                        } else {
-                            System.out.println("cat: missing file operand"
-                                    + "\nInvalid filename");
-                        }
-                        break;
-
-                    // get command.
-                    case 8:
-                        if (params.size() == 1) {
-                            String getContent = ("\""
-                                    + get(params.get(0).toString()) + "\"");
-                            currentRedirection_.add(0, getContent);
-                            System.out.print(echo(currentRedirection_));
-                        } else {
-                            System.out.println(
-                                    "get: missing operand\nInvalid URL");
-                        }
-                        break;
-
-                    // echo command.
-                    case 9:
-                        if (params.size() > 0) {
-                            if (currentRedirection_.size() > 0) {
-                                params.add(currentRedirection_.get(0));
-                                params.add(currentRedirection_.get(1));
-                            }
-                            System.out.print(echo(params));
-                        } else {
-                            System.out.print("\n");
-                        }
-                        break;
-
-                    // rm command.
-                    case 10:
-                        if (params.size() > 0) {
-                            rm(params);
-                        } else {
-                            System.out.println("mkdir: missing operand");
-                        }
-                        break;
-
-                    // ln command.
-                    case 11:
-                        if (params.size() == 2) {
-                            ln(params.get(0).toString(), 
-                                    params.get(1).toString());
-                        } else {
-                            System.out.println("ln: missing file operand"
-                                    + "\nSpecify PATH1 and PATH2");
-                        }
-                        break;
+    public boolean executeCommand(String command, List<String> params) {
+        return executeCommand(command, null, params, new BitSet());
+    }
 
-                    // man command.
-                    case 12:
-                        if (params.isEmpty()) {
-                            params.add("");
-                        }
-                        String manContent = (
-                                "\"" + man(params.get(0).toString()) + "\"");
-                        currentRedirection_.add(0, manContent);
-                        System.out.print(echo(currentRedirection_));
-                        break;
-
-                    // find command.
-                    case 13:
-                        if (params.isEmpty()) {
-                            params.add("");
-                        }
-                        // Add regex stuff here.
-                        String findContent = find(params.get(0),
-                                params.subList(1, params.size()));
-                        assert findContent.equals("");
-                        findContent = ("\"" + findContent + "\"");
-                        currentRedirection_.add(0, findContent);
-                        System.out.print(echo(currentRedirection_));
-                        break;
-
-                    // grep command.
-                    case 14:
-                        if (params.size()<2) {
-                            System.out.println("Usage: grep [OPTION]... PATTERN [FILE]...");
-                        }else{
-                        String grepContent = ("\""
-                                + grep(params.get(0),
-                                params.subList(1, params.size())) + "\"");
-                        currentRedirection_.add(0, grepContent);
-                        System.out.print(echo(currentRedirection_));
-                        }
-                        break;
-                }
-            } catch (Exception e) {
-                System.out.println(e.getMessage());
+    /*
+     * Runs command with the values bound to its options, or null, and
+     * params, of which those in quoted were quoted, printing its errors.
+     */
+    private boolean executeCommand(String command, List<String> values,
+            List<String> params, BitSet quoted) {
+        CommandRegistry commands = getCommandRegistry();
+        Command handler = commands.get(command);
+        if (handler == null) {
+            getOutput().println("-JShell: " + command + ": command not found");
+            return false;
+        }
+        try {
+            Arguments args = Arguments.parse(handler, currentOptions_, values,
+                    params, quoted);
+            OutputSink out = openSink();
+            try {
+                commands.execute(handler, this, args, out);
+            } finally {
+                out.close();
             }
-        } else {
-            System.out.println("-JShell: " + command + ": command not found");
+            return true;
+        } catch (Exception e) {
+            getOutput().println(e.getMessage());
+            return false;
+        }
+    }
+
+    /*
+     * Runs command, writing its output to out, which the caller closes.
+     */
+    void executeCommand(CommandLine.Invocation command, OutputSink out)
+            throws Exception {
+        CommandRegistry commands = getCommandRegistry();
+        Command handler = commands.get(command.getName());
+        if (handler == null) {
+            throw new Exception("-JShell: " + command.getName()
+                    + ": command not found");
+        }
+        commands.execute(handler, this, Arguments.parse(handler,
+                currentOptions_, command.getValues(), command.getParams(),
+                command.getQuoted()), out);
+    }
+
+    /*
+     * Sets the redirection of the output of command, or clears it.
+     */
+    void setRedirection(CommandLine.Invocation command) {
+        currentRedirection_.clear();
+        if (command.getRedirection() != null) {
+            currentRedirection_.add(command.getRedirection());
+            currentRedirection_.add(command.getTarget());
         }
     }
 
@@ -281,28 +416,33 @@ public class JShell implements Serializable {
      * directory or the full path.
      */
     public void mkdir(List<String> paths) throws Exception {
-        for (String dir : paths) {
-            if (!dir.startsWith("/")) {
-                dir = currentDirectory_.getPath().concat(dir);
-            }
-            while (dir.endsWith("/")) {
-                dir = dir.substring(0, dir.length() - 1);
-            }
-            String[] dirs = dir.split("/");
-            String dirName = dirs[dirs.length - 1];
-            dir = dir.substring(0, dir.length() - dirName.length());
-            Directory parent = (Directory) getItemAtPath(dir, 0);
-
-            if (parent == null) {
-                throw new NullPointerException("The path specified is "
-                        + "incorrect.");
-            }
-            if (parent.getContents().keySet().contains(dirName)) {
-                throw new Exception("A directory already exists at that "
-                        + "path.");
+        Lock lock = fileSystem_.writeLock();
+        lock.lock();
+        try {
+            for (String dir : paths) {
+                if (!dir.startsWith("/")) {
+                    dir = currentDirectory_.getPath().concat(dir);
+                }
+                while (dir.endsWith("/")) {
+                    dir = dir.substring(0, dir.length() - 1);
+                }
+                String[] dirs = dir.split("/");
+                String dirName = dirs[dirs.length - 1];
+                dir = dir.substring(0, dir.length() - dirName.length());
+                Directory parent = (Directory) getItemAtPath(dir, 0);
+
+                if (parent == null) {
+                    throw new NullPointerException("The path specified is "
+                            + "incorrect.");
+                }
+                if (parent.getContents().keySet().contains(dirName)) {
+                    throw new Exception("A directory already exists at that "
+                            + "path.");
+                }
+                parent.addItem(new Directory(dirName, parent));
             }
-            parent.addItem(new Directory(dirName, parent.getPath() + dirName
-                    + "/", parent));
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -313,19 +453,24 @@ public class JShell implements Serializable {
      * contain the file name as well.
      */
     public void mkfile(String path) throws Exception {
-        Directory target = currentDirectory_;
-        if (path.startsWith("/")) {
-            String targetPath = path.substring(0, path.lastIndexOf("/"));
-            target = (Directory) getItemAtPath(targetPath, 0);
-        }
-        if (target != null) {
-            String fileName = path.substring(path.lastIndexOf("/") + 1);
-            if (path.indexOf("/") != -1) {
-                target = (Directory) getItemAtPath(
-                        path.substring(0, path.lastIndexOf("/")), 0);
+        Lock lock = fileSystem_.writeLock();
+        lock.lock();
+        try {
+            Directory target = currentDirectory_;
+            if (path.startsWith("/")) {
+                String targetPath = path.substring(0, path.lastIndexOf("/"));
+                target = (Directory) getItemAtPath(targetPath, 0);
             }
-            target.addItem(new File(fileName, target.getPath() + fileName,
-                    target));
+            if (target != null) {
+                String fileName = path.substring(path.lastIndexOf("/") + 1);
+                if (path.indexOf("/") != -1) {
+                    target = (Directory) getItemAtPath(
+                            path.substring(0, path.lastIndexOf("/")), 0);
+                }
+                target.addItem(new File(fileName, target));
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -337,42 +482,49 @@ public class JShell implements Serializable {
      * The directory separator must be '/', the forward slash.
      */
     public void cd(String dir) throws Exception {
-        // Initialize the destination directory.
-        JShellItem destination;
-        String path = dir;
-
-        // If user's input path doesn't begin with "/", use relative path
-        // with the current directory.
-        if (!dir.startsWith("/")) {
-            dir = currentDirectory_.getPath().concat(dir);
-        }
+        Lock lock = fileSystem_.readLock();
+        lock.lock();
+        try {
+            // Initialize the destination directory.
+            JShellItem destination;
+            String path = dir;
 
-        // If user's input path doesn't end with "/", concatenate it to
-        // complete a full path.
-        if (!dir.endsWith("/")) {
-            dir = dir.concat("/");
-        }
+            // If user's input path doesn't begin with "/", use relative path
+            // with the current directory.
+            if (!dir.startsWith("/")) {
+                dir = currentDirectory_.getPath().concat(dir);
+            }
 
-        // Find the directory location.
-        destination = getItemAtPath(dir, 0);
+            // If user's input path doesn't end with "/", concatenate it to
+            // complete a full path.
+            if (!dir.endsWith("/")) {
+                dir = dir.concat("/");
+            }
 
-        // Check to see if user is trying to change directory into a File
-        // object.
-        if (destination instanceof File) {
-            System.out.println(path + ": Not a directory.");
+            // Find the directory location.
+            destination = getItemAtPath(dir, 0);
 
-            // destination is a Directory Object.
-        } else {
-            // Use try to catch NullPointerException for directories that
-            // doesn't exist.
+            // Check to see if user is trying to change directory into a File
+            // object.
+            if (destination instanceof File) {
+                getOutput().println(path + ": Not a directory.");
 
-            // If path exists, location of the directory is found.
-            if (destination != null) {
-                currentDirectory_ = (Directory) destination;
+                // destination is a Directory Object.
             } else {
-                // The directory doesn't exist.
-                throw new NullPointerException(path + ": no such directory.");
+                // Use try to catch NullPointerException for directories that
+                // doesn't exist.
+
+                // If path exists, location of the directory is found.
+                if (destination != null) {
+                    currentDirectory_ = (Directory) destination;
+                } else {
+                    // The directory doesn't exist.
+                    throw new NullPointerException(path
+                            + ": no such directory.");
+                }
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -384,55 +536,86 @@ public class JShell implements Serializable {
      * @return a String containing the relevant contents.
      */
     public String ls(List<String> paths) throws Exception {
-        // If ls is called without parameters.
-        if (paths.isEmpty()) {
-            if (!currentOptions_.equals("R")) {
-                if (currentDirectory_.getSize() == 0) {
-                    return "";
-                } else {
-                    return currentDirectory_.ls().substring(2);
-                }
-            }
-            paths.add(currentDirectory_.getPath());
-            return ls(paths);
+        OutputSink.Capture out = new OutputSink.Capture();
+        ls(paths, out);
+        return out.toString();
+    }
 
-            // If ls is called with paramters.
-        } else {
-            String lsOutput = "";
-            for (int i = 0; i < paths.size(); i++) {
-                JShellItem target = getItemAtPath(paths.get(i), 0);
-                if (!lsOutput.isEmpty()) {
-                    lsOutput += "\n";
+    /**
+     * Write the names of the contained items, if path leads to a Directory,
+     * or the path provided, if it leads to a File, to out as they are found.
+     *
+     * @param paths a list of Strings containing the desired paths.
+     * @param out where to write the listing.
+     */
+    public void ls(List<String> paths, OutputSink out) throws Exception {
+        // ls -R reads a snapshot instead of locking the tree while it walks.
+        boolean recursive = currentOptions_.equals("R");
+        boolean opened = recursive && openSnapshot();
+        Lock lock = fileSystem_.readLock();
+        if (!recursive) {
+            lock.lock();
+        }
+        try {
+            // If ls is called without parameters.
+            if (paths.isEmpty()) {
+                if (!currentOptions_.equals("R")) {
+                    if (currentDirectory_.getSize() > 0) {
+                        out.append(currentDirectory_.ls().substring(2));
+                    }
+                    return;
                 }
-                lsOutput += paths.get(i);
-                if (target == null) {
-                    lsOutput += ": No such file or directory";
-                } else {
+                paths.add(currentDirectory_.getPath());
+                ls(paths, out);
 
-                    if (target instanceof Directory
-                            && currentOptions_.equals("R")
-                            && ((Directory) target).getNumDirectories() > 0 && !(target instanceof DirectoryAlias)) {
-                        List<String> recursivePath = recurseOnPath(
-                                paths.get(i), false);
-                        Collections.reverse(recursivePath);
-                        lsOutput += target.ls();
-                        lsOutput += "\n";
-                        lsOutput += ls(recursivePath.subList(1,
-                                recursivePath.size()));
+                // If ls is called with paramters.
+            } else {
+                // The output of this call starts at mark.
+                long mark = out.getCount();
+                for (int i = 0; i < paths.size(); i++) {
+                    JShellItem target = getItemAtPath(paths.get(i), 0);
+                    if (out.getCount() > mark) {
+                        out.append("\n");
+                    }
+                    out.append(paths.get(i));
+                    if (target == null) {
+                        out.append(": No such file or directory");
                     } else {
-                        // list paths separately
-                        lsOutput += target.ls();
+
+                        out.append(lsOf(target));
+                        if (target instanceof Directory
+                                && !(target instanceof DirectoryAlias)
+                                && currentOptions_.equals("R")
+                                && numDirectoriesOf(target) > 0) {
+                            // Each Directory beneath target is listed once,
+                            // in the order they are reached.
+                            TreeWalker walker = new TreeWalker(target,
+                                    target.getPath(), snapshot_, null,
+                                    TreeWalker.Order.PRE_ORDER);
+                            walker.next();
+                            while (walker.next()) {
+                                JShellItem dir = walker.getItem();
+                                if (dir instanceof Directory
+                                        && !(dir instanceof DirectoryAlias)) {
+                                    out.append("\n\n");
+                                    out.append(walker.getPath());
+                                    out.append(lsOf(dir));
+                                }
+                            }
+                        }
 
                         // if there are more paths, print a blank line
                         if (i < paths.size() - 1) {
-                            lsOutput += "\n";
+                            out.append("\n");
                         }
-                        // notify user if there is an error in the path
-                        // specified
                     }
                 }
             }
-            return lsOutput;
+        } finally {
+            if (!recursive) {
+                lock.unlock();
+            }
+            closeSnapshot(opened);
         }
     }
 
@@ -456,43 +639,48 @@ public class JShell implements Serializable {
      * the current directory to which oldFile needs to be moved.
      */
     public void mv(String oldFile, String newFile) throws Exception {
-        JShellItem source = getItemAtPath(oldFile, 0);
-        if (source == null) {
-            throw new Exception(oldFile + ": doesn't exist.");
-        }
-        Directory sourceParent = source.getParentDirectory();
-        Directory destinationParent;
-        String newName;
+        Lock lock = fileSystem_.writeLock();
+        lock.lock();
+        try {
+            JShellItem source = getItemAtPath(oldFile, 0);
+            if (source == null) {
+                throw new Exception(oldFile + ": doesn't exist.");
+            }
+            Directory sourceParent = source.getParentDirectory();
+            Directory destinationParent;
+            String newName;
 
-        if (newFile.endsWith("/")) {
-            destinationParent = (Directory) getItemAtPath(newFile, 0);
-            newName = source.getName();
+            if (newFile.endsWith("/")) {
+                destinationParent = (Directory) getItemAtPath(newFile, 0);
+                newName = source.getName();
 
-        } else {
-            destinationParent = (Directory) getItemAtPath(newFile, 1);
-            newName = newFile.substring(newFile.lastIndexOf("/") + 1);
-        }
+            } else {
+                destinationParent = (Directory) getItemAtPath(newFile, 1);
+                newName = newFile.substring(newFile.lastIndexOf("/") + 1);
+            }
 
-        if (destinationParent == null) {
-            throw new Exception(newFile + ": invalid destination path.");
-        }
-        if (destinationParent.contains(newName)) {
-            throw new Exception(newFile + ": already exists.");
-        }
-        sourceParent.removeItem(source);
-        source.setName(newName);
-        if (source instanceof Directory) {
-            if (destinationParent.isChildOf((Directory) source)) {
+            if (destinationParent == null) {
+                throw new Exception(newFile + ": invalid destination path.");
+            }
+            if (destinationParent.contains(newName)) {
+                throw new Exception(newFile + ": already exists.");
+            }
+            if (source instanceof Directory
+                    && destinationParent.isChildOf((Directory) source)) {
                 throw new Exception(String.format(
                         "mv: cannot move '%s' to a subdirectory of itself, '%s'"
                         , oldFile, newFile));
             }
-            newName.concat("/");
+            // Paths are derived from the parent directories, so relinking the
+            // source moves its whole subtree in constant time.
+            sourceParent.removeItem(source);
+            source.setName(newName);
+            source.setParentDirectory(destinationParent);
+            destinationParent.addItem(source);
+
+        } finally {
+            lock.unlock();
         }
-        source.setPath(destinationParent.getPath() + newName);
-        source.setParentDirectory(destinationParent);
-        destinationParent.addItem(source);
-
     }
 
     /**
@@ -504,67 +692,352 @@ public class JShell implements Serializable {
      * the current directory to which oldFile needs to be copied.
      */
     public void cp(String oldPath, String newPath) throws Exception {
-        Directory destinationParent;
-        String newName;
-        if (oldPath.equals(newPath)) {
-            return;
+        Lock lock = fileSystem_.writeLock();
+        lock.lock();
+        try {
+            Directory destinationParent;
+            String newName;
+            if (oldPath.equals(newPath)) {
+                return;
+            }
+            JShellItem oldItem = getItemAtPath(oldPath, 0);
+            if (oldItem == null) {
+                throw new Exception(oldItem + " does not exist.");
+            }
+            if (newPath.endsWith("/")) {
+                destinationParent = (Directory) getItemAtPath(newPath, 0);
+                newName = oldItem.getName();
+            } else {
+                destinationParent = (Directory) getItemAtPath(newPath, 1);
+                newName = newPath.substring(newPath.lastIndexOf("/") + 1);
+            }
+
+            if (destinationParent == null) {
+                throw new Exception(newPath
+                        + " is an invalid destination path.");
+            }
+            if (destinationParent.contains(newName)) {
+                throw new Exception(destinationParent.getPath() + newName 
+                        + " already exists.");
+            }
+            if (oldItem instanceof File) {
+                File newItem = new File(newName, destinationParent,
+                        ((File) oldItem).getContentView());
+                destinationParent.addItem(newItem);
+            } else {
+                if (destinationParent.isChildOf((Directory) oldItem)) {
+                    throw new Exception(String.format(
+                            "cp: cannot copy '%s' into itself, '%s'", 
+                            oldPath, newPath));
+                }
+                // The copy shares the source until either side changes.
+                destinationParent.addItem(Directory.copyOf(
+                        (Directory) oldItem, newName, destinationParent));
+            }
+        } finally {
+            lock.unlock();
         }
-        JShellItem oldItem = getItemAtPath(oldPath, 0);
-        if (oldItem == null) {
-            throw new Exception(oldItem + " does not exist.");
+    }
+
+    /**
+     * Display the content of File in the shell.
+     *
+     * @param file the full path or the name of a File in current directory.
+     * @return the contents of the specified File object.
+     */
+    public String cat(String file) throws Exception {
+        return catView(file).toString();
+    }
+
+    /**
+     * Return the content of File like cat, without copying content kept in
+     * chunks or in a ContentStore.
+     *
+     * @param file the full path or the name of a File in current directory.
+     * @return the contents of the specified File object.
+     */
+    public CharSequence catView(String file) throws Exception {
+        Lock lock = fileSystem_.readLock();
+        lock.lock();
+        try {
+            // The file name given by the parameter is used to grab the file.
+            JShellItem targetFile = getItemAtPath(file, 0);
+            // If the file exists, then it returns the getContent method which
+            // contains all of the files contents.
+            if (targetFile instanceof File) {
+                return ((File) targetFile).getContentView();
+            } else if (targetFile != null) {
+                return targetFile.getContent();
+            } else {
+                return "The file was not found.";
+            }
+        } finally {
+            lock.unlock();
         }
-        if (newPath.endsWith("/")) {
-            destinationParent = (Directory) getItemAtPath(newPath, 0);
-            newName = oldItem.getName();
-        } else {
-            destinationParent = (Directory) getItemAtPath(newPath, 1);
-            newName = newPath.substring(newPath.lastIndexOf("/") + 1);
+    }
+
+    /**
+     * Return the first count lines of File, without reading the rest of it.
+     *
+     * @param file the full path or the name of a File in current directory.
+     * @param count the number of lines.
+     * @return the lines, separated by line breaks.
+     */
+    public CharSequence head(String file, int count) throws Exception {
+        return readLines(file, 0, count, false);
+    }
+
+    /**
+     * Return the last count lines of File, without reading the rest of it.
+     *
+     * @param file the full path or the name of a File in current directory.
+     * @param count the number of lines.
+     * @return the lines, separated by line breaks.
+     */
+    public CharSequence tail(String file, int count) throws Exception {
+        return readLines(file, 0, count, true);
+    }
+
+    /**
+     * Return the lines first to last of File, counting from 1.
+     *
+     * @param file the full path or the name of a File in current directory.
+     * @param first the number of the first line.
+     * @param last the number of the last line.
+     * @return the lines, separated by line breaks.
+     */
+    public CharSequence lines(String file, int first, int last)
+            throws Exception {
+        return readLines(file, Math.max(0, first - 1), last - first + 1,
+                false);
+    }
+
+    /**
+     * Return the number of lines, words and characters of File followed by
+     * its name, or only the number of lines with the -l option. Counting
+     * only lines does not read the content once the File is indexed.
+     *
+     * @param file the full path or the name of a File in current directory.
+     * @return the counts.
+     */
+    public String wc(String file) throws Exception {
+        Lock lock = fileSystem_.readLock();
+        lock.lock();
+        try {
+            JShellItem item = getItemAtPath(file, 0);
+            if (!(item instanceof File)) {
+                return "wc: " + file + ": No such file";
+            }
+            int lines = ((File) item).getLineIndex().getLineCount();
+            if (currentOptions_.contains("l")) {
+                return lines + " " + file;
+            }
+            CharSequence content = ((File) item).getContentView();
+            int words = 0;
+            boolean inWord = false;
+            for (int i = 0; i < content.length(); i++) {
+                boolean space = Character.isWhitespace(content.charAt(i));
+                if (!space && !inWord) {
+                    words++;
+                }
+                inWord = !space;
+            }
+            return lines + " " + words + " " + content.length() + " " + file;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        if (destinationParent == null) {
-            throw new Exception(newPath + " is an invalid destination path.");
+    /**
+     * Write the first count lines read from in to out, reading no further.
+     *
+     * @param in the output of the previous command of a pipeline.
+     * @param count the number of lines.
+     * @param out where to write the lines.
+     */
+    public void head(Pipe in, int count, OutputSink out) throws Exception {
+        copyLines(in, 0, count, false, out);
+    }
+
+    /**
+     * Write the last count lines read from in to out.
+     *
+     * @param in the output of the previous command of a pipeline.
+     * @param count the number of lines.
+     * @param out where to write the lines.
+     */
+    public void tail(Pipe in, int count, OutputSink out) throws Exception {
+        copyLines(in, 0, count, true, out);
+    }
+
+    /**
+     * Write the lines first to last read from in, counting from 1, to out,
+     * reading no further.
+     *
+     * @param in the output of the previous command of a pipeline.
+     * @param first the number of the first line.
+     * @param last the number of the last line.
+     * @param out where to write the lines.
+     */
+    public void lines(Pipe in, int first, int last, OutputSink out)
+            throws Exception {
+        copyLines(in, Math.max(0, first - 1), last - first + 1, false, out);
+    }
+
+    /**
+     * Return the number of lines, words and characters read from in, or
+     * only the number of lines with the -l option.
+     *
+     * @param in the output of the previous command of a pipeline.
+     * @return the counts.
+     */
+    public String wc(Pipe in) throws Exception {
+        long lines = 0;
+        long words = 0;
+        long chars = 0;
+        boolean inWord = false;
+        char last = '\n';
+        for (CharSequence piece = in.read(); piece != null;
+                piece = in.read()) {
+            for (int i = 0; i < piece.length(); i++) {
+                char c = piece.charAt(i);
+                boolean space = Character.isWhitespace(c);
+                if (c == '\n') {
+                    lines++;
+                }
+                if (!space && !inWord) {
+                    words++;
+                }
+                inWord = !space;
+                last = c;
+            }
+            chars += piece.length();
         }
-        if (destinationParent.contains(newName)) {
-            throw new Exception(destinationParent.getPath() + newName 
-                    + " already exists.");
+        // As in a File, a last line needs no line break.
+        if (last != '\n') {
+            lines++;
         }
-        if (oldItem instanceof File) {
-            File newItem = new File(newName, destinationParent.getPath() + "/"
-                    + newName, destinationParent, ((File) oldItem).getContent());
-            destinationParent.addItem(newItem);
-        } else {
-            if (destinationParent.isChildOf((Directory) oldItem)) {
-                throw new Exception(String.format(
-                        "cp: cannot copy '%s' into itself, '%s'", 
-                        oldPath, newPath));
+        if (currentOptions_.contains("l")) {
+            return String.valueOf(lines);
+        }
+        return lines + " " + words + " " + chars;
+    }
+
+    /*
+     * Writes count lines read from in from line first, or the last count
+     * lines if fromEnd, to out.
+     */
+    private void copyLines(Pipe in, int first, int count, boolean fromEnd,
+            OutputSink out) throws Exception {
+        if (count <= 0) {
+            return;
+        }
+        if (fromEnd) {
+            LinkedList<String> last = new LinkedList<String>();
+            for (String line = in.readLine(); line != null;
+                    line = in.readLine()) {
+                last.add(line);
+                if (last.size() > count) {
+                    last.removeFirst();
+                }
+            }
+            boolean separate = false;
+            for (String line : last) {
+                if (separate) {
+                    out.append("\n");
+                }
+                out.append(line);
+                separate = true;
+            }
+            return;
+        }
+        // Nothing past the last line wanted is read.
+        for (int index = 0; index < first + count; index++) {
+            String line = in.readLine();
+            if (line == null) {
+                break;
+            }
+            if (index > first) {
+                out.append("\n");
+            }
+            if (index >= first) {
+                out.append(line);
+            }
+        }
+    }
+
+    /*
+     * Returns count lines of the File at path from line first, or the last
+     * count lines if fromEnd, as one view of its content.
+     */
+    private CharSequence readLines(String file, int first, int count,
+            boolean fromEnd) throws Exception {
+        Lock lock = fileSystem_.readLock();
+        lock.lock();
+        try {
+            JShellItem item = getItemAtPath(file, 0);
+            if (!(item instanceof File)) {
+                return item != null ? item.getContent()
+                        : "The file was not found.";
+            }
+            LineIndex index = ((File) item).getLineIndex();
+            CharSequence content = ((File) item).getContentView();
+            int lines = index.getLineCount();
+            if (fromEnd) {
+                first = Math.max(0, lines - count);
             }
-            Directory newItem = new Directory(newName,
-                    destinationParent.getPath() + newName + "/",
-                    destinationParent);
-            destinationParent.addItem(newItem);
-            for (JShellItem item : 
-                    ((Directory) oldItem).getContents().values()) {
-                cp(item.getPath(), newItem.getPath());
+            int last = (int) Math.min(lines, (long) first + count) - 1;
+            if (first > last) {
+                return "";
             }
+            return content.subSequence(index.getLineStart(first),
+                    index.getLineEnd(last));
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    /*
+     * Returns the sink for the output of the current command: the File of
+     * its redirection, or the console.
+     */
+    OutputSink openSink() {
+        if (currentRedirection_.size() == 2) {
+            return new OutputSink.Redirect(this, currentRedirection_.get(0),
+                    currentRedirection_.get(1));
         }
+        return new OutputSink.Stream(getOutput());
     }
 
     /**
-     * Display the content of File in the shell.
+     * Writes content to the File at path, replacing it for > and adding to
+     * it for >>, and creating the File if needed.
      *
-     * @param file the full path or the name of a File in current directory.
-     * @return the contents of the specified File object.
+     * @param content the text to write.
+     * @param param the redirection, > or >>.
+     * @param path the full path or the name of a File in current directory.
      */
-    public String cat(String file) throws Exception {
-        // The file name given by the parameter is used to grab the file.
-        JShellItem targetFile = getItemAtPath(file, 0);
-        // If the file exists, then it returns the getContent method which
-        // contains all of the files contents.
-        if (targetFile != null) {
-            return targetFile.getContent();
-        } else {
-            return "The file was not found.";
+    void redirect(CharSequence content, String param, String path)
+            throws Exception {
+        Lock lock = fileSystem_.writeLock();
+        lock.lock();
+        try {
+            // The file is retrieved if it exists.
+            JShellItem targetFile = getItemAtPath(path, 0);
+
+            // The file's contents are appended to an old file, or the file is
+            // replaced, depending on the user's input.
+            if (param.equals(">>") & targetFile != null) {
+                ((File) targetFile).append(content);
+            } else {
+                if (targetFile != null) {
+                    targetFile.getParentDirectory().removeItem(targetFile);
+                }
+                mkfile(path);
+                ((File) getItemAtPath(path, 0)).setContent(content);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -603,16 +1076,25 @@ public class JShell implements Serializable {
      * @return
      */
     public String getContent(List<String> params) {
-        String content = "";
+        StringBuilder content = new StringBuilder();
         for (String x : params) {
-        	while (x.indexOf("\\n") != -1) 
-        		x = x.substring(0,x.indexOf("\\n")) + "\n" + x.substring(x.indexOf("\\n") + 2);
-            if (content.isEmpty()
-                    | !(content.endsWith("\" ") && content.length() > 2)) {
-                content = content + x + " ";
+            // The string ends at the first word after the first ending in
+            // a quote.
+            int length = content.length();
+            if (length > 2 && content.charAt(length - 2) == '"') {
+                break;
+            }
+            // Each \n is replaced by a line break in the same pass.
+            int start = 0;
+            for (int i = x.indexOf("\\n"); i >= 0;
+                    i = x.indexOf("\\n", start)) {
+                content.append(x, start, i).append('\n');
+                start = i + 2;
             }
+            content.append(x, start, x.length()).append(' ');
         }
-        return content.substring(0, content.length() - 1);
+        return content.length() == 0 ? ""
+                : content.substring(0, content.length() - 1);
     }
 
     /**
@@ -659,25 +1141,7 @@ public class JShell implements Serializable {
             String param = params.get(last_index + 1);
             // The quotations are striped from the string to be used.
             content = content.substring(1, content.length() - 1);
-
-            // The file is retrieved if it exists.
-            JShellItem targetFile = getItemAtPath(file_name, 0);
-
-            // The file is deleted if it exists and is to be overwritten.
-            // Otherwise the file is created.
-            if (!(param.equals(">>") & targetFile != null)) {
-                if (targetFile != null) {
-                    targetFile.getParentDirectory().removeItem(targetFile);
-                }
-                mkfile(file_name);
-                targetFile = getItemAtPath(file_name, 0);
-            }
-
-            // The file's contents are appended to either a blank (new) file
-            // or an old file, depending on the user's input.
-            ((File) targetFile).setContent(((File) targetFile).getContent()
-                    + content);
-
+            redirect(content, param, file_name);
             return "";
             // If the string is valid but the syntax is incorrect, then this
             // code is
@@ -698,59 +1162,93 @@ public class JShell implements Serializable {
      * Prompt to confirm that the user wants to delete the JShellItem from the
      * file system. If so, remove it. If -f is supplied, do not prompt and
      * confirm. If the root directory is specified, its contents but not itself
-     * will be subject to deletion.
+     * will be subject to deletion. A session running a script has no one to
+     * prompt, so there rm fails without -f and nothing is removed.
      *
      * @param paths the JShellItem to be removed.
+     * @throws Exception if -f is not given in batch mode.
      */
     public void rm(List<String> paths) throws Exception {
-        // Loop through the user inputs.
-        for (String path : paths) {
-            // Initialize the current JShellItem.
-            JShellItem item = getItemAtPath(path, 0);
-            if (item == null) {
-                System.out.printf("%s: does not exist.\n", path);
-            } else {
-                // Keep track of the size of that JShellItem.
-                int size = item.getSize();
-
-                if (size > 0) {
-                    List<String> recursiveList = recurseOnPath(path, true);
-                    rm(recursiveList.subList(0, size + 1));
-
-                    if (item.getSize() == 0) {
-                        rm(recursiveList.subList(size + 1, size + 2));
-                    }
-
-                } else {
-                    if (item.getPath().equals("/")) {
-                        return;
+        // Without -f the user is prompted for each item, so the tree is only
+        // locked while each item is removed.
+        boolean force = currentOptions_.equals("f");
+        if (!force && batch_) {
+            throw new Exception("rm: cannot prompt in batch mode, use rm -f");
+        }
+        Lock lock = fileSystem_.writeLock();
+        if (force) {
+            lock.lock();
+        }
+        try {
+            // Loop through the user inputs.
+            for (String path : paths) {
+                // Initialize the current JShellItem.
+                JShellItem item = getItemAtPath(path, 0);
+                if (item == null) {
+                    getOutput().printf("%s: does not exist.\n", path);
+                    continue;
+                }
+                // The items beneath a Directory are reached before it, so
+                // it is only removed once they all were. An alias is
+                // removed without touching what it points to.
+                TreeWalker walker = new TreeWalker(item, item.getPath(), null,
+                        force ? null : fileSystem_.readLock(),
+                        TreeWalker.Order.POST_ORDER);
+                walker.setReverse(true).setFollowAliases(false);
+                while (walker.next()) {
+                    JShellItem next = walker.getItem();
+                    if (next.getPath().equals("/")
+                            || (next instanceof Directory
+                            && !(next instanceof DirectoryAlias)
+                            && next.getSize() > 0)) {
+                        continue;
                     }
                     // Check the -f option.
-                    if (!currentOptions_.equals("f")) {
-                        System.out.printf("Really remove %s from %s? (y/n) ",
-                                item.getName(), 
-                                item.getParentDirectory().getPath());
+                    if (force) {
+                        removeItem(next);
+                        continue;
+                    }
+                    // Ask until the answer is y or n.
+                    while (true) {
+                        getOutput().printf("Really remove %s from %s? (y/n) ",
+                                next.getName(),
+                                next.getParentDirectory().getPath());
 
                         // Read the user input.
                         ArrayList<String> in = readInput();
-
-                        // If 'y'
-                        if (in.toString().equals("[y]")) {
-                            item.getParentDirectory().removeItem(item);
-                            // if not 'n', ask again.
-                        } else if (!in.toString().equals("[n]")) {
-                            List<String> tempStore = new ArrayList<String>();
-                            tempStore.add(path);
-                            rm(tempStore);
+                        if (in == null) {
+                            // No answer will come.
+                            break;
+                        } else if (in.toString().equals("[y]")) {
+                            removeItem(next);
+                            break;
+                        } else if (in.toString().equals("[n]")) {
+                            break;
                         }
-
-                        // If -f is specified.
-                    } else {
-                        item.getParentDirectory().removeItem(item);
                     }
                 }
+            }
+        } finally {
+            if (force) {
+                lock.unlock();
+            }
+        }
+    }
 
+    /*
+     * Removes item from its parent directory while holding the write lock,
+     * unless another session has already removed or replaced it.
+     */
+    private void removeItem(JShellItem item) {
+        Lock lock = fileSystem_.writeLock();
+        lock.lock();
+        try {
+            Directory parent = item.getParentDirectory();
+            if (item.equals(parent.getItem(item.getName()))) {
+                parent.removeItem(item);
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -762,60 +1260,69 @@ public class JShell implements Serializable {
      */
     // TODO: Make ln fit the 30 line
     public void ln(String firstPath, String secondPath) throws Exception {
-        // Initialize the variables.
-        JShellItem targetItem;
-        JShellItem aliasItem;
-        String newName;
-        Directory destinationDirectory;
-
-        // Find and reference the target item. Throw Exception if the path
-        // doesn't exist.
-        targetItem = getItemAtPath(firstPath, 0);
-        if (targetItem == null) {
-            throw new Exception(firstPath + ": doesn't exist.");
-        }
-
-        // Find and reference the destination Directory.
-        if (secondPath.endsWith("/")) {
-            destinationDirectory = (Directory) getItemAtPath(secondPath, 0);
-            newName = targetItem.getName();
-        } else {
-            destinationDirectory = (Directory) getItemAtPath(secondPath, 1);
-            newName = secondPath.substring(secondPath.lastIndexOf("/") + 1);
-        }
+        Lock lock = fileSystem_.writeLock();
+        lock.lock();
+        try {
+            // Initialize the variables.
+            JShellItem targetItem;
+            JShellItem aliasItem;
+            String newName;
+            Directory destinationDirectory;
 
-        // If the Directory destination is not found.
-        if (destinationDirectory == null) {
-            throw new Exception(secondPath 
-                    + " is an invalid destination path.");
-        }
+            // Find and reference the target item. Throw Exception if the path
+            // doesn't exist.
+            targetItem = getItemAtPath(firstPath, 0);
+            if (targetItem == null) {
+                throw new Exception(firstPath + ": doesn't exist.");
+            }
 
-        // Throw Exception when there is a JShellItem that already exist within
-        // the destination Directory.
-        if (destinationDirectory.contains(newName)) {
-            throw new Exception(secondPath + ": already exists.");
-        }
+            // Find and reference the destination Directory.
+            if (secondPath.endsWith("/")) {
+                destinationDirectory = (Directory) getItemAtPath(secondPath, 0);
+                newName = targetItem.getName();
+            } else {
+                destinationDirectory = (Directory) getItemAtPath(secondPath, 1);
+                newName = secondPath.substring(secondPath.lastIndexOf("/") + 1);
+            }
+
+            // If the Directory destination is not found.
+            if (destinationDirectory == null) {
+                throw new Exception(secondPath 
+                        + " is an invalid destination path.");
+            }
 
-        // If the target item is a Directory object.
-        if (targetItem instanceof Directory) 
-            // Create a new Directory object that will references it's contents
-            // from the target item.
-            aliasItem = new DirectoryAlias(newName, destinationDirectory.getPath()
-                    + newName + "/", destinationDirectory, (Directory)targetItem);
+            // Throw Exception when there is a JShellItem that already exist
+            // within
+            // the destination Directory.
+            if (destinationDirectory.contains(newName)) {
+                throw new Exception(secondPath + ": already exists.");
+            }
+
+            // If the target item is a Directory object.
+            if (targetItem instanceof Directory) 
+                // Create a new Directory object that will references it's
+                // contents
+                // from the target item.
+                aliasItem = new DirectoryAlias(newName, destinationDirectory,
+                        (Directory) targetItem);
 
 
 
-            // If the target item is a File object.
-         else 
-            // Create a new FileAlias object that will reference it's contents
-            // from the target item.
-            aliasItem = new FileAlias(newName, destinationDirectory.getPath()
-                    + newName, destinationDirectory, (File) targetItem);
+                // If the target item is a File object.
+             else 
+                // Create a new FileAlias object that will reference it's
+                // contents
+                // from the target item.
+                aliasItem = new FileAlias(newName, destinationDirectory,
+                        (File) targetItem);
 
          
         
-        // Add the alias object to the destination Directory.
-        destinationDirectory.addItem(aliasItem);
+            // Add the alias object to the destination Directory.
+            destinationDirectory.addItem(aliasItem);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -867,34 +1374,136 @@ public class JShell implements Serializable {
      * @param paths is a List of paths
      */
     public String find(String regex, List<String> paths) throws Exception {
-        String results = "";
-        regex = regex.replace("?", ".?").replace("*", ".*?");
-        Pattern regexPattern = Pattern.compile(regex);
-        Matcher regexMatcher;
-
-        // If the user input was empty, call find on the current directory.
-        if (paths.isEmpty()) {
-            paths.add(currentDirectory_.getPath());
-        }
-        // Loop through the paths.
-        for (String path : paths) {
-            List<String> recursiveListing = recurseOnPath(path, true);
-            // Loop through the list of JShellItems found recursively.
-            for (String name : recursiveListing) {
-                regexMatcher = regexPattern.matcher(name);
-                // Append to results if match is found.
-                if (regexMatcher.find()) {
-                    results = results + name + "\n";
+        OutputSink.Capture out = new OutputSink.Capture();
+        find(regex, paths, out);
+        return out.toString();
+    }
+
+    /**
+     * Write the path of the files specified by the paths argument whose path
+     * contains regex to out, one per line, as they are found.
+     *
+     * @param regex is a String regular expression
+     * @param paths is a List of paths
+     * @param out where to write the paths.
+     */
+    public void find(String regex, List<String> paths, OutputSink out)
+            throws Exception {
+        boolean opened = openSnapshot();
+        try {
+            // The output of this call starts at mark.
+            long mark = out.getCount();
+            // With a literal in the pattern, the walk only reaches the items
+            // the NameIndex finds that literal in the paths of.
+            String literal = NameIndex.literalOf(regex);
+            TreeWalker.Filter filter = literal == null ? null
+                    : nameFilter(literal);
+            regex = regex.replace("?", ".?").replace("*", ".*?");
+            Pattern regexPattern = Pattern.compile(regex);
+            Matcher regexMatcher = regexPattern.matcher("");
+            // With -u the matches of a parallel find are written as they are
+            // found instead of in order.
+            ParallelFind parallel = parallelism_ > 1
+                    ? new ParallelFind(snapshot_, regexPattern,
+                            !currentOptions_.contains("u"))
+                    : null;
+
+            // If the user input was empty, call find on the current directory.
+            if (paths.isEmpty()) {
+                paths.add(currentDirectory_.getPath());
+            }
+            // Loop through the paths.
+            for (String path : paths) {
+                JShellItem item = getItemAtPath(path, 0);
+                if (item == null) {
+                    continue;
+                }
+                boolean indexed = filter != null
+                        && !item.getPath().contains(literal);
+                if (parallel != null && !indexed) {
+                    parallel.find(getPool(), item, item.getPath(), out, mark);
+                    continue;
+                }
+                TreeWalker walker = new TreeWalker(item, item.getPath(),
+                        snapshot_, null, TreeWalker.Order.POST_ORDER);
+                walker.setReverse(true).setFilter(indexed ? filter : null);
+                // Loop through the JShellItems beneath path.
+                while (walker.next()) {
+                    if (walker.getItem() instanceof DirectoryAlias) {
+                        continue;
+                    }
+                    String name = walker.getPath();
+                    regexMatcher.reset(name);
+                    // Write the name if a match is found.
+                    if (regexMatcher.find()) {
+                        if (out.getCount() > mark) {
+                            out.append("\n");
+                        }
+                        out.append(name);
+                    }
                 }
             }
+            if (out.getCount() == mark) {
+                out.append("find: no such file or directory.");
+            }
+        } finally {
+            closeSnapshot(opened);
         }
-        if (results.endsWith("\n")) {
-            results = results.substring(0, results.length() - 1);
-        } else {
-            results = "find: no such file or directory.";
+    }
+
+    /**
+     * Write the lines read from in that match any of patterns to out as
+     * they are read. With -l only "(standard input)" is written, once a
+     * line matches.
+     *
+     * @param patterns the regular expressions, as given by -e.
+     * @param in the output of the previous command of a pipeline.
+     * @param maxCount the number of lines written at most, or -1 for no
+     * limit.
+     * @param out where to write the matches.
+     */
+    public void grep(List<String> patterns, Pipe in, int maxCount,
+            OutputSink out) throws Exception {
+        TextSearch search = TextSearch.compile(patterns,
+                currentOptions_.contains("F"));
+        int count = 0;
+        for (String line = in.readLine(); line != null && count != maxCount;
+                line = in.readLine()) {
+            if (search.find(line, 0, line.length()) < 0) {
+                continue;
+            }
+            if (currentOptions_.contains("l")) {
+                out.append("(standard input)");
+                return;
+            }
+            if (count > 0) {
+                out.append("\n");
+            }
+            out.append(line);
+            count++;
+        }
+    }
+
+    /*
+     * Returns the Filter of the NameIndex for the paths containing literal,
+     * or null if there is no index or the tree changed since the snapshot
+     * of this session was opened.
+     */
+    private TreeWalker.Filter nameFilter(String literal) {
+        NameIndex index = fileSystem_.getNameIndex();
+        if (index == null) {
+            return null;
+        }
+        Lock lock = fileSystem_.readLock();
+        lock.lock();
+        try {
+            if (snapshot_.getChangeCount() != fileSystem_.getChangeCount()) {
+                return null;
+            }
+            return index.filter(literal);
+        } finally {
+            lock.unlock();
         }
-        // Return the completed output.
-        return results;
     }
 
     /**
@@ -906,6 +1515,38 @@ public class JShell implements Serializable {
      *
      */
     public String grep(String regex, List<String> paths) throws Exception {
+        OutputSink.Capture out = new OutputSink.Capture();
+        grep(regex, paths, -1, out);
+        return out.toString();
+    }
+
+    /**
+     * Write the path of the files specified by the paths argument that
+     * contain a string that matches regex, followed by the matching lines,
+     * to out as they are found.
+     *
+     * @param regex is a String regular expression.
+     * @param paths is a List of paths.
+     * @param out where to write the matches.
+     */
+    public void grep(String regex, List<String> paths, OutputSink out)
+            throws Exception {
+        grep(regex, paths, -1, out);
+    }
+
+    /**
+     * Write the path of the files specified by the paths argument that
+     * contain a string that matches regex, followed by the matching lines,
+     * to out as they are found.
+     *
+     * @param regex is a String regular expression.
+     * @param paths is a List of paths.
+     * @param maxCount the number of lines written per File at most, or -1
+     * for no limit.
+     * @param out where to write the matches.
+     */
+    public void grep(String regex, List<String> paths, int maxCount,
+            OutputSink out) throws Exception {
     	if (regex.startsWith("\"")){
     		int i = 0;
     		for(i = 0; i<paths.size() && !regex.endsWith("\""); i++)
@@ -913,39 +1554,81 @@ public class JShell implements Serializable {
     		regex = regex.substring(1,regex.length()-1);
     		paths = paths.subList(i, paths.size());
     	}
-    	if(paths.isEmpty())
-    		throw new Exception("Usage: grep [OPTION]... PATTERN [FILE]...");
-        String results = "";
+        grep(Collections.singletonList(regex), paths, maxCount, out);
+    }
 
-        for (String path : paths) {
+    /**
+     * Write the path of the files specified by the paths argument that
+     * contain a line matching any of patterns, followed by the matching
+     * lines, to out as they are found. Patterns without regex syntax, or all
+     * patterns with -F, are searched as literals. With -l only the paths
+     * are written. With -R and a parallelism above 1, the Files beneath a
+     * Directory are searched on several threads.
+     *
+     * @param patterns the regular expressions, as given by -e.
+     * @param paths is a List of paths.
+     * @param maxCount the number of lines written per File at most, or -1
+     * for no limit.
+     * @param out where to write the matches.
+     */
+    public void grep(List<String> patterns, List<String> paths, int maxCount,
+            OutputSink out) throws Exception {
+        if (paths.isEmpty() && input_ != null) {
+            grep(patterns, input_, maxCount, out);
+            return;
+        }
+        boolean opened = openSnapshot();
+        try {
+        	if(paths.isEmpty())
+        		throw new Exception("Usage: grep [OPTION]... PATTERN [FILE]...");
+            // The output of this call starts at mark.
+            long mark = out.getCount();
+            boolean recursive = currentOptions_.contains("R");
+            GrepMatcher matcher = new GrepMatcher(
+                    TextSearch.compile(patterns, currentOptions_.contains("F")),
+                    currentOptions_.contains("l"), maxCount);
+
+            for (String path : paths) {
         	
-            JShellItem item = getItemAtPath(path, 0);
-            if (item.getSize()>0 && currentOptions_.equals("R") ) {
-
-                results += grep(regex,
-                        recurseOnPath(path, true).subList(0, item.getSize()));
-            } else if (item instanceof File) {
-                String content = ((File) item).getContent();
-                if (content.contains(regex)) {
-                	if (!results.isEmpty())
-                		results += "\n";
-                    results += item.getPath() + ":\n";
-                    for (String line : content.split("\\n")) {
-                        if (line.contains(regex)) {
-                            results += line + "\n";
+                JShellItem item = getItemAtPath(path, 0);
+                if (item == null) {
+                    continue;
+                }
+                if (sizeOf(item) > 0 && recursive) {
+                    // Every File beneath path is read once, in the order of
+                    // find.
+                    TreeWalker walker = new TreeWalker(item, item.getPath(),
+                            snapshot_, null, TreeWalker.Order.POST_ORDER);
+                    walker.setReverse(true);
+                    if (parallelism_ > 1) {
+                        List<JShellItem> files = new ArrayList<JShellItem>();
+                        List<String> filePaths = new ArrayList<String>();
+                        while (walker.next()) {
+                            if (walker.getItem() instanceof File) {
+                                files.add(walker.getItem());
+                                filePaths.add(walker.getPath());
+                            }
+                        }
+                        new ParallelGrep(snapshot_, matcher).grep(getPool(),
+                                files, filePaths, out, mark);
+                        continue;
+                    }
+                    while (walker.next()) {
+                        if (walker.getItem() instanceof File) {
+                            matcher.grep(snapshot_, walker.getItem(),
+                                    walker.getPath(), out, mark);
                         }
                     }
-                    results = results.substring(0, results.length() - 1);
+                } else if (item instanceof File) {
+                    matcher.grep(snapshot_, item, item.getPath(), out, mark);
+                } else if (item instanceof Directory && !recursive){
+                    out.append("Cannot call grep on a directory without -R.");
                 }
-            } else if (item instanceof Directory && !currentOptions_.equals("R")){
-                results += "Cannot call grep on a directory without -R.";
-            }
-            else{
-            	results += "";
-            }
            
+            }
+        } finally {
+            closeSnapshot(opened);
         }
-        return results;
     }
 
     /**
@@ -961,31 +1644,194 @@ public class JShell implements Serializable {
      */
     public JShellItem getItemAtPath(String path, int numFoldersUp)
             throws Exception {
-        JShellItem item = currentDirectory_;
-        int startIndex = 0;
-        if (path.startsWith("/")) {
-            startIndex = 1;
-            item = rootDirectory_;
-        }
-        String[] directories = path.split("/");
-        while (startIndex < directories.length - numFoldersUp) {
-            if (directories[startIndex].equals("..")) {
-                item = item.getParentDirectory();
-                startIndex++;
-            } else if (((Directory) item).contains(directories[startIndex])) {
-                if (item instanceof File) {
-                    throw new ClassCastException(item.getPath()
-                            + "is not a Directory");
+        Lock lock = fileSystem_.readLock();
+        lock.lock();
+        try {
+            // The names of path are visited in place, between start and end,
+            // instead of splitting it.
+            int start = path.startsWith("/") ? 1 : 0;
+            int end = path.length();
+            while (end > start && path.charAt(end - 1) == '/') {
+                end--;
+            }
+            int count = path.isEmpty() ? 1 : end == start ? 0 : 1;
+            for (int i = start; i < end; i++) {
+                if (path.charAt(i) == '/') {
+                    count++;
+                }
+            }
+            for (int i = 0; i < numFoldersUp && count > 0; i++, count--) {
+                end = path.lastIndexOf('/', end - 1);
+            }
+            // The path cache holds the live tree, not the snapshot.
+            PathCache.Key key = snapshot_ != null ? null
+                    : getCacheKey(path, start, end, count);
+            if (key != null) {
+                JShellItem cached = getPathCache().get(key);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            JShellItem item = start == 1 ? rootDirectory_ : currentDirectory_;
+            for (int from = start, i = 0; i < count; i++) {
+                int to = nameEnd(path, from, end);
+                if (isName(path, from, to, "..")) {
+                    item = item.getParentDirectory();
+                } else if (!isName(path, from, to, ".")) {
+                    item = snapshot_ != null
+                        ? snapshot_.getItem((Directory) item, path, from, to)
+                        : ((Directory) item).getItem(path, from, to);
+                    if (item == null) {
+                        return null;
+                    }
                 }
-                item = ((Directory) item).getItem(directories[startIndex]);
-                startIndex++;
-            } else if (!directories[startIndex].equals(".")) {
+                from = to + 1;
+            }
+            if (key != null) {
+                getPathCache().put(key.toString(), item);
+            }
+            return item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Builds, in cacheKey_, the normalized absolute path of the first count
+     * names of path from start, or returns null if they contain '..' or
+     * empty names and should not be cached.
+     */
+    private PathCache.Key getCacheKey(String path, int start, int end,
+            int count) {
+        if (cacheKey_ == null) {
+            cacheKey_ = new PathCache.Key();
+        }
+        PathCache.Key key = cacheKey_.clear();
+        if (start == 0) {
+            String current = currentDirectory_.getPath();
+            key.append(current, 0, current.length());
+            if (!current.endsWith("/")) {
+                key.append('/');
+            }
+        } else {
+            key.append('/');
+        }
+        for (int from = start, i = 0; i < count; i++) {
+            int to = nameEnd(path, from, end);
+            if (to == from || isName(path, from, to, "..")) {
                 return null;
-            } else {
-                startIndex++;
             }
+            if (!isName(path, from, to, ".")) {
+                key.append(path, from, to).append('/');
+            }
+            from = to + 1;
+        }
+        return key;
+    }
+
+    /*
+     * Returns the index after the name of path that starts at from.
+     */
+    private static int nameEnd(String path, int from, int end) {
+        int to = path.indexOf('/', from);
+        return to < 0 || to > end ? end : to;
+    }
+
+    /*
+     * Checks whether the characters of path between from and to are name.
+     */
+    private static boolean isName(String path, int from, int to,
+            String name) {
+        return to - from == name.length()
+                && path.startsWith(name, from);
+    }
+
+    /**
+     * Return the cache used by getItemAtPath, creating it and registering it
+     * with the FileSystem if needed. Each session has its own cache, which
+     * is only used while holding the read lock and only invalidated while
+     * holding the write lock.
+     *
+     * @return the PathCache of this JShell.
+     */
+    public PathCache getPathCache() {
+        if (pathCache_ == null) {
+            pathCache_ = new PathCache();
+            fileSystem_.addTreeListener(pathCache_);
+        }
+        return pathCache_;
+    }
+
+    /**
+     * Return the FileSystem this session works on.
+     *
+     * @return the FileSystem.
+     */
+    public FileSystem getFileSystem() {
+        return fileSystem_;
+    }
+
+    /**
+     * Return the number of threads find and grep -R run on.
+     *
+     * @return the parallelism, 1 if they run on the calling thread.
+     */
+    public int getParallelism() {
+        return parallelism_;
+    }
+
+    /**
+     * Sets the number of threads find and grep -R run on. Above 1, they
+     * split the tree into tasks run by a ForkJoinPool of that many workers.
+     *
+     * @param parallelism the number of threads, at least 1.
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    "parallelism must be at least 1");
+        }
+        if (pool_ != null && pool_.getParallelism() != parallelism) {
+            pool_.shutdown();
+            pool_ = null;
+        }
+        parallelism_ = parallelism;
+    }
+
+    /*
+     * Returns the pool running parallel finds and greps.
+     */
+    private synchronized ForkJoinPool getPool() {
+        if (pool_ == null) {
+            pool_ = new ForkJoinPool(parallelism_);
+        }
+        return pool_;
+    }
+
+    /**
+     * Return the commands this session runs. More commands can be
+     * registered on it.
+     *
+     * @return the CommandRegistry of the session.
+     */
+    public synchronized CommandRegistry getCommandRegistry() {
+        if (commands_ == null) {
+            commands_ = BuiltinCommands.newRegistry();
+        }
+        return commands_;
+    }
+
+    /**
+     * Return the background jobs of this session, which the sessions of
+     * its pipelines and jobs share.
+     *
+     * @return the JobTable of this session.
+     */
+    public synchronized JobTable getJobs() {
+        if (jobs_ == null) {
+            jobs_ = new JobTable();
         }
-        return item;
+        return jobs_;
     }
 
     /**
@@ -1046,27 +1892,107 @@ public class JShell implements Serializable {
     }
 
     /**
-     * @param path
-     * @param includeFiles
-     * @return
-     * @throws Exception
+     * Return the paths of the item at path and of the items beneath it, each
+     * Directory after its children and the children last to first. Aliased
+     * Directories are walked but not listed.
+     *
+     * @param path the full path or the path relative to the current
+     * directory.
+     * @param includeFiles whether to list Files as well as Directories.
+     * @return the paths found.
+     * @throws Exception if there is no item at path.
      */
     public List<String> recurseOnPath(String path, boolean includeFiles)
             throws Exception {
-
-        List<String> paths = new ArrayList<String>();
-        JShellItem item = getItemAtPath(path, 0);
-        if (!(item instanceof DirectoryAlias) &&(includeFiles || item instanceof Directory)) {
-            paths.add(item.getPath());
+        // An open snapshot needs no lock while it is walked.
+        Lock lock = fileSystem_.readLock();
+        boolean locked = snapshot_ == null;
+        if (locked) {
+            lock.lock();
         }
-        if (item instanceof File) {
+        try {
+            JShellItem item = getItemAtPath(path, 0);
+            // Children are reached last to first and before their parent.
+            TreeWalker walker = new TreeWalker(item, item.getPath(), snapshot_,
+                    null, TreeWalker.Order.POST_ORDER);
+            walker.setReverse(true);
+            List<String> paths = new ArrayList<String>();
+            while (walker.next()) {
+                JShellItem next = walker.getItem();
+                if (!(next instanceof DirectoryAlias)
+                        && (includeFiles || next instanceof Directory)) {
+                    paths.add(walker.getPath());
+                }
+            }
             return paths;
-        } else {
-            for (JShellItem cont : ((Directory) item).getContents().values()) {
-                paths.addAll(0, recurseOnPath(cont.getPath(), includeFiles));
+        } finally {
+            if (locked) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /*
+     * Opens a snapshot for this session unless one is already open.
+     * Returns true if the caller opened it and must close it.
+     */
+    private boolean openSnapshot() {
+        if (snapshot_ != null) {
+            return false;
+        }
+        snapshot_ = fileSystem_.openSnapshot();
+        return true;
+    }
+
+    /*
+     * Closes the snapshot of this session if opened is true.
+     */
+    private void closeSnapshot(boolean opened) {
+        if (opened) {
+            snapshot_.close();
+            snapshot_ = null;
+        }
+    }
+
+    /*
+     * Returns the number of children of item, from the snapshot if one is
+     * open.
+     */
+    private int sizeOf(JShellItem item) {
+        return snapshot_ != null ? snapshot_.getSize(item) : item.getSize();
+    }
+
+    /*
+     * Returns the number of Directories directly inside item, from the
+     * snapshot if one is open.
+     */
+    private int numDirectoriesOf(JShellItem item) {
+        if (snapshot_ == null) {
+            return ((Directory) item).getNumDirectories();
+        }
+        Snapshot.Children children = snapshot_.getChildren(item);
+        int count = 0;
+        for (int i = 0; i < children.size(); i++) {
+            if (children.getItem(i) instanceof Directory) {
+                count++;
             }
         }
-        return paths;
+        return count;
+    }
+
+    /*
+     * Returns item.ls(), from the snapshot if one is open.
+     */
+    private String lsOf(JShellItem item) {
+        if (snapshot_ == null || !(item instanceof Directory)) {
+            return item.ls();
+        }
+        Snapshot.Children children = snapshot_.getChildren(item);
+        StringBuilder itemList = new StringBuilder(":");
+        for (int i = 0; i < children.size(); i++) {
+            itemList.append('\n').append(children.getName(i));
+        }
+        return itemList.toString();
     }
 
     /**
@@ -1110,34 +2036,98 @@ public class JShell implements Serializable {
             out.writeObject(this);
             out.close();
         } catch (IOException ex) {
-            System.out.println("Cannot save serialization data");
+            getOutput().println("Cannot save serialization data");
         }
     }
 
     /**
-     * Creates new JShell instance and runs the Shell.
+     * Creates new JShell instance and runs the Shell. The commands are read
+     * from the console with a prompt, or run as a Batch, without prompts,
+     * when a script is given with -f; "-f -" runs the lines of System.in as
+     * a script. The summary of a Batch is printed to System.err.
      *
-     * @param args not used.
+     * @param args -f SCRIPT to run the lines of SCRIPT, or of System.in if
+     * SCRIPT is -, -q to drop the console output of a batch, -e to stop a
+     * batch at the first failed command.
      */
     public static void main(String[] args) {
+        String script = null;
+        boolean quiet = false;
+        boolean stopOnError = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-f") && i + 1 < args.length) {
+                script = args[++i];
+            } else if (args[i].equals("-q")) {
+                quiet = true;
+            } else if (args[i].equals("-e")) {
+                stopOnError = true;
+            } else {
+                System.err.println("Usage: JShell [-q] [-e] [-f SCRIPT|-]");
+                System.exit(2);
+            }
+        }
         String filename = "JShell.ser";
         JShell newShell = loadJShell(filename);
         
         if (newShell == null) {
             newShell = new JShell();
         }
-        newShell.printPrompt();
-        ArrayList<String> input = newShell.readInput();
-        while (input.isEmpty() || !"exit".equals(input.get(0))) {
-            if (!input.isEmpty()) {
-                List<String> params = newShell.handleRedirection(input.subList(1,
-                        input.size()));
-                newShell.executeCommand(input.get(0).toString(), params);
+        boolean succeeded = true;
+        if (script != null) {
+            try {
+                boolean stdin = script.equals("-");
+                BufferedReader in = stdin ? getConsole()
+                        : new BufferedReader(new FileReader(script));
+                try {
+                    Batch run = new Batch(newShell, in);
+                    run.setQuiet(quiet);
+                    run.setStopOnError(stopOnError);
+                    succeeded = run.run();
+                    if (!succeeded) {
+                        System.err.println("Stopped at line "
+                                + run.getLineNumber());
+                    }
+                    System.err.println(run.getSummary());
+                } finally {
+                    if (!stdin) {
+                        in.close();
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                System.exit(2);
             }
+        } else {
             newShell.printPrompt();
-            input = newShell.readInput();
+            try {
+                for (String line = getConsole().readLine(); line != null;
+                        line = getConsole().readLine()) {
+                    try {
+                        CommandLine commands = Lexer.parse(line,
+                                newShell.getCommandRegistry());
+                        if (commands.isExit()) {
+                            break;
+                        }
+                        newShell.execute(commands);
+                    } catch (IllegalArgumentException e) {
+                        newShell.getOutput().println(e.getMessage());
+                    }
+                    newShell.printPrompt();
+                }
+            } catch (IOException e) {
+                // The console is gone; save and quit.
+            }
+        }
+        // The tree is saved once the background jobs are done with it.
+        try {
+            newShell.getJobs().joinAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         filename = "JShell.ser";
         newShell.saveJShell(filename);
+        if (!succeeded) {
+            System.exit(1);
+        }
     }
 }
@@ -1,6 +1,8 @@
 package jshell;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A JShell Item object that can be stored within a JShell Directory.
@@ -12,53 +14,119 @@ import java.io.Serializable;
  */
 @SuppressWarnings("serial")
 public abstract class JShellItem implements Serializable{
-	/*
-	 * Path of the JShellItem.
-	 */
-    private String path_;
-    
     /*
      * Name of the JShellItem.
      */
     private String name_;
     
+    /*
+     * The name folded to lower case, which is the key of the JShellItem in
+     * its Directory. Computed on first use.
+     */
+    private transient String foldedName_;
+
     /*
      * The parent directory of the JShellItem.
      */
     private Directory parentDirectory_;
 
+    /*
+     * The last path computed for this Directory, valid while its generation
+     * equals the path generation of the tree it was computed in. Path and
+     * generation are kept in one immutable object so that sessions reading
+     * the tree from other threads never see one without the other.
+     */
+    private transient CachedPath cachedPath_;
+
+    /*
+     * The clock of the FileSystem when the state of this item last changed.
+     */
+    private transient long versionStamp_;
+
+    /*
+     * Earlier states of this item still needed by open snapshots, newest
+     * first.
+     */
+    private transient Snapshot.Version versions_;
+
     /**
      * Constructor for creating a new JShellItem object.
      * 
      * @param name the name of the JShellItem.
-     * @param path the path of the Directory where the JShellItem is located.
      * @param parentDirectory the parent Directory.
      */
-    public JShellItem(String name, String path, Directory parentDirectory) {
+    public JShellItem(String name, Directory parentDirectory) {
         name_ = name;
-        path_ = path;
         parentDirectory_ = parentDirectory;
     }
 
     /**
-     * Replace the path to the JShellItem to the one specified in 
-     * the parameter path.
+     * Constructor for creating a new JShellItem object.
      * 
-     * @param path the full path to the JShellItem's directory.
+     * @param name the name of the JShellItem.
+     * @param path ignored, the path is derived from parentDirectory.
+     * @param parentDirectory the parent Directory.
+     * @deprecated use {@link #JShellItem(String, Directory)}.
      */
-    public void setPath(String path) {
-        path_ = path;
+    @Deprecated
+    public JShellItem(String name, String path, Directory parentDirectory) {
+        this(name, parentDirectory);
     }
 
     /** 
-     * Return a {@link String} representing the full path 
-     * to the JShellItem's directory.
+     * Return a {@link String} representing the full path to the JShellItem.
+     * The path is built from the names of the parent directories, so it is
+     * always current after the JShellItem or one of its ancestors is moved.
+     * Directory paths end with a forward slash.
      * 
-     * @return a String representing the full path of the JShellItem's 
-     * Directory.
+     * @return a String representing the full path of the JShellItem.
      */
     public String getPath() {
-        return path_;
+        CachedPath cached = cachedPath_;
+        if (cached != null && cached.isCurrent()) {
+            return cached.path_;
+        }
+        // Walk up to the closest ancestor whose path is still known, then
+        // build the path back down, remembering it for each Directory.
+        ArrayList<JShellItem> unknown = new ArrayList<JShellItem>();
+        JShellItem item = this;
+        String path = null;
+        AtomicLong counter = null;
+        long generation = 0;
+        while (path == null) {
+            cached = item.cachedPath_;
+            if (cached != null && cached.isCurrent()) {
+                path = cached.path_;
+                counter = cached.counter_;
+                generation = cached.generation_;
+            } else {
+                unknown.add(item);
+                Directory parent = item.parentDirectory_;
+                if (parent == null || parent == item) {
+                    path = "/";
+                    if (item instanceof Directory) {
+                        counter = ((Directory) item).getPathGeneration();
+                        generation = counter.get();
+                    }
+                } else {
+                    item = parent;
+                }
+            }
+        }
+        for (int i = unknown.size() - 1; i >= 0; i--) {
+            item = unknown.get(i);
+            path += item.name_;
+            if (item instanceof Directory) {
+                if (!path.endsWith("/")) {
+                    path += "/";
+                }
+                if (counter != null) {
+                    item.cachedPath_ =
+                            new CachedPath(path, counter, generation);
+                }
+            }
+        }
+        return path;
     }
 
     /**
@@ -68,6 +136,8 @@ public abstract class JShellItem implements Serializable{
      */
     public void setName(String name) {
         name_ = name;
+        foldedName_ = null;
+        invalidatePaths();
     }
 
     /**
@@ -79,6 +149,20 @@ public abstract class JShellItem implements Serializable{
         return name_;
     }
     
+    /**
+     * Return the name folded to lower case, used to look the JShellItem up
+     * in its Directory regardless of case. The folded name is computed once
+     * and shares the name's String when the name is already in lower case.
+     * 
+     * @return the folded name of the JShellItem.
+     */
+    public String getFoldedName() {
+        if (foldedName_ == null) {
+            foldedName_ = ChildIndex.fold(getName());
+        }
+        return foldedName_;
+    }
+
      /**
      * Return a {@link Directory} object that represents the parent Directory.
      * 
@@ -95,8 +179,28 @@ public abstract class JShellItem implements Serializable{
      * parent Directory.
      */
     public void setParentDirectory(Directory parentDirectory) {
+        // The paths cached beneath this item were computed in the tree it
+        // leaves, so that is the tree whose paths are made stale.
+        invalidatePaths();
         parentDirectory_ = parentDirectory;
     }
+
+    /*
+     * Makes stale every path cached in the tree containing this item, by
+     * moving on the path generation of its root. Paths cached in other
+     * trees are kept.
+     */
+    private void invalidatePaths() {
+        JShellItem item = this;
+        Directory parent = item.parentDirectory_;
+        while (parent != null && parent != item) {
+            item = parent;
+            parent = item.parentDirectory_;
+        }
+        if (item instanceof Directory) {
+            ((Directory) item).getPathGeneration().incrementAndGet();
+        }
+    }
     
     /**
      * Return an empty string.
@@ -127,12 +231,124 @@ public abstract class JShellItem implements Serializable{
     	
     }
     /**
-     * Checks whether the directory is a subdirectory of ancestor
+     * Returns the part of the state of this item that snapshots preserve.
+     * 
+     * @return an immutable copy of the state, or null if there is none.
+     */
+    Object captureState() {
+        return null;
+    }
+
+    /**
+     * Called before the state returned by captureState changes, so that the
+     * copies still waiting for this item are filled in first and the
+     * FileSystem holding it can save it for open snapshots.
+     */
+    void beforeChange() {
+        FileSystem fileSystem = getFileSystem();
+        if (fileSystem != null) {
+            if (fileSystem.hasPendingCopies()) {
+                Directory.fillCopiesOf(this);
+            }
+            fileSystem.saveVersion(this);
+        }
+    }
+
+    /**
+     * Returns the FileSystem holding this item, found as the TreeListener
+     * of its root.
+     * 
+     * @return the FileSystem, or null if the tree has none.
+     */
+    FileSystem getFileSystem() {
+        Directory dir = this instanceof Directory ? (Directory) this
+                : getParentDirectory();
+        if (dir != null) {
+            TreeListener listener = dir.getTreeListener();
+            if (listener instanceof FileSystem) {
+                return (FileSystem) listener;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the clock of the FileSystem when the state of this item last
+     * changed.
+     * 
+     * @return the version stamp.
+     */
+    long getVersionStamp() {
+        return versionStamp_;
+    }
+
+    /**
+     * Assign the clock of the FileSystem when the state of this item last
+     * changed.
+     * 
+     * @param stamp the version stamp.
+     */
+    void setVersionStamp(long stamp) {
+        versionStamp_ = stamp;
+    }
+
+    /**
+     * Return the saved states of this item, newest first.
+     * 
+     * @return the newest saved Version, or null.
+     */
+    Snapshot.Version getVersions() {
+        return versions_;
+    }
+
+    /**
+     * Replace the saved states of this item.
+     * 
+     * @param versions the newest saved Version, or null.
+     */
+    void setVersions(Snapshot.Version versions) {
+        versions_ = versions;
+    }
+
+    /**
+     * Checks whether the item is ancestor or is found beneath it, following
+     * the parent directories up to the root.
      * 
      * @param ancestor directory
-     * @return True if the directory is a subdirectory of ancestor
+     * @return True if the item is ancestor or is inside ancestor
+     */
+    public boolean isChildOf(Directory ancestor) {
+        JShellItem item = this;
+        while (!item.equals(ancestor)) {
+            Directory parent = item.getParentDirectory();
+            if (parent == null || parent.equals(item)) {
+                return false;
+            }
+            item = parent;
+        }
+        return true;
+    }
+
+    /*
+     * A path and the path generation of its tree it was computed at.
      */
-    public boolean isChildOf(Directory ancestor){
-    	return path_.contains(ancestor.getPath());
+    private static final class CachedPath {
+        private final String path_;
+        private final AtomicLong counter_;
+        private final long generation_;
+
+        CachedPath(String path, AtomicLong counter, long generation) {
+            path_ = path;
+            counter_ = counter;
+            generation_ = generation;
+        }
+
+        /*
+         * Checks whether no item of the tree was renamed or moved since the
+         * path was computed.
+         */
+        boolean isCurrent() {
+            return counter_.get() == generation_;
+        }
     }
 }
@@ -0,0 +1,261 @@
+package jshell;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The background jobs of a session: the command lines that ended with '&'.
+ * Each job runs as a Pipeline on its own thread while the session goes on
+ * with the next command. The output of a job that is not redirected is
+ * kept until the job is waited for, along with its errors.
+ *
+ * A job works on the same tree as the session, through the locks of the
+ * FileSystem that every command takes, in sessions of its own that keep
+ * the directory the job was started in. Jobs are numbered from 1, and the
+ * numbers start over once every job was waited for. A job that has ended
+ * is also dropped, along with its output, once it was reported by jobs.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class JobTable {
+    /*
+     * The jobs not yet waited for, by number.
+     */
+    private final Map<Integer, Job> jobs_ = new TreeMap<Integer, Job>();
+    /*
+     * The number of the next job.
+     */
+    private int next_ = 1;
+
+    /**
+     * Starts running commands, given to shell, as a background job.
+     *
+     * @param shell the session the command line was given to.
+     * @param commands the command line.
+     * @return the new job.
+     */
+    public Job start(JShell shell, CommandLine commands) {
+        Pipeline pipeline = new Pipeline(shell, commands);
+        Job job;
+        synchronized (this) {
+            if (jobs_.isEmpty()) {
+                next_ = 1;
+            }
+            job = new Job(next_++, commands.toString(), pipeline);
+            jobs_.put(job.getId(), job);
+        }
+        job.start();
+        return job;
+    }
+
+    /**
+     * Return the job numbered id.
+     *
+     * @param id the number of the job.
+     * @return the job, or null if there is none.
+     */
+    public synchronized Job get(int id) {
+        return jobs_.get(id);
+    }
+
+    /**
+     * Return the jobs not yet waited for, in the order they were started.
+     *
+     * @return a new List of the jobs.
+     */
+    public synchronized List<Job> getJobs() {
+        return new ArrayList<Job>(jobs_.values());
+    }
+
+    /**
+     * Returns the jobs not yet waited for, in the order they were started,
+     * and removes from the table those that have ended, which are reported
+     * for the last time.
+     *
+     * @return a new List of the jobs.
+     */
+    public synchronized List<Job> report() {
+        List<Job> jobs = new ArrayList<Job>(jobs_.values());
+        for (Job job : jobs) {
+            if (job.getState() != State.RUNNING) {
+                jobs_.remove(job.getId());
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Waits for job to finish and removes it from the table.
+     *
+     * @param job a job of this table.
+     * @return the output of the job, followed by its errors.
+     * @throws InterruptedException if the thread is interrupted while
+     * waiting.
+     */
+    public String waitFor(Job job) throws InterruptedException {
+        job.join();
+        synchronized (this) {
+            jobs_.remove(job.getId());
+        }
+        return job.getOutput();
+    }
+
+    /**
+     * Waits for every job that is running to finish, leaving them in the
+     * table.
+     *
+     * @throws InterruptedException if the thread is interrupted while
+     * waiting.
+     */
+    public void joinAll() throws InterruptedException {
+        for (Job job : getJobs()) {
+            job.join();
+        }
+    }
+
+    /**
+     * The states of a job.
+     */
+    public enum State {
+        RUNNING("Running"), DONE("Done"), FAILED("Exit"), KILLED("Killed");
+
+        private final String label_;
+
+        private State(String label) {
+            label_ = label;
+        }
+
+        @Override
+        public String toString() {
+            return label_;
+        }
+    }
+
+    /**
+     * A command line running, or run, in the background.
+     */
+    public static final class Job {
+        private final int id_;
+        private final String command_;
+        private final Pipeline pipeline_;
+        private final Thread thread_;
+        /*
+         * The output of the last command, guarded by itself.
+         */
+        private final StringBuilder output_ = new StringBuilder();
+        private volatile State state_ = State.RUNNING;
+        private volatile boolean killed_;
+
+        /*
+         * Creates the job running pipeline.
+         */
+        private Job(int id, String command, Pipeline pipeline) {
+            id_ = id;
+            command_ = command;
+            pipeline_ = pipeline;
+            pipeline.setOutput(new OutputSink() {
+                @Override
+                protected void write(CharSequence text) throws IOException {
+                    if (killed_) {
+                        throw new InterruptedIOException("Killed");
+                    }
+                    synchronized (output_) {
+                        output_.append(text);
+                    }
+                }
+            });
+            thread_ = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    boolean succeeded;
+                    try {
+                        succeeded = pipeline_.run();
+                    } catch (InterruptedException e) {
+                        succeeded = false;
+                    }
+                    state_ = killed_ ? State.KILLED : succeeded ? State.DONE
+                            : State.FAILED;
+                }
+            }, "job-" + id);
+            thread_.setDaemon(true);
+        }
+
+        private void start() {
+            thread_.start();
+        }
+
+        /**
+         * Return the number of the job.
+         *
+         * @return the job number.
+         */
+        public int getId() {
+            return id_;
+        }
+
+        /**
+         * Return the command line of the job.
+         *
+         * @return the command line, ending with '&'.
+         */
+        public String getCommand() {
+            return command_;
+        }
+
+        /**
+         * Return the state of the job.
+         *
+         * @return the state.
+         */
+        public State getState() {
+            return state_;
+        }
+
+        /**
+         * Return the output of the job so far, followed by its errors.
+         *
+         * @return the output.
+         */
+        public String getOutput() {
+            StringBuilder text;
+            synchronized (output_) {
+                text = new StringBuilder(output_);
+            }
+            for (String error : pipeline_.getErrors()) {
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                text.append(error);
+            }
+            return text.toString();
+        }
+
+        /**
+         * Stops the job: its commands are interrupted, and its output fails
+         * from its next write. A command that is not waiting or writing
+         * runs on until it does. The job is Killed once all its commands
+         * have ended.
+         */
+        public void kill() {
+            killed_ = true;
+            thread_.interrupt();
+        }
+
+        /**
+         * Waits for the job to finish.
+         *
+         * @throws InterruptedException if the thread is interrupted while
+         * waiting.
+         */
+        public void join() throws InterruptedException {
+            thread_.join();
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses command lines into CommandLines in one pass over their text.
+ *
+ * Words are separated by whitespace, and '|', '>', '>>' and a final '&'
+ * stand on their own even without whitespace around them. A word starting
+ * with '-' gives the options of its command. Given the CommandRegistry of
+ * the session, an option that takes a value, such as -m of grep, takes the
+ * rest of its word, or else the next word, as in "grep ERROR -m 1 /log";
+ * the values are carried in the Invocation. Text in double quotes is
+ * taken as it is, whitespace and operators included, except for the
+ * escapes \n, \t, \" and \\; text in single quotes is taken as it is, with
+ * no escapes. A '#' starting a word begins a comment, which runs to the
+ * end of the line. Outside quotes a backslash is an ordinary character, so
+ * regexes need no quoting.
+ *
+ * Each character is looked at once and copied at most once, in runs, so a
+ * quoted string of any size is parsed in time linear in its length.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public final class Lexer {
+    /*
+     * No instances.
+     */
+    private Lexer() {
+    }
+
+    /**
+     * Parses a command line without binding values to options; commands
+     * take the values of their options from the front of their parameters.
+     *
+     * @param line the text of the line.
+     * @return the parsed line.
+     * @throws IllegalArgumentException if the line is not well formed, with
+     * the message to print.
+     */
+    public static CommandLine parse(CharSequence line) {
+        return parse(line, null);
+    }
+
+    /**
+     * Parses a command line, binding to each option of a command of
+     * commands that takes a value the word that gives it.
+     *
+     * @param line the text of the line.
+     * @param commands the commands the line is run by, or null.
+     * @return the parsed line.
+     * @throws IllegalArgumentException if the line is not well formed, with
+     * the message to print.
+     */
+    public static CommandLine parse(CharSequence line,
+            CommandRegistry commands) {
+        Builder builder = new Builder(commands);
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false;
+        boolean quoted = false;
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                i = readQuoted(line, i + 1, word);
+                inWord = true;
+                quoted = true;
+            } else if (c == '\'') {
+                int close = indexOf(line, '\'', i + 1);
+                if (close < 0) {
+                    throw new IllegalArgumentException("-JShell: unexpected"
+                            + " EOF while looking for matching `''");
+                }
+                word.append(line, i + 1, close);
+                i = close + 1;
+                inWord = true;
+                quoted = true;
+            } else if (c == '|' || c == '>' || c == '&'
+                    || Character.isWhitespace(c)) {
+                if (inWord) {
+                    builder.word(word.toString(), quoted);
+                    word.setLength(0);
+                    inWord = false;
+                    quoted = false;
+                }
+                if (c == '|') {
+                    builder.pipe();
+                } else if (c == '&') {
+                    builder.background();
+                } else if (c == '>') {
+                    boolean append = i + 1 < length
+                            && line.charAt(i + 1) == '>';
+                    builder.redirect(append ? ">>" : ">");
+                    i += append ? 1 : 0;
+                }
+                i++;
+            } else if (c == '#' && !inWord) {
+                break;
+            } else {
+                // The plain characters up to the next special one are
+                // copied together.
+                int start = i;
+                while (i < length && !isSpecial(line.charAt(i))) {
+                    i++;
+                }
+                word.append(line, start, i);
+                inWord = true;
+            }
+        }
+        if (inWord) {
+            builder.word(word.toString(), quoted);
+        }
+        return builder.finish();
+    }
+
+    /**
+     * Parses a command line already split into words, taking each word
+     * as it is: "|", ">", ">>" and "&" are operators only as whole words,
+     * and there are no quotes or comments. No values are bound to options.
+     *
+     * @param words the words of the line.
+     * @return the parsed line.
+     * @throws IllegalArgumentException if the line is not well formed, with
+     * the message to print.
+     */
+    public static CommandLine parse(List<String> words) {
+        return parse(words, null);
+    }
+
+    /**
+     * Parses a command line already split into words, binding to each
+     * option of a command of commands that takes a value the word that
+     * gives it.
+     *
+     * @param words the words of the line.
+     * @param commands the commands the line is run by, or null.
+     * @return the parsed line.
+     * @throws IllegalArgumentException if the line is not well formed, with
+     * the message to print.
+     */
+    public static CommandLine parse(List<String> words,
+            CommandRegistry commands) {
+        Builder builder = new Builder(commands);
+        for (String word : words) {
+            if (word.equals("|")) {
+                builder.pipe();
+            } else if (word.equals("&")) {
+                builder.background();
+            } else if (word.equals(">") || word.equals(">>")) {
+                builder.redirect(word);
+            } else {
+                builder.word(word, false);
+            }
+        }
+        return builder.finish();
+    }
+
+    /*
+     * Appends the text of the double quoted string starting at from to
+     * word, escapes replaced, and returns the index after its closing
+     * quote.
+     */
+    private static int readQuoted(CharSequence line, int from,
+            StringBuilder word) {
+        int length = line.length();
+        int start = from;
+        for (int i = from; i < length; i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                word.append(line, start, i);
+                return i + 1;
+            }
+            if (c == '\\' && i + 1 < length) {
+                char escaped = escape(line.charAt(i + 1));
+                if (escaped != 0) {
+                    word.append(line, start, i).append(escaped);
+                    start = ++i + 1;
+                }
+            }
+        }
+        throw new IllegalArgumentException(
+                "-JShell: unexpected EOF while looking for matching `\"'");
+    }
+
+    /*
+     * Returns the character the escape \c stands for in double quotes, or
+     * 0 if \c is no escape.
+     */
+    private static char escape(char c) {
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+                return c;
+            default:
+                return 0;
+        }
+    }
+
+    /*
+     * Checks whether c ends a run of plain characters.
+     */
+    private static boolean isSpecial(char c) {
+        return c == '"' || c == '\'' || c == '|' || c == '>' || c == '&'
+                || Character.isWhitespace(c);
+    }
+
+    /*
+     * Returns the index of c in text from from, or -1.
+     */
+    private static int indexOf(CharSequence text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Puts the commands of a line together from its words and operators.
+     */
+    private static final class Builder {
+        /*
+         * The commands whose options are looked up, or null.
+         */
+        private final CommandRegistry registry_;
+        private final List<CommandLine.Invocation> commands_ =
+                new ArrayList<CommandLine.Invocation>();
+        private String name_;
+        private StringBuilder options_ = new StringBuilder();
+        /*
+         * The options that took a value, and their values, in order.
+         */
+        private StringBuilder valued_ = new StringBuilder();
+        private List<CommandLine.Word> values_ =
+                new ArrayList<CommandLine.Word>();
+        private List<CommandLine.Word> words_ =
+                new ArrayList<CommandLine.Word>();
+        private String redirection_;
+        private String target_;
+        private boolean wantsTarget_;
+        private boolean wantsValue_;
+        private boolean background_;
+
+        Builder(CommandRegistry registry) {
+            registry_ = registry;
+        }
+
+        /*
+         * Adds a word: the target of a redirection, the value of an option,
+         * options, the name of the command or one of its parameters.
+         */
+        void word(String text, boolean quoted) {
+            if (background_) {
+                throw syntaxError(text);
+            } else if (wantsTarget_) {
+                target_ = text;
+                wantsTarget_ = false;
+            } else if (wantsValue_) {
+                values_.add(new CommandLine.Word(text, quoted));
+                wantsValue_ = false;
+            } else if (!quoted && text.length() > 1 && text.startsWith("-")) {
+                options(text);
+            } else if (name_ == null) {
+                name_ = text;
+            } else {
+                words_.add(new CommandLine.Word(text, quoted));
+            }
+        }
+
+        /*
+         * Adds the letters of an option word. The first letter that takes
+         * a value takes the rest of the word, or the next word if there is
+         * no rest.
+         */
+        private void options(String text) {
+            String spec = spec();
+            for (int i = 1; i < text.length(); i++) {
+                char option = text.charAt(i);
+                options_.append(option);
+                if (spec != null && takesValue(spec, option)) {
+                    valued_.append(option);
+                    if (i + 1 < text.length()) {
+                        values_.add(new CommandLine.Word(
+                                text.substring(i + 1), false));
+                    } else {
+                        wantsValue_ = true;
+                    }
+                    return;
+                }
+            }
+        }
+
+        /*
+         * Returns the options declared by the command being built, or null
+         * if they are not known.
+         */
+        private String spec() {
+            if (registry_ == null || name_ == null) {
+                return null;
+            }
+            Command command = registry_.get(name_);
+            return command == null ? null : command.getOptions();
+        }
+
+        /*
+         * Checks whether option is followed by ':' in spec.
+         */
+        private static boolean takesValue(String spec, char option) {
+            int at = spec.indexOf(option);
+            return option != ':' && at >= 0 && at + 1 < spec.length()
+                    && spec.charAt(at + 1) == ':';
+        }
+
+        /*
+         * Ends the command before a '|'.
+         */
+        void pipe() {
+            if (wantsTarget_ || name_ == null || background_) {
+                throw syntaxError("|");
+            }
+            endCommand();
+        }
+
+        /*
+         * Starts a redirection; the next word is its target.
+         */
+        void redirect(String redirection) {
+            if (wantsTarget_ || background_) {
+                throw syntaxError(redirection);
+            }
+            redirection_ = redirection;
+            wantsTarget_ = true;
+        }
+
+        /*
+         * Ends the line with '&'; nothing may follow.
+         */
+        void background() {
+            if (wantsTarget_ || name_ == null || background_) {
+                throw syntaxError("&");
+            }
+            background_ = true;
+        }
+
+        /*
+         * Returns the line once its last word was added.
+         */
+        CommandLine finish() {
+            if (wantsTarget_) {
+                throw syntaxError("newline");
+            }
+            if (name_ != null) {
+                endCommand();
+            } else if (!commands_.isEmpty() || options_.length() > 0
+                    || redirection_ != null) {
+                throw syntaxError("newline");
+            }
+            return new CommandLine(commands_, background_);
+        }
+
+        private void endCommand() {
+            commands_.add(new CommandLine.Invocation(name_,
+                    options_.toString(), valued_.toString(),
+                    registry_ == null ? null : values_, words_,
+                    redirection_, target_));
+            name_ = null;
+            wantsValue_ = false;
+            options_ = new StringBuilder();
+            valued_ = new StringBuilder();
+            values_ = new ArrayList<CommandLine.Word>();
+            words_ = new ArrayList<CommandLine.Word>();
+            redirection_ = null;
+            target_ = null;
+        }
+
+        private static IllegalArgumentException syntaxError(String token) {
+            return new IllegalArgumentException(
+                    "-JShell: syntax error near unexpected token `" + token
+                    + "'");
+        }
+    }
+}
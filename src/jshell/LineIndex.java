@@ -0,0 +1,175 @@
+package jshell;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The offsets of the lines of a File's content, so that lines can be read
+ * without scanning or splitting the content again. Lines are separated by
+ * '\n'; a final '\n' does not start another line, and empty content has no
+ * lines. Built by {@link File#getLineIndex()} the first time it is needed
+ * and kept by the File until its content is replaced. Appending to the
+ * File extends the index instead of rebuilding it.
+ *
+ * An index only reads the line starts it counted, so the first index made
+ * by extending it shares its array and adds the new starts after them. The
+ * array is copied only when it is full, growing it by half, or when the
+ * same index is extended again, so n appends take amortized linear time.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public final class LineIndex {
+    /*
+     * The stored content the index was built for.
+     */
+    private final CharSequence source_;
+    /*
+     * The length of the content.
+     */
+    private final int length_;
+    /*
+     * The offset of the first character of each line, of which the first
+     * count_ are used.
+     */
+    private final int[] starts_;
+    /*
+     * The number of lines.
+     */
+    private final int count_;
+    /*
+     * Whether the content ends with '\n'.
+     */
+    private final boolean finalNewline_;
+    /*
+     * Set once starts_ was handed on to an extended index, which may write
+     * past count_.
+     */
+    private final AtomicBoolean handedOn_ = new AtomicBoolean();
+
+    /**
+     * Indexes the lines of text.
+     *
+     * @param source the stored content of the File, used to tell whether
+     * the index is still current.
+     * @param text the characters of source.
+     */
+    public LineIndex(CharSequence source, CharSequence text) {
+        this(source, text, new int[16], 0, 0);
+    }
+
+    /*
+     * Indexes the lines of text that start at or after from, given the
+     * first count line starts.
+     */
+    private LineIndex(CharSequence source, CharSequence text, int[] starts,
+            int count, int from) {
+        int length = text.length();
+        if (from < length && (count == 0 || from > 0
+                && text.charAt(from - 1) == '\n')) {
+            starts = add(starts, count++, from);
+        }
+        for (int i = from; i < length - 1; i++) {
+            if (text.charAt(i) == '\n') {
+                starts = add(starts, count++, i + 1);
+            }
+        }
+        source_ = source;
+        length_ = length;
+        starts_ = starts;
+        count_ = count;
+        finalNewline_ = length > 0 && text.charAt(length - 1) == '\n';
+    }
+
+    /**
+     * Returns the index of text, which is the indexed content followed by
+     * more characters, scanning only the added characters.
+     *
+     * @param source the stored content of the File.
+     * @param text the characters of source.
+     * @return the extended LineIndex.
+     */
+    public LineIndex extend(CharSequence source, CharSequence text) {
+        int[] starts = handedOn_.compareAndSet(false, true) ? starts_
+                : Arrays.copyOf(starts_, starts_.length);
+        return new LineIndex(source, text, starts, count_, length_);
+    }
+
+    /**
+     * Return the stored content the index was built for.
+     *
+     * @return the indexed content.
+     */
+    public CharSequence getSource() {
+        return source_;
+    }
+
+    /**
+     * Return the number of lines.
+     *
+     * @return the number of lines.
+     */
+    public int getLineCount() {
+        return count_;
+    }
+
+    /**
+     * Return the offset of the first character of line.
+     *
+     * @param line a line number, from 0.
+     * @return the start offset of the line.
+     */
+    public int getLineStart(int line) {
+        if (line < 0 || line >= count_) {
+            throw new IndexOutOfBoundsException("line " + line);
+        }
+        return starts_[line];
+    }
+
+    /**
+     * Return the offset just after the last character of line, not counting
+     * the '\n' that ends it.
+     *
+     * @param line a line number, from 0.
+     * @return the end offset of the line.
+     */
+    public int getLineEnd(int line) {
+        if (line < 0 || line >= count_) {
+            throw new IndexOutOfBoundsException("line " + line);
+        }
+        if (line + 1 < count_) {
+            return starts_[line + 1] - 1;
+        }
+        return finalNewline_ ? length_ - 1 : length_;
+    }
+
+    /**
+     * Return the line holding the character at offset. The '\n' ending a
+     * line belongs to it.
+     *
+     * @param offset an offset in the content.
+     * @return the line number, from 0, or -1 if there are no lines.
+     */
+    public int getLineOf(int offset) {
+        if (count_ == 0) {
+            return -1;
+        }
+        int line = Arrays.binarySearch(starts_, 0, count_, offset);
+        return line >= 0 ? line : Math.max(0, -line - 2);
+    }
+
+    /*
+     * Returns starts with start stored at index, growing it by half if it
+     * is full.
+     */
+    private static int[] add(int[] starts, int index, int start) {
+        if (index == starts.length) {
+            starts = Arrays.copyOf(starts,
+                    Math.max(16, starts.length + starts.length / 2));
+        }
+        starts[index] = start;
+        return starts;
+    }
+}
@@ -0,0 +1,161 @@
+package jshell;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * The content of a File stored in a ContentStore: a view of a record of
+ * the arena, read in place without copying it onto the heap. The record
+ * is not reused while a MappedContent of it is reachable, so a
+ * MappedContent never changes.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+@SuppressWarnings("serial")
+public final class MappedContent implements CharSequence, Serializable {
+    /*
+     * The number of characters copied at a time by writeTo.
+     */
+    private static final int BLOCK = 8192;
+
+    /*
+     * The arena holding the content.
+     */
+    private final transient ContentStore store_;
+    /*
+     * The record viewed, which the store does not reuse while it is held.
+     */
+    private final transient ContentStore.Record record_;
+    /*
+     * The byte offset of the first character in the arena.
+     */
+    private final long offset_;
+    /*
+     * The number of characters.
+     */
+    private final int length_;
+
+    /**
+     * Creates the view of length characters stored at offset. Use
+     * ContentStore.put.
+     *
+     * @param store the arena.
+     * @param record the record holding the content.
+     * @param offset the byte offset of the first character.
+     * @param length the number of characters.
+     */
+    MappedContent(ContentStore store, ContentStore.Record record,
+            long offset, int length) {
+        store_ = store;
+        record_ = record;
+        offset_ = offset;
+        length_ = length;
+    }
+
+    /**
+     * Return the ContentStore holding the content.
+     *
+     * @return the store.
+     */
+    public ContentStore getStore() {
+        return store_;
+    }
+
+    /*
+     * Returns the record holding the content.
+     */
+    ContentStore.Record getRecord() {
+        return record_;
+    }
+
+    /**
+     * Return the byte offset of the content in the arena.
+     *
+     * @return the offset.
+     */
+    public long getOffset() {
+        return offset_;
+    }
+
+    /**
+     * Return the byte offset just after the content in the arena.
+     *
+     * @return the end offset.
+     */
+    public long getEnd() {
+        return offset_ + 2L * length_;
+    }
+
+    @Override
+    public int length() {
+        return length_;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length_) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return store_.charAt(offset_ + 2L * index);
+    }
+
+    /**
+     * Returns a view of part of the content, without copying it.
+     *
+     * @param start the index of the first character.
+     * @param end the index after the last character.
+     * @return the part of the content.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length_ || start > end) {
+            throw new StringIndexOutOfBoundsException(
+                    "start " + start + ", end " + end);
+        }
+        return new MappedContent(store_, record_, offset_ + 2L * start,
+                end - start);
+    }
+
+    /**
+     * Writes the content to out a block at a time, so that at most one
+     * block is on the heap.
+     *
+     * @param out where to write the content.
+     * @throws IOException if out fails.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        StringBuilder block = new StringBuilder(Math.min(BLOCK, length_));
+        for (int start = 0; start < length_; start += BLOCK) {
+            block.setLength(0);
+            int end = Math.min(length_, start + BLOCK);
+            for (int i = start; i < end; i++) {
+                block.append(charAt(i));
+            }
+            out.append(block);
+        }
+    }
+
+    /**
+     * Returns a copy of the content on the heap.
+     *
+     * @return the content as a String.
+     */
+    @Override
+    public String toString() {
+        StringBuilder copy = new StringBuilder(length_);
+        for (int i = 0; i < length_; i++) {
+            copy.append(charAt(i));
+        }
+        return copy.toString();
+    }
+
+    /*
+     * Writes the content as a String, since the arena is not saved.
+     */
+    private Object writeReplace() {
+        return toString();
+    }
+}
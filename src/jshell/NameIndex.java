@@ -0,0 +1,385 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the names of the items in a Directory tree, so that find can
+ * reach only the items whose paths contain a literal part of its pattern
+ * instead of matching every path in the tree.
+ *
+ * Each distinct name is filed under its trigrams, the strings of three
+ * consecutive characters in it. The names containing a literal are those
+ * filed under all of its trigrams that do contain it; shorter literals are
+ * looked for in every distinct name, which is still far fewer than the
+ * items of a tree where the same names repeat.
+ *
+ * The index is a TreeListener of the FileSystem and follows mkdir, mkfile,
+ * mv, rm, cp and ln as they happen. A Directory added to the tree, such as
+ * a lazy copy, is only walked the next time the index is used, and a
+ * Directory removed from it may be moved back in by mv, so its subtree is
+ * only dropped if it is still gone by then. The items found are checked
+ * against the tree, and the whole index never leaves out an item, so find
+ * prints exactly what a full walk would.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class NameIndex implements TreeListener {
+    /*
+     * The characters that make a find pattern more than literals and
+     * wildcards.
+     */
+    private static final String REGEX_CHARS = "[](){}|\\^$+";
+
+    /*
+     * The root of the indexed tree.
+     */
+    private final Directory root_;
+    /*
+     * The name each indexed item is filed under.
+     */
+    private final Map<JShellItem, String> names_ =
+            new HashMap<JShellItem, String>();
+    /*
+     * The indexed items with each name.
+     */
+    private final Map<String, Set<JShellItem>> items_ =
+            new HashMap<String, Set<JShellItem>>();
+    /*
+     * The names containing each trigram.
+     */
+    private final Map<String, Set<String>> trigrams_ =
+            new HashMap<String, Set<String>>();
+    /*
+     * The indexed Directories whose children are not indexed yet.
+     */
+    private final Set<JShellItem> pending_ = new LinkedHashSet<JShellItem>();
+    /*
+     * The indexed Directories removed from the tree since the index was
+     * last used.
+     */
+    private final Set<JShellItem> removed_ = new HashSet<JShellItem>();
+    /*
+     * The indexed DirectoryAliases.
+     */
+    private final Set<JShellItem> aliases_ = new HashSet<JShellItem>();
+    /*
+     * The number of filters built from the index.
+     */
+    private long lookups_;
+
+    /**
+     * Creates an index of the tree beneath root, built when first used.
+     *
+     * @param root the root Directory of the tree.
+     */
+    public NameIndex(Directory root) {
+        root_ = root;
+        pending_.add(root);
+    }
+
+    /**
+     * Returns the longest literal every path matched by the find pattern
+     * glob contains, which holds no '/'. In a find pattern '?' and '*' stand
+     * for any characters and '.' for any one character.
+     *
+     * @param glob the pattern given to find.
+     * @return the literal, or null if the pattern uses other regex syntax or
+     * has no literal.
+     */
+    public static String literalOf(String glob) {
+        String literal = null;
+        int start = 0;
+        for (int i = 0; i <= glob.length(); i++) {
+            char c = i < glob.length() ? glob.charAt(i) : '/';
+            if (REGEX_CHARS.indexOf(c) >= 0) {
+                return null;
+            }
+            if (c == '*' || c == '?' || c == '.' || c == '/') {
+                if (i - start > (literal == null ? 0 : literal.length())) {
+                    literal = glob.substring(start, i);
+                }
+                start = i + 1;
+            }
+        }
+        return literal;
+    }
+
+    /**
+     * Returns a Filter for a walk of the tree as it is now that reaches
+     * every item whose path contains literal beneath a first item whose own
+     * path does not, and as few other items as it can. Call with the read
+     * lock of the FileSystem held.
+     *
+     * @param literal a String holding no '/'.
+     * @return the Filter, or null if the index cannot tell, because the
+     * tree holds a DirectoryAlias.
+     */
+    public synchronized TreeWalker.Filter filter(String literal) {
+        update();
+        for (JShellItem alias : aliases_) {
+            if (isAttached(alias)) {
+                return null;
+            }
+        }
+        lookups_++;
+        // The path of an item contains literal if the name of the item or
+        // of a Directory above it does.
+        final Set<JShellItem> matches = new HashSet<JShellItem>();
+        final Set<JShellItem> above = new HashSet<JShellItem>();
+        for (String name : namesContaining(literal)) {
+            for (JShellItem item : items_.get(name)) {
+                if (!isAttached(item)) {
+                    continue;
+                }
+                matches.add(item);
+                Directory dir = item.getParentDirectory();
+                while (dir != null && above.add(dir)) {
+                    dir = dir.getParentDirectory();
+                }
+            }
+        }
+        return new TreeWalker.Filter() {
+            @Override
+            public TreeWalker.Choice choose(JShellItem item) {
+                if (matches.contains(item)) {
+                    return TreeWalker.Choice.ALL;
+                }
+                return above.contains(item) ? TreeWalker.Choice.ENTER
+                        : TreeWalker.Choice.SKIP;
+            }
+        };
+    }
+
+    /**
+     * Return the number of filters built from the index.
+     *
+     * @return the lookup count.
+     */
+    public synchronized long getLookupCount() {
+        return lookups_;
+    }
+
+    /**
+     * Return the number of distinct names indexed.
+     *
+     * @return the name count.
+     */
+    public synchronized int getNameCount() {
+        return items_.size();
+    }
+
+    /**
+     * Files the name of item, and leaves the children of a new Directory
+     * to be indexed when the index is next used.
+     *
+     * @param parent the Directory the item was added to.
+     * @param item the JShellItem that was added.
+     */
+    @Override
+    public synchronized void itemAdded(Directory parent, JShellItem item) {
+        String name = names_.get(item);
+        if (name == null) {
+            add(item);
+            if (item instanceof Directory
+                    && !(item instanceof DirectoryAlias)) {
+                pending_.add(item);
+            }
+            return;
+        }
+        // A Directory moved by mv keeps its subtree indexed.
+        removed_.remove(item);
+        if (!name.equals(item.getName())) {
+            remove(item, name);
+            add(item);
+        }
+    }
+
+    /**
+     * Drops the name of a File or alias removed from the tree. A Directory
+     * is only dropped, with its subtree, if it was not moved back into the
+     * tree by the time the index is next used.
+     *
+     * @param parent the Directory the item was removed from.
+     * @param item the JShellItem that was removed.
+     */
+    @Override
+    public synchronized void itemRemoved(Directory parent, JShellItem item) {
+        String name = names_.get(item);
+        if (name == null) {
+            return;
+        }
+        if (item instanceof Directory && !(item instanceof DirectoryAlias)) {
+            removed_.add(item);
+        } else {
+            remove(item, name);
+        }
+    }
+
+    /*
+     * Drops the Directories removed for good and indexes the children of
+     * the new ones.
+     */
+    private void update() {
+        for (JShellItem dir : removed_) {
+            if (!isAttached(dir)) {
+                removeTree(dir);
+            }
+        }
+        removed_.clear();
+        while (!pending_.isEmpty()) {
+            JShellItem dir = pending_.iterator().next();
+            pending_.remove(dir);
+            if (isAttached(dir)) {
+                addTree((Directory) dir);
+            } else if (names_.containsKey(dir)) {
+                // Indexed again from the start if it is added back.
+                remove(dir, names_.get(dir));
+            }
+        }
+    }
+
+    /*
+     * Indexes the items beneath dir, except beneath the Directories whose
+     * children are already indexed.
+     */
+    private void addTree(Directory dir) {
+        List<Directory> stack = new ArrayList<Directory>();
+        stack.add(dir);
+        while (!stack.isEmpty()) {
+            Directory next = stack.remove(stack.size() - 1);
+            for (JShellItem item : next.getContents().values()) {
+                String name = names_.get(item);
+                if (name != null && !name.equals(item.getName())) {
+                    remove(item, name);
+                    name = null;
+                }
+                if (name == null) {
+                    add(item);
+                } else if (!pending_.remove(item)) {
+                    continue;
+                }
+                if (item instanceof Directory
+                        && !(item instanceof DirectoryAlias)) {
+                    stack.add((Directory) item);
+                }
+            }
+        }
+    }
+
+    /*
+     * Drops dir and the indexed items beneath it.
+     */
+    private void removeTree(JShellItem dir) {
+        List<JShellItem> stack = new ArrayList<JShellItem>();
+        stack.add(dir);
+        while (!stack.isEmpty()) {
+            JShellItem next = stack.remove(stack.size() - 1);
+            String name = names_.get(next);
+            if (name == null) {
+                continue;
+            }
+            remove(next, name);
+            // The children of a pending Directory were never indexed, and
+            // reading them would fill in a lazy copy.
+            if (!pending_.remove(next) && next instanceof Directory
+                    && !(next instanceof DirectoryAlias)) {
+                stack.addAll(((Directory) next).getContents().values());
+            }
+        }
+    }
+
+    /*
+     * Files item under its name.
+     */
+    private void add(JShellItem item) {
+        String name = item.getName();
+        names_.put(item, name);
+        if (item instanceof DirectoryAlias) {
+            aliases_.add(item);
+        }
+        Set<JShellItem> items = items_.get(name);
+        if (items == null) {
+            items = new HashSet<JShellItem>(2);
+            items_.put(name, items);
+            for (int i = 0; i + 3 <= name.length(); i++) {
+                String trigram = name.substring(i, i + 3);
+                Set<String> names = trigrams_.get(trigram);
+                if (names == null) {
+                    names = new HashSet<String>(2);
+                    trigrams_.put(trigram, names);
+                }
+                names.add(name);
+            }
+        }
+        items.add(item);
+    }
+
+    /*
+     * Drops item, filed under name.
+     */
+    private void remove(JShellItem item, String name) {
+        names_.remove(item);
+        aliases_.remove(item);
+        Set<JShellItem> items = items_.get(name);
+        if (items == null || !items.remove(item) || !items.isEmpty()) {
+            return;
+        }
+        items_.remove(name);
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            String trigram = name.substring(i, i + 3);
+            Set<String> names = trigrams_.get(trigram);
+            if (names != null && names.remove(name) && names.isEmpty()) {
+                trigrams_.remove(trigram);
+            }
+        }
+    }
+
+    /*
+     * Returns the indexed names containing literal.
+     */
+    private List<String> namesContaining(String literal) {
+        Set<String> names = items_.keySet();
+        for (int i = 0; i + 3 <= literal.length(); i++) {
+            Set<String> withTrigram = trigrams_.get(
+                    literal.substring(i, i + 3));
+            if (withTrigram == null) {
+                return Collections.emptyList();
+            }
+            if (withTrigram.size() < names.size()) {
+                names = withTrigram;
+            }
+        }
+        List<String> found = new ArrayList<String>();
+        for (String name : names) {
+            if (name.contains(literal)) {
+                found.add(name);
+            }
+        }
+        return found;
+    }
+
+    /*
+     * Checks whether item can be reached from the root of the tree.
+     */
+    private boolean isAttached(JShellItem item) {
+        while (!item.equals(root_)) {
+            Directory parent = item.getParentDirectory();
+            if (parent == null || parent.equals(item)
+                    || !item.equals(parent.getItem(item.getName()))) {
+                return false;
+            }
+            item = parent;
+        }
+        return true;
+    }
+}
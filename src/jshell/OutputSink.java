@@ -0,0 +1,226 @@
+package jshell;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+
+/**
+ * Where a command writes its output as it produces it: the console, a File
+ * for the > and >> redirections, or memory. Commands append each piece of
+ * output, such as a line or a view of a File's content, instead of building
+ * the whole result as one String first. Closing the sink ends the output of
+ * the command.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public abstract class OutputSink implements Appendable, Closeable {
+    /*
+     * The number of characters written so far.
+     */
+    private long count_;
+
+    /**
+     * Writes text.
+     *
+     * @param text the characters to write, which must not change.
+     * @return this sink.
+     * @throws IOException if the output fails.
+     */
+    @Override
+    public final OutputSink append(CharSequence text) throws IOException {
+        count_ += text.length();
+        write(text);
+        return this;
+    }
+
+    /**
+     * Writes the characters of text from start to end.
+     *
+     * @param text the characters to write, which must not change.
+     * @param start the index of the first character.
+     * @param end the index after the last character.
+     * @return this sink.
+     * @throws IOException if the output fails.
+     */
+    @Override
+    public final OutputSink append(CharSequence text, int start, int end)
+            throws IOException {
+        return append(text.subSequence(start, end));
+    }
+
+    /**
+     * Writes c.
+     *
+     * @param c the character to write.
+     * @return this sink.
+     * @throws IOException if the output fails.
+     */
+    @Override
+    public final OutputSink append(char c) throws IOException {
+        return append(String.valueOf(c));
+    }
+
+    /**
+     * Return the number of characters written so far.
+     *
+     * @return the number of characters.
+     */
+    public long getCount() {
+        return count_;
+    }
+
+    /**
+     * Ends the output of the command.
+     *
+     * @throws IOException if the output fails.
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * Writes text to the destination of the sink.
+     *
+     * @param text the characters to write.
+     * @throws IOException if the output fails.
+     */
+    protected abstract void write(CharSequence text) throws IOException;
+
+    /**
+     * Writes to a PrintStream, such as System.out, through a buffer. Content
+     * kept in a ContentStore is copied a block at a time. Closing the sink
+     * ends the output with a line break, if there was any, and flushes it;
+     * the stream itself stays open.
+     */
+    public static class Stream extends OutputSink {
+        /*
+         * The buffer in front of the stream.
+         */
+        private final Writer writer_;
+
+        /**
+         * Creates a sink writing to out.
+         *
+         * @param out the stream to write to.
+         */
+        public Stream(PrintStream out) {
+            writer_ = new BufferedWriter(new OutputStreamWriter(out), 8192);
+        }
+
+        @Override
+        protected void write(CharSequence text) throws IOException {
+            if (text instanceof MappedContent) {
+                ((MappedContent) text).writeTo(writer_);
+            } else {
+                writer_.append(text);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (getCount() > 0) {
+                writer_.write('\n');
+            }
+            writer_.flush();
+        }
+    }
+
+    /**
+     * Writes to the File at a path, replacing it for > and adding to it for
+     * >>. The pieces are joined in chunks as they come and the File is
+     * written once, when the sink is closed; a single piece, such as the
+     * content read by cat, is written as is.
+     */
+    public static class Redirect extends OutputSink {
+        /*
+         * The shell whose tree holds the File.
+         */
+        private final JShell shell_;
+        /*
+         * The redirection, > or >>.
+         */
+        private final String operator_;
+        /*
+         * The path of the File.
+         */
+        private final String path_;
+        /*
+         * The output so far, or null.
+         */
+        private CharSequence content_;
+
+        /**
+         * Creates a sink writing to the File at path.
+         *
+         * @param shell the shell resolving path.
+         * @param operator > to replace the File or >> to add to it.
+         * @param path the full path or the name of a File in the current
+         * directory of shell.
+         */
+        public Redirect(JShell shell, String operator, String path) {
+            shell_ = shell;
+            operator_ = operator;
+            path_ = path;
+        }
+
+        @Override
+        protected void write(CharSequence text) throws IOException {
+            if (content_ == null) {
+                content_ = text;
+            } else {
+                FileContent content = content_ instanceof FileContent
+                        ? (FileContent) content_
+                        : FileContent.of(content_.toString());
+                content_ = content.append(text.toString());
+            }
+        }
+
+        /**
+         * Writes the output to the File.
+         *
+         * @throws IOException if the File cannot be written.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                shell_.redirect(content_ == null ? "" : content_, operator_,
+                        path_);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Keeps the output in memory, for callers that want it as a String.
+     */
+    public static class Capture extends OutputSink {
+        /*
+         * The output so far.
+         */
+        private final StringBuilder text_ = new StringBuilder();
+
+        @Override
+        protected void write(CharSequence text) {
+            text_.append(text);
+        }
+
+        /**
+         * Returns the output so far.
+         *
+         * @return the output as a String.
+         */
+        @Override
+        public String toString() {
+            return text_.toString();
+        }
+    }
+}
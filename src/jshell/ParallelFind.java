@@ -0,0 +1,234 @@
+package jshell;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs find over a subtree on a ForkJoinPool. Each Directory becomes a task
+ * whose subdirectories are forked and stolen by idle workers; once enough
+ * tasks are queued, or the tree gets deep, a task walks the rest of its
+ * subtree itself with a TreeWalker.
+ *
+ * In ordered mode the matches are written in the order of the sequential
+ * find, once the whole subtree has been searched. In unordered mode each
+ * task writes its matches as soon as it is done, in whatever order the
+ * tasks finish.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class ParallelFind {
+    /*
+     * The number of queued tasks above which a task stops forking.
+     */
+    private static final int SURPLUS = 2;
+    /*
+     * The depth below which a task stops forking, so that joins never
+     * nest deeply.
+     */
+    private static final int MAX_FORK_DEPTH = 64;
+
+    /*
+     * The snapshot searched.
+     */
+    private final Snapshot snapshot_;
+    /*
+     * The pattern matched against paths.
+     */
+    private final Pattern pattern_;
+    /*
+     * Whether matches are written in the order of the sequential find.
+     */
+    private final boolean ordered_;
+    /*
+     * Where unordered matches are written, guarded by itself.
+     */
+    private OutputSink out_;
+    /*
+     * The size of out_ before the search, to separate matches.
+     */
+    private long mark_;
+
+    /**
+     * Creates a search of snapshot for paths matching pattern.
+     *
+     * @param snapshot the Snapshot to search.
+     * @param pattern the pattern a path must contain.
+     * @param ordered true to write the matches in the order of the
+     * sequential find.
+     */
+    public ParallelFind(Snapshot snapshot, Pattern pattern, boolean ordered) {
+        snapshot_ = snapshot;
+        pattern_ = pattern;
+        ordered_ = ordered;
+    }
+
+    /**
+     * Writes the paths beneath item that match to out, each after a line
+     * break if out has grown past mark.
+     *
+     * @param pool the pool running the tasks.
+     * @param item the Directory or File to search.
+     * @param path the path of item.
+     * @param out where to write the matches.
+     * @param mark the size of out before the first match of the command.
+     * @throws IOException if out fails.
+     */
+    public void find(ForkJoinPool pool, JShellItem item, String path,
+            OutputSink out, long mark) throws IOException {
+        out_ = out;
+        mark_ = mark;
+        Task root = new Task(item, path, 0);
+        try {
+            pool.invoke(root);
+        } catch (RuntimeException e) {
+            // The pool may wrap the exception thrown by the task again.
+            for (Throwable cause = e; cause != null;
+                    cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw e;
+        }
+        if (ordered_) {
+            write(root);
+        }
+    }
+
+    /*
+     * Writes the matches of task and of the tasks it forked, in order,
+     * without recursion.
+     */
+    private void write(Task task) throws IOException {
+        List<Iterator<Object>> stack = new ArrayList<Iterator<Object>>();
+        stack.add(task.parts_.iterator());
+        while (!stack.isEmpty()) {
+            Iterator<Object> parts = stack.get(stack.size() - 1);
+            if (!parts.hasNext()) {
+                stack.remove(stack.size() - 1);
+            } else {
+                Object part = parts.next();
+                if (part instanceof Task) {
+                    stack.add(((Task) part).parts_.iterator());
+                } else {
+                    writeMatch((String) part);
+                }
+            }
+        }
+    }
+
+    /*
+     * Writes one path to out_.
+     */
+    private void writeMatch(String path) throws IOException {
+        if (out_.getCount() > mark_) {
+            out_.append("\n");
+        }
+        out_.append(path);
+    }
+
+    /*
+     * Searches one Directory, or one File given to find.
+     */
+    @SuppressWarnings("serial")
+    private final class Task extends RecursiveAction {
+        private final JShellItem item_;
+        private final String path_;
+        private final int depth_;
+        /*
+         * The matches and the forked Tasks, in the order of the sequential
+         * find.
+         */
+        private final List<Object> parts_ = new ArrayList<Object>();
+
+        Task(JShellItem item, String path, int depth) {
+            item_ = item;
+            path_ = path;
+            depth_ = depth;
+        }
+
+        @Override
+        protected void compute() {
+            Matcher matcher = pattern_.matcher("");
+            List<Task> forked = new ArrayList<Task>();
+            // The children are searched last to first, like the sequential
+            // find, and the Directory itself after them.
+            Snapshot.Children children = snapshot_.getChildren(item_);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                JShellItem child = children.getItem(i);
+                String childPath = path_ + children.getName(i)
+                        + (child instanceof Directory ? "/" : "");
+                if (!(child instanceof Directory)) {
+                    match(matcher, child, childPath);
+                } else if (depth_ < MAX_FORK_DEPTH
+                        && getSurplusQueuedTaskCount() <= SURPLUS) {
+                    Task task = new Task(child, childPath, depth_ + 1);
+                    task.fork();
+                    forked.add(task);
+                    parts_.add(task);
+                } else {
+                    walk(matcher, child, childPath);
+                }
+            }
+            match(matcher, item_, path_);
+            for (Task task : forked) {
+                task.join();
+            }
+            if (!ordered_) {
+                flush();
+            }
+        }
+
+        /*
+         * Searches the subtree of dir on this thread.
+         */
+        private void walk(Matcher matcher, JShellItem dir, String path) {
+            TreeWalker walker = new TreeWalker(dir, path, snapshot_, null,
+                    TreeWalker.Order.POST_ORDER);
+            walker.setReverse(true);
+            while (walker.next()) {
+                match(matcher, walker.getItem(), walker.getPath());
+            }
+        }
+
+        /*
+         * Keeps path if it matches, leaving out aliased Directories.
+         */
+        private void match(Matcher matcher, JShellItem item, String path) {
+            if (!(item instanceof DirectoryAlias)
+                    && matcher.reset(path).find()) {
+                parts_.add(path);
+            }
+        }
+
+        /*
+         * Writes the matches kept so far to out_.
+         */
+        private void flush() {
+            if (parts_.isEmpty()) {
+                return;
+            }
+            synchronized (out_) {
+                try {
+                    for (Object part : parts_) {
+                        if (part instanceof String) {
+                            writeMatch((String) part);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            parts_.clear();
+        }
+    }
+}
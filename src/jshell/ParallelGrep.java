@@ -0,0 +1,125 @@
+package jshell;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs grep over many Files on a ForkJoinPool. The Files, in the order grep
+ * prints them, are split into ranges that idle workers steal; each worker
+ * matches with its own copy of the GrepMatcher. The output of each File is
+ * kept apart and written in order once every File has been searched, so
+ * the output is the same as that of the sequential grep.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class ParallelGrep {
+    /*
+     * The number of Files below which a range is searched by one worker.
+     */
+    private static final int THRESHOLD = 8;
+
+    /*
+     * The snapshot searched.
+     */
+    private final Snapshot snapshot_;
+    /*
+     * The matcher copied by each worker.
+     */
+    private final GrepMatcher matcher_;
+    /*
+     * The copy of the matcher of each worker.
+     */
+    private final ThreadLocal<GrepMatcher> matchers_ =
+            new ThreadLocal<GrepMatcher>() {
+        @Override
+        protected GrepMatcher initialValue() {
+            return matcher_.copy();
+        }
+    };
+
+    /**
+     * Creates a search of snapshot with matcher.
+     *
+     * @param snapshot the Snapshot to search.
+     * @param matcher the matcher, copied for each worker.
+     */
+    public ParallelGrep(Snapshot snapshot, GrepMatcher matcher) {
+        snapshot_ = snapshot;
+        matcher_ = matcher;
+    }
+
+    /**
+     * Writes the matches of files to out in order, each File after a line
+     * break if out has grown past mark.
+     *
+     * @param pool the pool running the tasks.
+     * @param files the Files to search.
+     * @param paths the path to print for each File.
+     * @param out where to write the matches.
+     * @param mark the size of out before the first match of the command.
+     * @throws IOException if out fails.
+     */
+    public void grep(ForkJoinPool pool, List<JShellItem> files,
+            List<String> paths, OutputSink out, long mark)
+            throws IOException {
+        String[] results = new String[files.size()];
+        pool.invoke(new Range(files, paths, results, 0, results.length));
+        for (String result : results) {
+            if (result != null) {
+                if (out.getCount() > mark) {
+                    out.append("\n");
+                }
+                out.append(result);
+            }
+        }
+    }
+
+    /*
+     * Searches the Files from start to end.
+     */
+    @SuppressWarnings("serial")
+    private final class Range extends RecursiveAction {
+        private final List<JShellItem> files_;
+        private final List<String> paths_;
+        private final String[] results_;
+        private final int start_;
+        private final int end_;
+
+        Range(List<JShellItem> files, List<String> paths, String[] results,
+                int start, int end) {
+            files_ = files;
+            paths_ = paths;
+            results_ = results;
+            start_ = start;
+            end_ = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end_ - start_ > THRESHOLD) {
+                int middle = (start_ + end_) >>> 1;
+                invokeAll(new Range(files_, paths_, results_, start_, middle),
+                        new Range(files_, paths_, results_, middle, end_));
+                return;
+            }
+            GrepMatcher matcher = matchers_.get();
+            for (int i = start_; i < end_; i++) {
+                OutputSink.Capture result = new OutputSink.Capture();
+                try {
+                    if (matcher.grep(snapshot_, files_.get(i), paths_.get(i),
+                            result, 0)) {
+                        results_[i] = result.toString();
+                    }
+                } catch (IOException e) {
+                    // A Capture does not fail.
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+}
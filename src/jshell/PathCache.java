@@ -0,0 +1,536 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A bounded cache from normalized absolute paths to the JShellItems they
+ * resolve to. When the cache is full the least recently used path is evicted.
+ * The cache is registered as the TreeListener of the root Directory so that
+ * removing (or moving) an item drops exactly the paths that no longer
+ * resolve to the same JShellItem.
+ *
+ * The paths are kept in an open addressing table of entries, chained from
+ * least to most recently used. A lookup compares the characters of the path
+ * it is given, String or Key, with those of each candidate key, so a Key
+ * built in place finds its path without ever being turned into a String.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class PathCache implements TreeListener {
+    /**
+     * The number of paths kept when no capacity is given.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /*
+     * The maximum number of paths kept in the cache.
+     */
+    private final int capacity_;
+    /*
+     * Linear probing table of the cached paths, at most half full.
+     */
+    private Entry[] table_ = new Entry[16];
+    /*
+     * The least and most recently used entries.
+     */
+    private Entry eldest_;
+    private Entry newest_;
+    /*
+     * The number of cached paths.
+     */
+    private int size_;
+    /*
+     * The cached paths of each JShellItem, used to drop the paths of a
+     * removed File or empty Directory without scanning the whole cache.
+     * Items are compared with equals so that InodeTable flyweights for the
+     * same inode share their keys.
+     */
+    private final HashMap<JShellItem, List<String>> keysByItem_;
+    /*
+     * The number of lookups answered by the cache.
+     */
+    private long hits_;
+    /*
+     * The number of lookups that had to walk the tree.
+     */
+    private long misses_;
+    /*
+     * The number of paths dropped to make room for new ones.
+     */
+    private long evictions_;
+
+    /**
+     * Creates an empty PathCache holding at most DEFAULT_CAPACITY paths.
+     */
+    public PathCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty PathCache holding at most capacity paths.
+     *
+     * @param capacity the maximum number of paths to keep.
+     */
+    public PathCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive.");
+        }
+        capacity_ = capacity;
+        keysByItem_ = new HashMap<JShellItem, List<String>>();
+    }
+
+    /**
+     * Returns the JShellItem cached for the normalized path key and counts
+     * the lookup as a hit or a miss.
+     *
+     * @param key a normalized absolute path, either a String or a Key.
+     * @return the cached JShellItem, or null if key is not cached.
+     */
+    public JShellItem get(CharSequence key) {
+        Entry entry = find(key, hash(key));
+        if (entry == null) {
+            misses_++;
+            return null;
+        }
+        hits_++;
+        touch(entry);
+        return entry.item_;
+    }
+
+    /**
+     * Caches item as the JShellItem that the normalized path key resolves to.
+     *
+     * @param key a normalized absolute path.
+     * @param item the JShellItem found at key.
+     */
+    public void put(String key, JShellItem item) {
+        int hash = hash(key);
+        Entry entry = find(key, hash);
+        if (entry != null) {
+            touch(entry);
+            JShellItem previous = entry.item_;
+            entry.item_ = item;
+            if (item.equals(previous)) {
+                return;
+            }
+            forgetKey(previous, key);
+        } else {
+            insert(new Entry(key, hash, item));
+            if (size_ > capacity_) {
+                Entry eldest = eldest_;
+                remove(eldest);
+                forgetKey(eldest.item_, eldest.key_);
+                evictions_++;
+            }
+        }
+        List<String> keys = keysByItem_.get(item);
+        if (keys == null) {
+            keys = new ArrayList<String>(1);
+            keysByItem_.put(item, keys);
+        }
+        keys.add(key);
+    }
+
+    /**
+     * Drops every cached path that resolves to item or to an item inside it,
+     * as well as every path that passes through item.
+     *
+     * @param item the JShellItem that is no longer at its path.
+     */
+    public void invalidate(JShellItem item) {
+        if (size_ == 0) {
+            return;
+        }
+        if (!(item instanceof Directory) || (item.getSize() <= 0
+                && !(item instanceof DirectoryAlias))) {
+            // Nothing can be cached beneath a File or an empty Directory.
+            List<String> keys = keysByItem_.remove(item);
+            if (keys != null) {
+                for (String key : keys) {
+                    remove(find(key, hash(key)));
+                }
+            }
+            return;
+        }
+        String prefix = normalize(item.getPath());
+        for (Entry entry = eldest_; entry != null; entry = entry.after_) {
+            if (entry.key_.startsWith(prefix)
+                    || isInside(entry.item_, (Directory) item)) {
+                forgetKey(entry.item_, entry.key_);
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Drops every cached path.
+     */
+    public void clear() {
+        Arrays.fill(table_, null);
+        eldest_ = null;
+        newest_ = null;
+        size_ = 0;
+        keysByItem_.clear();
+    }
+
+    /**
+     * Adding an item never changes what an already cached path resolves to,
+     * since only paths that resolved to an item are cached. An item that
+     * replaces another one is reported as a removal first.
+     *
+     * @param parent the Directory the item was added to.
+     * @param item the JShellItem that was added.
+     */
+    @Override
+    public void itemAdded(Directory parent, JShellItem item) {
+    }
+
+    /**
+     * Drops the cached paths made stale by removing item from parent.
+     *
+     * @param parent the Directory the item was removed from.
+     * @param item the JShellItem that was removed.
+     */
+    @Override
+    public void itemRemoved(Directory parent, JShellItem item) {
+        invalidate(item);
+    }
+
+    /**
+     * Return the number of lookups answered from the cache.
+     *
+     * @return the hit count.
+     */
+    public long getHitCount() {
+        return hits_;
+    }
+
+    /**
+     * Return the number of lookups that were not in the cache.
+     *
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return misses_;
+    }
+
+    /**
+     * Return the number of paths evicted to respect the capacity.
+     *
+     * @return the eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions_;
+    }
+
+    /**
+     * Return the number of paths currently cached.
+     *
+     * @return the size of the cache.
+     */
+    public int size() {
+        return size_;
+    }
+
+    /**
+     * Return the maximum number of paths kept in the cache.
+     *
+     * @return the capacity of the cache.
+     */
+    public int getCapacity() {
+        return capacity_;
+    }
+
+    /**
+     * Returns path in the form used for cache keys: lower case, ending with
+     * a forward slash.
+     *
+     * @param path an absolute path.
+     * @return the normalized path.
+     */
+    public static String normalize(String path) {
+        path = ChildIndex.fold(path);
+        return path.endsWith("/") ? path : path + "/";
+    }
+
+    /*
+     * Removes key from the list of keys cached for item.
+     */
+    private void forgetKey(JShellItem item, String key) {
+        List<String> keys = keysByItem_.get(item);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysByItem_.remove(item);
+            }
+        }
+    }
+
+    /*
+     * Checks whether item is ancestor or is found beneath it.
+     */
+    private static boolean isInside(JShellItem item, Directory ancestor) {
+        while (item != null) {
+            if (item.equals(ancestor)) {
+                return true;
+            }
+            Directory parent = item.getParentDirectory();
+            if (parent == null || parent.equals(item)) {
+                return false;
+            }
+            item = parent;
+        }
+        return false;
+    }
+
+    /*
+     * Returns the entry whose key holds the characters of key, whose hash
+     * is hash, or null.
+     */
+    private Entry find(CharSequence key, int hash) {
+        int mask = table_.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            Entry entry = table_[slot];
+            if (entry == null) {
+                return null;
+            }
+            if (entry.hash_ == hash && matches(entry.key_, key)) {
+                return entry;
+            }
+        }
+    }
+
+    /*
+     * Adds entry to the table as the most recently used one.
+     */
+    private void insert(Entry entry) {
+        if (2 * (size_ + 1) > table_.length) {
+            Entry[] old = table_;
+            table_ = new Entry[old.length * 2];
+            for (Entry moved : old) {
+                if (moved != null) {
+                    insertSlot(moved);
+                }
+            }
+        }
+        insertSlot(entry);
+        entry.before_ = newest_;
+        if (newest_ == null) {
+            eldest_ = entry;
+        } else {
+            newest_.after_ = entry;
+        }
+        newest_ = entry;
+        size_++;
+    }
+
+    /*
+     * Puts entry in the first free slot of its probe sequence.
+     */
+    private void insertSlot(Entry entry) {
+        int mask = table_.length - 1;
+        int slot = entry.hash_ & mask;
+        while (table_[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        table_[slot] = entry;
+    }
+
+    /*
+     * Removes entry, which may be null, from the table and the chain,
+     * shifting back the entries of its probe sequence so that no tombstone
+     * is needed. The chain links of entry are kept, so a walk of the chain
+     * can go on past it.
+     */
+    private void remove(Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        int mask = table_.length - 1;
+        int slot = entry.hash_ & mask;
+        while (table_[slot] != entry) {
+            slot = (slot + 1) & mask;
+        }
+        table_[slot] = null;
+        for (int next = (slot + 1) & mask; table_[next] != null;
+                next = (next + 1) & mask) {
+            int ideal = table_[next].hash_ & mask;
+            if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+                table_[slot] = table_[next];
+                table_[next] = null;
+                slot = next;
+            }
+        }
+        unlink(entry);
+        size_--;
+    }
+
+    /*
+     * Makes entry the most recently used one.
+     */
+    private void touch(Entry entry) {
+        if (entry != newest_) {
+            unlink(entry);
+            entry.before_ = newest_;
+            entry.after_ = null;
+            newest_.after_ = entry;
+            newest_ = entry;
+        }
+    }
+
+    /*
+     * Takes entry out of the chain.
+     */
+    private void unlink(Entry entry) {
+        if (entry.before_ == null) {
+            eldest_ = entry.after_;
+        } else {
+            entry.before_.after_ = entry.after_;
+        }
+        if (entry.after_ == null) {
+            newest_ = entry.before_;
+        } else {
+            entry.after_.before_ = entry.before_;
+        }
+    }
+
+    /*
+     * Spreads the bits of the hash code that String would give the
+     * characters of key over the table.
+     */
+    private static int hash(CharSequence key) {
+        int h;
+        if (key instanceof Key) {
+            h = ((Key) key).hash_;
+        } else if (key instanceof String) {
+            h = key.hashCode();
+        } else {
+            h = 0;
+            for (int i = 0; i < key.length(); i++) {
+                h = 31 * h + key.charAt(i);
+            }
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /*
+     * Checks whether key holds the characters of path.
+     */
+    private static boolean matches(String key, CharSequence path) {
+        if (key.length() != path.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != path.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * A cached path, with what it resolves to and its neighbours in the
+     * order of use.
+     */
+    private static final class Entry {
+        private final String key_;
+        private final int hash_;
+        private JShellItem item_;
+        private Entry before_;
+        private Entry after_;
+
+        Entry(String key, int hash, JShellItem item) {
+            key_ = key;
+            hash_ = hash;
+            item_ = item;
+        }
+    }
+
+    /**
+     * A reusable cache key that is built one character at a time, so a path
+     * can be looked up without allocating its key. A Key is only a way to
+     * look a path up; it is compared by the characters it holds by the
+     * cache itself, not through equals.
+     */
+    public static final class Key implements CharSequence {
+        /*
+         * The characters of the key.
+         */
+        private char[] chars_ = new char[64];
+        /*
+         * The number of characters in the key.
+         */
+        private int length_;
+        /*
+         * The hash code of the key, computed as String.hashCode would.
+         */
+        private int hash_;
+
+        /**
+         * Empties the key.
+         *
+         * @return this Key.
+         */
+        public Key clear() {
+            length_ = 0;
+            hash_ = 0;
+            return this;
+        }
+
+        /**
+         * Appends c to the key.
+         *
+         * @param c a character already in lower case.
+         * @return this Key.
+         */
+        public Key append(char c) {
+            if (length_ == chars_.length) {
+                chars_ = Arrays.copyOf(chars_, length_ * 2);
+            }
+            chars_[length_++] = c;
+            hash_ = 31 * hash_ + c;
+            return this;
+        }
+
+        /**
+         * Appends the characters of s between start and end, folded to
+         * lower case.
+         *
+         * @param s a String holding the characters.
+         * @param start the index of the first character.
+         * @param end the index after the last character.
+         * @return this Key.
+         */
+        public Key append(String s, int start, int end) {
+            for (int i = start; i < end; i++) {
+                append(Character.toLowerCase(s.charAt(i)));
+            }
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length_;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars_[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars_, 0, length_);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package jshell;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The connection between two commands of a pipeline: the output the first
+ * writes to {@link #getSink()} is read by the second, line by line or
+ * piece by piece, as it is written. At most CAPACITY pieces are held, so a
+ * writer that gets ahead waits for the reader, and the output of a command
+ * is never held whole. Small writes are gathered into pieces of up to
+ * CHUNK characters, unless the reader is waiting for them.
+ *
+ * Once the reader closes the pipe, because it needs no more input, the
+ * writer fails with a BrokenPipeException the next time it writes.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class Pipe {
+    /*
+     * The number of pieces held at most.
+     */
+    private static final int CAPACITY = 64;
+    /*
+     * The number of characters small writes are gathered into.
+     */
+    private static final int CHUNK = 4096;
+    /*
+     * Marks the end of the output. Compared by identity.
+     */
+    private static final CharSequence END = new StringBuilder(0);
+
+    /*
+     * The pieces written and not yet read.
+     */
+    private final BlockingQueue<CharSequence> queue_ =
+            new ArrayBlockingQueue<CharSequence>(CAPACITY);
+    /*
+     * The writing end.
+     */
+    private final Sink sink_ = new Sink();
+    /*
+     * Set once the reader closed the pipe.
+     */
+    private volatile boolean closed_;
+    /*
+     * Set once the reader reached the end of the output.
+     */
+    private boolean ended_;
+    /*
+     * The piece being read, or null.
+     */
+    private CharSequence piece_;
+    /*
+     * The index of the next character of piece_ to read.
+     */
+    private int pos_;
+
+    /**
+     * Return the sink the writing command writes to. Closing it ends the
+     * output.
+     *
+     * @return the OutputSink of the pipe.
+     */
+    public OutputSink getSink() {
+        return sink_;
+    }
+
+    /**
+     * Returns the next line written, without its line break, waiting for
+     * it if needed. A final line break does not start another line.
+     *
+     * @return the line, or null at the end of the output.
+     * @throws IOException if the thread is interrupted.
+     */
+    public String readLine() throws IOException {
+        StringBuilder line = null;
+        while (true) {
+            if (piece_ == null || pos_ == piece_.length()) {
+                piece_ = read();
+                pos_ = 0;
+                if (piece_ == null) {
+                    return line == null ? null : line.toString();
+                }
+                continue;
+            }
+            if (line == null) {
+                line = new StringBuilder();
+            }
+            int length = piece_.length();
+            int end = pos_;
+            while (end < length && piece_.charAt(end) != '\n') {
+                end++;
+            }
+            line.append(piece_, pos_, end);
+            if (end < length) {
+                pos_ = end + 1;
+                return line.toString();
+            }
+            pos_ = end;
+        }
+    }
+
+    /**
+     * Returns the next piece written, waiting for it if needed. Mixing
+     * this with readLine is not supported.
+     *
+     * @return the piece, or null at the end of the output.
+     * @throws IOException if the thread is interrupted.
+     */
+    public CharSequence read() throws IOException {
+        if (ended_) {
+            return null;
+        }
+        try {
+            CharSequence piece = queue_.take();
+            if (piece == END) {
+                ended_ = true;
+                return null;
+            }
+            return piece;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("pipe read interrupted");
+        }
+    }
+
+    /**
+     * Stops reading: the pieces held are dropped and the writer fails on
+     * its next write.
+     */
+    public void close() {
+        closed_ = true;
+        queue_.clear();
+    }
+
+    /*
+     * Hands piece to the reader, waiting for room.
+     */
+    private void put(CharSequence piece) throws IOException {
+        if (closed_) {
+            throw new BrokenPipeException();
+        }
+        try {
+            queue_.put(piece);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("pipe write interrupted");
+        }
+    }
+
+    /**
+     * Thrown to the writer of a pipe the reader has closed.
+     */
+    @SuppressWarnings("serial")
+    public static class BrokenPipeException extends IOException {
+
+        /**
+         * Creates the exception.
+         */
+        public BrokenPipeException() {
+            super("Broken pipe");
+        }
+    }
+
+    /*
+     * The writing end, gathering small writes.
+     */
+    private final class Sink extends OutputSink {
+        private final StringBuilder buffer_ = new StringBuilder();
+        private boolean closed_;
+
+        @Override
+        protected void write(CharSequence text) throws IOException {
+            if (text.length() >= CHUNK) {
+                flush();
+                put(text);
+                return;
+            }
+            buffer_.append(text);
+            if (buffer_.length() >= CHUNK || queue_.isEmpty()) {
+                flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed_) {
+                return;
+            }
+            closed_ = true;
+            try {
+                flush();
+            } finally {
+                // The reader must see the end even if it stopped reading.
+                if (!Pipe.this.closed_) {
+                    put(END);
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            if (buffer_.length() > 0) {
+                String piece = buffer_.toString();
+                buffer_.setLength(0);
+                put(piece);
+            }
+        }
+    }
+}
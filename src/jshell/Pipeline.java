@@ -0,0 +1,206 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the commands of a command line joined by '|', such as
+ * "find / *.log | grep ERROR", each on its own thread and in its own
+ * session, so that each command reads the output of the one before through
+ * a Pipe while that one is still writing it. A command that redirects its
+ * output to a File leaves nothing for the next one to read. When a command
+ * stops reading early, as head does, the commands before it stop at their
+ * next write.
+ *
+ * The session of each command is made when the pipeline is, so a pipeline
+ * run later as a background job keeps the directory it was started in.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class Pipeline {
+    /*
+     * The commands, in order.
+     */
+    private final List<CommandLine.Invocation> stages_;
+    /*
+     * The session running each command.
+     */
+    private final List<JShell> sessions_;
+    /*
+     * Where the last command writes when it is not redirected, or null for
+     * the console.
+     */
+    private OutputSink output_;
+    /*
+     * The errors of the commands, when they are not printed.
+     */
+    private final List<String> errors_ =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Creates the pipeline of the commands of line, given to shell.
+     *
+     * @param shell the session running the command line.
+     * @param line the parsed command line.
+     */
+    public Pipeline(JShell shell, CommandLine line) {
+        stages_ = line.getCommands();
+        sessions_ = new ArrayList<JShell>(stages_.size());
+        for (CommandLine.Invocation command : stages_) {
+            JShell session = shell.fork(command.getOptions());
+            session.setRedirection(command);
+            sessions_.add(session);
+        }
+    }
+
+    /**
+     * Sends the output of the last command, unless it is redirected, to
+     * out instead of the console, and keeps the errors of the commands
+     * instead of printing them. out is not closed.
+     *
+     * @param out where the last command writes.
+     */
+    public void setOutput(OutputSink out) {
+        output_ = out;
+    }
+
+    /**
+     * Return the errors of the commands, if they were not printed.
+     *
+     * @return the error messages, in the order they happened.
+     */
+    public List<String> getErrors() {
+        synchronized (errors_) {
+            return new ArrayList<String>(errors_);
+        }
+    }
+
+    /**
+     * Runs the commands and waits for all of them to finish. The errors of
+     * each command are printed, unless the output was set. If the waiting
+     * thread is interrupted, the commands are interrupted too, and waited
+     * for again, so no command is left running once run returns.
+     *
+     * @return true if every command ran without an error.
+     * @throws InterruptedException if the thread is interrupted while
+     * waiting.
+     */
+    public boolean run() throws InterruptedException {
+        int count = stages_.size();
+        List<Thread> threads = new ArrayList<Thread>(count);
+        List<Stage> stages = new ArrayList<Stage>(count);
+        Pipe input = null;
+        for (int i = 0; i < count; i++) {
+            CommandLine.Invocation command = stages_.get(i);
+            Pipe output = i < count - 1 ? new Pipe() : null;
+            Stage stage = new Stage(sessions_.get(i), command, input, output);
+            stages.add(stage);
+            threads.add(new Thread(stage,
+                    "pipe-" + i + "-" + command.getName()));
+            input = output;
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            joinAll(threads);
+            throw e;
+        }
+        boolean succeeded = true;
+        for (Stage stage : stages) {
+            succeeded &= !stage.failed_;
+        }
+        return succeeded;
+    }
+
+    /*
+     * Waits for threads to end, going on waiting if interrupted again.
+     */
+    private static void joinAll(List<Thread> threads) {
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    // The thread was interrupted already; it ends at its
+                    // next wait or write.
+                }
+            }
+        }
+    }
+
+    /*
+     * One command of the pipeline.
+     */
+    private final class Stage implements Runnable {
+        private final JShell session_;
+        private final CommandLine.Invocation command_;
+        private final Pipe input_;
+        private final Pipe next_;
+        private volatile boolean failed_;
+
+        Stage(JShell session, CommandLine.Invocation command, Pipe input,
+                Pipe next) {
+            session_ = session;
+            command_ = command;
+            input_ = input;
+            next_ = next;
+        }
+
+        @Override
+        public void run() {
+            session_.setInput(input_);
+            boolean redirected = command_.getRedirection() != null;
+            OutputSink out;
+            if (redirected) {
+                out = session_.openSink();
+            } else if (next_ != null) {
+                out = next_.getSink();
+            } else {
+                out = output_ != null ? output_ : session_.openSink();
+            }
+            try {
+                try {
+                    session_.executeCommand(command_, out);
+                } finally {
+                    try {
+                        if (out != output_) {
+                            out.close();
+                        }
+                    } finally {
+                        // The next command reads nothing, even if writing
+                        // the redirected File failed.
+                        if (next_ != null && redirected) {
+                            next_.getSink().close();
+                        }
+                    }
+                }
+            } catch (Pipe.BrokenPipeException e) {
+                // The next command needs no more output.
+            } catch (Exception e) {
+                failed_ = true;
+                if (output_ == null) {
+                    session_.getOutput().println(e.getMessage());
+                } else {
+                    errors_.add(e.getMessage());
+                }
+            } finally {
+                // The previous command stops at its next write.
+                if (input_ != null) {
+                    input_.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package jshell;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A point-in-time view of a FileSystem, opened with
+ * {@link FileSystem#openSnapshot()}.
+ *
+ * While a snapshot is open, the first change made to a Directory or a File
+ * after the snapshot was opened saves its previous state, so the snapshot
+ * keeps seeing the tree exactly as it was, however long it is read for.
+ * Reading a snapshot only holds the read lock of the FileSystem for the
+ * duration of each call, so writers are never held up by a long walk.
+ * Saved states are dropped once no open snapshot needs them.
+ *
+ * A snapshot of an InodeTable, whose flyweights keep no saved states, holds
+ * the read lock of the FileSystem until it is closed instead.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class Snapshot implements Closeable {
+    /*
+     * The FileSystem this is a view of.
+     */
+    private final FileSystem fileSystem_;
+    /*
+     * The clock of the FileSystem when the snapshot was opened. States
+     * stamped after it are not visible.
+     */
+    private final long epoch_;
+    /*
+     * The change count of the FileSystem when the snapshot was opened.
+     */
+    private final long changeCount_;
+    /*
+     * The read lock held for the life of the snapshot, or null if the read
+     * lock is only taken by each call.
+     */
+    private Lock pinned_;
+    /*
+     * Set once the snapshot is closed.
+     */
+    private boolean closed_;
+
+    /**
+     * Creates a snapshot of fileSystem at epoch. Use
+     * FileSystem.openSnapshot.
+     *
+     * @param fileSystem the FileSystem.
+     * @param epoch the clock of fileSystem when opened.
+     * @param changeCount the change count of fileSystem when opened.
+     * @param pinned the read lock already held for the life of the
+     * snapshot, or null.
+     */
+    Snapshot(FileSystem fileSystem, long epoch, long changeCount,
+            Lock pinned) {
+        fileSystem_ = fileSystem;
+        epoch_ = epoch;
+        changeCount_ = changeCount;
+        pinned_ = pinned;
+    }
+
+    /**
+     * Return the clock value of the FileSystem when the snapshot was opened.
+     *
+     * @return the epoch of the snapshot.
+     */
+    public long getEpoch() {
+        return epoch_;
+    }
+
+    /**
+     * Return the change count of the FileSystem when the snapshot was
+     * opened.
+     *
+     * @return the change count of the snapshot.
+     */
+    public long getChangeCount() {
+        return changeCount_;
+    }
+
+    /**
+     * Returns the items directly inside dir as they were when the snapshot
+     * was opened. A DirectoryAlias lists the Directory it points to.
+     *
+     * @param dir a JShellItem.
+     * @return the children of dir, empty if dir is not a Directory.
+     */
+    public Children getChildren(JShellItem dir) {
+        if (dir instanceof DirectoryAlias) {
+            Directory pointer = ((DirectoryAlias) dir).getPointer();
+            return dir.isChildOf(pointer) ? Children.EMPTY
+                    : getChildren(pointer);
+        }
+        if (!(dir instanceof Directory)) {
+            return Children.EMPTY;
+        }
+        return (Children) stateOf(dir);
+    }
+
+    /**
+     * Returns the child of dir whose name matches, ignoring case, the
+     * characters of name between start and end, as it was when the
+     * snapshot was opened.
+     *
+     * @param dir a Directory.
+     * @param name a String holding the name, such as a path.
+     * @param start the index of the first character of the name.
+     * @param end the index after the last character of the name.
+     * @return the matching JShellItem, or null if there is none.
+     */
+    public JShellItem getItem(Directory dir, String name, int start,
+            int end) {
+        if (dir instanceof DirectoryAlias) {
+            Directory pointer = ((DirectoryAlias) dir).getPointer();
+            return dir.isChildOf(pointer) ? null
+                    : getItem(pointer, name, start, end);
+        }
+        if (closed_) {
+            throw new IllegalStateException("The snapshot is closed.");
+        }
+        if (pinned_ != null) {
+            return dir.getItem(name, start, end);
+        }
+        // A Directory unchanged since the snapshot was opened is looked up
+        // in its own index rather than copied and scanned.
+        Lock lock = fileSystem_.readLock();
+        lock.lock();
+        try {
+            if (dir.getVersionStamp() <= epoch_) {
+                return dir.getItem(name, start, end);
+            }
+        } finally {
+            lock.unlock();
+        }
+        Children children = getChildren(dir);
+        for (int i = 0; i < children.size(); i++) {
+            if (sameName(children.getName(i), name, start, end)) {
+                return children.getItem(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the content of the File item, or of the File it points to,
+     * as it was when the snapshot was opened.
+     *
+     * @param item a JShellItem.
+     * @return the content of item, or an error message if it is not a File.
+     */
+    public String getContent(JShellItem item) {
+        if (item instanceof FileAlias) {
+            return getContent(((FileAlias) item).getPointer());
+        }
+        if (!(item instanceof File)) {
+            return item.getContent();
+        }
+        ((File) item).markRead();
+        Object content = stateOf(item);
+        return content == null ? null : content.toString();
+    }
+
+    /**
+     * Returns the content of the File item, or of the File it points to,
+     * as it was when the snapshot was opened, without copying content kept
+     * in chunks or in a ContentStore.
+     *
+     * @param item a File.
+     * @return the content of item.
+     */
+    public CharSequence getContentView(JShellItem item) {
+        if (item instanceof FileAlias) {
+            return getContentView(((FileAlias) item).getPointer());
+        }
+        ((File) item).markRead();
+        CharSequence content = (CharSequence) stateOf(item);
+        if (content instanceof CompressedContent) {
+            return content.toString();
+        }
+        return content;
+    }
+
+    /**
+     * Returns the offsets of the lines of the File item, or of the File it
+     * points to, as it was when the snapshot was opened. The index kept by
+     * the File is used if its content has not changed since.
+     *
+     * @param item a File.
+     * @return the LineIndex of the content of item.
+     */
+    public LineIndex getLineIndex(JShellItem item) {
+        if (item instanceof FileAlias) {
+            return getLineIndex(((FileAlias) item).getPointer());
+        }
+        CharSequence state = (CharSequence) stateOf(item);
+        LineIndex index = ((File) item).getLineIndex();
+        if (index.getSource() == state) {
+            return index;
+        }
+        CharSequence text = state instanceof CompressedContent
+                ? state.toString() : state;
+        return new LineIndex(state, text == null ? "" : text);
+    }
+
+    /**
+     * Return the number of children of item, like JShellItem.getSize, as it
+     * was when the snapshot was opened.
+     *
+     * @param item a JShellItem.
+     * @return the number of children, or -1 if item is not a Directory.
+     */
+    public int getSize(JShellItem item) {
+        return item instanceof Directory ? getChildren(item).size() : -1;
+    }
+
+    /**
+     * Checks whether the snapshot has been closed.
+     *
+     * @return True once close has been called.
+     */
+    public boolean isClosed() {
+        return closed_;
+    }
+
+    /**
+     * Releases the snapshot so the states saved for it can be dropped.
+     */
+    @Override
+    public void close() {
+        if (closed_) {
+            return;
+        }
+        closed_ = true;
+        if (pinned_ != null) {
+            pinned_.unlock();
+            pinned_ = null;
+        }
+        fileSystem_.release(this);
+    }
+
+    /*
+     * Returns the state of item at the epoch of the snapshot.
+     */
+    private Object stateOf(JShellItem item) {
+        if (closed_) {
+            throw new IllegalStateException("The snapshot is closed.");
+        }
+        if (pinned_ != null) {
+            return item.captureState();
+        }
+        Lock lock = fileSystem_.readLock();
+        lock.lock();
+        try {
+            if (item.getVersionStamp() > epoch_) {
+                for (Version version = item.getVersions(); version != null;
+                        version = version.next_) {
+                    if (version.from_ <= epoch_) {
+                        return version.state_;
+                    }
+                }
+            }
+            return item.captureState();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Checks whether key equals the characters of name between start and
+     * end, ignoring case as Directory does.
+     */
+    private static boolean sameName(String key, String name, int start,
+            int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (Character.toLowerCase(key.charAt(i))
+                    != Character.toLowerCase(name.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The names and items directly inside a Directory, in the order they
+     * were added. Immutable.
+     */
+    public static final class Children {
+        /**
+         * A Directory without children.
+         */
+        public static final Children EMPTY =
+                new Children(new String[0], new JShellItem[0]);
+        /*
+         * The names of the children at the time they were captured.
+         */
+        private final String[] names_;
+        /*
+         * The children.
+         */
+        private final JShellItem[] items_;
+
+        Children(String[] names, JShellItem[] items) {
+            names_ = names;
+            items_ = items;
+        }
+
+        /**
+         * Returns the current children of a live Directory, as returned by
+         * its getContents method.
+         *
+         * @param contents the contents of a Directory.
+         * @return the names and items of contents.
+         */
+        public static Children of(Map<String, JShellItem> contents) {
+            List<JShellItem> items =
+                    new ArrayList<JShellItem>(contents.values());
+            String[] names = new String[items.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = items.get(i).getName();
+            }
+            return new Children(names,
+                    items.toArray(new JShellItem[items.size()]));
+        }
+
+        /**
+         * Return the number of children.
+         *
+         * @return the number of children.
+         */
+        public int size() {
+            return items_.length;
+        }
+
+        /**
+         * Return the name of child number index.
+         *
+         * @param index the position of the child.
+         * @return its name.
+         */
+        public String getName(int index) {
+            return names_[index];
+        }
+
+        /**
+         * Return child number index.
+         *
+         * @param index the position of the child.
+         * @return the JShellItem.
+         */
+        public JShellItem getItem(int index) {
+            return items_[index];
+        }
+    }
+
+    /**
+     * A saved state of a JShellItem: the Children of a Directory or the
+     * content of a File, and the clock values between which it was current.
+     * Versions of an item are chained from newest to oldest.
+     */
+    static final class Version {
+        /*
+         * The clock value when this state became current.
+         */
+        final long from_;
+        /*
+         * The clock value when this state was replaced.
+         */
+        final long to_;
+        /*
+         * The Children or content String.
+         */
+        final Object state_;
+        /*
+         * The next older version, or null.
+         */
+        final Version next_;
+
+        Version(long from, long to, Object state, Version next) {
+            from_ = from;
+            to_ = to;
+            state_ = state;
+            next_ = next;
+        }
+    }
+}
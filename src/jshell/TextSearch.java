@@ -0,0 +1,400 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the patterns of grep in text. {@link #compile(List, boolean)}
+ * picks the search suited to the patterns: Boyer-Moore-Horspool for one
+ * literal, Aho-Corasick for several, and java.util.regex for anything with
+ * regex syntax, where ^ and $ match at line breaks. Compiled searches are
+ * kept in a small cache, so running grep again with the same patterns does
+ * not compile them again.
+ *
+ * A TextSearch remembers the last match and, for regexes, holds a Matcher,
+ * so it must only be used by one thread at a time; {@link #copy()} returns
+ * another search sharing the compiled tables.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public abstract class TextSearch {
+    /*
+     * The number of compiled searches kept.
+     */
+    private static final int CACHE_SIZE = 64;
+    /*
+     * The characters that make a pattern a regex.
+     */
+    private static final String REGEX_CHARS = ".[]{}()\\*+?^$|";
+
+    /*
+     * The compiled searches, least recently used first, guarded by itself.
+     */
+    @SuppressWarnings("serial")
+    private static final Map<String, TextSearch> CACHE =
+            new LinkedHashMap<String, TextSearch>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, TextSearch> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    /*
+     * The number of compile calls served from the cache, guarded by CACHE.
+     */
+    private static long cacheHits_;
+
+    /*
+     * The end of the last match found.
+     */
+    private int end_;
+
+    /**
+     * Returns a search for lines containing any of patterns, from the cache
+     * if it was compiled before.
+     *
+     * @param patterns the patterns, at least one.
+     * @param fixed true to take every pattern literally, as grep -F does.
+     * @return a new search, for the calling thread.
+     */
+    public static TextSearch compile(List<String> patterns, boolean fixed) {
+        StringBuilder key = new StringBuilder(fixed ? "F" : "R");
+        for (String pattern : patterns) {
+            key.append('\u0000').append(pattern);
+        }
+        TextSearch search;
+        synchronized (CACHE) {
+            search = CACHE.get(key.toString());
+            if (search != null) {
+                cacheHits_++;
+                return search.copy();
+            }
+        }
+        boolean literal = true;
+        for (String pattern : patterns) {
+            literal &= fixed || !isRegex(pattern);
+        }
+        if (literal && patterns.size() == 1) {
+            search = new Literal(patterns.get(0));
+        } else if (literal) {
+            search = new MultiLiteral(new Automaton(patterns));
+        } else {
+            StringBuilder regex = new StringBuilder();
+            for (String pattern : patterns) {
+                if (regex.length() > 0) {
+                    regex.append('|');
+                }
+                regex.append("(?:").append(pattern).append(')');
+            }
+            search = new Regex(Pattern.compile(regex.toString(),
+                    Pattern.MULTILINE));
+        }
+        synchronized (CACHE) {
+            CACHE.put(key.toString(), search);
+        }
+        return search.copy();
+    }
+
+    /**
+     * Return the number of compile calls served from the cache.
+     *
+     * @return the number of cache hits.
+     */
+    public static long getCacheHitCount() {
+        synchronized (CACHE) {
+            return cacheHits_;
+        }
+    }
+
+    /**
+     * Returns the start of the first match lying wholly between from and
+     * to, or -1. For several literals, the first match to end is found.
+     *
+     * @param text the text to search.
+     * @param from the index to search from.
+     * @param to the index the match must end by.
+     * @return the start of the match, or -1 if there is none.
+     */
+    public abstract int find(CharSequence text, int from, int to);
+
+    /**
+     * Return the end of the last match found.
+     *
+     * @return the index after the last match.
+     */
+    public int end() {
+        return end_;
+    }
+
+    /**
+     * Returns a search for the same patterns, sharing the compiled tables,
+     * for another thread.
+     *
+     * @return a copy of this search.
+     */
+    public abstract TextSearch copy();
+
+    /*
+     * Records the match from start to end and returns start.
+     */
+    int found(int start, int end) {
+        end_ = end;
+        return start;
+    }
+
+    /*
+     * Checks whether pattern uses regex syntax.
+     */
+    private static boolean isRegex(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if (REGEX_CHARS.indexOf(pattern.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds one literal with the Boyer-Moore-Horspool algorithm: the
+     * pattern is compared from its last character, and a mismatch shifts
+     * it by the distance from that character's last occurrence to the end.
+     * Characters are hashed to their low byte, and colliding characters
+     * share the smallest shift, so the search never skips a match.
+     */
+    static final class Literal extends TextSearch {
+        private final String pattern_;
+        private final int[] shift_;
+
+        Literal(String pattern) {
+            pattern_ = pattern;
+            int length = pattern.length();
+            shift_ = new int[256];
+            Arrays.fill(shift_, Math.max(1, length));
+            for (int i = 0; i < length - 1; i++) {
+                shift_[pattern.charAt(i) & 0xFF] = length - 1 - i;
+            }
+        }
+
+        private Literal(Literal other) {
+            pattern_ = other.pattern_;
+            shift_ = other.shift_;
+        }
+
+        @Override
+        public int find(CharSequence text, int from, int to) {
+            int length = pattern_.length();
+            if (length == 0) {
+                return from <= to ? found(from, from) : -1;
+            }
+            int last = length - 1;
+            char lastChar = pattern_.charAt(last);
+            for (int i = from; i <= to - length;) {
+                char c = text.charAt(i + last);
+                if (c == lastChar) {
+                    int j = last - 1;
+                    while (j >= 0 && text.charAt(i + j) == pattern_.charAt(j)) {
+                        j--;
+                    }
+                    if (j < 0) {
+                        return found(i, i + length);
+                    }
+                }
+                i += shift_[c & 0xFF];
+            }
+            return -1;
+        }
+
+        @Override
+        public TextSearch copy() {
+            return new Literal(this);
+        }
+    }
+
+    /**
+     * Finds any of several literals in one pass with an Aho-Corasick
+     * automaton.
+     */
+    static final class MultiLiteral extends TextSearch {
+        private final Automaton automaton_;
+
+        MultiLiteral(Automaton automaton) {
+            automaton_ = automaton;
+        }
+
+        @Override
+        public int find(CharSequence text, int from, int to) {
+            Automaton a = automaton_;
+            if (a.output_[0] >= 0) {
+                // An empty pattern matches anywhere.
+                return from <= to ? found(from, from) : -1;
+            }
+            int state = 0;
+            for (int i = from; i < to; i++) {
+                char c = text.charAt(i);
+                int next = a.next(state, c);
+                while (next < 0 && state != 0) {
+                    state = a.fail_[state];
+                    next = a.next(state, c);
+                }
+                state = next < 0 ? 0 : next;
+                if (a.output_[state] >= 0) {
+                    return found(i + 1 - a.output_[state], i + 1);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public TextSearch copy() {
+            return new MultiLiteral(automaton_);
+        }
+    }
+
+    /**
+     * Finds a regex with java.util.regex, searching only the region asked
+     * for.
+     */
+    static final class Regex extends TextSearch {
+        private final Pattern pattern_;
+        private Matcher matcher_;
+        private CharSequence text_;
+
+        Regex(Pattern pattern) {
+            pattern_ = pattern;
+        }
+
+        @Override
+        public int find(CharSequence text, int from, int to) {
+            if (matcher_ == null || text != text_) {
+                matcher_ = pattern_.matcher(text);
+                text_ = text;
+            }
+            matcher_.region(from, to);
+            return matcher_.find() ? found(matcher_.start(), matcher_.end())
+                    : -1;
+        }
+
+        @Override
+        public TextSearch copy() {
+            return new Regex(pattern_);
+        }
+    }
+
+    /**
+     * The trie of several literals with its failure links. State 0 is the
+     * root; the children of each state are kept sorted by character.
+     */
+    static final class Automaton {
+        /*
+         * The characters leading out of each state, sorted.
+         */
+        private final char[][] keys_;
+        /*
+         * The state each of those characters leads to.
+         */
+        private final int[][] next_;
+        /*
+         * The state to fall back to on a mismatch.
+         */
+        private final int[] fail_;
+        /*
+         * The length of the shortest pattern ending at each state, or -1.
+         */
+        private final int[] output_;
+
+        Automaton(List<String> patterns) {
+            List<StringBuilder> keys = new ArrayList<StringBuilder>();
+            List<List<Integer>> next = new ArrayList<List<Integer>>();
+            List<Integer> output = new ArrayList<Integer>();
+            keys.add(new StringBuilder());
+            next.add(new ArrayList<Integer>());
+            output.add(-1);
+            for (String pattern : patterns) {
+                int state = 0;
+                for (int i = 0; i < pattern.length(); i++) {
+                    char c = pattern.charAt(i);
+                    int at = keys.get(state).indexOf(String.valueOf(c));
+                    if (at >= 0) {
+                        state = next.get(state).get(at);
+                    } else {
+                        keys.get(state).append(c);
+                        next.get(state).add(keys.size());
+                        state = keys.size();
+                        keys.add(new StringBuilder());
+                        next.add(new ArrayList<Integer>());
+                        output.add(-1);
+                    }
+                }
+                int old = output.get(state);
+                output.set(state, old < 0 ? pattern.length()
+                        : Math.min(old, pattern.length()));
+            }
+            int states = keys.size();
+            keys_ = new char[states][];
+            next_ = new int[states][];
+            output_ = new int[states];
+            for (int s = 0; s < states; s++) {
+                // Each character is sorted together with its state.
+                StringBuilder chars = keys.get(s);
+                long[] edges = new long[chars.length()];
+                for (int i = 0; i < edges.length; i++) {
+                    edges[i] = ((long) chars.charAt(i) << 32)
+                            | next.get(s).get(i);
+                }
+                Arrays.sort(edges);
+                keys_[s] = new char[edges.length];
+                next_[s] = new int[edges.length];
+                for (int i = 0; i < edges.length; i++) {
+                    keys_[s][i] = (char) (edges[i] >>> 32);
+                    next_[s][i] = (int) edges[i];
+                }
+                output_[s] = output.get(s);
+            }
+            // The failure links are set breadth first, so the link of each
+            // state is known before its children are reached.
+            fail_ = new int[states];
+            int[] queue = new int[states];
+            int head = 0;
+            int tail = 0;
+            for (int child : next_[0]) {
+                queue[tail++] = child;
+            }
+            while (head < tail) {
+                int s = queue[head++];
+                for (int i = 0; i < keys_[s].length; i++) {
+                    char c = keys_[s][i];
+                    int child = next_[s][i];
+                    int f = fail_[s];
+                    int target = next(f, c);
+                    while (target < 0 && f != 0) {
+                        f = fail_[f];
+                        target = next(f, c);
+                    }
+                    fail_[child] = target < 0 || target == child ? 0 : target;
+                    int inherited = output_[fail_[child]];
+                    if (inherited >= 0 && (output_[child] < 0
+                            || inherited < output_[child])) {
+                        output_[child] = inherited;
+                    }
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        /*
+         * Returns the state c leads to from state, or -1.
+         */
+        int next(int state, char c) {
+            int at = Arrays.binarySearch(keys_[state], c);
+            return at >= 0 ? next_[state][at] : -1;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package jshell;
+
+/**
+ * An object that is notified whenever a JShellItem is added to or removed
+ * from a Directory tree. A listener is registered on the root Directory of
+ * the tree and receives the changes made anywhere beneath it.
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public interface TreeListener {
+
+    /**
+     * Called after item has been added to parent.
+     *
+     * @param parent the Directory the item was added to.
+     * @param item the JShellItem that was added.
+     */
+    void itemAdded(Directory parent, JShellItem item);
+
+    /**
+     * Called after item has been removed from parent.
+     *
+     * @param parent the Directory the item was removed from.
+     * @param item the JShellItem that was removed.
+     */
+    void itemRemoved(Directory parent, JShellItem item);
+}
@@ -0,0 +1,315 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Walks the tree beneath a JShellItem one item at a time, in pre-order or
+ * post-order, without recursion, so that a very deep tree cannot overflow
+ * the stack. Each item is reached once, together with its path, and the
+ * children of a Directory are only read when the walk enters it.
+ *
+ * A walk reads the live tree, or a Snapshot if one is given. The children
+ * of a DirectoryAlias are those of the Directory it points to, unless
+ * aliases are not followed; an alias inside the Directory it points to has
+ * no children. In pre-order, {@link #skipChildren()} prunes the subtree of
+ * the current item; in either order, a {@link Filter} leaves out whole
+ * subtrees before the walk reaches them.
+ *
+ * <pre>
+ * TreeWalker walker = new TreeWalker(dir, dir.getPath(), null, null,
+ *         TreeWalker.Order.PRE_ORDER);
+ * while (walker.next()) {
+ *     ... walker.getItem(), walker.getPath() ...
+ * }
+ * </pre>
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class TreeWalker {
+    /**
+     * When an item is reached relative to the items beneath it.
+     */
+    public enum Order {
+        /**
+         * A Directory before its children.
+         */
+        PRE_ORDER,
+        /**
+         * A Directory after its children.
+         */
+        POST_ORDER
+    }
+
+    /**
+     * What the walk does with an item a Filter is asked about.
+     */
+    public enum Choice {
+        /**
+         * Leave out the item and the items beneath it.
+         */
+        SKIP,
+        /**
+         * Reach the item and ask about each of its children.
+         */
+        ENTER,
+        /**
+         * Reach the item and every item beneath it without asking.
+         */
+        ALL
+    }
+
+    /**
+     * Chooses which items beneath the first item of a walk are reached.
+     */
+    public interface Filter {
+
+        /**
+         * Returns what the walk does with item, a child of an item it
+         * entered.
+         *
+         * @param item the JShellItem about to be reached.
+         * @return the Choice for item.
+         */
+        Choice choose(JShellItem item);
+    }
+
+    /*
+     * The snapshot read by the walk, or null for the live tree.
+     */
+    private final Snapshot snapshot_;
+    /*
+     * The lock held while the children of a Directory are read, or null.
+     */
+    private final Lock lock_;
+    /*
+     * The order of the walk.
+     */
+    private final Order order_;
+    /*
+     * Whether children are visited last to first.
+     */
+    private boolean reverse_;
+    /*
+     * Whether the walk enters the Directory a DirectoryAlias points to.
+     */
+    private boolean followAliases_ = true;
+    /*
+     * Chooses the items reached, or null to reach them all.
+     */
+    private Filter filter_;
+    /*
+     * The items entered and not yet left, the last one on top.
+     */
+    private final List<Frame> stack_ = new ArrayList<Frame>();
+    /*
+     * The item the walk is at, or null.
+     */
+    private Frame current_;
+
+    /**
+     * Creates a walk of start and the items beneath it.
+     *
+     * @param start the first item of the walk.
+     * @param path the path of start.
+     * @param snapshot the Snapshot to read, or null to read the live tree.
+     * @param lock the lock to hold while reading the children of a
+     * Directory, or null.
+     * @param order when a Directory is reached relative to its children.
+     */
+    public TreeWalker(JShellItem start, String path, Snapshot snapshot,
+            Lock lock, Order order) {
+        snapshot_ = snapshot;
+        lock_ = lock;
+        order_ = order;
+        stack_.add(new Frame(start, path, 0));
+    }
+
+    /**
+     * Sets whether the children of each Directory are visited last to
+     * first. Call before the walk starts.
+     *
+     * @param reverse true to visit children last to first.
+     * @return this walker.
+     */
+    public TreeWalker setReverse(boolean reverse) {
+        reverse_ = reverse;
+        return this;
+    }
+
+    /**
+     * Sets whether the walk enters the Directory a DirectoryAlias points
+     * to. If not, aliases are reached but have no children.
+     *
+     * @param follow true to follow aliases.
+     * @return this walker.
+     */
+    public TreeWalker setFollowAliases(boolean follow) {
+        followAliases_ = follow;
+        return this;
+    }
+
+    /**
+     * Sets the Filter asked about each item beneath the first one, before
+     * the walk reaches it. Call before the walk starts.
+     *
+     * @param filter the Filter, or null to reach every item.
+     * @return this walker.
+     */
+    public TreeWalker setFilter(Filter filter) {
+        filter_ = filter;
+        return this;
+    }
+
+    /**
+     * Moves to the next item of the walk.
+     *
+     * @return true if there is one, false if the walk is over.
+     */
+    public boolean next() {
+        while (!stack_.isEmpty()) {
+            Frame top = stack_.get(stack_.size() - 1);
+            if (!top.entered_) {
+                top.entered_ = true;
+                if (order_ == Order.PRE_ORDER) {
+                    current_ = top;
+                    return true;
+                }
+            }
+            if (top.children_ == null) {
+                top.children_ = top.skip_ ? Snapshot.Children.EMPTY
+                        : childrenOf(top.item_);
+            }
+            int size = top.children_.size();
+            if (top.index_ < size) {
+                int i = reverse_ ? size - 1 - top.index_ : top.index_;
+                top.index_++;
+                JShellItem child = top.children_.getItem(i);
+                Choice choice = filter_ == null || top.all_ ? Choice.ALL
+                        : filter_.choose(child);
+                if (choice == Choice.SKIP) {
+                    continue;
+                }
+                Frame frame = new Frame(child,
+                        childPath(top, top.children_.getName(i), child),
+                        top.depth_ + 1);
+                frame.all_ = choice == Choice.ALL;
+                stack_.add(frame);
+                continue;
+            }
+            stack_.remove(stack_.size() - 1);
+            if (order_ == Order.POST_ORDER) {
+                current_ = top;
+                return true;
+            }
+        }
+        current_ = null;
+        return false;
+    }
+
+    /**
+     * Return the item the walk is at.
+     *
+     * @return the current JShellItem.
+     */
+    public JShellItem getItem() {
+        return current().item_;
+    }
+
+    /**
+     * Return the path of the item the walk is at. Paths of Directories end
+     * with '/'.
+     *
+     * @return the path of the current item.
+     */
+    public String getPath() {
+        return current().path_;
+    }
+
+    /**
+     * Return the number of Directories between the first item of the walk
+     * and the item it is at.
+     *
+     * @return the depth of the current item, 0 for the first.
+     */
+    public int getDepth() {
+        return current().depth_;
+    }
+
+    /**
+     * Leaves out the items beneath the current item. Only has an effect in
+     * pre-order, before next is called again.
+     */
+    public void skipChildren() {
+        current().skip_ = true;
+    }
+
+    /*
+     * Returns the item the walk is at, failing if there is none.
+     */
+    private Frame current() {
+        if (current_ == null) {
+            throw new IllegalStateException("The walk is not at an item.");
+        }
+        return current_;
+    }
+
+    /*
+     * Returns the children of item, empty if it is not a Directory.
+     */
+    private Snapshot.Children childrenOf(JShellItem item) {
+        if (!(item instanceof Directory)
+                || (item instanceof DirectoryAlias && !followAliases_)) {
+            return Snapshot.Children.EMPTY;
+        }
+        if (snapshot_ != null) {
+            return snapshot_.getChildren(item);
+        }
+        if (lock_ != null) {
+            lock_.lock();
+        }
+        try {
+            return Snapshot.Children.of(((Directory) item).getContents());
+        } finally {
+            if (lock_ != null) {
+                lock_.unlock();
+            }
+        }
+    }
+
+    /*
+     * Returns the path of child, named name, beneath the item of parent.
+     * The live path is used unless a snapshot is read, since the child may
+     * have been moved since.
+     */
+    private String childPath(Frame parent, String name, JShellItem child) {
+        if (snapshot_ == null) {
+            return child.getPath();
+        }
+        return parent.path_ + name + (child instanceof Directory ? "/" : "");
+    }
+
+    /*
+     * An item of the walk and how far its children have been walked.
+     */
+    private static final class Frame {
+        private final JShellItem item_;
+        private final String path_;
+        private final int depth_;
+        private boolean entered_;
+        private boolean skip_;
+        private boolean all_;
+        private Snapshot.Children children_;
+        private int index_;
+
+        Frame(JShellItem item, String path, int depth) {
+            item_ = item;
+            path_ = path;
+            depth_ = depth;
+        }
+    }
+}
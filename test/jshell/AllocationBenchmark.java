@@ -0,0 +1,113 @@
+package jshell;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the bytes allocated by the current thread while JShell resolves
+ * paths, once the shell is warmed up. Path resolution is expected to
+ * allocate nothing, so the benchmark exits with status 1 otherwise.
+ *
+ * Uses the allocation counter of the HotSpot ThreadMXBean.
+ *
+ * Run with: java jshell.AllocationBenchmark [lookups]
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class AllocationBenchmark {
+
+    /**
+     * Resolves a set of absolute, relative and mixed case paths and prints
+     * the bytes allocated per resolution.
+     *
+     * @param args the number of resolutions to measure.
+     * @throws Exception if a path cannot be resolved.
+     */
+    public static void main(String[] args) throws Exception {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        JShell shell = new JShell();
+        shell.setCurrentOption("f");
+        List<String> dirs = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            dirs.add("dir" + i);
+            dirs.add("dir" + i + "/Sub");
+            dirs.add("dir" + i + "/Sub/leaf");
+        }
+        shell.mkdir(dirs);
+        shell.cd("/dir3");
+        String[] paths = new String[dirs.size() * 2 + 2];
+        for (int i = 0; i < dirs.size(); i++) {
+            paths[2 * i] = "/" + dirs.get(i);
+            paths[2 * i + 1] = "/" + dirs.get(i).toUpperCase() + "/";
+        }
+        paths[paths.length - 2] = "sub/leaf";
+        paths[paths.length - 1] = "Sub/./LEAF/";
+        String[] names = new String[40];
+        for (int i = 0; i < names.length; i += 2) {
+            names[i] = "dir" + i / 2;
+            names[i + 1] = "DIR" + i / 2;
+        }
+
+        // Warm up: fill the path cache and let the JIT compile the lookups.
+        for (int i = 0; i < lookups; i++) {
+            resolve(shell, paths, i);
+        }
+        Directory root = shell.getRootDirectory();
+        for (int i = 0; i < lookups; i++) {
+            lookUp(root, names, i);
+        }
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < lookups; i++) {
+            resolve(shell, paths, i);
+        }
+        long resolveBytes = threads.getThreadAllocatedBytes(thread) - before;
+
+        before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < lookups; i++) {
+            lookUp(root, names, i);
+        }
+        long getItemBytes = threads.getThreadAllocatedBytes(thread) - before;
+
+        System.out.printf("getItemAtPath:     %d bytes for %d lookups (%.3f "
+                + "bytes/lookup)%n", resolveBytes, lookups,
+                (double) resolveBytes / lookups);
+        System.out.printf("Directory.getItem: %d bytes for %d lookups (%.3f "
+                + "bytes/lookup)%n", getItemBytes, lookups,
+                (double) getItemBytes / lookups);
+        // Allow for the few bytes the allocation counter itself may report.
+        if (resolveBytes + getItemBytes > 1024) {
+            System.exit(1);
+        }
+    }
+
+    /*
+     * Looks the name number i up in root, failing if it cannot be found.
+     */
+    private static void lookUp(Directory root, String[] names, int i) {
+        String name = names[i % names.length];
+        if (root.getItem(name, 0, name.length()) == null) {
+            throw new IllegalStateException(name + ": not found.");
+        }
+    }
+
+    /*
+     * Resolves the path number i, failing if it cannot be found.
+     */
+    private static void resolve(JShell shell, String[] paths, int i)
+            throws Exception {
+        if (shell.getItemAtPath(paths[i % paths.length], 0) == null) {
+            throw new IllegalStateException(paths[i % paths.length]
+                    + ": not found.");
+        }
+    }
+}
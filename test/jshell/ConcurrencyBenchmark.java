@@ -0,0 +1,82 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how the throughput of path lookups grows with the number of
+ * JShell sessions reading one shared FileSystem from their own threads.
+ *
+ * Run with: java jshell.ConcurrencyBenchmark [maxThreads] [millis]
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class ConcurrencyBenchmark {
+
+    /**
+     * Runs the lookups with 1, 2, 4... threads and prints the lookups per
+     * second for each.
+     *
+     * @param args the largest number of threads and the duration of each
+     * run in milliseconds.
+     * @throws Exception if the tree cannot be built.
+     */
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors();
+        final long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        final FileSystem fileSystem = new FileSystem();
+        JShell builder = new JShell(fileSystem);
+        List<String> dirs = new ArrayList<String>();
+        final List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            dirs.add("dir" + i);
+            dirs.add("dir" + i + "/sub");
+            paths.add("/dir" + i + "/sub/");
+            paths.add("/DIR" + i);
+        }
+        builder.mkdir(dirs);
+
+        double single = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final AtomicLong lookups = new AtomicLong();
+            final long end = System.currentTimeMillis() + millis;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        JShell session = new JShell(fileSystem);
+                        long count = 0;
+                        try {
+                            while (System.currentTimeMillis() < end) {
+                                for (String path : paths) {
+                                    session.getItemAtPath(path, 0);
+                                }
+                                count += paths.size();
+                            }
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                        lookups.addAndGet(count);
+                    }
+                };
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double perSecond = lookups.get() * 1000.0 / millis;
+            if (threads == 1) {
+                single = perSecond;
+            }
+            System.out.printf("%2d threads: %,12.0f lookups/s (x%.2f)%n",
+                    threads, perSecond, perSecond / single);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package jshell;
+
+/**
+ * Measures the cost of copying a large Directory tree with cp, then of
+ * reading the whole copy, which fills it in.
+ *
+ * Run with: java jshell.CopyBenchmark [entries]
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class CopyBenchmark {
+
+    /**
+     * Builds a template tree, copies it and walks the copy, printing the
+     * time taken by each step.
+     *
+     * @param args the number of entries in the template tree.
+     * @throws Exception if a command fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        FileSystem fileSystem = new FileSystem();
+        JShell shell = new JShell(fileSystem);
+        Directory template = new Directory("template",
+                fileSystem.getRootDirectory());
+        fileSystem.getRootDirectory().addItem(template);
+        int made = 0;
+        for (int i = 0; made < entries; i++) {
+            Directory dir = new Directory("dir" + i, template);
+            template.addItem(dir);
+            made++;
+            for (int j = 0; j < 99 && made < entries; j++, made++) {
+                dir.addItem(new File("file" + j, dir, "content " + j));
+            }
+        }
+
+        long start = System.nanoTime();
+        shell.cp("/template", "/copy");
+        long copied = System.nanoTime();
+        int files = 0;
+        Directory copy = (Directory) shell.getItemAtPath("/copy", 0);
+        for (Directory dir : copy.getSubDirectories().values()) {
+            files += dir.getNumFiles();
+        }
+        long read = System.nanoTime();
+
+        System.out.printf("%,d entries%n", made);
+        System.out.printf("cp:            %,10.3f ms%n",
+                (copied - start) / 1e6);
+        System.out.printf("first read:    %,10.3f ms (%,d files)%n",
+                (read - copied) / 1e6, files);
+        System.out.printf("open snapshots: %d%n",
+                fileSystem.getOpenSnapshotCount());
+    }
+}
@@ -0,0 +1,89 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures find over a large tree on one thread and on ForkJoin pools of
+ * growing size, in ordered and unordered mode, and checks that the ordered
+ * output is the same as the sequential one.
+ *
+ * Run with: java jshell.FindBenchmark [entries] [maxThreads]
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class FindBenchmark {
+
+    /**
+     * Builds a tree of Directories holding log and text Files, then runs
+     * find *.log with 1, 2, 4 ... maxThreads threads, printing the best of
+     * three runs and the speedup over one thread.
+     *
+     * @param args the number of entries and the largest number of threads.
+     * @throws Exception if a command fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+
+        JShell shell = new JShell();
+        Directory root = shell.getRootDirectory();
+        int made = 0;
+        for (int i = 0; made < entries; i++) {
+            Directory top = new Directory("top" + i, root);
+            root.addItem(top);
+            made++;
+            for (int j = 0; j < 100 && made < entries; j++) {
+                Directory dir = new Directory("dir" + j, top);
+                top.addItem(dir);
+                made++;
+                for (int k = 0; k < 50 && made < entries; k++, made++) {
+                    dir.addItem(new File("file" + k
+                            + (k % 10 == 0 ? ".log" : ".txt"), dir));
+                }
+            }
+        }
+        System.out.printf("%,d entries, %d cores%n", made,
+                Runtime.getRuntime().availableProcessors());
+
+        List<String> paths = new ArrayList<String>();
+        paths.add("/");
+        shell.setCurrentOption("");
+        shell.setParallelism(1);
+        String expected = shell.find("*.log", paths);
+        double base = time(shell, paths);
+        System.out.printf("1 thread:     %,10.3f ms%n", base);
+        for (int threads = 2; threads <= Math.max(2, maxThreads);
+                threads *= 2) {
+            shell.setParallelism(threads);
+            shell.setCurrentOption("");
+            if (!expected.equals(shell.find("*.log", paths))) {
+                throw new AssertionError("ordered output differs");
+            }
+            double ordered = time(shell, paths);
+            shell.setCurrentOption("u");
+            double unordered = time(shell, paths);
+            System.out.printf("%d threads:    %,10.3f ms ordered (%.2fx),"
+                    + " %,10.3f ms unordered (%.2fx)%n", threads, ordered,
+                    base / ordered, unordered, base / unordered);
+        }
+    }
+
+    /*
+     * Returns the best time of three finds, in milliseconds.
+     */
+    private static double time(JShell shell, List<String> paths)
+            throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            shell.find("*.log", paths);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+}
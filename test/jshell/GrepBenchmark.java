@@ -0,0 +1,105 @@
+package jshell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the searches grep compiles to on a large File: one literal with
+ * Boyer-Moore-Horspool against the same literal as a regex, several
+ * literals with Aho-Corasick against their regex alternation, and a real
+ * regex. Each case is warmed up, then the best of several runs is printed
+ * with its throughput.
+ *
+ * Run with: java jshell.GrepBenchmark [megabytes] [runs]
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class GrepBenchmark {
+    /*
+     * The words the lines are made of.
+     */
+    private static final String[] WORDS = {"alpha", "beta", "gamma",
+        "delta", "epsilon", "request", "response", "timeout", "session",
+        "cache", "server", "client"};
+
+    /**
+     * Builds a File of random lines and greps it with each kind of search.
+     *
+     * @param args the size of the File in megabytes and the number of
+     * timed runs.
+     * @throws Exception if a command fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(megabytes << 20);
+        while (text.length() < megabytes << 20) {
+            for (int i = 0; i < 8; i++) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            text.append(random.nextInt(100000)).append('\n');
+        }
+        // A few lines hold the needles.
+        for (int i = 1; i <= 10; i++) {
+            text.insert(text.length() * i / 11, "fatal error code 500\n");
+        }
+
+        JShell shell = new JShell();
+        shell.setCurrentOption("");
+        File file = new File("log", shell.getRootDirectory());
+        shell.getRootDirectory().addItem(file);
+        file.setContent(text.toString());
+        List<String> paths = new ArrayList<String>();
+        paths.add("/log");
+        System.out.printf("%,d characters%n", text.length());
+
+        run(shell, paths, runs, "literal (BMH)", "fatal error", "");
+        run(shell, paths, runs, "literal as regex", "fatal (error)", "");
+        run(shell, paths, runs, "3 literals (Aho-Corasick)",
+                Arrays.asList("fatal", "panic", "segfault"), "");
+        run(shell, paths, runs, "3 literals as regex",
+                Arrays.asList("fatal", "panic", "segf(ault)"), "");
+        run(shell, paths, runs, "regex", "code [0-9]{3}$", "");
+        run(shell, paths, runs, "literal, -l", "fatal error", "l");
+    }
+
+    /*
+     * Times grep for one pattern.
+     */
+    private static void run(JShell shell, List<String> paths, int runs,
+            String name, String pattern, String options) throws Exception {
+        run(shell, paths, runs, name, Arrays.asList(pattern), options);
+    }
+
+    /*
+     * Times grep for patterns, printing the best run.
+     */
+    private static void run(JShell shell, List<String> paths, int runs,
+            String name, List<String> patterns, String options)
+            throws Exception {
+        shell.setCurrentOption(options);
+        long length = shell.catView("/log").length();
+        String output = null;
+        for (int i = 0; i < 3; i++) {
+            OutputSink.Capture out = new OutputSink.Capture();
+            shell.grep(patterns, paths, -1, out);
+            output = out.toString();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            shell.grep(patterns, paths, -1, new OutputSink.Capture());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-28s %,10.3f ms %,8.1f MB/s %3d lines out%n",
+                name, best / 1e6, length * 1e3 / best,
+                output.isEmpty() ? 0 : output.split("\n").length);
+    }
+}
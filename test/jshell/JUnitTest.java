@@ -1,9 +1,24 @@
 package jshell;
 
+import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 /**
@@ -125,12 +140,12 @@ public class JUnitTest {
             // Initialize and reference the variables.
             newShell_ = new JShell();
             Directory root = newShell_.getRootDirectory();
-            Directory homeDir = new Directory("home", "/home/", root);
-            Directory bootDir = new Directory("boot", "/boot/", root);
-            Directory etcDir = new Directory("etc", "/etc/", root);
-            Directory tmpDir = new Directory("tmp", "/tmp/", root);
+            Directory homeDir = new Directory("home", root);
+            Directory bootDir = new Directory("boot", root);
+            Directory etcDir = new Directory("etc", root);
+            Directory tmpDir = new Directory("tmp", root);
             Directory documentsDir =
-                    new Directory("Documents", "/home/Documents/", homeDir);
+                    new Directory("Documents", homeDir);
 
             // Create a simple file system.
             newShell_.getRootDirectory().addItem(homeDir);
@@ -199,17 +214,17 @@ public class JUnitTest {
             assertEquals("", newShell_.ls(paramList));
 
             //Create folders and files
-            Directory dir1 = new Directory("dir1", "/dir1/", root);
+            Directory dir1 = new Directory("dir1", root);
             root.addItem(dir1);
-            Directory dir2 = new Directory("dir2", "/dir2/", root);
+            Directory dir2 = new Directory("dir2", root);
             root.addItem(dir2);
-            File file1 = new File("file1", "/file1", root);
+            File file1 = new File("file1", root);
             root.addItem(file1);
             Directory subDir1 =
-                    new Directory("subDir1", "/dir1/subDir1/", dir1);
+                    new Directory("subDir1", dir1);
             dir1.addItem(subDir1);
             Directory subDir2 =
-                    new Directory("subDir2", "/dir1/subDir2/", dir1);
+                    new Directory("subDir2", dir1);
             dir1.addItem(subDir2);
 
             //Try calling ls on the root directory without specifying path
@@ -261,12 +276,12 @@ public class JUnitTest {
             // Initialize and reference the variables.
             newShell_ = new JShell();
             Directory root = newShell_.getRootDirectory();
-            Directory homeDir = new Directory("home", "/home/", root);
-            Directory bootDir = new Directory("boot", "/boot/", root);
-            Directory etcDir = new Directory("etc", "/etc/", root);
-            Directory tmpDir = new Directory("tmp", "/tmp/", root);
+            Directory homeDir = new Directory("home", root);
+            Directory bootDir = new Directory("boot", root);
+            Directory etcDir = new Directory("etc", root);
+            Directory tmpDir = new Directory("tmp", root);
             Directory documentsDir =
-                    new Directory("Documents", "/home/Documents/", homeDir);
+                    new Directory("Documents", homeDir);
 
             // Create a simple file system.
             newShell_.getRootDirectory().addItem(homeDir);
@@ -356,11 +371,11 @@ public class JUnitTest {
             newShell_ = new JShell();
             Directory root = newShell_.getRootDirectory();
             List<String> paramList = new ArrayList<String>();
-            Directory dir1 = new Directory("dir1", "/dir1/", root);
+            Directory dir1 = new Directory("dir1", root);
             root.addItem(dir1);
-            File file1 = new File("test.txt", "/test.txt", root);
+            File file1 = new File("test.txt", root);
             root.addItem(file1);
-            File subFile1 = new File("test1.txt", "/dir1/test1.txt", dir1);
+            File subFile1 = new File("test1.txt", dir1);
             dir1.addItem(subFile1);
 
             //Try calling cat on a non existant file.
@@ -479,9 +494,9 @@ public class JUnitTest {
         try {
             newShell_ = new JShell();
             Directory root = newShell_.getRootDirectory();
-            Directory dir1 = new Directory("dir1", "/dir1/", root);
+            Directory dir1 = new Directory("dir1", root);
             root.addItem(dir1);
-            Directory dir2 = new Directory("dir2", "/dir1/dir2/", dir1);
+            Directory dir2 = new Directory("dir2", dir1);
             dir1.addItem(dir2);
 
             //Test on root directory
@@ -515,15 +530,13 @@ public class JUnitTest {
             // Initialize and reference the variables.
             newShell_ = new JShell();
             Directory root = newShell_.getRootDirectory();
-            Directory homeDir = new Directory("home", "/home/", root);
-            Directory bootDir = new Directory("boot", "/boot/", root);
-            Directory etcDir = new Directory("etc", "/etc/", root);
-            Directory tmpDir = new Directory("tmp", "/tmp/", root);
-            Directory documentsDir = new Directory("Documents",
-                    "/home/Documents/", homeDir);
-            Directory desktopDir = new Directory("Desktop",
-                    "/home/Desktop/", homeDir);
-            File aTxtFile = new File("readme.txt", "/home/Desktop/",
+            Directory homeDir = new Directory("home", root);
+            Directory bootDir = new Directory("boot", root);
+            Directory etcDir = new Directory("etc", root);
+            Directory tmpDir = new Directory("tmp", root);
+            Directory documentsDir = new Directory("Documents", homeDir);
+            Directory desktopDir = new Directory("Desktop", homeDir);
+            File aTxtFile = new File("readme.txt",
                     desktopDir, "Hello World.");
 
             // Create a simple file system.
@@ -623,11 +636,11 @@ public class JUnitTest {
             newShell_.setCurrentOption("");
 
             //create dir2 and dir1 with subdirectory subdir 1
-            Directory dir1 = new Directory("dir1", "/dir1/", root);
+            Directory dir1 = new Directory("dir1", root);
             root.addItem(dir1);
-            Directory subDir1 = new Directory("subDir1", "/dir1/subDir1", dir1);
+            Directory subDir1 = new Directory("subDir1", dir1);
             dir1.addItem(subDir1);
-            Directory dir2 = new Directory("dir2", "/dir2/", root);
+            Directory dir2 = new Directory("dir2", root);
             root.addItem(dir2);
 
             //Test: move subdir1 from dir1 to dir 2
@@ -637,7 +650,7 @@ public class JUnitTest {
 
             //Try moving a directory a into another directory that 
             //contains a directory with the same name
-            Directory sameNameDir = new Directory("subDir1", "/dir1/subDir1",
+            Directory sameNameDir = new Directory("subDir1",
                     dir1);
             dir1.addItem(sameNameDir);
             try {
@@ -649,6 +662,33 @@ public class JUnitTest {
             }
             dir1.removeItem(sameNameDir);
 
+            //Test: the paths beneath a moved directory follow it
+            File file1 = new File("file1", subDir1);
+            subDir1.addItem(file1);
+            newShell_.mv("/dir2", "/dir1/dir3");
+            assertEquals("/dir1/dir3/subDir1/", subDir1.getPath());
+            assertEquals("/dir1/dir3/subDir1/file1", file1.getPath());
+            newShell_.mv("/dir1/dir3", "/dir2");
+            assertEquals("/dir2/subDir1/file1", file1.getPath());
+
+            //Test: a move in one tree keeps the paths cached in another,
+            //and a directory taken from another tree gets its new path
+            Directory otherRoot = new JShell().getRootDirectory();
+            Directory other = new Directory("other", otherRoot);
+            otherRoot.addItem(other);
+            Directory otherSub = new Directory("otherSub", other);
+            other.addItem(otherSub);
+            String otherPath = otherSub.getPath();
+            newShell_.mv("/dir2/subDir1", "/dir1/");
+            assertTrue(otherPath == otherSub.getPath());
+            assertEquals("/dir1/subDir1/", subDir1.getPath());
+            other.removeItem(otherSub);
+            otherSub.setParentDirectory(dir1);
+            dir1.addItem(otherSub);
+            assertEquals("/dir1/otherSub/", otherSub.getPath());
+            assertEquals("/other/", other.getPath());
+            newShell_.mv("/dir1/subDir1", "/dir2/");
+
             //Try moving a directory into an unexisting directory
             try {
                 newShell_.mv("/dir2/subDir1/", "/falseDir/subDir1");
@@ -675,11 +715,11 @@ public class JUnitTest {
         //Initialize JShell and create directories /dir1 /dir2 /dir/subDir1
         newShell_ = new JShell();
         Directory root = newShell_.getRootDirectory();
-        Directory dir1 = new Directory("dir1", "/dir1/", root);
-        Directory subDir1 = new Directory("subDir1", "/dir1/subDir1/", dir1);
+        Directory dir1 = new Directory("dir1", root);
+        Directory subDir1 = new Directory("subDir1", dir1);
         dir1.addItem(subDir1);
         root.addItem(dir1);
-        Directory dir2 = new Directory("dir2", "/dir2/", root);
+        Directory dir2 = new Directory("dir2", root);
         root.addItem(dir2);
 
         //Try copying a directory into other directory(without changing name)
@@ -705,7 +745,7 @@ public class JUnitTest {
         assert dir1Copy != dir1 :
                 "/dir2/dir1 is only a symbollic link for /dir1.";
         //further check by modifying one and not the other.
-        dir1.addItem(new Directory("subDir2", "/dir1/SubDir2/", dir1));
+        dir1.addItem(new Directory("subDir2", dir1));
         assert dir1.contains("subDir2") && !dir1Copy.contains("subDir2") :
                 "Modifications in /dir1 should not be reflected in /dir2/dir1";
 
@@ -732,7 +772,7 @@ public class JUnitTest {
         //check that they are different objects and modifications in 
         //one will not reflect in the other.
         assert dir1 != dir3 : "/dir3 is only a symbollic link for /dir1.";
-        dir1.addItem(new File("file1.txt", "/dir1/file.txt", dir1));
+        dir1.addItem(new File("file1.txt", dir1));
         assert dir1.contains("file1.txt") && !dir3.contains("file1.txt") :
                 "Modifications in /dir1 should not be reflected in /dir3.";
     }
@@ -750,20 +790,17 @@ public class JUnitTest {
             // Initialize and reference the variables.
             newShell_ = new JShell();
             Directory root = newShell_.getRootDirectory();
-            jshell.Directory homeDir = new Directory("home", "/home/", root);
-            Directory bootDir = new Directory("boot", "/boot/", root);
-            Directory etcDir = new Directory("etc", "/etc/", root);
-            Directory tmpDir = new Directory("tmp", "/tmp/", root);
-            Directory documentsDir = new Directory("Documents",
-                    "/home/Documents/", homeDir);
-            Directory downloadsDir = new Directory("Downloads",
-                    "/home/Downloads/", homeDir);
-            Directory desktopDir = new Directory("Desktop",
-                    "/home/Desktop/", homeDir);
-            File txtFileOne = new File("readme.txt",
-                    "/home/Desktop/readme.txt", desktopDir, "Hello World.");
-            File txtFileTwo = new File("testlog.txt",
-                    "/home/Documents/testlog.txt", documentsDir, "TEST ALL THE THINGS!");
+            jshell.Directory homeDir = new Directory("home", root);
+            Directory bootDir = new Directory("boot", root);
+            Directory etcDir = new Directory("etc", root);
+            Directory tmpDir = new Directory("tmp", root);
+            Directory documentsDir = new Directory("Documents", homeDir);
+            Directory downloadsDir = new Directory("Downloads", homeDir);
+            Directory desktopDir = new Directory("Desktop", homeDir);
+            File txtFileOne = new File("readme.txt", desktopDir,
+                    "Hello World.");
+            File txtFileTwo = new File("testlog.txt", documentsDir,
+                    "TEST ALL THE THINGS!");
             List<String> paramList = new ArrayList<String>();
 
             // Create a simple file system.
@@ -825,16 +862,14 @@ public class JUnitTest {
             // Initialize and reference the variables.
             newShell_ = new JShell();
             Directory root = newShell_.getRootDirectory();
-            Directory homeDir = new Directory("home", "/home/", root);
-            Directory bootDir = new Directory("boot", "/boot/", root);
-            Directory etcDir = new Directory("etc", "/etc/", root);
-            Directory tmpDir = new Directory("tmp", "/tmp/", root);
-            Directory documentsDir = new Directory("Documents", 
-                    "/home/Documents/", homeDir);
-            Directory desktopDir = new Directory("Desktop", 
-                    "/home/Desktop/", homeDir);
-            File txtFileOne = new File("readme.txt", 
-                    "/home/Desktop/readme.txt", desktopDir, "Hello World.");
+            Directory homeDir = new Directory("home", root);
+            Directory bootDir = new Directory("boot", root);
+            Directory etcDir = new Directory("etc", root);
+            Directory tmpDir = new Directory("tmp", root);
+            Directory documentsDir = new Directory("Documents", homeDir);
+            Directory desktopDir = new Directory("Desktop", homeDir);
+            File txtFileOne = new File("readme.txt", desktopDir,
+                    "Hello World.");
             List<String> paramList = new ArrayList<String>();
 
             // Create a simple file system.
@@ -905,8 +940,8 @@ public class JUnitTest {
             newShell_ = new JShell();
             newShell_.setCurrentOption("");
             Directory root = newShell_.getRootDirectory();
-            Directory dir1 = new Directory("dir1", "/dir1/", root);
-            Directory subDir1 = new Directory("subDir1","/dir1/subDir1/", dir1);
+            Directory dir1 = new Directory("dir1", root);
+            Directory subDir1 = new Directory("subDir1", dir1);
             dir1.addItem(subDir1);
             root.addItem(dir1);
             List<String> paramList = new ArrayList<String>();
@@ -919,7 +954,7 @@ public class JUnitTest {
             
             //Search for text in an empty file without the -R option
             paramList.clear();
-            File file1 = new File("file1", "/file1", root);
+            File file1 = new File("file1", root);
             root.addItem(file1);
             paramList.add(file1.getPath());
             assertEquals("Found something that wasn't there", 
@@ -937,17 +972,17 @@ public class JUnitTest {
                                                                paramList));
             
             //Search for text recursively in a folder containing multiple files
-            File file2 = new File("file2", "dir1/file2", dir1);
+            File file2 = new File("file2", dir1);
             dir1.addItem(file2);
             file2.setContent("test line2\ntest line1\ntest line2 copy");
-            File file3 = new File("file3", "dir1/file3", dir1);
+            File file3 = new File("file3", dir1);
             dir1.addItem(file3);
             file3.setContent("test line1\ntest line2\ntest line1 copy");
             paramList.clear();
             paramList.add(dir1.getPath());
             newShell_.setCurrentOption("R");
             assertEquals("Didn't print the right lines", 
-                "dir1/file3:\ntest line2\ndir1/file2:\ntest line2\ntest "
+                "/dir1/file3:\ntest line2\n/dir1/file2:\ntest line2\ntest "
                     + "line2 copy",
                 newShell_.grep("line2", paramList));
         }
@@ -956,4 +991,1804 @@ public class JUnitTest {
                     "Caught unexpected exception in grep: " + e.getMessage();
         }  
     }
+
+    /**
+     * Test the path cache used by getItemAtPath.
+     *
+     * Test Case 1: A repeated lookup is answered by the cache.
+     * Test Case 2: Removing a directory drops the paths beneath it.
+     * Test Case 3: Moving a directory drops its old paths.
+     * Test Case 4: A Key finds the path holding its characters, and the
+     * least recently used path is evicted when the cache is full.
+     * Test Case 5: Dropping some of many paths keeps the others.
+     */
+    @Test
+    public void testPathCache() {
+        try {
+            newShell_ = new JShell();
+            newShell_.setCurrentOption("f");
+            PathCache cache = newShell_.getPathCache();
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("a");
+            paramList.add("a/b");
+            paramList.add("a/b/c");
+            paramList.add("d");
+            newShell_.mkdir(paramList);
+
+            // Test Case 1: The second lookup of a path is a hit.
+            JShellItem c = newShell_.getItemAtPath("/a/b/c/", 0);
+            long hits = cache.getHitCount();
+            assertEquals(c, newShell_.getItemAtPath("/A/b/c", 0));
+            assertEquals(hits + 1, cache.getHitCount());
+
+            // Test Case 2: rm drops the cached path of the removed item.
+            paramList.clear();
+            paramList.add("/a/b/c/");
+            newShell_.rm(paramList);
+            assertEquals(null, newShell_.getItemAtPath("/a/b/c/", 0));
+
+            // Test Case 3: mv drops the old paths beneath the moved directory.
+            JShellItem b = newShell_.getItemAtPath("/a/b/", 0);
+            newShell_.getItemAtPath("/a/", 0);
+            newShell_.mv("/a", "/d/");
+            assertEquals(null, newShell_.getItemAtPath("/a/b/", 0));
+            assertEquals(null, newShell_.getItemAtPath("/a/", 0));
+            assertEquals(b, newShell_.getItemAtPath("/d/a/b/", 0));
+
+            // Test Case 4: /x/ is used again, so /y/ is evicted for /z/.
+            PathCache small = new PathCache(2);
+            Directory root = newShell_.getRootDirectory();
+            small.put("/x/", root);
+            small.put("/y/", b);
+            PathCache.Key key = new PathCache.Key();
+            assertEquals(root, small.get(key.clear().append("/X/", 0, 3)));
+            small.put("/z/", c);
+            assertEquals(1, small.getEvictionCount());
+            assertEquals(2, small.size());
+            assertEquals(null, small.get("/y/"));
+            assertEquals(c, small.get(key.clear().append("/z/", 0, 3)));
+
+            // Test Case 5: 40 paths, every other one dropped.
+            PathCache large = new PathCache();
+            List<File> files = new ArrayList<File>();
+            for (int i = 0; i < 40; i++) {
+                File file = new File("f" + i, root);
+                files.add(file);
+                large.put("/f" + i + "/", file);
+            }
+            for (int i = 0; i < 40; i += 2) {
+                large.invalidate(files.get(i));
+            }
+            assertEquals(20, large.size());
+            for (int i = 0; i < 40; i++) {
+                String path = "/f" + i + "/";
+                assertEquals(i % 2 == 0 ? null : files.get(i), large.get(
+                        key.clear().append(path, 0, path.length())));
+            }
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in path cache: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test the child index of the Directory class.
+     *
+     * Test Case 1: Items are listed in the order they were added.
+     * Test Case 2: Lookups still work once the directory is large.
+     * Test Case 3: Removing items keeps the order of the remaining ones.
+     */
+    @Test
+    public void testDirectoryContents() {
+        Directory dir = new Directory("dir", null);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            names.add("Item" + i);
+            dir.addItem(new File("Item" + i, dir));
+        }
+
+        // Test Case 1: Items are listed in the order they were added.
+        List<String> listed = new ArrayList<String>();
+        for (JShellItem item : dir.getContents().values()) {
+            listed.add(item.getName());
+        }
+        assertEquals(names, listed);
+
+        // Test Case 2: Lookups are case insensitive in a large directory.
+        assertEquals(100, dir.getSize());
+        assertEquals("Item42", dir.getItem("ITEM42").getName());
+        assert !dir.contains("Item100");
+
+        // Test Case 3: Removing items keeps the order of the others.
+        for (int i = 0; i < 100; i += 2) {
+            dir.removeItem(dir.getItem("item" + i));
+            names.remove("Item" + i);
+        }
+        listed.clear();
+        for (JShellItem item : dir.getContents().values()) {
+            listed.add(item.getName());
+        }
+        assertEquals(names, listed);
+        assert !dir.contains("Item0") && dir.contains("Item1");
+        assertEquals(50, dir.getSize());
+    }
+
+    /**
+     * Test the subdirectory and file counts of the Directory class.
+     *
+     * Test Case 1: Counts follow items being added and removed.
+     * Test Case 2: The typed views only hold items of their type.
+     * Test Case 3: Replacing an item of another type updates both counts.
+     * Test Case 4: An InodeTable keeps the same counts, aliases included,
+     * and a saved table reads them back.
+     */
+    @Test
+    public void testDirectoryCounts() {
+        try {
+            Directory dir = new Directory("dir", null);
+            Directory sub = new Directory("sub", dir);
+            File file = new File("file", dir);
+
+            // Test Case 1: Counts follow items being added and removed.
+            dir.addItem(sub);
+            dir.addItem(file);
+            dir.addItem(new Directory("other", dir));
+            assertEquals(2, dir.getNumDirectories());
+            assertEquals(1, dir.getNumFiles());
+            dir.removeItem(sub);
+            assertEquals(1, dir.getNumDirectories());
+
+            // Test Case 2: The typed views only hold items of their type.
+            assertEquals(1, dir.getSubDirectories().size());
+            assert dir.getSubDirectories().containsKey("other");
+            assert !dir.getSubDirectories().containsKey("file");
+            assertEquals(file, dir.getFiles().get("file"));
+
+            // Test Case 3: Replacing a File by a Directory updates both counts.
+            dir.addItem(new Directory("file", dir));
+            assertEquals(2, dir.getNumDirectories());
+            assertEquals(0, dir.getNumFiles());
+            assert dir.getFiles().isEmpty();
+
+            // Test Case 4: /a, /a/b, /a/f, /a/link to /a/b, then rm /a/b.
+            InodeTable table = new InodeTable();
+            int a = table.createDirectory(InodeTable.ROOT, "a");
+            int b = table.createDirectory(a, "b");
+            table.createFile(a, "f", "text");
+            table.createAlias(a, "link", b);
+            Directory node = (Directory) table.getItem(a);
+            assertEquals(2, node.getNumDirectories());
+            assertEquals(1, node.getNumFiles());
+            table.remove(b);
+            assertEquals(1, node.getNumDirectories());
+            assertEquals(node.getSubDirectories().size(),
+                    node.getNumDirectories());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(table);
+            out.close();
+            InodeTable copy = (InodeTable) new ObjectInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray())).readObject();
+            assertEquals(1, copy.getDirectoryCount(a));
+            assertEquals(1, copy.getFileCount(a));
+            assertEquals(1, copy.getDirectoryCount(InodeTable.ROOT));
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in directory counts: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test the InodeTable storage engine.
+     *
+     * Test Case 1: JShell commands give the same output on an InodeTable.
+     * Test Case 2: mv keeps the inode and rm frees it.
+     * Test Case 3: A saved table is read back with the same items.
+     * Test Case 4: A name differing only in case replaces a cached item.
+     */
+    @Test
+    public void testInodeTable() {
+        try {
+            InodeTable table = new InodeTable();
+            JShell arena = new JShell(table.getRootDirectory());
+            newShell_ = new JShell();
+            JShell[] shells = {newShell_, arena};
+            String[] listings = new String[2];
+            for (int i = 0; i < shells.length; i++) {
+                shells[i].setCurrentOption("f");
+                List<String> paramList = new ArrayList<String>();
+                paramList.add("a");
+                paramList.add("a/b");
+                paramList.add("c");
+                shells[i].mkdir(paramList);
+                paramList.clear();
+                paramList.add("\"text\"");
+                paramList.add(">");
+                paramList.add("/a/b/File");
+                shells[i].echo(paramList);
+                shells[i].ln("/a/b/File", "/c/link");
+                shells[i].mv("/a/b", "/c/");
+                shells[i].setCurrentOption("R");
+                listings[i] = shells[i].ls(new ArrayList<String>());
+                shells[i].setCurrentOption("f");
+            }
+
+            // Test Case 1: Same output on both trees.
+            assertEquals(listings[0], listings[1]);
+            assertEquals("text", arena.cat("/c/b/file"));
+            assertEquals("text", arena.cat("/c/link"));
+
+            // Test Case 2: mv keeps the inode and rm frees it.
+            int b = table.lookup(table.lookup(InodeTable.ROOT, "c"), "B");
+            assertEquals("/c/b/", table.getPath(b));
+            assertEquals(6, table.size());
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("/c/b/file");
+            arena.rm(paramList);
+            arena.mkdir(new ArrayList<String>(Arrays.asList("d")));
+            assertEquals(6, table.size());
+            assertEquals("", arena.cat("/c/link"));
+
+            // Test Case 3: A saved table is read back.
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(table);
+            out.close();
+            InodeTable copy = (InodeTable) new ObjectInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray()))
+                    .readObject();
+            assertEquals(table.size(), copy.size());
+            assertEquals("/c/b/", copy.getPath(copy.lookup(
+                    copy.lookup(InodeTable.ROOT, "C"), "b")));
+
+            // Test Case 4: The replaced item is reported before it is freed.
+            arena.mkdir(new ArrayList<String>(Arrays.asList("e")));
+            arena.cd("e");
+            arena.cd("/");
+            arena.mkdir(new ArrayList<String>(Arrays.asList("E")));
+            assertEquals("/E/", arena.getItemAtPath("/e", 0).getPath());
+            assertEquals(0, arena.getItemAtPath("/E", 0).getSize());
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in inode table: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test the case-folded name lookups of the Directory class.
+     *
+     * Test Case 1: A name is found inside a path, ignoring case.
+     * Test Case 2: Renaming an item updates its folded name.
+     * Test Case 3: Lower case names are not copied when folded.
+     */
+    @Test
+    public void testNameLookup() {
+        Directory dir = new Directory("dir", null);
+        Directory sub = new Directory("SubDir", dir);
+        dir.addItem(sub);
+
+        // Test Case 1: A name is found inside a path, ignoring case.
+        String path = "/dir/subdir/file";
+        assertEquals(sub, dir.getItem(path, 5, 11));
+        assertEquals(null, dir.getItem(path, 5, 10));
+        assertEquals(sub, dir.getItem("SUBDIR"));
+
+        // Test Case 2: Renaming an item updates its folded name.
+        dir.removeItem(sub);
+        sub.setName("Other");
+        dir.addItem(sub);
+        assertEquals("other", sub.getFoldedName());
+        assertEquals(sub, dir.getItem("oTHER"));
+        assertEquals(null, dir.getItem("subdir"));
+
+        // Test Case 3: Lower case names are not copied when folded.
+        String name = "lower";
+        assert ChildIndex.fold(name) == name;
+    }
+
+    /**
+     * Test JShell sessions sharing one FileSystem.
+     *
+     * Test Case 1: Each session has its own current directory.
+     * Test Case 2: Sessions on several threads change the tree at once.
+     */
+    @Test
+    public void testSharedFileSystem() {
+        try {
+            final FileSystem fileSystem = new FileSystem();
+            JShell first = new JShell(fileSystem);
+            JShell second = new JShell(fileSystem);
+            first.setCurrentOption("f");
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("shared");
+            first.mkdir(paramList);
+
+            // Test Case 1: cd in one session does not move the other.
+            first.cd("shared");
+            assertEquals("/shared/", first.pwd());
+            assertEquals("/", second.pwd());
+            assertEquals("shared", second.ls(new ArrayList<String>()));
+
+            // Test Case 2: Every thread creates and moves its directories.
+            final int threads = 4;
+            final int dirs = 50;
+            final List<Exception> errors = new ArrayList<Exception>();
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                final String name = "t" + t;
+                workers[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            JShell session = new JShell(fileSystem);
+                            session.setCurrentOption("f");
+                            List<String> paths = new ArrayList<String>();
+                            paths.add(name);
+                            session.mkdir(paths);
+                            session.cd(name);
+                            for (int i = 0; i < dirs; i++) {
+                                paths.clear();
+                                paths.add(name + "d" + i);
+                                session.mkdir(paths);
+                                session.mv(name + "d" + i, "/shared/");
+                                session.getItemAtPath(
+                                        "/shared/" + name + "d" + i, 0);
+                            }
+                        } catch (Exception e) {
+                            synchronized (errors) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                };
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assert errors.isEmpty() : "Unexpected error: " + errors;
+            Directory shared = (Directory) first.getItemAtPath("/shared", 0);
+            assertEquals(threads * dirs, shared.getNumDirectories());
+            for (int t = 0; t < threads; t++) {
+                assertEquals(0, ((Directory) first.getItemAtPath(
+                        "/t" + t, 0)).getSize());
+            }
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in shared file system: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test snapshots of a FileSystem.
+     *
+     * Test Case 1: A snapshot keeps seeing the tree as it was when opened.
+     * Test Case 2: Saved states are dropped once the snapshot is closed.
+     * Test Case 3: find and grep -R read the live tree once it is closed.
+     * Test Case 4: Names are looked up as they were, in changed and
+     * unchanged directories alike.
+     */
+    @Test
+    public void testSnapshot() {
+        try {
+            FileSystem fileSystem = new FileSystem();
+            newShell_ = new JShell(fileSystem);
+            newShell_.setCurrentOption("f");
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("a");
+            paramList.add("a/b");
+            newShell_.mkdir(paramList);
+            paramList.clear();
+            paramList.add("\"old\"");
+            paramList.add(">");
+            paramList.add("/a/file");
+            newShell_.echo(paramList);
+            Directory a = (Directory) newShell_.getItemAtPath("/a", 0);
+            JShellItem file = newShell_.getItemAtPath("/a/file", 0);
+
+            // Test Case 1: Changes made after opening are not visible.
+            Snapshot snapshot = fileSystem.openSnapshot();
+            paramList.set(0, "\"new\"");
+            paramList.set(1, ">>");
+            newShell_.echo(paramList);
+            newShell_.mv("/a/b", "/c");
+            paramList.clear();
+            paramList.add("/a/d");
+            newShell_.mkdir(paramList);
+            assertEquals("oldnew", newShell_.cat("/a/file"));
+            assertEquals("old", snapshot.getContent(file));
+            Snapshot.Children children = snapshot.getChildren(a);
+            assertEquals(2, children.size());
+            assertEquals("b", children.getName(0));
+            assertEquals("file", children.getName(1));
+            assertEquals(1, snapshot.getChildren(
+                    fileSystem.getRootDirectory()).size());
+            assert fileSystem.getVersionCount() > 0;
+
+            // Test Case 2: Closing the snapshot drops the saved states.
+            snapshot.close();
+            assertEquals(0, fileSystem.getOpenSnapshotCount());
+            assertEquals(0, fileSystem.getVersionCount());
+
+            // Test Case 3: find and grep -R see the changes.
+            paramList.clear();
+            paramList.add("/a/");
+            assertEquals("/a/d/", newShell_.find("/a/d", paramList));
+            newShell_.setCurrentOption("R");
+            assertEquals("/a/file:\noldnew", newShell_.grep("old",
+                    paramList));
+            assertEquals(0, fileSystem.getVersionCount());
+
+            // Test Case 4: /a/FILE before and after rm /a/file.
+            snapshot = fileSystem.openSnapshot();
+            assertEquals(file, snapshot.getItem(a, "/a/FILE", 3, 7));
+            assertEquals(null, snapshot.getItem(a, "/a/b", 3, 4));
+            assertEquals(0, fileSystem.getVersionCount());
+            newShell_.setCurrentOption("f");
+            paramList.clear();
+            paramList.add("/a/file");
+            newShell_.rm(paramList);
+            assertEquals(file, snapshot.getItem(a, "/a/FILE", 3, 7));
+            assertEquals(null, a.getItem("file"));
+            snapshot.close();
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in snapshot: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test copying a directory lazily.
+     *
+     * Test Case 1: The copy is filled in only when it is first used.
+     * Test Case 2: Changes to the source after the copy do not show in it.
+     * Test Case 3: Changes to the copy do not show in the source.
+     * Test Case 4: No snapshot is held and no state is saved for the copy.
+     */
+    @Test
+    public void testCopyOnWrite() {
+        try {
+            FileSystem fileSystem = new FileSystem();
+            newShell_ = new JShell(fileSystem);
+            newShell_.setCurrentOption("f");
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("a");
+            paramList.add("a/b");
+            paramList.add("a/b/c");
+            newShell_.mkdir(paramList);
+            paramList.clear();
+            paramList.add("\"old\"");
+            paramList.add(">");
+            paramList.add("/a/b/file");
+            newShell_.echo(paramList);
+
+            // Test Case 1: The copy is empty until it is used.
+            newShell_.cp("/a", "/copy");
+            assertEquals(0, fileSystem.getOpenSnapshotCount());
+            Directory copy = (Directory) newShell_.getItemAtPath("/copy", 0);
+            assertEquals(1, copy.getNumDirectories());
+
+            // Test Case 2: The source changes, the copy does not.
+            paramList.set(0, "\"new\"");
+            newShell_.echo(paramList);
+            newShell_.mv("/a/b/c", "/a/d");
+            assertEquals("old", newShell_.cat("/copy/b/file"));
+            assertEquals("/copy/b/c/", newShell_.getItemAtPath(
+                    "/copy/b/c", 0).getPath());
+            assertEquals(null, newShell_.getItemAtPath("/copy/d", 0));
+
+            // Test Case 3: The copy changes, the source does not.
+            paramList.set(2, "/copy/b/file");
+            newShell_.echo(paramList);
+            paramList.clear();
+            paramList.add("/copy/b/c/e");
+            newShell_.mkdir(paramList);
+            assertEquals("new", newShell_.cat("/a/b/file"));
+            assertEquals("new", newShell_.cat("/copy/b/file"));
+            assertEquals(null, newShell_.getItemAtPath("/a/d/e", 0));
+            assertEquals(2, ((Directory) newShell_.getItemAtPath(
+                    "/copy/b", 0)).getSize());
+
+            // Test Case 4: Writes outside the source save nothing.
+            newShell_.cp("/a", "/other");
+            paramList.clear();
+            for (int i = 0; i < 1000; i++) {
+                paramList.add("/x" + i);
+            }
+            newShell_.mkdir(paramList);
+            assertEquals(0, fileSystem.getOpenSnapshotCount());
+            assertEquals(0, fileSystem.getVersionCount());
+            assertEquals("new", newShell_.cat("/other/b/file"));
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in copy on write: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test appending to a File.
+     *
+     * Test Case 1: echo >> adds a chunk instead of copying the content.
+     * Test Case 2: A content view does not change when the File does.
+     * Test Case 3: Appending through a FileAlias changes the File it points
+     * to.
+     */
+    @Test
+    public void testAppend() {
+        try {
+            newShell_ = new JShell();
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("\"line\n\"");
+            paramList.add(">>");
+            paramList.add("log");
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                newShell_.echo(paramList);
+                expected.append("line\n");
+            }
+
+            // Test Case 1: The content is kept in chunks.
+            File log = (File) newShell_.getItemAtPath("/log", 0);
+            FileContent content = (FileContent) log.getContentView();
+            assertEquals(1000, content.getChunkCount());
+            assertEquals(expected.length(), content.length());
+            assertEquals('l', content.charAt(5 * 999));
+            assertEquals(expected.toString(), newShell_.cat("/log"));
+
+            // Test Case 2: The view taken before an append keeps its text.
+            log.append("end");
+            assertEquals(expected.length(), content.length());
+            assertEquals(expected.toString(), content.toString());
+            assertEquals(expected + "end", log.getContent());
+
+            // Test Case 3: A FileAlias appends to its pointer.
+            FileAlias alias = new FileAlias("alias",
+                    newShell_.getRootDirectory(), log);
+            alias.append("!");
+            assertEquals(expected + "end!", log.getContent());
+            assertEquals(log.getContentView(), alias.getContentView());
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in append: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test keeping large Files in a ContentStore.
+     *
+     * Test Case 1: Content over the threshold is stored in the arena, across
+     * several mappings.
+     * Test Case 2: cat and grep read the stored content.
+     * Test Case 3: Appending to the last record grows it in place.
+     * Test Case 4: Stored content is saved as a String.
+     * Test Case 5: A record starting inside a mapping reads back across the
+     * boundary with the next one.
+     * Test Case 6: The bytes of a record no content refers to are reused.
+     */
+    @Test
+    public void testContentStore() {
+        try {
+            Path arena = Files.createTempFile("jshell", ".arena");
+            ContentStore store = new ContentStore(arena, 16, 64);
+            FileSystem fileSystem = new FileSystem();
+            fileSystem.setContentStore(store);
+            newShell_ = new JShell(fileSystem);
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("\"short\"");
+            paramList.add(">");
+            paramList.add("small");
+            newShell_.echo(paramList);
+            String text = "first line of a large file\nsecond line\n"
+                    + "third line of the large file";
+            paramList.set(0, "\"" + text + "\"");
+            paramList.set(2, "large");
+            newShell_.echo(paramList);
+
+            // Test Case 1: Only the large File is in the arena.
+            File small = (File) newShell_.getItemAtPath("/small", 0);
+            File large = (File) newShell_.getItemAtPath("/large", 0);
+            assert !(small.getContentView() instanceof MappedContent);
+            MappedContent stored = (MappedContent) large.getContentView();
+            assertEquals(2L * text.length(), store.getSize());
+            assert store.getSize() > 64;
+
+            // Test Case 2: The content reads back unchanged.
+            assertEquals(text, newShell_.cat("/large"));
+            paramList.clear();
+            paramList.add("/large");
+            assertEquals("/large:\nsecond line", newShell_.grep("second",
+                    paramList));
+
+            // Test Case 3: The record grows in place.
+            large.append("!");
+            assertEquals(2L * text.length() + 2, store.getSize());
+            assertEquals(text + "!", large.getContent());
+            assertEquals(text, stored.toString());
+
+            // Test Case 4: The saved File holds its content.
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(large);
+            out.close();
+            File copy = (File) new ObjectInputStream(new ByteArrayInputStream(
+                    bytes.toByteArray())).readObject();
+            assertEquals(text + "!", copy.getContentView());
+
+            // Test Case 5: 40 characters from the middle of a mapping.
+            String body = "0123456789abcdefghijklmnopqrstuvwxyzABCD";
+            MappedContent crossing = store.put(body);
+            assertTrue(crossing.getOffset() % 64 != 0);
+            assertTrue(crossing.getOffset() / 64
+                    != (crossing.getEnd() - 1) / 64);
+            assertEquals(body, crossing.toString());
+            assertEquals("xyzABCD", crossing.subSequence(33, 40).toString());
+
+            // Test Case 6: A dead record in the middle is put to use.
+            MappedContent tail = store.put(body);
+            long offset = crossing.getOffset();
+            long size = store.getSize();
+            crossing = null;
+            for (int i = 0; i < 100 && store.getFreeBytes() == 0; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertEquals(2L * body.length(), store.getFreeBytes());
+            MappedContent reused = store.put(body.substring(0, 30));
+            assertEquals(offset, reused.getOffset());
+            assertEquals(20, store.getFreeBytes());
+            assertEquals(size, store.getSize());
+            assertEquals(body, tail.toString());
+            store.close();
+            Files.delete(arena);
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in content store: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test sharing equal File bodies through a DedupStore.
+     *
+     * Test Case 1: Files written with the same text share one body.
+     * Test Case 2: A copied File is counted.
+     * Test Case 3: Rewriting or removing a File releases its body.
+     */
+    @Test
+    public void testDedupStore() {
+        try {
+            DedupStore dedup = new DedupStore(4);
+            FileSystem fileSystem = new FileSystem();
+            fileSystem.setDedupStore(dedup);
+            newShell_ = new JShell(fileSystem);
+            newShell_.setCurrentOption("f");
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("\"template body\"");
+            paramList.add(">");
+            paramList.add("");
+            for (int i = 0; i < 10; i++) {
+                paramList.set(2, "file" + i);
+                newShell_.echo(paramList);
+            }
+
+            // Test Case 1: Ten Files, one body.
+            assertEquals(1, dedup.getBodyCount());
+            assertEquals(10, dedup.getReferenceCount());
+            assertEquals(2 * 13, dedup.getStoredBytes());
+            assertEquals(9 * 2 * 13, dedup.getBytesSaved());
+            assert dedup.getDedupRatio() == 10.0;
+            File first = (File) newShell_.getItemAtPath("/file0", 0);
+            File last = (File) newShell_.getItemAtPath("/file9", 0);
+            assert first.getContentView() == last.getContentView();
+
+            // Test Case 2: cp adds a reference.
+            newShell_.cp("/file0", "/copy");
+            assertEquals(11, dedup.getReferenceCount());
+
+            // Test Case 3: The body goes once no File uses it.
+            paramList.set(0, "\"other body\"");
+            paramList.set(2, "file0");
+            newShell_.echo(paramList);
+            assertEquals(2, dedup.getBodyCount());
+            List<String> removed = new ArrayList<String>();
+            for (int i = 1; i < 10; i++) {
+                removed.add("/file" + i);
+            }
+            removed.add("/copy");
+            newShell_.rm(removed);
+            assertEquals(1, dedup.getBodyCount());
+            assertEquals(1, dedup.getReferenceCount());
+            assertEquals(0, dedup.getBytesSaved());
+            assertEquals("other body", newShell_.cat("/file0"));
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in dedup store: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test compressing cold File content through a ColdStore.
+     *
+     * Test Case 1: A sweep compresses content that was not read since.
+     * Test Case 2: Reading decompresses it once, then hits the cache.
+     * Test Case 3: Rewriting a File releases its compressed content.
+     * Test Case 4: Content that UTF-8 cannot hold is not compressed.
+     * Test Case 5: Reading through a snapshot counts as a read.
+     */
+    @Test
+    public void testColdStore() {
+        try {
+            ColdStore cold = new ColdStore(0, 64, 4);
+            FileSystem fileSystem = new FileSystem();
+            fileSystem.setColdStore(cold);
+            newShell_ = new JShell(fileSystem);
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                text.append("a line that repeats\\n");
+            }
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("\"" + text + "\"");
+            paramList.add(">");
+            paramList.add("cold");
+            newShell_.echo(paramList);
+            paramList.set(0, "\"short\"");
+            paramList.set(2, "short");
+            newShell_.echo(paramList);
+            String expected = text.toString().replace("\\n", "\n");
+
+            // Test Case 1: Only the long File is compressed.
+            assertEquals(1, cold.sweep());
+            File file = (File) newShell_.getItemAtPath("/cold", 0);
+            CompressedContent stored =
+                    (CompressedContent) file.getStoredContent();
+            assert stored.getCompressedSize() < expected.length();
+            assert cold.getHeapSaved() > expected.length();
+
+            // Test Case 2: cat and grep read it back.
+            assertEquals(expected, newShell_.cat("/cold"));
+            paramList.clear();
+            paramList.add("/cold");
+            assert newShell_.grep("repeats", paramList).startsWith(
+                    "/cold:\na line that repeats\n");
+            assertEquals(1, cold.getDecompressionCount());
+            assert cold.getCacheHitCount() > 0;
+            assert cold.getMaxDecompressionNanos() > 0;
+
+            // Test Case 3: The compressed content is no longer counted.
+            file.setContent("rewritten");
+            assertEquals(0, cold.getHeapSaved());
+            assertEquals(0, cold.sweep());
+            assertEquals("rewritten", newShell_.cat("/cold"));
+
+            // Test Case 4: Content with a lone surrogate stays as it is.
+            file.setContent(expected + "\uD800");
+            assertEquals(0, cold.sweep());
+            assertEquals(expected + "\uD800", newShell_.cat("/cold"));
+
+            // Test Case 5: A read through a snapshot keeps the File warm.
+            ColdStore warm = new ColdStore(200, 64, 4);
+            fileSystem = new FileSystem();
+            fileSystem.setColdStore(warm);
+            newShell_ = new JShell(fileSystem);
+            file = new File("warm", fileSystem.getRootDirectory());
+            fileSystem.getRootDirectory().addItem(file);
+            file.setContent(expected);
+            Thread.sleep(300);
+            Snapshot snapshot = fileSystem.openSnapshot();
+            try {
+                assertEquals(expected, snapshot.getContent(file));
+            } finally {
+                snapshot.close();
+            }
+            assertEquals(0, warm.sweep());
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in cold store: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test reading Files by line through their LineIndex.
+     *
+     * Test Case 1: The index counts the lines of the content.
+     * Test Case 2: head, tail, lines and wc read the indexed lines.
+     * Test Case 3: Appending extends the index, rewriting rebuilds it.
+     * Test Case 4: Counts that are not numbers, negative counts and
+     * FIRST > LAST print the usage of the command.
+     */
+    @Test
+    public void testLineIndex() {
+        try {
+            newShell_ = new JShell();
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("\"one\ntwo words\nthree\nfour\n\"");
+            paramList.add(">");
+            paramList.add("text");
+            newShell_.echo(paramList);
+
+            // Test Case 1: A final line break does not start a line.
+            File file = (File) newShell_.getItemAtPath("text", 0);
+            LineIndex index = file.getLineIndex();
+            assertEquals(4, index.getLineCount());
+            assertEquals(4, index.getLineStart(1));
+            assertEquals(13, index.getLineEnd(1));
+            assertEquals(index, file.getLineIndex());
+            assertEquals(0, new LineIndex("", "").getLineCount());
+
+            // Test Case 2: The commands read only the lines asked for.
+            assertEquals("one\ntwo words", newShell_.head("text", 2).toString());
+            assertEquals("three\nfour", newShell_.tail("text", 2).toString());
+            assertEquals("two words\nthree",
+                    newShell_.lines("text", 2, 3).toString());
+            assertEquals("one\ntwo words\nthree\nfour",
+                    newShell_.head("text", 10).toString());
+            assertEquals("4 5 25 text", newShell_.wc("text"));
+            newShell_.setCurrentOption("l");
+            assertEquals("4 text", newShell_.wc("text"));
+            newShell_.setCurrentOption("");
+
+            // Test Case 3: The index follows the content.
+            file.append("five\nsix");
+            assertEquals(6, file.getLineIndex().getLineCount());
+            assertEquals("five\nsix", newShell_.tail("text", 2).toString());
+            index = file.getLineIndex();
+            String text = file.getContent() + "\nother";
+            file.append("\nseven");
+            LineIndex other = index.extend(text, text);
+            for (int i = 0; i < 1000; i++) {
+                file.append("\nline");
+            }
+            assertEquals(1007, file.getLineIndex().getLineCount());
+            assertEquals(6, index.getLineCount());
+            assertEquals(7, other.getLineCount());
+            assertEquals(text.length() - 5, other.getLineStart(6));
+            assertEquals("line\nline", newShell_.tail("text", 2).toString());
+            file.setContent("only");
+            assertEquals(1, file.getLineIndex().getLineCount());
+            assertEquals("only", newShell_.head("text", 1).toString());
+
+            // Test Case 4: head abc, tail -n x, head "-1", lines a b,
+            // lines 3 2 and lines 0 2.
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            newShell_.setOutput(new PrintStream(bytes));
+            String[] lines = {"head abc text", "tail -n x text",
+                "head \"-1\" text", "lines a b text", "lines 3 2 text",
+                "lines 0 2 text"};
+            String[] usages = {"Usage: head [-n] [LINES] FILE",
+                "Usage: tail [-n] [LINES] FILE",
+                "Usage: head [-n] [LINES] FILE",
+                "Usage: lines FIRST LAST FILE", "Usage: lines FIRST LAST FILE",
+                "Usage: lines FIRST LAST FILE"};
+            for (int i = 0; i < lines.length; i++) {
+                bytes.reset();
+                boolean ran = newShell_.executeLine(lines[i]);
+                assertFalse(lines[i], ran);
+                assertEquals(usages[i] + "\n", bytes.toString());
+            }
+            newShell_.setOutput(null);
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in line index: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test writing command output through an OutputSink.
+     *
+     * Test Case 1: The console sink ends the output with a line break.
+     * Test Case 2: Redirected output is written to the File once.
+     * Test Case 3: find and grep write their matches as they go.
+     */
+    @Test
+    public void testOutputSink() {
+        try {
+            newShell_ = new JShell();
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("\"alpha\nbeta\"");
+            paramList.add(">");
+            paramList.add("text");
+            newShell_.echo(paramList);
+
+            // Test Case 1: Nothing is written for empty output.
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OutputSink out = new OutputSink.Stream(new PrintStream(bytes));
+            out.append(newShell_.catView("text"));
+            out.close();
+            assertEquals("alpha\nbeta\n", bytes.toString());
+            bytes.reset();
+            new OutputSink.Stream(new PrintStream(bytes)).close();
+            assertEquals(0, bytes.size());
+
+            // Test Case 2: cat > and ls >> go to Files.
+            paramList.clear();
+            paramList.add("text");
+            paramList.add(">");
+            paramList.add("copy");
+            newShell_.executeCommand("cat",
+                    newShell_.handleRedirection(paramList));
+            assertEquals("alpha\nbeta", newShell_.cat("copy"));
+            paramList.clear();
+            paramList.add(">>");
+            paramList.add("copy");
+            newShell_.executeCommand("ls",
+                    newShell_.handleRedirection(paramList));
+            assertEquals("alpha\nbetatext\ncopy", newShell_.cat("copy"));
+
+            // Test Case 3: The sink holds what the String methods return.
+            paramList.clear();
+            paramList.add("/");
+            OutputSink.Capture capture = new OutputSink.Capture();
+            newShell_.find("t", paramList, capture);
+            assertEquals(newShell_.find("t", paramList), capture.toString());
+            paramList.clear();
+            paramList.add("text");
+            capture = new OutputSink.Capture();
+            newShell_.grep("beta", paramList, capture);
+            assertEquals("/text:\nbeta", capture.toString());
+            assertEquals(capture.toString().length(), capture.getCount());
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in output sink: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test walking the tree with a TreeWalker.
+     *
+     * Test Case 1: Pre-order and post-order reach every item once.
+     * Test Case 2: skipChildren prunes a subtree.
+     * Test Case 3: A deep tree is walked without recursion.
+     * Test Case 4: rm of an alias leaves what it points to.
+     */
+    @Test
+    public void testTreeWalker() {
+        try {
+            newShell_ = new JShell();
+            newShell_.setCurrentOption("");
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("a");
+            paramList.add("a/b");
+            paramList.add("c");
+            newShell_.mkdir(paramList);
+            newShell_.mkfile("a/file");
+            Directory root = newShell_.getRootDirectory();
+
+            // Test Case 1: Both orders, children first to last.
+            TreeWalker walker = new TreeWalker(root, "/", null, null,
+                    TreeWalker.Order.PRE_ORDER);
+            StringBuilder paths = new StringBuilder();
+            while (walker.next()) {
+                paths.append(walker.getPath()).append(walker.getDepth())
+                        .append(' ');
+            }
+            assertEquals("/0 /a/1 /a/b/2 /a/file2 /c/1 ", paths.toString());
+            walker = new TreeWalker(root, "/", null, null,
+                    TreeWalker.Order.POST_ORDER);
+            paths.setLength(0);
+            while (walker.next()) {
+                paths.append(walker.getPath()).append(' ');
+            }
+            assertEquals("/a/b/ /a/file /a/ /c/ / ", paths.toString());
+            assertEquals(Arrays.asList("/c/", "/a/file", "/a/b/", "/a/", "/"),
+                    newShell_.recurseOnPath("/", true));
+
+            // Test Case 2: The children of /a/ are left out.
+            walker = new TreeWalker(root, "/", null, null,
+                    TreeWalker.Order.PRE_ORDER);
+            paths.setLength(0);
+            while (walker.next()) {
+                if (walker.getItem().getName().equals("a")) {
+                    walker.skipChildren();
+                }
+                paths.append(walker.getPath()).append(' ');
+            }
+            assertEquals("/ /a/ /c/ ", paths.toString());
+
+            // Test Case 3: Two thousand nested Directories.
+            Directory dir = (Directory) newShell_.getItemAtPath("/c", 0);
+            for (int i = 0; i < 2000; i++) {
+                Directory child = new Directory("d", dir);
+                dir.addItem(child);
+                dir = child;
+            }
+            walker = new TreeWalker(root, "/", null, null,
+                    TreeWalker.Order.POST_ORDER);
+            int count = 0;
+            int depth = 0;
+            while (walker.next()) {
+                count++;
+                depth = Math.max(depth, walker.getDepth());
+            }
+            assertEquals(2005, count);
+            assertEquals(2001, depth);
+            newShell_.setCurrentOption("f");
+            paramList.clear();
+            paramList.add("/c");
+            newShell_.rm(paramList);
+            assertEquals(null, newShell_.getItemAtPath("/c", 0));
+
+            // Test Case 4: Only the alias is removed.
+            newShell_.ln("/a", "link");
+            paramList.clear();
+            paramList.add("link");
+            newShell_.rm(paramList);
+            assertEquals(null, newShell_.getItemAtPath("/link", 0));
+            assertEquals(2, newShell_.getItemAtPath("/a", 0).getSize());
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in tree walker: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test running find on several threads.
+     *
+     * Test Case 1: Ordered output matches the sequential find.
+     * Test Case 2: Unordered output holds the same paths.
+     * Test Case 3: A find with no match still says so.
+     */
+    @Test
+    public void testParallelFind() {
+        try {
+            newShell_ = new JShell();
+            newShell_.setCurrentOption("");
+            Directory root = newShell_.getRootDirectory();
+            for (int i = 0; i < 20; i++) {
+                Directory dir = new Directory("dir" + i, root);
+                root.addItem(dir);
+                for (int j = 0; j < 5; j++) {
+                    Directory sub = new Directory("sub" + j, dir);
+                    dir.addItem(sub);
+                    for (int k = 0; k < 10; k++) {
+                        sub.addItem(new File("file" + k + ".log", sub));
+                    }
+                }
+            }
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("/");
+            String sequential = newShell_.find("1", paramList);
+
+            // Test Case 1: The same text on four threads.
+            newShell_.setParallelism(4);
+            assertEquals(4, newShell_.getParallelism());
+            assertEquals(sequential, newShell_.find("1", paramList));
+
+            // Test Case 2: The same lines in any order.
+            newShell_.setCurrentOption("u");
+            List<String> expected = new ArrayList<String>(
+                    Arrays.asList(sequential.split("\n")));
+            List<String> unordered = new ArrayList<String>(
+                    Arrays.asList(newShell_.find("1", paramList).split("\n")));
+            Collections.sort(expected);
+            Collections.sort(unordered);
+            assertEquals(expected, unordered);
+
+            // Test Case 3: Nothing matches.
+            assertEquals("find: no such file or directory.",
+                    newShell_.find("none", paramList));
+            newShell_.setParallelism(1);
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in parallel find: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test running grep -R on several threads.
+     *
+     * Test Case 1: The output matches the sequential grep.
+     * Test Case 2: -l lists the matching Files only.
+     * Test Case 3: -m stops after the given number of lines.
+     * Test Case 4: A -m that is not a count prints the usage of grep.
+     */
+    @Test
+    public void testParallelGrep() {
+        try {
+            newShell_ = new JShell();
+            newShell_.setCurrentOption("");
+            Directory root = newShell_.getRootDirectory();
+            for (int i = 0; i < 10; i++) {
+                Directory dir = new Directory("dir" + i, root);
+                root.addItem(dir);
+                for (int j = 0; j < 10; j++) {
+                    File file = new File("file" + j, dir);
+                    dir.addItem(file);
+                    file.setContent("line " + i + j + "\nother\nline "
+                            + j + i + "\n");
+                }
+            }
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("/");
+            newShell_.setCurrentOption("R");
+            String sequential = newShell_.grep("line 1", paramList);
+            assert sequential.startsWith("/dir9/file1:\nline 19");
+
+            // Test Case 1: The same text on four threads.
+            newShell_.setParallelism(4);
+            assertEquals(sequential, newShell_.grep("line 1", paramList));
+
+            // Test Case 2: Only the paths.
+            newShell_.setCurrentOption("Rl");
+            String listed = newShell_.grep("line 1", paramList);
+            assertEquals(19, listed.split("\n").length);
+            assert listed.startsWith("/dir9/file1\n/dir8/file1\n");
+
+            // Test Case 3: One line per File.
+            newShell_.setCurrentOption("R");
+            paramList.set(0, "/dir1");
+            OutputSink.Capture out = new OutputSink.Capture();
+            newShell_.grep("line", paramList, 1, out);
+            assertEquals(20, out.toString().split("\n").length);
+            newShell_.setParallelism(1);
+            out = new OutputSink.Capture();
+            newShell_.grep("line", paramList, 1, out);
+            assertEquals(20, out.toString().split("\n").length);
+
+            // Test Case 4: grep -m abc and grep -m "-2".
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            newShell_.setOutput(new PrintStream(bytes));
+            boolean ran = newShell_.executeLine("grep -m abc line /dir1");
+            assertFalse(ran);
+            assertEquals("Usage: grep [OPTION]... PATTERN [FILE]...\n",
+                    bytes.toString());
+            bytes.reset();
+            ran = newShell_.executeLine("grep -m \"-2\" line /dir1");
+            assertFalse(ran);
+            assertEquals("Usage: grep [OPTION]... PATTERN [FILE]...\n",
+                    bytes.toString());
+            newShell_.setOutput(null);
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in parallel grep: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test the searches grep compiles its patterns to.
+     *
+     * Test Case 1: A literal is found with its skip table.
+     * Test Case 2: Several literals are found in one pass.
+     * Test Case 3: grep matches regexes line by line.
+     * Test Case 4: Compiling the same patterns again hits the cache.
+     */
+    @Test
+    public void testTextSearch() {
+        try {
+            // Test Case 1: Characters sharing a low byte do not skip a match.
+            TextSearch literal = TextSearch.compile(
+                    Arrays.asList("ab\u0161"), false);
+            String text = "xxab\u0161xab\u0161";
+            assertEquals(2, literal.find(text, 0, text.length()));
+            assertEquals(5, literal.end());
+            assertEquals(6, literal.find(text, 3, text.length()));
+            assertEquals(-1, literal.find(text, 3, 8));
+
+            // Test Case 2: The first match to end is found.
+            TextSearch multi = TextSearch.compile(
+                    Arrays.asList("he", "she", "hers"), false);
+            assertEquals(2, multi.find("ushers", 0, 6));
+            assertEquals(4, multi.end());
+            assertEquals(2, multi.find("ushers", 2, 6));
+            assertEquals(-1, multi.find("ushers", 3, 6));
+
+            // Test Case 3: ^ and $ bound each line, and a match may not
+            // run into the next line.
+            newShell_ = new JShell();
+            newShell_.setCurrentOption("");
+            File file = new File("file", newShell_.getRootDirectory());
+            newShell_.getRootDirectory().addItem(file);
+            file.setContent("test line1\ntest line22\nline3 test\n");
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("/file");
+            assertEquals("/file:\ntest line1\ntest line22",
+                    newShell_.grep("^test line[0-9]+$", paramList));
+            assertEquals("", newShell_.grep("line1\\stest", paramList));
+            OutputSink.Capture out = new OutputSink.Capture();
+            newShell_.grep(Arrays.asList("line3", "line1"), paramList, -1,
+                    out);
+            assertEquals("/file:\ntest line1\nline3 test", out.toString());
+            newShell_.setCurrentOption("F");
+            assertEquals("", newShell_.grep("line[0-9]", paramList));
+
+            // Test Case 4: The compiled search is reused.
+            long hits = TextSearch.getCacheHitCount();
+            TextSearch.compile(Arrays.asList("he", "she", "hers"), false);
+            assertEquals(hits + 1, TextSearch.getCacheHitCount());
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in text search: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test answering find from the NameIndex.
+     *
+     * Test Case 1: Indexed finds print what a full walk prints.
+     * Test Case 2: mkdir, mkfile, mv, cp and rm keep the index current.
+     * Test Case 3: A start path containing the literal, a pattern without
+     * a literal and a tree with a DirectoryAlias are walked in full.
+     */
+    @Test
+    public void testNameIndex() {
+        try {
+            newShell_ = new JShell();
+            newShell_.setCurrentOption("");
+            FileSystem fileSystem = newShell_.getFileSystem();
+            NameIndex index = fileSystem.getNameIndex();
+            Directory root = newShell_.getRootDirectory();
+            for (int i = 0; i < 10; i++) {
+                Directory dir = new Directory("dir" + i, root);
+                root.addItem(dir);
+                for (int j = 0; j < 10; j++) {
+                    dir.addItem(new File("file" + j
+                            + (j % 3 == 0 ? ".log" : ".txt"), dir));
+                }
+            }
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("/");
+            String[] patterns = {"*.log", "file1", "dir3", "?ile2.txt",
+                "report", "ir"};
+            String[] found = new String[patterns.length];
+            assertEquals("log", NameIndex.literalOf("*.log"));
+            assertEquals("report", NameIndex.literalOf("/a/report?.t"));
+            assert NameIndex.literalOf("[a-z]*") == null;
+            assert NameIndex.literalOf("*") == null;
+
+            // Test Case 1: The same paths as without the index.
+            long lookups = index.getLookupCount();
+            for (int i = 0; i < patterns.length; i++) {
+                found[i] = newShell_.find(patterns[i], paramList);
+            }
+            assertEquals(lookups + patterns.length, index.getLookupCount());
+            fileSystem.setNameIndex(null);
+            for (int i = 0; i < patterns.length; i++) {
+                assertEquals(newShell_.find(patterns[i], paramList),
+                        found[i]);
+            }
+            fileSystem.setNameIndex(index);
+
+            // Test Case 2: Changes made by the commands.
+            newShell_.mkdir(new ArrayList<String>(
+                    Arrays.asList("/dir3/report")));
+            newShell_.mkfile("/dir3/report/q1.log");
+            newShell_.mv("/dir2", "/moved");
+            newShell_.cp("/dir3", "/copy3");
+            newShell_.setCurrentOption("f");
+            newShell_.rm(new ArrayList<String>(
+                    Arrays.asList("/dir1/file3.log", "/dir5")));
+            newShell_.setCurrentOption("");
+            lookups = index.getLookupCount();
+            for (int i = 0; i < patterns.length; i++) {
+                found[i] = newShell_.find(patterns[i], paramList);
+            }
+            assertEquals(lookups + patterns.length, index.getLookupCount());
+            assert found[4].contains("/copy3/report/q1.log");
+            assert !found[1].contains("/dir2/");
+            fileSystem.setNameIndex(null);
+            for (int i = 0; i < patterns.length; i++) {
+                assertEquals(newShell_.find(patterns[i], paramList),
+                        found[i]);
+            }
+            fileSystem.setNameIndex(index);
+
+            // Test Case 3: Full walks.
+            List<String> dirList = new ArrayList<String>();
+            dirList.add("/dir3/");
+            String inStart = newShell_.find("dir3", dirList);
+            assertEquals(lookups + patterns.length + 1,
+                    index.getLookupCount());
+            lookups = index.getLookupCount();
+            String everything = newShell_.find("*", paramList);
+            assertEquals(lookups, index.getLookupCount());
+            newShell_.ln("/dir4", "/link");
+            String throughAlias = newShell_.find("file1", paramList);
+            assertEquals(lookups, index.getLookupCount());
+            assert throughAlias.contains("/link/file1.txt");
+            fileSystem.setNameIndex(null);
+            assertEquals(newShell_.find("dir3", dirList), inStart);
+            assertEquals(newShell_.find("file1", paramList), throughAlias);
+            newShell_.setCurrentOption("f");
+            newShell_.rm(new ArrayList<String>(Arrays.asList("/link")));
+            newShell_.setCurrentOption("");
+            assertEquals(newShell_.find("*", paramList), everything);
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in name index: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test running commands through the CommandRegistry.
+     *
+     * Test Case 1: A registered command runs and its output is redirected.
+     * Test Case 2: Calls and time are counted per command.
+     * Test Case 3: The wrong number of parameters or an unknown option
+     * stops the command before it runs.
+     * Test Case 4: Option values are taken from the parameters in order.
+     */
+    @Test
+    public void testCommandRegistry() {
+        try {
+            newShell_ = new JShell();
+            newShell_.setCurrentOption("");
+            CommandRegistry registry = newShell_.getCommandRegistry();
+            assert registry.getNames().contains("grep");
+            registry.register(new AbstractCommand("upper", 1, 2, "x", "") {
+                @Override
+                public void execute(JShell shell, Arguments args,
+                        OutputSink out) throws Exception {
+                    out.append(args.get(0).toUpperCase());
+                    if (args.hasOption('x')) {
+                        out.append("!");
+                    }
+                }
+            });
+
+            // Test Case 1: upper > out.
+            List<String> paramList = new ArrayList<String>();
+            paramList.add("quiet");
+            paramList.add(">");
+            paramList.add("out");
+            newShell_.executeCommand("upper",
+                    newShell_.handleRedirection(paramList));
+            assertEquals("QUIET", newShell_.cat("out"));
+            newShell_.setCurrentOption("x");
+            paramList.clear();
+            paramList.add("loud");
+            paramList.add(">>");
+            paramList.add("out");
+            newShell_.executeCommand("upper",
+                    newShell_.handleRedirection(paramList));
+            assertEquals("QUIETLOUD!", newShell_.cat("out"));
+
+            // Test Case 2: Two calls of upper.
+            CommandRegistry.Stats stats = registry.getStats("upper");
+            assertEquals(2, stats.getCallCount());
+            assertEquals(0, stats.getFailureCount());
+            assert stats.getTotalNanos() >= stats.getMaxNanos();
+
+            // Test Case 3: No call is made.
+            paramList.clear();
+            newShell_.executeCommand("upper",
+                    newShell_.handleRedirection(paramList));
+            newShell_.setCurrentOption("q");
+            paramList.add("word");
+            newShell_.executeCommand("upper",
+                    newShell_.handleRedirection(paramList));
+            assertEquals(2, stats.getCallCount());
+            paramList.add("other");
+            newShell_.executeCommand("mv",
+                    newShell_.handleRedirection(paramList));
+            assertEquals(0, registry.getStats("mv").getCallCount());
+            newShell_.setCurrentOption("");
+            newShell_.executeCommand("mv",
+                    newShell_.handleRedirection(paramList));
+            assertEquals(1, registry.getStats("mv").getCallCount());
+            assertEquals(1, registry.getStats("mv").getFailureCount());
+
+            // Test Case 4: grep -m -e 1 U /out.
+            newShell_.setCurrentOption("me");
+            Arguments args = Arguments.parse(registry.get("grep"),
+                    newShell_.getCurrentOption(),
+                    Arrays.asList("1", "U", "/out"));
+            assertEquals("1", args.getValue('m', "-1"));
+            assertEquals(Arrays.asList("U"), args.getValues('e'));
+            assertEquals(Arrays.asList("/out"), args.getParams());
+            paramList.clear();
+            paramList.add("1");
+            paramList.add("U");
+            paramList.add("/out");
+            paramList.add(">");
+            paramList.add("found");
+            newShell_.executeCommand("grep",
+                    newShell_.handleRedirection(paramList));
+            assertEquals("/out:\nQUIETLOUD!", newShell_.cat("found"));
+            newShell_.setCurrentOption("");
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in command registry: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test joining commands with |.
+     *
+     * Test Case 1: head, tail, grep and wc read the output of cat, and the
+     * last command is redirected.
+     * Test Case 2: Options are given to each command of the line.
+     * Test Case 3: head stops a long pipeline once it has its lines.
+     * Test Case 4: A | without a command on both sides runs nothing.
+     * Test Case 5: A redirect failing in the middle of a pipeline reports
+     * its error and ends the next command instead of blocking it.
+     */
+    @Test
+    public void testPipeline() {
+        try {
+            newShell_ = new JShell();
+            newShell_.setCurrentOption("");
+            File file = new File("f", newShell_.getRootDirectory());
+            newShell_.getRootDirectory().addItem(file);
+            file.setContent("one\ntwo\nthree");
+
+            // Test Case 1: cat /f | head 2 > out and the like.
+            newShell_.executeLine(new ArrayList<String>(Arrays.asList(
+                    "cat", "/f", "|", "head", "2", ">", "out")));
+            assertEquals("one\ntwo", newShell_.cat("out"));
+            newShell_.executeLine(new ArrayList<String>(Arrays.asList(
+                    "cat", "/f", "|", "tail", "1", ">", "out")));
+            assertEquals("three", newShell_.cat("out"));
+            newShell_.executeLine(new ArrayList<String>(Arrays.asList(
+                    "cat", "/f", "|", "grep", "t", "|", "cat", ">", "out")));
+            assertEquals("two\nthree", newShell_.cat("out"));
+
+            // Test Case 2: cat /f | wc -l and cat /f | grep -l o.
+            newShell_.executeLine(new ArrayList<String>(Arrays.asList(
+                    "cat", "/f", "|", "wc", "-l", ">", "out")));
+            assertEquals("3", newShell_.cat("out"));
+            newShell_.executeLine(new ArrayList<String>(Arrays.asList(
+                    "cat", "/f", "|", "grep", "-l", "o", ">", "out")));
+            assertEquals("(standard input)", newShell_.cat("out"));
+            assertEquals("", newShell_.getCurrentOption());
+
+            // Test Case 3: cat /big | grep line | head 1.
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 200000; i++) {
+                content.append("line").append(i).append('\n');
+            }
+            File big = new File("big", newShell_.getRootDirectory());
+            newShell_.getRootDirectory().addItem(big);
+            big.setContent(content.toString());
+            newShell_.executeLine(new ArrayList<String>(Arrays.asList(
+                    "cat", "/big", "|", "grep", "line", "|", "head", "1",
+                    ">", "out")));
+            assertEquals("line0", newShell_.cat("out"));
+
+            // Test Case 4: cat /f | | head 1 > none.
+            newShell_.executeLine(new ArrayList<String>(Arrays.asList(
+                    "cat", "/f", "|", "|", "head", "1", ">", "none")));
+            assert newShell_.getRootDirectory().getItem("none") == null;
+
+            // Test Case 5: echo "x" > /nodir/m | cat, on a thread of its own.
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            newShell_.setOutput(new PrintStream(bytes));
+            final AtomicBoolean ran = new AtomicBoolean(true);
+            Thread line = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ran.set(newShell_.executeLine(
+                            "echo \"x\" > /nodir/m | cat"));
+                }
+            });
+            line.setDaemon(true);
+            line.start();
+            line.join(10000);
+            assertFalse(line.isAlive());
+            assertFalse(ran.get());
+            assertTrue(bytes.toString().length() > 0);
+            newShell_.setOutput(null);
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in pipeline: "
+                    + e.getMessage();
+        }
+    }
+
+    /**
+     * Test running a script as a Batch.
+     *
+     * Test Case 1: Every command line runs, and comments, blank lines and
+     * failures are counted as they should be.
+     * Test Case 2: The output reaches the console once the script ends,
+     * or not at all in quiet mode.
+     * Test Case 3: A batch stopping on errors stops at the failed line.
+     * Test Case 4: exit ends the script.
+     * Test Case 5: rm fails without -f instead of reading the script.
+     * Test Case 6: The output goes to the session, never to System.out.
+     */
+    @Test
+    public void testBatch() {
+        PrintStream console = System.out;
+        try {
+            newShell_ = new JShell();
+            newShell_.setCurrentOption("");
+            String script = "# make a tree\nmkdir /a\n\nmkdir /a/b\n"
+                    + "bogus\npwd\ncd /a | pwd\n";
+
+            // Test Case 1, 2 and 6: the script with one unknown command.
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream stray = new ByteArrayOutputStream();
+            PrintStream output = new PrintStream(bytes);
+            newShell_.setOutput(output);
+            System.setOut(new PrintStream(stray));
+            Batch batch = new Batch(newShell_,
+                    new BufferedReader(new StringReader(script)));
+            boolean ran = batch.run();
+            System.setOut(console);
+            assertTrue(ran);
+            assertEquals("", stray.toString());
+            assertTrue(output == newShell_.getOutput());
+            assertEquals(5, batch.getCommandCount());
+            assertEquals(1, batch.getFailureCount());
+            assertEquals(7, batch.getLineNumber());
+            assertNotNull(newShell_.getRootDirectory().getItem("a"));
+            assertEquals("-JShell: bogus: command not found\n/\n/\n",
+                    bytes.toString());
+            assertTrue(batch.getSummary().startsWith("5 commands in "));
+
+            // Test Case 2 and 3: quiet, stopping at mkdir /a.
+            bytes.reset();
+            batch = new Batch(newShell_,
+                    new BufferedReader(new StringReader(script)));
+            batch.setQuiet(true);
+            batch.setStopOnError(true);
+            ran = batch.run();
+            assertFalse(ran);
+            assertEquals(1, batch.getCommandCount());
+            assertEquals(2, batch.getLineNumber());
+            assertEquals("", bytes.toString());
+
+            // Test Case 4: mkdir /c, then exit.
+            batch = new Batch(newShell_, new BufferedReader(
+                    new StringReader("mkdir /c\nexit\nmkdir /d\n")));
+            batch.setQuiet(true);
+            ran = batch.run();
+            assertTrue(ran);
+            assertEquals(1, batch.getCommandCount());
+            assertNotNull(newShell_.getRootDirectory().getItem("c"));
+            assertNull(newShell_.getRootDirectory().getItem("d"));
+
+            // Test Case 5: rm /c fails, y is run as a command.
+            batch = new Batch(newShell_, new BufferedReader(
+                    new StringReader("rm /c\ny\nrm -f /a\n")));
+            batch.setQuiet(true);
+            ran = batch.run();
+            assertTrue(ran);
+            assertEquals(3, batch.getCommandCount());
+            assertEquals(2, batch.getFailureCount());
+            assertNotNull(newShell_.getRootDirectory().getItem("c"));
+            assertNull(newShell_.getRootDirectory().getItem("a"));
+            assertFalse(newShell_.isBatch());
+        } catch (Exception e) {
+            System.setOut(console);
+            assert e == null :
+                    "Caught unexpected exception in batch: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Test parsing command lines with the Lexer.
+     *
+     * Test Case 1: Commands, options, words and redirections are told apart,
+     * with or without whitespace around the operators.
+     * Test Case 2: Quoted strings are single words with their escapes
+     * replaced, and echo writes them as they are.
+     * Test Case 3: Comments and blank lines hold no command.
+     * Test Case 4: Malformed lines are rejected.
+     * Test Case 5: A large quoted string is parsed whole.
+     * Test Case 6: Options of a command take their values from the word
+     * after them, wherever they are.
+     */
+    @Test
+    public void testLexer() {
+        try {
+            // Test Case 1: find / *.log | grep -l ERROR>>out.
+            CommandLine line = Lexer.parse("find / *.log | grep -l ERROR>>out");
+            assertEquals(2, line.getCommands().size());
+            CommandLine.Invocation find = line.getCommands().get(0);
+            assertEquals("find", find.getName());
+            assertEquals(Arrays.asList("/", "*.log"), find.getParams());
+            assertEquals(null, find.getRedirection());
+            CommandLine.Invocation grep = line.getCommands().get(1);
+            assertEquals("l", grep.getOptions());
+            assertEquals(Arrays.asList("ERROR"), grep.getParams());
+            assertEquals(">>", grep.getRedirection());
+            assertEquals("out", grep.getTarget());
+
+            // Test Case 2: echo "a  b|c\n\"q\"" > f and single quotes.
+            newShell_ = new JShell();
+            boolean ran = newShell_.executeLine(
+                    "echo \"a  b|c\\n\\\"q\\\"\" > f");
+            assertTrue(ran);
+            assertEquals("a  b|c\n\"q\"", newShell_.cat("f"));
+            line = Lexer.parse("grep 'a\\.b' /f");
+            CommandLine.Word word = line.getCommands().get(0).getWords()
+                    .get(0);
+            assertEquals("a\\.b", word.getText());
+            assertTrue(word.isQuoted());
+            ran = newShell_.executeLine("echo unquoted > g");
+            assertFalse(ran);
+
+            // Test Case 3: "   # note" and "pwd # note".
+            line = Lexer.parse("   # note");
+            assertTrue(line.isEmpty());
+            line = Lexer.parse("");
+            assertTrue(line.isEmpty());
+            line = Lexer.parse("pwd # note");
+            assertEquals(0, line.getCommands().get(0).getWords().size());
+            line = Lexer.parse("exit");
+            assertTrue(line.isExit());
+
+            // Test Case 4: cat >, | cat, cat | and echo "abc.
+            String[] bad = {"cat >", "| cat", "cat |", "echo \"abc",
+                "cat > > f", "-l > f"};
+            for (String text : bad) {
+                String error = null;
+                try {
+                    Lexer.parse(text);
+                } catch (IllegalArgumentException e) {
+                    error = e.getMessage();
+                }
+                assertTrue("Parsed " + text, error != null);
+                assertTrue(error.startsWith("-JShell: "));
+            }
+            ran = newShell_.executeLine("cat |");
+            assertFalse(ran);
+
+            // Test Case 5: echo of 4M characters.
+            StringBuilder text = new StringBuilder("echo \"");
+            for (int i = 0; i < 1 << 20; i++) {
+                text.append("ab\\n");
+            }
+            text.append("\" > big");
+            ran = newShell_.executeLine(text.toString());
+            assertTrue(ran);
+            assertEquals(3 << 20, newShell_.catView("big").length());
+
+            // Test Case 6: grep ERROR -m 1 log and grep -e ERROR log -e ok.
+            ran = newShell_.executeLine(
+                    "echo \"ERROR 1\nok\nERROR 2\" > log");
+            assertTrue(ran);
+            line = Lexer.parse("grep ERROR -m 1 log -eok -l",
+                    newShell_.getCommandRegistry());
+            grep = line.getCommands().get(0);
+            assertEquals("mel", grep.getOptions());
+            assertEquals(Arrays.asList("1", "ok"), grep.getValues());
+            assertEquals(Arrays.asList("ERROR", "log"), grep.getParams());
+            assertEquals("grep -l -m 1 -e ok ERROR log", grep.toString());
+            ran = newShell_.executeLine("grep ERROR -m 1 log > found");
+            assertTrue(ran);
+            assertEquals("/log:\nERROR 1", newShell_.cat("found"));
+            ran = newShell_.executeLine("grep -e ERROR log -e ok > found");
+            assertTrue(ran);
+            assertEquals("/log:\nERROR 1\nok\nERROR 2",
+                    newShell_.cat("found"));
+            ran = newShell_.executeLine("grep log -m");
+            assertFalse(ran);
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in lexer: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Test running command lines as background jobs.
+     *
+     * Test Case 1: A job redirects its output, and wait returns once it is
+     * done.
+     * Test Case 2: The output of a job that is not redirected is written by
+     * wait, errors included.
+     * Test Case 3: A killed job stops at its next write.
+     * Test Case 4: A job and the session change the same Directory at the
+     * same time.
+     * Test Case 5: Jobs that do not exist are reported.
+     * Test Case 6: jobs reports a job that has ended once, then drops it.
+     */
+    @Test
+    public void testJobs() {
+        try {
+            newShell_ = new JShell();
+            newShell_.setCurrentOption("");
+            JobTable jobs = newShell_.getJobs();
+
+            // Test Case 1: find / d > found &, then wait.
+            newShell_.executeLine("mkdir d");
+            boolean ran = newShell_.executeLine("find / d > found &");
+            assertTrue(ran);
+            ran = newShell_.executeLine("wait");
+            assertTrue(ran);
+            assertEquals("/d/", newShell_.cat("found"));
+            assertEquals(0, jobs.getJobs().size());
+
+            // Test Case 2: echo "hi" & and bogus &, then wait > out.
+            newShell_.executeLine("echo \"hi\" &");
+            newShell_.executeLine("bogus | cat &");
+            assertEquals(2, jobs.getJobs().size());
+            assertEquals("echo \"hi\" &", jobs.get(1).getCommand());
+            newShell_.executeLine("wait > out");
+            assertEquals("hi\n-JShell: bogus: command not found",
+                    newShell_.cat("out"));
+
+            // Test Case 3: a job writing forever is killed.
+            newShell_.getCommandRegistry().register(
+                    new AbstractCommand("yes", 0, 0, "", "") {
+                @Override
+                public void execute(JShell shell, Arguments args,
+                        OutputSink out) throws Exception {
+                    while (true) {
+                        out.append("y\n");
+                    }
+                }
+            });
+            newShell_.executeLine("yes &");
+            JobTable.Job yes = jobs.get(1);
+            assertEquals(JobTable.State.RUNNING, yes.getState());
+            ran = newShell_.executeLine("kill %1");
+            assertTrue(ran);
+            jobs.waitFor(yes);
+            assertEquals(JobTable.State.KILLED, yes.getState());
+            final AtomicBoolean ended = new AtomicBoolean();
+            newShell_.getCommandRegistry().register(
+                    new AbstractCommand("nap", 0, 0, "", "") {
+                @Override
+                public void execute(JShell shell, Arguments args,
+                        OutputSink out) throws Exception {
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        // Take a while to stop.
+                        Thread.sleep(200);
+                        ended.set(true);
+                    }
+                }
+            });
+            newShell_.executeLine("nap &");
+            JobTable.Job nap = jobs.get(1);
+            nap.kill();
+            jobs.waitFor(nap);
+            assertTrue(ended.get());
+            assertEquals(JobTable.State.KILLED, nap.getState());
+
+            // Test Case 4: mkdir /a0 ... /a499 & and mkdir /b0 ... /b499.
+            StringBuilder line = new StringBuilder("mkdir");
+            for (int i = 0; i < 500; i++) {
+                line.append(" /a").append(i);
+            }
+            newShell_.executeLine(line.append(" &").toString());
+            for (int i = 0; i < 500; i++) {
+                newShell_.executeLine("mkdir /b" + i);
+            }
+            newShell_.executeLine("wait");
+            for (int i = 0; i < 500; i++) {
+                assertNotNull(newShell_.getRootDirectory().getItem("a" + i));
+                assertNotNull(newShell_.getRootDirectory().getItem("b" + i));
+            }
+
+            // Test Case 5: wait 7, kill x and an & with nothing before it.
+            ran = newShell_.executeLine("wait 7");
+            assertFalse(ran);
+            ran = newShell_.executeLine("kill x");
+            assertFalse(ran);
+            ran = newShell_.executeLine("& pwd");
+            assertFalse(ran);
+
+            // Test Case 6: pwd &, then jobs > listed twice.
+            newShell_.executeLine("pwd &");
+            jobs.get(1).join();
+            newShell_.executeLine("jobs > listed");
+            assertEquals("[1] Done     pwd &", newShell_.cat("listed"));
+            assertEquals(0, jobs.getJobs().size());
+            newShell_.executeLine("jobs > listed");
+            assertEquals("", newShell_.cat("listed"));
+        } catch (Exception e) {
+            assert e == null :
+                    "Caught unexpected exception in jobs: " + e.getMessage();
+        }
+    }
 }
@@ -0,0 +1,162 @@
+package jshell;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Measures the heap used per node by a JShell Directory tree and by an
+ * InodeTable, next to a model of the previous layout in which every node
+ * stored its full path and every Directory (and DirectoryAlias) allocated its
+ * own HashMap.
+ *
+ * Run with: java -Xmx2g jshell.MemoryBenchmark [nodes] [fanout]
+ *
+ * @author Michael Kozakov <c1kozako>
+ * @author Mohamed Khodeir <c1khodei>
+ * @author Joseph Ben-Zion Kahn <g1boggyp>
+ * @author In-Jey Hwang <c0hwangi>
+ */
+public class MemoryBenchmark {
+
+    /**
+     * A node laid out like JShellItem and Directory were before the
+     * ChildIndex: name, full path, parent and a HashMap of children.
+     */
+    private static class LegacyNode {
+        private final String name_;
+        private final String path_;
+        private final LegacyNode parent_;
+        private final HashMap<String, LegacyNode> contents_;
+
+        LegacyNode(String name, LegacyNode parent, boolean directory) {
+            name_ = name;
+            parent_ = parent;
+            path_ = parent == null ? "/" : parent.path_ + name
+                    + (directory ? "/" : "");
+            contents_ = directory ? new HashMap<String, LegacyNode>() : null;
+        }
+    }
+
+    /**
+     * Builds both trees and prints the bytes used per node.
+     *
+     * @param args the number of nodes and the number of subdirectories of
+     * each directory.
+     */
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int fanout = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        long before = usedMemory();
+        LegacyNode legacy = buildLegacy(nodes, fanout);
+        long legacyBytes = usedMemory() - before;
+
+        before = usedMemory();
+        Directory root = build(nodes, fanout);
+        long bytes = usedMemory() - before;
+
+        before = usedMemory();
+        InodeTable table = buildTable(nodes, fanout);
+        long tableBytes = usedMemory() - before;
+
+        System.out.printf("%d nodes, %d subdirectories per directory%n",
+                nodes, fanout);
+        System.out.printf("HashMap per directory: %6.1f bytes/node%n",
+                (double) legacyBytes / nodes);
+        System.out.printf("ChildIndex:            %6.1f bytes/node%n",
+                (double) bytes / nodes);
+        System.out.printf("InodeTable:            %6.1f bytes/node%n",
+                (double) tableBytes / nodes);
+        // Keep the trees reachable until they have been measured.
+        if (legacy.contents_.isEmpty() || root.getSize() == 0
+                || table.size() == 0) {
+            System.out.println("empty tree");
+        }
+    }
+
+    /*
+     * Builds a tree of nodes items in which every directory holds fanout
+     * subdirectories and one file.
+     */
+    private static Directory build(int nodes, int fanout) {
+        Directory root = new Directory("", null);
+        root.setParentDirectory(root);
+        ArrayDeque<Directory> queue = new ArrayDeque<Directory>();
+        queue.add(root);
+        int count = 1;
+        while (count < nodes) {
+            Directory parent = queue.poll();
+            for (int i = 0; i < fanout && count < nodes; i++, count++) {
+                Directory dir = new Directory("dir" + i, parent);
+                parent.addItem(dir);
+                queue.add(dir);
+            }
+            if (count < nodes) {
+                parent.addItem(new File("file", parent));
+                count++;
+            }
+        }
+        return root;
+    }
+
+    /*
+     * Builds the same tree as build in an InodeTable.
+     */
+    private static InodeTable buildTable(int nodes, int fanout) {
+        InodeTable table = new InodeTable(nodes);
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(InodeTable.ROOT);
+        int count = 1;
+        while (count < nodes) {
+            int parent = queue.poll();
+            for (int i = 0; i < fanout && count < nodes; i++, count++) {
+                queue.add(table.createDirectory(parent, "dir" + i));
+            }
+            if (count < nodes) {
+                table.createFile(parent, "file", "");
+                count++;
+            }
+        }
+        return table;
+    }
+
+    /*
+     * Builds the same tree as build, using the previous layout.
+     */
+    private static LegacyNode buildLegacy(int nodes, int fanout) {
+        LegacyNode root = new LegacyNode("", null, true);
+        ArrayDeque<LegacyNode> queue = new ArrayDeque<LegacyNode>();
+        queue.add(root);
+        int count = 1;
+        while (count < nodes) {
+            LegacyNode parent = queue.poll();
+            for (int i = 0; i < fanout && count < nodes; i++, count++) {
+                LegacyNode dir = new LegacyNode("dir" + i, parent, true);
+                parent.contents_.put(dir.name_.toLowerCase(), dir);
+                queue.add(dir);
+            }
+            if (count < nodes) {
+                LegacyNode file = new LegacyNode("file", parent, false);
+                parent.contents_.put(file.name_, file);
+                count++;
+            }
+        }
+        return root;
+    }
+
+    /*
+     * Returns the heap in use after asking for a few garbage collections.
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}